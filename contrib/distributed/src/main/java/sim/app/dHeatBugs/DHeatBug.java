@@ -21,6 +21,10 @@ public class DHeatBug extends DSteppable {
 	public double heatOutput;
 	public double randomMovementProbability;
 
+	// For FieldCodec, which migrates bugs without serializing them
+	private DHeatBug() {
+	}
+
 	public DHeatBug(final double idealTemp, final double heatOutput, final double randomMovementProbability,
 			final int loc_x, final int loc_y) {
 		this.heatOutput = heatOutput;
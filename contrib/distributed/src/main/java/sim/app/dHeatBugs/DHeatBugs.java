@@ -11,9 +11,11 @@ import java.util.HashMap;
 
 import sim.engine.DSimState;
 import sim.engine.Schedule;
+import sim.engine.Steppable;
 import sim.field.grid.DDenseGrid2D;
 import sim.field.grid.DDoubleGrid2D;
 import sim.field.partitioning.IntPoint;
+import sim.field.partitioning.NdPoint;
 import sim.util.Interval;
 
 public class DHeatBugs extends DSimState {
@@ -60,6 +62,18 @@ public class DHeatBugs extends DSimState {
 			e.printStackTrace();
 			System.exit(-1);
 		}
+		// Bugs away from the partition border only read valgrid around them, so
+		// they can be stepped while its halo is in transit
+		setSplitPhaseSync(true);
+	}
+
+	// The bugs are not kept in the bugs grid, but know where they are
+	protected NdPoint locate(final Steppable agent) {
+		if (agent instanceof DHeatBug) {
+			final DHeatBug bug = (DHeatBug) agent;
+			return new IntPoint(bug.loc_x, bug.loc_y);
+		}
+		return super.locate(agent);
 	}
 
 	// Same getters and setters as HeatBugs
@@ -24,6 +24,10 @@ public class DFlocker extends DSteppable implements Remote {
 	
 	public int id;
 
+	// For FieldCodec, which migrates flockers without serializing them
+	private DFlocker() {
+	}
+
 	public DFlocker(final DoublePoint location, final int id) {
 		this.loc = location;
 		this.id = id;
@@ -0,0 +1,35 @@
+package sim.engine;
+
+import java.io.Serializable;
+
+/**
+ * Decides when DSimState balances its partitions. Every processor has its own
+ * policy and calls it with the same arguments, gathered from all processors,
+ * so that they all come to the same decision.
+ */
+public interface BalancePolicy extends Serializable {
+
+	/**
+	 * @return number of steps between two calls of shouldBalance. Statistics are
+	 *         only gathered at those steps.
+	 */
+	int getInterval();
+
+	/**
+	 * @param steps    number of steps done so far
+	 * @param runtimes average step runtime of each processor since the last call,
+	 *                 in ms, indexed by pid
+	 * @param agents   number of agents scheduled on each processor
+	 * @return true if the partitions should be balanced now
+	 */
+	boolean shouldBalance(long steps, double[] runtimes, long[] agents);
+
+	/**
+	 * Reports the cost of the balancing just done
+	 *
+	 * @param steps    number of steps done so far
+	 * @param overhead longest time a processor spent balancing, in ms
+	 * @param migrated number of agents migrated by all the processors
+	 */
+	void balanced(long steps, double overhead, long migrated);
+}
@@ -0,0 +1,81 @@
+package sim.engine;
+
+/**
+ * Balances the partitions only when the time it is expected to save outweighs
+ * the time it is expected to cost.
+ *
+ * The slowest processor holds every step back, so balancing saves at most the
+ * gap between the slowest and the average runtime on each step until the load
+ * shifts again, which is assumed to take horizon steps. Balancing costs a fixed
+ * overhead plus a cost for each agent migrated; the overloaded processors are
+ * expected to shed the part of their agents above their share of the runtime.
+ * Both costs are learned from the balancings done so far.
+ */
+public class CostModelBalancePolicy implements BalancePolicy {
+	private static final long serialVersionUID = 1L;
+
+	// Weight of the latest measurement in the learned costs
+	static final double LEARNING_RATE = 0.5;
+
+	final int interval, horizon;
+	final double minImbalance;
+	double fixedCost, costPerAgent;
+
+	public CostModelBalancePolicy() {
+		this(10, 100, 0.1, 0.01);
+	}
+
+	/**
+	 * @param interval     steps between two decisions
+	 * @param horizon      steps a balancing is expected to pay off over
+	 * @param minImbalance the relative gap between the slowest and the average
+	 *                     runtime below which the load is left as it is
+	 * @param costPerAgent initial guess of the cost to migrate an agent, in ms
+	 */
+	public CostModelBalancePolicy(final int interval, final int horizon, final double minImbalance,
+			final double costPerAgent) {
+		if (interval < 1 || horizon < 1)
+			throw new IllegalArgumentException(
+					"The interval and horizon must be positive, got " + interval + " and " + horizon);
+		this.interval = interval;
+		this.horizon = horizon;
+		this.minImbalance = minImbalance;
+		this.costPerAgent = costPerAgent;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public boolean shouldBalance(final long steps, final double[] runtimes, final long[] agents) {
+		double max = 0, mean = 0;
+		for (final double r : runtimes) {
+			max = Math.max(max, r);
+			mean += r / runtimes.length;
+		}
+		if (mean <= 0 || max / mean - 1 < minImbalance)
+			return false;
+
+		double migrating = 0;
+		for (int i = 0; i < runtimes.length; i++)
+			if (runtimes[i] > mean)
+				migrating += agents[i] * (1 - mean / runtimes[i]);
+
+		return (max - mean) * horizon > fixedCost + costPerAgent * migrating;
+	}
+
+	public void balanced(final long steps, final double overhead, final long migrated) {
+		if (migrated > 0)
+			costPerAgent += LEARNING_RATE * (Math.max(0, overhead - fixedCost) / migrated - costPerAgent);
+		else
+			fixedCost += LEARNING_RATE * (overhead - fixedCost);
+	}
+
+	public double getFixedCost() {
+		return fixedCost;
+	}
+
+	public double getCostPerAgent() {
+		return costPerAgent;
+	}
+}
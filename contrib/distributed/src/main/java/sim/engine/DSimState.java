@@ -13,9 +13,9 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -33,13 +33,11 @@ import sim.engine.transport.TransporterMPI;
 import sim.field.HaloGrid2D;
 import sim.field.Synchronizable;
 import sim.field.partitioning.IntHyperRect;
-import sim.field.partitioning.IntPoint;
 import sim.field.partitioning.NdPoint;
 import sim.field.partitioning.PartitionInterface;
 import sim.field.partitioning.QuadTreePartition;
-import sim.field.storage.ContStorage;
-import sim.field.storage.ObjectGridStorage;
-import sim.util.MPIUtil;
+import sim.util.Communicator;
+import sim.util.LocalCommunicator;
 import sim.util.Timing;
 
 /**
@@ -70,14 +68,39 @@ public class DSimState extends SimState {
 
 	protected int balancerLevel;
 
+	// Split-phase synchronization, see setSplitPhaseSync(). While halos started by
+	// preSchedule are in transit, boundary agents of deferredOrdering are put
+	// aside in deferred
+	boolean splitPhaseSync;
+	boolean halosInTransit;
+	final ArrayList<Steppable> deferred = new ArrayList<>();
+	int deferredOrdering;
+
+	// Decides when to balance the partitions, null for never. The runtime of the
+	// steps since its last decision, in ms
+	protected BalancePolicy balancePolicy;
+	double measuredRuntime;
+	int measuredSteps;
+
+	// While the partitions are balanced: the partitions of all processors before,
+	// the processors sharing cells that changed owner with us, and the number of
+	// agents we handed over to them
+	IntHyperRect[] previousPartitions;
+	Communicator handover;
+	int handedOver;
+	// Per field, 1 if no processor queued remote accesses to it, reduced every
+	// step by syncRemote
+	double[] remoteIdle;
+
 	protected DSimState(final long seed, final MersenneTwisterFast random, final DistributedSchedule schedule,
 			final int width, final int height, final int aoiSize) {
 		super(seed, random, schedule);
 		aoi = new int[] { aoiSize, aoiSize };
 		partition = new QuadTreePartition(new int[] { width, height }, true, aoi);
 		partition.initialize();
-		balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
+		balancerLevel = partition.getNumBalanceLevels() - 1;
 		transporter = new TransporterMPI(partition);
+		registerRepartitionCallbacks();
 		fieldRegistry = new ArrayList<Synchronizable>();
 		rootInfo = new HashMap();
 		withRegistry = false;
@@ -89,8 +112,9 @@ public class DSimState extends SimState {
 		aoi = partition.aoi;
 		this.partition = partition;
 		partition.initialize();
-		balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
+		balancerLevel = partition.getNumBalanceLevels() - 1;
 		transporter = new TransporterMPI(partition);
+		registerRepartitionCallbacks();
 		fieldRegistry = new ArrayList<>();
 		rootInfo = new HashMap();
 		withRegistry = false;
@@ -141,21 +165,179 @@ public class DSimState extends SimState {
 			haloField.syncHalo();
 	}
 
+	/**
+	 * Ships the remote accesses queued on the fields. Which fields have any on
+	 * some processor is found with a single reduction over all the fields, and
+	 * only those are synced.
+	 *
+	 * @throws MPIException
+	 */
+	protected void syncRemote() throws MPIException {
+		if (fieldRegistry.isEmpty())
+			return;
+		if (remoteIdle == null || remoteIdle.length != fieldRegistry.size())
+			remoteIdle = new double[fieldRegistry.size()];
+		for (int i = 0; i < remoteIdle.length; i++)
+			remoteIdle[i] = fieldRegistry.get(i).hasRemoteRequests() ? 0 : 1;
+		partition.getWorld().allReduceMin(remoteIdle);
+
+		for (int i = 0; i < remoteIdle.length; i++)
+			if (remoteIdle[i] == 0)
+				fieldRegistry.get(i).syncRemote();
+	}
+
+	/**
+	 * Keeps a processor with no agents stepping while the simulation is still
+	 * going on
+	 */
+	static class Zombie extends DSteppable {
+		private static final long serialVersionUID = 1L;
+
+		public void step(final SimState state) {
+		}
+	}
+
+	/**
+	 * Starts the halo exchange of all the fields, see
+	 * Synchronizable.startSyncHalo
+	 *
+	 * @return true if some halo is still in transit
+	 * @throws MPIException
+	 */
+	protected boolean startSyncFields() throws MPIException {
+		boolean inTransit = false;
+		for (final Synchronizable haloField : fieldRegistry)
+			inTransit |= haloField.startSyncHalo();
+		return inTransit;
+	}
+
+	/**
+	 * Waits for the halos started by preSchedule, then steps the agents that
+	 * were put aside meanwhile
+	 */
+	void finishSyncFields() {
+		halosInTransit = false;
+		try {
+			for (final Synchronizable haloField : fieldRegistry)
+				haloField.finishSyncHalo();
+		} catch (final MPIException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		for (final Steppable step : deferred)
+			step.step(this);
+		deferred.clear();
+	}
+
+	/**
+	 * Called by DistributedTentativeStep and DistributedIterativeRepeat before
+	 * they step agent. While halos are in transit, agents of the same ordering
+	 * that are not interior are put aside; the first agent of another ordering
+	 * waits for the halos and steps them first, so orderings are still stepped
+	 * in order.
+	 *
+	 * @return true if step was put aside, to be stepped again later
+	 */
+	boolean deferStep(final Steppable step, final Steppable agent, final int ordering) {
+		if (!halosInTransit)
+			return false;
+
+		if (!deferred.isEmpty() && ordering != deferredOrdering) {
+			finishSyncFields();
+			return false;
+		}
+
+		// The zombie touches no field
+		if (agent instanceof Zombie || isInterior(agent))
+			return false;
+
+		deferredOrdering = ordering;
+		deferred.add(step);
+		return true;
+	}
+
+	/**
+	 * In split-phase mode, the halo exchange right before each step is only
+	 * started by preSchedule. Agents for which isInterior holds are stepped
+	 * while the halos are in transit; the others wait for them. Agents of the
+	 * same ordering may then be stepped in another order than they would be
+	 * otherwise. Off by default.
+	 *
+	 * @param splitPhaseSync
+	 */
+	public void setSplitPhaseSync(final boolean splitPhaseSync) {
+		this.splitPhaseSync = splitPhaseSync;
+	}
+
+	public boolean isSplitPhaseSync() {
+		return splitPhaseSync;
+	}
+
+	/**
+	 * Used in split-phase mode to decide whether agent can be stepped before the
+	 * halos arrive. By default agent must be located at a point lying in the
+	 * private part of all the fields.
+	 *
+	 * @param agent
+	 * @return true if the area of interest of agent lies in the private part of
+	 *         every field
+	 */
+	protected boolean isInterior(final Steppable agent) {
+		final NdPoint loc = locate(agent);
+		return loc != null && isPrivate(loc);
+	}
+
+	/**
+	 * By default asks the fields for the location of agent; models whose agents
+	 * know their own position may override this.
+	 *
+	 * @param agent
+	 * @return the location of agent, null if it has none
+	 */
+	protected NdPoint locate(final Steppable agent) {
+		NdPoint loc = null;
+		for (int i = 0; i < fieldRegistry.size() && loc == null; i++)
+			loc = fieldRegistry.get(i).locate(agent);
+		return loc;
+	}
+
+	/**
+	 * @param point
+	 * @return true if point lies in the private part of every field
+	 */
+	protected boolean isPrivate(final NdPoint point) {
+		for (final Synchronizable haloField : fieldRegistry)
+			if (!haloField.inPrivatePart(point))
+				return false;
+		return true;
+	}
+
 	public void preSchedule() {
+		// A step that ended early may have left halos in transit
+		if (halosInTransit)
+			finishSyncFields();
+
 		Timing.stop(Timing.LB_RUNTIME);
+		if (schedule.getSteps() > 0) {
+			measuredRuntime += Timing.getLast(Timing.LB_RUNTIME);
+			measuredSteps++;
+		}
 		Timing.start(Timing.MPI_SYNC_OVERHEAD);
 
 		try {
 
-			MPI.COMM_WORLD.barrier();
+			partition.getWorld().barrier();
 
+			// Remote writes land before the halos are exchanged
+			syncRemote();
 			syncFields();
 			transporter.sync();
 
 			if (withRegistry) {
 				// All nodes have finished the synchronization and can unregister exported
 				// objects.
-				MPI.COMM_WORLD.barrier();
+				partition.getWorld().barrier();
 
 				// After the synchronization we can unregister migrated object!
 				// remove exported-migrated object from local node
@@ -169,7 +351,7 @@ public class DSimState extends SimState {
 
 				DRegistry.getInstance().clearMigratedNames();
 
-				MPI.COMM_WORLD.barrier();
+				partition.getWorld().barrier();
 			}
 		} catch (ClassNotFoundException | MPIException | IOException e) {
 			e.printStackTrace();
@@ -179,7 +361,7 @@ public class DSimState extends SimState {
 		if (withRegistry) {
 			// objects on new nodes.
 			try {
-				MPI.COMM_WORLD.barrier();
+				partition.getWorld().barrier();
 			} catch (MPIException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -248,7 +430,7 @@ public class DSimState extends SimState {
 		// Wait that all nodes have registered their new objects in the distributed
 		// registry.
 		try {
-			MPI.COMM_WORLD.barrier();
+			partition.getWorld().barrier();
 		} catch (MPIException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -257,23 +439,16 @@ public class DSimState extends SimState {
 		transporter.objectQueue.clear();
 		Timing.stop(Timing.MPI_SYNC_OVERHEAD);
 
-//		if (schedule.getSteps() > 0) {
-//			if (schedule.getSteps() % 50 == 0) {
-//
-//				try {
-//					balancePartitions(balancerLevel);
-//				} catch (MPIException e) {
-//					// TODO: handle exception
-//				}
-//				if (balancerLevel != 0)
-//					balancerLevel--;
-//				else
-//					balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
-//			}
-//		}
+		if (balancePolicy != null)
+			loadBalancing();
 
 		try {
-			syncFields();
+			if (splitPhaseSync)
+				// transporter.sync and the rest of preSchedule overlap with the
+				// halo exchange as well
+				halosInTransit = startSyncFields();
+			else
+				syncFields();
 			transporter.sync();
 		} catch (Exception e) {
 			// TODO: handle exception
@@ -340,153 +515,290 @@ public class DSimState extends SimState {
 		// Wait that all nodes have registered their new objects in the distributed
 		// registry.
 		try {
-			MPI.COMM_WORLD.barrier();
+			partition.getWorld().barrier();
 		} catch (MPIException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 		transporter.objectQueue.clear();
+		Timing.start(Timing.LB_RUNTIME);
+	}
+
+	/**
+	 * Sets the policy deciding when to balance the partitions, null (the
+	 * default) to never balance them. Must be the same on all processors.
+	 *
+	 * @param balancePolicy
+	 */
+	public void setBalancePolicy(final BalancePolicy balancePolicy) {
+		this.balancePolicy = balancePolicy;
+	}
+
+	public BalancePolicy getBalancePolicy() {
+		return balancePolicy;
+	}
+
+	/**
+	 * @return number of agents of this processor, given to the balance policy. By
+	 *         default the number of events in the schedule.
+	 */
+	protected long getAgentCount() {
+		return schedule.queue.size();
 	}
 
+	/**
+	 * Every balancePolicy.getInterval() steps, gathers the runtimes and agent
+	 * counts of all the processors and balances the partitions if the policy
+	 * says so
+	 */
 	private void loadBalancing() {
-		if (schedule.getSteps() > 0) {
-			if (schedule.getSteps() % 50 == 0) {
+		final long steps = schedule.getSteps();
+		if (steps == 0 || steps % balancePolicy.getInterval() != 0)
+			return;
 
-				try {
-					balancePartitions(balancerLevel);
-
-					for (final PayloadWrapper payloadWrapper : transporter.objectQueue) {
-
-						/*
-						 * Assumptions about what is to be added to the field using addToField method
-						 * rely on the fact that the wrapper classes are not directly used By the
-						 * modelers
-						 *
-						 * In case of IterativeRepeat step is added to the field. For PayloadWrapper we
-						 * add agent and, for all other cases we add the object itself to the field
-						 *
-						 * Improperly using the wrappers and/or fieldIndex will cause Class cast
-						 * exceptions to be thrown
-						 */
-
-						if (payloadWrapper.fieldIndex >= 0) {
-							((Synchronizable) fieldRegistry.get(payloadWrapper.fieldIndex)).syncObject(payloadWrapper); // add
-																														// the
-							// object to
-							// the field
-						}
+		try {
+			final double runtime = measuredSteps > 0 ? measuredRuntime / measuredSteps : 0;
+			measuredRuntime = 0;
+			measuredSteps = 0;
+
+			final ArrayList<double[]> stats = partition.getWorld().allGather(new double[] { runtime, getAgentCount() });
+			final double[] runtimes = new double[stats.size()];
+			final long[] agents = new long[stats.size()];
+			for (int i = 0; i < runtimes.length; i++) {
+				runtimes[i] = stats.get(i)[0];
+				agents[i] = (long) stats.get(i)[1];
+			}
+			if (!balancePolicy.shouldBalance(steps, runtimes, agents))
+				return;
+
+			final int migrated = balancePartitions(balancerLevel, runtime);
+
+			for (final PayloadWrapper payloadWrapper : transporter.objectQueue) {
+
+				/*
+				 * Assumptions about what is to be added to the field using addToField method
+				 * rely on the fact that the wrapper classes are not directly used By the
+				 * modelers
+				 *
+				 * In case of IterativeRepeat step is added to the field. For PayloadWrapper we
+				 * add agent and, for all other cases we add the object itself to the field
+				 *
+				 * Improperly using the wrappers and/or fieldIndex will cause Class cast
+				 * exceptions to be thrown
+				 */
+
+				if (payloadWrapper.fieldIndex >= 0) {
+					// add the object to the field
+					fieldRegistry.get(payloadWrapper.fieldIndex).syncObject(payloadWrapper);
+				}
 
-						if (payloadWrapper.payload instanceof DistributedIterativeRepeat) {
-							final DistributedIterativeRepeat iterativeRepeat = (DistributedIterativeRepeat) payloadWrapper.payload;
-
-							// TODO: how to schedule for a specified time?
-							// Not adding it to specific time because we get an error -
-							// "the time provided (-1.0000000000000002) is < EPOCH (0.0)"
-
-							// TODO: Check for Type Cast here
-							Stopping stopping = (Stopping) iterativeRepeat.step;
-							stopping.setStoppable(schedule.scheduleRepeating(stopping, iterativeRepeat.getOrdering(),
-									iterativeRepeat.interval));
-							// Add agent to the field
-							// addToField(iterativeRepeat.step, payloadWrapper.loc,
-							// payloadWrapper.fieldIndex);
-
-						} else if (payloadWrapper.payload instanceof AgentWrapper) {
-							final AgentWrapper agentWrapper = (AgentWrapper) payloadWrapper.payload;
-
-							if (withRegistry) {
-								if (agentWrapper.getExportedName() != null) {
-									try {
-										DRegistry.getInstance().registerObject(agentWrapper.getExportedName(),
-												(Remote) agentWrapper.agent);
-									} catch (RemoteException e) {
-										// TODO Auto-generated catch block
-										e.printStackTrace();
-									}
-								}
+				if (payloadWrapper.payload instanceof DistributedIterativeRepeat) {
+					final DistributedIterativeRepeat iterativeRepeat = (DistributedIterativeRepeat) payloadWrapper.payload;
+
+					// TODO: how to schedule for a specified time?
+					// Not adding it to specific time because we get an error -
+					// "the time provided (-1.0000000000000002) is < EPOCH (0.0)"
+
+					// TODO: Check for Type Cast here
+					Stopping stopping = (Stopping) iterativeRepeat.step;
+					stopping.setStoppable(schedule.scheduleRepeating(stopping, iterativeRepeat.getOrdering(),
+							iterativeRepeat.interval));
+					// Add agent to the field
+					// addToField(iterativeRepeat.step, payloadWrapper.loc,
+					// payloadWrapper.fieldIndex);
+
+				} else if (payloadWrapper.payload instanceof AgentWrapper) {
+					final AgentWrapper agentWrapper = (AgentWrapper) payloadWrapper.payload;
+
+					if (withRegistry) {
+						if (agentWrapper.getExportedName() != null) {
+							try {
+								DRegistry.getInstance().registerObject(agentWrapper.getExportedName(),
+										(Remote) agentWrapper.agent);
+							} catch (RemoteException e) {
+								// TODO Auto-generated catch block
+								e.printStackTrace();
 							}
+						}
+					}
 
-							if (agentWrapper.time < 0)
-								schedule.scheduleOnce(agentWrapper.agent, agentWrapper.ordering);
-							else
-								schedule.scheduleOnce(agentWrapper.time, agentWrapper.ordering, agentWrapper.agent);
+					if (agentWrapper.time < 0)
+						schedule.scheduleOnce(agentWrapper.agent, agentWrapper.ordering);
+					else
+						schedule.scheduleOnce(agentWrapper.time, agentWrapper.ordering, agentWrapper.agent);
 
-						}
+				}
 
-					}
+			}
 
-					// Wait that all nodes have registered their new objects in the distributed
-					// registry.
-					try {
-						MPI.COMM_WORLD.barrier();
-					} catch (MPIException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+			// Wait that all nodes have registered their new objects in the distributed
+			// registry.
+			try {
+				partition.getWorld().barrier();
+			} catch (MPIException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
 
-					transporter.objectQueue.clear();
+			transporter.objectQueue.clear();
 
-				} catch (MPIException e) {
-					// TODO: handle exception
-				}
-				if (balancerLevel != 0)
-					balancerLevel--;
-				else
-					balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
+			// Tell the policy what balancing cost, as seen from all processors
+			final ArrayList<double[]> costs = partition.getWorld()
+					.allGather(new double[] { Timing.getLast(Timing.LB_OVERHEAD), migrated });
+			double overhead = 0;
+			long totalMigrated = 0;
+			for (final double[] cost : costs) {
+				overhead = Math.max(overhead, cost[0]);
+				totalMigrated += (long) cost[1];
 			}
+			balancePolicy.balanced(steps, overhead, totalMigrated);
+		} catch (MPIException e) {
+			e.printStackTrace();
+			System.exit(-1);
 		}
 
+		if (balancerLevel != 0)
+			balancerLevel--;
+		else
+			balancerLevel = partition.getNumBalanceLevels() - 1;
 	}
 
-	private void balancePartitions(int level) throws MPIException {
-		final IntHyperRect old_partition = partition.getPartition();
-		final int old_pid = partition.getPid();
-		final Double runtime = Timing.get(Timing.LB_RUNTIME).getMovingAverage();
+	/**
+	 * Balances the partitions. The agents now lying outside of ours are handed
+	 * over by the callbacks of registerRepartitionCallbacks.
+	 *
+	 * @param level
+	 * @param runtime the load of this processor
+	 * @return number of agents migrated
+	 * @throws MPIException
+	 */
+	private int balancePartitions(int level, final double runtime) throws MPIException {
 		Timing.start(Timing.LB_OVERHEAD);
-		((QuadTreePartition) partition).balance(runtime, level);
-		MPI.COMM_WORLD.barrier();
-		// System.out.println("pid "+partition.getPid()+" old_partitioning
-		// "+old_partition);
-		// System.out.println("pid "+partition.getPid()+" new partition
-		// "+partition.getPartition());
-		ArrayList<Object> migratedAgents = new ArrayList<>();
-		for (IntPoint p : old_partition) {
-			if (!partition.getPartition().contains(p)) {
-				final int toP = partition.toPartitionId(p);
-				for (Synchronizable field : fieldRegistry) {
-					if (((HaloGrid2D) field).getStorage() instanceof ContStorage) {
-						ContStorage st = (ContStorage) ((HaloGrid2D) field).getStorage();
-						HashSet agents = st.getCell(p);
-						for (Object a : agents) {
-							NdPoint loc = st.getLocation((Serializable) a);
-							if (a instanceof Stopping && !migratedAgents.contains(a) && old_partition.contains(loc)
-									&& !partition.getPartition().contains(loc)) {
-								// st.removeObject((Serializable) a);
-								((Stopping) a).getStoppable().stop();
-								transporter.migrateAgent((Stopping) a, toP, loc, ((HaloGrid2D) field).fieldIndex);
-								migratedAgents.add(a);
-								System.out.println("PID: " + partition.pid + " processor " + old_pid + " move " + a
-										+ " from " + loc + " (point " + p + ") to processor " + toP);
-							}
-						}
-					} else if (((HaloGrid2D) field).getStorage() instanceof ObjectGridStorage) {
-						ObjectGridStorage st = (ObjectGridStorage) ((HaloGrid2D) field).getStorage();
-						if (st.getObjects(p) != null) {
-							ArrayList<Stopping> agents = st.getObjects(p);
-							for (int i = 0; i < agents.size(); i++) {
-								Object a = agents.get(i);
-								NdPoint loc = st.getLocation((Serializable) a);
-								((Stopping) a).getStoppable().stop();
-								transporter.migrateAgent((Stopping) a, toP, p, ((HaloGrid2D) field).fieldIndex);
-							}
-						}
-					}
-				}
+		handedOver = 0;
+		partition.balance(runtime, level);
+		partition.getWorld().barrier();
+		Timing.stop(Timing.LB_OVERHEAD);
+		return handedOver;
+	}
+
+	/**
+	 * Registers the callbacks that hand the agents over when the partitions are
+	 * balanced. They run after those of the transporter and before those of the
+	 * fields, which use getPreviousPartition() and getHandover() to hand over the
+	 * rest of the cells that changed owner.
+	 */
+	void registerRepartitionCallbacks() {
+		partition.registerPreCommit(arg -> {
+			previousPartitions = new IntHyperRect[partition.getNumProc()];
+			for (int i = 0; i < previousPartitions.length; i++)
+				previousPartitions[i] = partition.getPartition(i);
+		});
+		partition.registerPostCommit(arg -> {
+			try {
+				handover = createHandover();
+				handOverAgents();
+			} catch (final MPIException e) {
+				e.printStackTrace();
+				System.exit(-1);
 			}
+		});
+	}
+
+	/**
+	 * @return communicator between the processors sharing cells that changed
+	 *         owner, in either direction. These are not always neighbors in the
+	 *         new partitioning.
+	 * @throws MPIException
+	 */
+	Communicator createHandover() throws MPIException {
+		final int pid = partition.getPid();
+		final IntHyperRect mine = partition.getPartition();
+		final ArrayList<Integer> partners = new ArrayList<>();
+
+		for (int i = 0; i < previousPartitions.length; i++)
+			if (i != pid && (previousPartitions[pid].isIntersect(partition.getPartition(i))
+					|| previousPartitions[i].isIntersect(mine)))
+				partners.add(i);
+
+		return partition.getWorld().createNeighborhood(partners.stream().mapToInt(i -> i).toArray());
+	}
+
+	/**
+	 * Stops the agents located in cells we no longer own and sends them to their
+	 * new processors, which add them to the same field and schedule them as the
+	 * transporter would. They are taken out of the fields so that these do not
+	 * hand them over a second time.
+	 *
+	 * @throws MPIException
+	 */
+	@SuppressWarnings("unchecked")
+	void handOverAgents() throws MPIException {
+		final IntHyperRect before = previousPartitions[partition.getPid()], after = partition.getPartition();
+		final int[] partners = handover.getNeighbors();
+		final ArrayList<PayloadWrapper>[] sendObjs = new ArrayList[partners.length];
+		for (int i = 0; i < partners.length; i++)
+			sendObjs[i] = new ArrayList<>();
+
+		for (final Steppable event : schedule.queue.getSteppables()) {
+			final Steppable agent;
+			if (event instanceof IterativeRepeat)
+				agent = ((IterativeRepeat) event).getSteppable();
+			else if (event instanceof DistributedTentativeStep)
+				agent = ((DistributedTentativeStep) event).getSteppable();
+			else
+				continue;
+			if (!(agent instanceof Stopping))
+				continue;
+
+			final NdPoint loc = locate(agent);
+			if (loc == null || !before.contains(loc) || after.contains(loc))
+				continue;
+
+			int fieldIndex = -1;
+			for (int i = 0; i < fieldRegistry.size() && fieldIndex < 0; i++)
+				if (fieldRegistry.get(i).locate(agent) != null)
+					fieldIndex = i;
+			if (fieldIndex >= 0)
+				((HaloGrid2D) fieldRegistry.get(fieldIndex)).remove(loc, (Serializable) agent);
+
+			final Serializable payload;
+			if (event instanceof IterativeRepeat) {
+				final IterativeRepeat iterativeRepeat = (IterativeRepeat) event;
+				iterativeRepeat.stop();
+				payload = new DistributedIterativeRepeat(agent, iterativeRepeat.getTime(),
+						iterativeRepeat.getInterval(), iterativeRepeat.getOrdering());
+			} else {
+				final DistributedTentativeStep tentativeStep = (DistributedTentativeStep) event;
+				tentativeStep.stop();
+				payload = new AgentWrapper(tentativeStep.getOrdering(), tentativeStep.getTime(), (Stopping) agent);
+			}
+
+			final int dst = partition.toPartitionId(loc);
+			for (int i = 0; i < partners.length; i++)
+				if (partners[i] == dst)
+					sendObjs[i].add(new PayloadWrapper(dst, payload, loc, fieldIndex));
+			handedOver++;
 		}
 
-		MPI.COMM_WORLD.barrier();
-		Timing.stop(Timing.LB_OVERHEAD);
+		for (final ArrayList<PayloadWrapper> received : handover.neighborAllToAll(sendObjs))
+			transporter.objectQueue.addAll(received);
+	}
+
+	/**
+	 * @param pid
+	 * @return the partition of pid before the partitions were balanced, while
+	 *         they are
+	 */
+	public IntHyperRect getPreviousPartition(final int pid) {
+		return previousPartitions[pid];
+	}
+
+	/**
+	 * @return the communicator between the processors sharing cells that changed
+	 *         owner, while the partitions are balanced
+	 */
+	public Communicator getHandover() {
+		return handover;
 	}
 
 	private static void initRemoteLogger(final String loggerName, final String logServAddr, final int logServPort)
@@ -528,6 +840,12 @@ public class DSimState extends SimState {
 	}
 
 	public static void doLoopDistributed(final Class<?> c, final String[] args, final int window) {
+		final String numRanks = argumentForKey("-ranks", args);
+		if (numRanks != null) {
+			doLoopLocal(c, args, Integer.parseInt(numRanks), window);
+			return;
+		}
+
 		try {
 			Timing.setWindow(window);
 			MPI.Init(args);
@@ -554,6 +872,59 @@ public class DSimState extends SimState {
 		}
 	}
 
+	public static void doLoopLocal(final Class<?> c, final String[] args, final int numRanks) {
+		doLoopLocal(c, args, numRanks, 20);
+	}
+
+	/**
+	 * Runs the model as numRanks partitions without MPI, each in a thread of this
+	 * JVM communicating through shared memory (see LocalCommunicator).
+	 * doLoopDistributed does the same when given -ranks N.
+	 */
+	public static void doLoopLocal(final Class<?> c, final String[] args, final int numRanks, final int window) {
+		Timing.setWindow(window);
+		initLocalLogger("Local-Job");
+
+		// Every rank would otherwise seed itself from the same clock reading,
+		// so give each the base seed plus its rank.
+		final long seed = seedForKey(args);
+		LocalCommunicator.launch(numRanks, () -> {
+			Timing.start(Timing.LB_RUNTIME);
+			doLoop(c, withSeed(args, seed + LocalCommunicator.getCurrent().getRank()));
+		});
+	}
+
+	/**
+	 * Returns the value of -seed in args, or the clock time if there is none or
+	 * it isn't a number.
+	 */
+	static long seedForKey(final String[] args) {
+		final String seed = argumentForKey("-seed", args);
+		try {
+			if (seed != null)
+				return Long.parseLong(seed);
+		} catch (final NumberFormatException e) {
+			// doLoop reports it
+		}
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns a copy of args with -seed set to the given seed.
+	 */
+	static String[] withSeed(final String[] args, final long seed) {
+		for (int i = 0; i < args.length - 1; i++)
+			if (args[i].equalsIgnoreCase("-seed")) {
+				final String[] copy = args.clone();
+				copy[i + 1] = Long.toString(seed);
+				return copy;
+			}
+		final String[] copy = Arrays.copyOf(args, args.length + 2);
+		copy[args.length] = "-seed";
+		copy[args.length + 1] = Long.toString(seed);
+		return copy;
+	}
+
 	/**
 	 * Modelers must override this method if they want to add any logic that is
 	 * unique to the root processor
@@ -594,20 +965,24 @@ public class DSimState extends SimState {
 				startRoot();
 			}
 			// synchronize using one to many communication
-			rootInfo = MPIUtil.scatter(partition.comm, init, 0);
+			rootInfo = partition.comm.scatter(init, 0);
 
-			// schedule a zombie agent to prevent that a processor with no agent is stopped
-			// when the simulation is still going on
-			schedule.scheduleRepeating(new DSteppable() {
-
-				@Override
-				public void step(SimState state) {
+			// In split-phase mode, agents still put aside at the end of a step
+			schedule.addAfter(new Steppable() {
+				private static final long serialVersionUID = 1L;
 
+				public void step(final SimState state) {
+					if (halosInTransit)
+						finishSyncFields();
 				}
 			});
 
+			// schedule a zombie agent to prevent that a processor with no agent is stopped
+			// when the simulation is still going on
+			schedule.scheduleRepeating(new Zombie());
+
 			// On all processors, wait for the start to finish
-			MPI.COMM_WORLD.barrier();
+			partition.getWorld().barrier();
 		} catch (final MPIException e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -625,7 +1000,7 @@ public class DSimState extends SimState {
 	protected double reviseTime(final double localTime) {
 		final double[] buf = new double[] { localTime };
 		try {
-			MPI.COMM_WORLD.allReduce(buf, 1, MPI.DOUBLE, MPI.MIN);
+			partition.getWorld().allReduceMin(buf);
 		} catch (final Exception e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -652,6 +1027,7 @@ public class DSimState extends SimState {
 		aoi = partition.aoi;
 		partition.initialize();
 		transporter = new TransporterMPI(partition);
+		registerRepartitionCallbacks();
 	}
 
 	/**
@@ -22,6 +22,13 @@ public class DistributedIterativeRepeat extends IterativeRepeat {
 			throw new RuntimeException("DistributedIterativeRepeat built on a non-Stopping Steppable");
 	}
 
+	public void step(final SimState state) {
+		// Checked before super.step, which reschedules
+		if (state instanceof DSimState && ((DSimState) state).deferStep(this, step, getOrdering()))
+			return;
+		super.step(state);
+	}
+
 	public void stop() {
 		synchronized (lock) {
 			if (step != null) {
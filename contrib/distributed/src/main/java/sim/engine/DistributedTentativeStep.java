@@ -29,6 +29,7 @@ public class DistributedTentativeStep extends TentativeStep {
 
 	public DistributedTentativeStep(final Steppable step, final Schedule.Key key) {
 		super(step);
+		this.key = key;
 
 		if (step instanceof Stopping) {
 			((Stopping) step).setStoppable(this);
@@ -36,6 +37,12 @@ public class DistributedTentativeStep extends TentativeStep {
 			throw new RuntimeException("DistributedTentativeStep built on a non-Stopping Steppable");
 	}
 
+	public void step(final SimState state) {
+		if (state instanceof DSimState && ((DSimState) state).deferStep(this, step, key.ordering))
+			return;
+		super.step(state);
+	}
+
 	public void stop() {
 		synchronized (lock) {
 			if (step != null) {
@@ -0,0 +1,31 @@
+package sim.engine;
+
+/**
+ * Balances the partitions every given number of steps, whatever the load
+ */
+public class PeriodicBalancePolicy implements BalancePolicy {
+	private static final long serialVersionUID = 1L;
+
+	final int interval;
+
+	public PeriodicBalancePolicy() {
+		this(50);
+	}
+
+	public PeriodicBalancePolicy(final int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("The interval must be positive, got " + interval);
+		this.interval = interval;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public boolean shouldBalance(final long steps, final double[] runtimes, final long[] agents) {
+		return true;
+	}
+
+	public void balanced(final long steps, final double overhead, final long migrated) {
+	}
+}
@@ -0,0 +1,146 @@
+package sim.engine.transport;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Codec derived from the fields of a Serializable class. It writes the same
+ * fields Java serialization would, without the class descriptors.
+ *
+ * Objects are created with the no-arg constructor of the class, which may be
+ * private, before the fields are set; transient fields therefore keep the
+ * values it gives them. Classes without one are left to Java serialization.
+ *
+ * Objects referred to by these fields are written with putObject, so objects
+ * shared within a payload, and cycles, arrive as they were.
+ *
+ * @param <T> Type of the objects
+ */
+public class FieldCodec<T> implements MigrationCodec<T> {
+	final Constructor<T> constructor;
+	final Field[] fields;
+
+	FieldCodec(final Constructor<T> constructor, final Field[] fields) {
+		this.constructor = constructor;
+		this.fields = fields;
+	}
+
+	/**
+	 * @param cls
+	 * @return a codec for cls, or null if Java serialization must be used, i.e.
+	 *         if cls customizes its serialization, has no no-arg constructor, is
+	 *         an array, an enum or a class of the JDK
+	 */
+	public static <T> FieldCodec<T> derive(final Class<T> cls) {
+		if (!Serializable.class.isAssignableFrom(cls) || Externalizable.class.isAssignableFrom(cls) || cls.isArray()
+				|| cls.isEnum() || cls.getName().startsWith("java.") || cls.getName().startsWith("javax."))
+			return null;
+
+		final ArrayList<Field> fields = new ArrayList<>();
+		Class<?> c = cls;
+		for (; Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+			if (customizes(c))
+				return null;
+
+			// Superclasses first, as Java serialization does
+			final Field[] declared = c.getDeclaredFields();
+			Arrays.sort(declared, Comparator.comparing(Field::getName));
+			final ArrayList<Field> own = new ArrayList<>();
+			for (final Field f : declared)
+				if ((f.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) == 0) {
+					f.setAccessible(true);
+					own.add(f);
+				}
+			fields.addAll(0, own);
+		}
+
+		try {
+			final Constructor<T> constructor = cls.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return new FieldCodec<>(constructor, fields.toArray(new Field[0]));
+		} catch (final NoSuchMethodException | SecurityException e) {
+			return null;
+		}
+	}
+
+	static boolean customizes(final Class<?> c) {
+		for (final String name : new String[] { "writeObject", "readObject", "readObjectNoData", "writeReplace",
+				"readResolve" })
+			for (final Method m : c.getDeclaredMethods())
+				if (m.getName().equals(name))
+					return true;
+
+		try {
+			c.getDeclaredField("serialPersistentFields");
+			return true;
+		} catch (final NoSuchFieldException e) {
+			return false;
+		}
+	}
+
+	public void write(final MigrationBuffer buf, final T obj) {
+		try {
+			for (final Field f : fields) {
+				final Class<?> type = f.getType();
+				if (type == int.class)
+					buf.putInt(f.getInt(obj));
+				else if (type == double.class)
+					buf.putDouble(f.getDouble(obj));
+				else if (type == boolean.class)
+					buf.putBoolean(f.getBoolean(obj));
+				else if (type == long.class)
+					buf.putLong(f.getLong(obj));
+				else if (type == float.class)
+					buf.putFloat(f.getFloat(obj));
+				else if (type == short.class)
+					buf.putShort(f.getShort(obj));
+				else if (type == byte.class)
+					buf.putByte(f.getByte(obj));
+				else if (type == char.class)
+					buf.putChar(f.getChar(obj));
+				else
+					buf.putObject(f.get(obj));
+			}
+		} catch (final IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public T read(final MigrationBuffer buf) {
+		try {
+			final T obj = constructor.newInstance();
+			buf.created(obj);
+			for (final Field f : fields) {
+				final Class<?> type = f.getType();
+				if (type == int.class)
+					f.setInt(obj, buf.getInt());
+				else if (type == double.class)
+					f.setDouble(obj, buf.getDouble());
+				else if (type == boolean.class)
+					f.setBoolean(obj, buf.getBoolean());
+				else if (type == long.class)
+					f.setLong(obj, buf.getLong());
+				else if (type == float.class)
+					f.setFloat(obj, buf.getFloat());
+				else if (type == short.class)
+					f.setShort(obj, buf.getShort());
+				else if (type == byte.class)
+					f.setByte(obj, buf.getByte());
+				else if (type == char.class)
+					f.setChar(obj, buf.getChar());
+				else
+					f.set(obj, buf.getObject());
+			}
+			return obj;
+		} catch (final ReflectiveOperationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
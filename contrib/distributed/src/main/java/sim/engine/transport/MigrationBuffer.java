@@ -0,0 +1,186 @@
+package sim.engine.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * A direct buffer that migrating objects are written into, and read from, by
+ * MigrationCodecs. It is kept from one sync to the next and only reallocated
+ * when it grows.
+ *
+ * Besides primitives, whole objects can be written with putObject, through the
+ * codec of their class. The class is named the first time it is written to
+ * each processor and referred to by number afterwards. An object written
+ * twice within a payload is written once and referred to by number the second
+ * time, as ObjectOutputStream does, so sharing and cycles are kept.
+ */
+public class MigrationBuffer {
+	final MigrationCodecs codecs;
+	ByteBuffer buf;
+	// The processor written to or read from
+	int peer;
+	// The objects of the current payload by number: written so far, negative
+	// while still being written by a codec that cannot read cycles, and read so
+	// far, null until created
+	final IdentityHashMap<Object, Integer> written = new IdentityHashMap<>();
+	final ArrayList<Object> handles = new ArrayList<>();
+
+	MigrationBuffer(final MigrationCodecs codecs, final int capacity) {
+		this.codecs = codecs;
+		buf = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * @return the underlying buffer; it changes when the buffer grows
+	 */
+	public ByteBuffer getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Makes room for bytes more bytes, keeping the content and the position
+	 *
+	 * @param bytes
+	 */
+	public void ensure(final int bytes) {
+		if (buf.remaining() >= bytes)
+			return;
+
+		final ByteBuffer larger = ByteBuffer
+				.allocateDirect(Math.max(buf.capacity() * 2, buf.position() + bytes));
+		buf.flip();
+		larger.put(buf);
+		buf = larger;
+	}
+
+	public void putByte(final byte v) {
+		ensure(1);
+		buf.put(v);
+	}
+
+	public void putBoolean(final boolean v) {
+		putByte((byte) (v ? 1 : 0));
+	}
+
+	public void putChar(final char v) {
+		ensure(2);
+		buf.putChar(v);
+	}
+
+	public void putShort(final short v) {
+		ensure(2);
+		buf.putShort(v);
+	}
+
+	public void putInt(final int v) {
+		ensure(4);
+		buf.putInt(v);
+	}
+
+	public void putLong(final long v) {
+		ensure(8);
+		buf.putLong(v);
+	}
+
+	public void putFloat(final float v) {
+		ensure(4);
+		buf.putFloat(v);
+	}
+
+	public void putDouble(final double v) {
+		ensure(8);
+		buf.putDouble(v);
+	}
+
+	public void putBytes(final byte[] v) {
+		putInt(v.length);
+		ensure(v.length);
+		buf.put(v);
+	}
+
+	public void putString(final String v) {
+		if (v == null)
+			putInt(-1);
+		else
+			putBytes(v.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes obj, which may be null, through the codec of its class
+	 *
+	 * @param obj
+	 *
+	 * @throws NotEncodableException if no codec can write obj
+	 */
+	public void putObject(final Object obj) {
+		codecs.write(this, obj);
+	}
+
+	public byte getByte() {
+		return buf.get();
+	}
+
+	public boolean getBoolean() {
+		return buf.get() != 0;
+	}
+
+	public char getChar() {
+		return buf.getChar();
+	}
+
+	public short getShort() {
+		return buf.getShort();
+	}
+
+	public int getInt() {
+		return buf.getInt();
+	}
+
+	public long getLong() {
+		return buf.getLong();
+	}
+
+	public float getFloat() {
+		return buf.getFloat();
+	}
+
+	public double getDouble() {
+		return buf.getDouble();
+	}
+
+	public byte[] getBytes() {
+		final byte[] v = new byte[buf.getInt()];
+		buf.get(v);
+		return v;
+	}
+
+	public String getString() {
+		final int length = buf.getInt();
+		if (length < 0)
+			return null;
+		final byte[] v = new byte[length];
+		buf.get(v);
+		return new String(v, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the object written by putObject
+	 */
+	public Object getObject() {
+		return codecs.read(this);
+	}
+
+	// Registers obj, just created by FieldCodec.read, before what it refers to is
+	// read, so that those objects can refer back to it
+	void created(final Object obj) {
+		handles.set(handles.size() - 1, obj);
+	}
+
+	// Forgets the objects of the previous payload
+	void reset() {
+		written.clear();
+		handles.clear();
+	}
+}
@@ -0,0 +1,31 @@
+package sim.engine.transport;
+
+/**
+ * Writes the objects of one class into a MigrationBuffer and reads them back,
+ * in place of Java serialization, when TransporterMPI migrates them.
+ *
+ * A codec must be registered for the same class on every processor, before
+ * anything is migrated. Classes without one are written field by field by a
+ * FieldCodec when possible; otherwise the whole payload holding them is
+ * serialized.
+ *
+ * @param <T> Type of the objects
+ */
+public interface MigrationCodec<T> {
+
+	/**
+	 * Writes obj into buf
+	 *
+	 * @param buf
+	 * @param obj never null
+	 */
+	void write(MigrationBuffer buf, T obj);
+
+	/**
+	 * Reads back what write wrote
+	 *
+	 * @param buf
+	 * @return a copy of the object written
+	 */
+	T read(MigrationBuffer buf);
+}
@@ -0,0 +1,356 @@
+package sim.engine.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import sim.engine.DistributedIterativeRepeat;
+import sim.engine.Stoppable;
+import sim.engine.Stopping;
+import sim.field.partitioning.DoublePoint;
+import sim.field.partitioning.IntPoint;
+import sim.field.partitioning.NdPoint;
+
+/**
+ * The codecs TransporterMPI writes PayloadWrappers with, and the classes named
+ * so far to and by each processor.
+ *
+ * Each class is named once per run to each processor it is sent to; after
+ * that it is referred to by number. Codecs registered by the model take
+ * precedence, then the ones derived by FieldCodec. Payloads holding objects
+ * for which there is neither are serialized as a whole.
+ */
+public class MigrationCodecs {
+	// Written in place of a class number; REFERENCE is followed by the number of
+	// an object already written in the payload
+	static final int NULL = -1, REFERENCE = -2, NEW_CLASS = -3;
+
+	// Kinds of payload
+	static final byte OBJECT = 0, REPEATING_AGENT = 1, AGENT = 2, SERIALIZED_WRAPPER = 3;
+
+	// The codec of each class, null for classes that are serialized
+	final HashMap<Class<?>, MigrationCodec<?>> codecs = new HashMap<>();
+	// Class numbers given to each processor, and codecs of the classes each
+	// processor named, by number
+	final HashMap<Integer, HashMap<Class<?>, Integer>> sent = new HashMap<>();
+	final HashMap<Integer, ArrayList<MigrationCodec<?>>> received = new HashMap<>();
+	// Classes named while writing the current payload, forgotten if it is
+	// serialized instead
+	final ArrayList<Class<?>> named = new ArrayList<>();
+
+	public MigrationCodecs() {
+		registerDefaults();
+	}
+
+	/**
+	 * Registers codec for the objects of exactly cls (not its subclasses). Must
+	 * be done the same way on all processors, before anything is migrated.
+	 *
+	 * @param cls
+	 * @param codec
+	 */
+	public <T> void register(final Class<T> cls, final MigrationCodec<T> codec) {
+		codecs.put(cls, codec);
+	}
+
+	void registerDefaults() {
+		register(String.class, new MigrationCodec<String>() {
+			public void write(final MigrationBuffer buf, final String obj) {
+				buf.putString(obj);
+			}
+
+			public String read(final MigrationBuffer buf) {
+				return buf.getString();
+			}
+		});
+		register(Integer.class, new MigrationCodec<Integer>() {
+			public void write(final MigrationBuffer buf, final Integer obj) {
+				buf.putInt(obj);
+			}
+
+			public Integer read(final MigrationBuffer buf) {
+				return buf.getInt();
+			}
+		});
+		register(Double.class, new MigrationCodec<Double>() {
+			public void write(final MigrationBuffer buf, final Double obj) {
+				buf.putDouble(obj);
+			}
+
+			public Double read(final MigrationBuffer buf) {
+				return buf.getDouble();
+			}
+		});
+		register(int[].class, new MigrationCodec<int[]>() {
+			public void write(final MigrationBuffer buf, final int[] obj) {
+				buf.putInt(obj.length);
+				buf.ensure(obj.length * 4);
+				buf.getBuffer().asIntBuffer().put(obj);
+				buf.getBuffer().position(buf.getBuffer().position() + obj.length * 4);
+			}
+
+			public int[] read(final MigrationBuffer buf) {
+				final int[] obj = new int[buf.getInt()];
+				buf.getBuffer().asIntBuffer().get(obj);
+				buf.getBuffer().position(buf.getBuffer().position() + obj.length * 4);
+				return obj;
+			}
+		});
+		register(double[].class, new MigrationCodec<double[]>() {
+			public void write(final MigrationBuffer buf, final double[] obj) {
+				buf.putInt(obj.length);
+				buf.ensure(obj.length * 8);
+				buf.getBuffer().asDoubleBuffer().put(obj);
+				buf.getBuffer().position(buf.getBuffer().position() + obj.length * 8);
+			}
+
+			public double[] read(final MigrationBuffer buf) {
+				final double[] obj = new double[buf.getInt()];
+				buf.getBuffer().asDoubleBuffer().get(obj);
+				buf.getBuffer().position(buf.getBuffer().position() + obj.length * 8);
+				return obj;
+			}
+		});
+		register(IntPoint.class, new MigrationCodec<IntPoint>() {
+			public void write(final MigrationBuffer buf, final IntPoint obj) {
+				buf.putInt(obj.nd);
+				for (final int c : obj.c)
+					buf.putInt(c);
+			}
+
+			public IntPoint read(final MigrationBuffer buf) {
+				final int[] c = new int[buf.getInt()];
+				for (int i = 0; i < c.length; i++)
+					c[i] = buf.getInt();
+				return new IntPoint(c);
+			}
+		});
+		register(DoublePoint.class, new MigrationCodec<DoublePoint>() {
+			public void write(final MigrationBuffer buf, final DoublePoint obj) {
+				buf.putInt(obj.nd);
+				for (final double c : obj.c)
+					buf.putDouble(c);
+			}
+
+			public DoublePoint read(final MigrationBuffer buf) {
+				final double[] c = new double[buf.getInt()];
+				for (int i = 0; i < c.length; i++)
+					c[i] = buf.getDouble();
+				return new DoublePoint(c);
+			}
+		});
+		register(ArrayList.class, new MigrationCodec<ArrayList>() {
+			public void write(final MigrationBuffer buf, final ArrayList obj) {
+				buf.putInt(obj.size());
+				for (final Object o : obj)
+					buf.putObject(o);
+			}
+
+			@SuppressWarnings("unchecked")
+			public ArrayList read(final MigrationBuffer buf) {
+				final int size = buf.getInt();
+				final ArrayList obj = new ArrayList(size);
+				for (int i = 0; i < size; i++)
+					obj.add(buf.getObject());
+				return obj;
+			}
+		});
+	}
+
+	MigrationCodec<?> codecFor(final Class<?> cls) {
+		if (!codecs.containsKey(cls))
+			codecs.put(cls, FieldCodec.derive(cls));
+		return codecs.get(cls);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void write(final MigrationBuffer buf, final Object obj) {
+		if (obj == null) {
+			buf.putInt(NULL);
+			return;
+		}
+
+		final Class<?> cls = obj.getClass();
+		final Integer handle = buf.written.get(obj);
+		if (handle != null) {
+			if (handle < 0)
+				throw new NotEncodableException(cls.getName() + " refers back to itself through its codec");
+			buf.putInt(REFERENCE);
+			buf.putInt(handle);
+			return;
+		}
+
+		final MigrationCodec codec = codecFor(cls);
+		if (codec == null)
+			throw new NotEncodableException("No codec for " + cls.getName());
+
+		// Only FieldCodecs register objects before reading what they refer to, so
+		// objects written by other codecs cannot be referred to until written
+		final int number = buf.written.size();
+		final boolean cyclesRead = codec instanceof FieldCodec;
+		buf.written.put(obj, cyclesRead ? number : -1);
+
+		final HashMap<Class<?>, Integer> ids = sent.computeIfAbsent(buf.peer, k -> new HashMap<>());
+		final Integer id = ids.get(cls);
+		if (id == null) {
+			ids.put(cls, ids.size());
+			named.add(cls);
+			buf.putInt(NEW_CLASS);
+			buf.putString(cls.getName());
+		} else
+			buf.putInt(id);
+		codec.write(buf, obj);
+		if (!cyclesRead)
+			buf.written.put(obj, number);
+	}
+
+	Object read(final MigrationBuffer buf) {
+		final int id = buf.getInt();
+		if (id == NULL)
+			return null;
+		if (id == REFERENCE)
+			return buf.handles.get(buf.getInt());
+
+		final ArrayList<MigrationCodec<?>> classes = received.computeIfAbsent(buf.peer, k -> new ArrayList<>());
+		final MigrationCodec<?> codec;
+		if (id == NEW_CLASS) {
+			final String name = buf.getString();
+			try {
+				codec = codecFor(Class.forName(name));
+			} catch (final ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			if (codec == null)
+				throw new IllegalStateException("No codec for " + name + ", it must be registered on all processors");
+			classes.add(codec);
+		} else
+			codec = classes.get(id);
+
+		final int number = buf.handles.size();
+		buf.handles.add(null);
+		final Object obj = codec.read(buf);
+		buf.handles.set(number, obj);
+		return obj;
+	}
+
+	/**
+	 * Writes wrapper for dst. If some object it holds cannot be written by the
+	 * codecs, e.g. because its class has no codec, the whole wrapper is
+	 * serialized instead.
+	 *
+	 * @param buf
+	 * @param wrapper
+	 */
+	public void writePayload(final MigrationBuffer buf, final PayloadWrapper wrapper) {
+		final int start = buf.getBuffer().position();
+		named.clear();
+		buf.reset();
+		try {
+			writeWrapper(buf, wrapper);
+		} catch (final NotEncodableException e) {
+			buf.getBuffer().position(start);
+			final HashMap<Class<?>, Integer> ids = sent.get(buf.peer);
+			for (final Class<?> cls : named)
+				ids.remove(cls);
+			buf.putByte(SERIALIZED_WRAPPER);
+			buf.putBytes(serialize(wrapper));
+		}
+	}
+
+	void writeWrapper(final MigrationBuffer buf, final PayloadWrapper wrapper) {
+		final Serializable payload = wrapper.payload;
+		if (payload instanceof DistributedIterativeRepeat) {
+			final DistributedIterativeRepeat iterativeRepeat = (DistributedIterativeRepeat) payload;
+			buf.putByte(REPEATING_AGENT);
+			buf.putDouble(iterativeRepeat.getTime());
+			buf.putDouble(iterativeRepeat.getInterval());
+			buf.putInt(iterativeRepeat.getOrdering());
+			putAgent(buf, (Stopping) iterativeRepeat.getSteppable());
+		} else if (payload instanceof AgentWrapper) {
+			final AgentWrapper agentWrapper = (AgentWrapper) payload;
+			buf.putByte(AGENT);
+			buf.putInt(agentWrapper.ordering);
+			buf.putDouble(agentWrapper.time);
+			buf.putString(agentWrapper.getExportedName());
+			putAgent(buf, agentWrapper.agent);
+		} else {
+			buf.putByte(OBJECT);
+			buf.putObject(payload);
+		}
+		buf.putInt(wrapper.destination);
+		buf.putInt(wrapper.fieldIndex);
+		buf.putObject(wrapper.loc);
+		buf.putString(wrapper.getExportedName());
+	}
+
+	/**
+	 * Writes agent without its Stoppable, which usually refers back to it and is
+	 * replaced once the agent is scheduled again anyway
+	 */
+	static void putAgent(final MigrationBuffer buf, final Stopping agent) {
+		final Stoppable stoppable = agent.getStoppable();
+		agent.setStoppable(null);
+		try {
+			buf.putObject(agent);
+		} finally {
+			agent.setStoppable(stoppable);
+		}
+	}
+
+	/**
+	 * @param buf
+	 * @return the next wrapper written by writePayload
+	 */
+	public PayloadWrapper readPayload(final MigrationBuffer buf) {
+		buf.reset();
+		final byte kind = buf.getByte();
+		if (kind == SERIALIZED_WRAPPER)
+			return (PayloadWrapper) deserialize(buf.getBytes());
+
+		final Serializable payload;
+		if (kind == REPEATING_AGENT) {
+			final double time = buf.getDouble(), interval = buf.getDouble();
+			final int ordering = buf.getInt();
+			payload = new DistributedIterativeRepeat((Stopping) buf.getObject(), time, interval, ordering);
+		} else if (kind == AGENT) {
+			final int ordering = buf.getInt();
+			final double time = buf.getDouble();
+			final String exportedName = buf.getString();
+			final AgentWrapper agentWrapper = new AgentWrapper(ordering, time, (Stopping) buf.getObject());
+			agentWrapper.setExportedName(exportedName);
+			payload = agentWrapper;
+		} else
+			payload = (Serializable) buf.getObject();
+
+		final int destination = buf.getInt(), fieldIndex = buf.getInt();
+		final PayloadWrapper wrapper = new PayloadWrapper(destination, payload, (NdPoint) buf.getObject(),
+				fieldIndex);
+		wrapper.setExportedName(buf.getString());
+		return wrapper;
+	}
+
+	static byte[] serialize(final Object obj) {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final ObjectOutputStream os = new ObjectOutputStream(out);
+			os.writeObject(obj);
+			os.close();
+			return out.toByteArray();
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static Object deserialize(final byte[] bytes) {
+		try {
+			return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+		} catch (final IOException | ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
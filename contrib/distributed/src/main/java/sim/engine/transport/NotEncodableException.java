@@ -0,0 +1,17 @@
+package sim.engine.transport;
+
+/**
+ * Thrown while a payload is written by MigrationCodecs when some object in it
+ * cannot be written by the codecs, e.g. because its class has no codec. The
+ * payload is then serialized as a whole instead, so that the objects it shares
+ * with the rest of the payload stay shared.
+ *
+ * Other exceptions thrown by codecs are not caught.
+ */
+public class NotEncodableException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public NotEncodableException(final String message) {
+		super(message);
+	}
+}
@@ -10,8 +10,8 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.UUID;
 
-import mpi.MPI;
 import sim.field.partitioning.PartitionInterface;
+import sim.util.Communicator;
 import sim.util.MPIUtil;
 
 /**
@@ -45,26 +45,32 @@ public class RMIProxy<T extends Serializable, P> {
 
 	public static void init() {
 		try {
-			RMIProxy.hostPort = getFreePort();
-			RMIProxy.hostAddr = InetAddress.getLocalHost().getHostAddress();
-			RMIProxy.registry = LocateRegistry.createRegistry(RMIProxy.hostPort);
-
-			System.out.printf("Starting rmiregistry in %s on port %d\n", RMIProxy.hostAddr, RMIProxy.hostPort);
+			// LPs running as threads of one JVM share its registry
+			synchronized (RMIProxy.class) {
+				if (RMIProxy.registry == null) {
+					RMIProxy.hostPort = getFreePort();
+					RMIProxy.hostAddr = InetAddress.getLocalHost().getHostAddress();
+					RMIProxy.registry = LocateRegistry.createRegistry(RMIProxy.hostPort);
+					RMIProxy.exported = new ArrayList<>();
+
+					System.out.printf("Starting rmiregistry in %s on port %d\n", RMIProxy.hostAddr,
+							RMIProxy.hostPort);
+				}
+			}
 
 			// Creating a barrier to ensure that all LP's are initialized
 			// before isReady is true
-			MPI.COMM_WORLD.barrier();
+			Communicator.getWorld().barrier();
 		} catch (final Exception e) {
 			e.printStackTrace();
 			System.exit(-1);
 		}
 
-		RMIProxy.exported = new ArrayList<>();
 		RMIProxy.isReady = true;
 	}
 
 	// TODO hook this to MPI finalize so that this will be called before exit
-	public static void terminate() {
+	public static synchronized void terminate() {
 		RMIProxy.isReady = false;
 
 		try {
@@ -72,6 +78,7 @@ public class RMIProxy<T extends Serializable, P> {
 				UnicastRemoteObject.unexportObject(f, true);
 			if (RMIProxy.registry != null)
 				UnicastRemoteObject.unexportObject(RMIProxy.registry, true);
+			RMIProxy.registry = null;
 		} catch (final Exception e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -118,7 +125,9 @@ public class RMIProxy<T extends Serializable, P> {
 		// Keep record of all the exported object so that
 		// they can be properly unexported when stopRMIRegistry() is called
 		// to prevent stuck on exit.
-		RMIProxy.exported.add(field);
+		synchronized (RMIProxy.class) {
+			RMIProxy.exported.add(field);
+		}
 	}
 
 	public TransportRMIInterface<T, P> getField(final int pid) {
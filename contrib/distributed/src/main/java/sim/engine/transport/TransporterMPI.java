@@ -11,7 +11,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import mpi.MPI;
 import mpi.MPIException;
 import sim.engine.DistributedIterativeRepeat;
 import sim.engine.Stopping;
@@ -40,6 +39,12 @@ public class TransporterMPI {
 
 	protected boolean withRegistry;
 
+	// Write the migrating objects, null to serialize them through the
+	// RemoteOutputStreams instead. The buffers they are written to are kept from
+	// one sync to the next
+	MigrationCodecs codecs = new MigrationCodecs();
+	MigrationBuffer sendBuf, recvBuf;
+
 	public TransporterMPI(final PartitionInterface<?> partition) {
 		this.partition = partition;
 		this.withRegistry = false;
@@ -106,6 +111,11 @@ public class TransporterMPI {
 	 * @throws ClassNotFoundException
 	 */
 	public void sync() throws MPIException, IOException, ClassNotFoundException {
+		if (codecs != null) {
+			syncCodecs();
+			return;
+		}
+
 		// Prepare data
 		for (int i = 0, total = 0; i < numNeighbors; i++) {
 			RemoteOutputStream outputStream = dstMap.get(neighbors[i]);
@@ -125,7 +135,7 @@ public class TransporterMPI {
 
 		// First exchange count[] of the send byte buffers with neighbors so that we can
 		// setup recvbuf
-		partition.getCommunicator().neighborAllToAll(src_count, 1, MPI.INT, dst_count, 1, MPI.INT);
+		partition.getCommunicator().neighborAllToAll(src_count, dst_count);
 
 		for (int i = 0, total = 0; i < numNeighbors; i++) {
 			dst_displ[i] = total;
@@ -134,8 +144,7 @@ public class TransporterMPI {
 		final ByteBuffer recvbuf = ByteBuffer.allocateDirect(dst_displ[numNeighbors - 1] + dst_count[numNeighbors - 1]);
 
 		// exchange the actual object bytes
-		partition.getCommunicator().neighborAllToAllv(sendbuf, src_count, src_displ, MPI.BYTE, recvbuf, dst_count,
-				dst_displ, MPI.BYTE);
+		partition.getCommunicator().neighborAllToAllv(sendbuf, src_count, src_displ, recvbuf, dst_count, dst_displ);
 
 		// read and handle incoming objects
 //		final ArrayList<PayloadWrapper> bufferList = new ArrayList<>();
@@ -202,6 +211,85 @@ public class TransporterMPI {
 //		bufferList.clear();
 	}
 
+	/**
+	 * sync through the codecs: the objects for all neighbors are written into
+	 * one reused direct buffer, naming each class only the first time it is sent
+	 * to a processor
+	 * 
+	 * @throws MPIException
+	 */
+	void syncCodecs() throws MPIException {
+		if (sendBuf == null) {
+			sendBuf = new MigrationBuffer(codecs, 1 << 16);
+			recvBuf = new MigrationBuffer(codecs, 1 << 16);
+		}
+
+		sendBuf.getBuffer().clear();
+		for (int i = 0; i < numNeighbors; i++) {
+			final RemoteOutputStream outputStream = dstMap.get(neighbors[i]);
+			sendBuf.peer = neighbors[i];
+			src_displ[i] = sendBuf.getBuffer().position();
+			for (final Object obj : outputStream.obj)
+				codecs.writePayload(sendBuf, (PayloadWrapper) obj);
+			src_count[i] = sendBuf.getBuffer().position() - src_displ[i];
+			outputStream.obj.clear();
+		}
+
+		partition.getCommunicator().neighborAllToAll(src_count, dst_count);
+
+		int total = 0;
+		for (int i = 0; i < numNeighbors; i++) {
+			dst_displ[i] = total;
+			total += dst_count[i];
+		}
+		recvBuf.getBuffer().clear();
+		recvBuf.ensure(total);
+
+		partition.getCommunicator().neighborAllToAllv(sendBuf.getBuffer(), src_count, src_displ,
+				recvBuf.getBuffer(), dst_count, dst_displ);
+
+		for (int i = 0; i < numNeighbors; i++) {
+			recvBuf.peer = neighbors[i];
+			recvBuf.getBuffer().position(dst_displ[i]);
+			while (recvBuf.getBuffer().position() < dst_displ[i] + dst_count[i]) {
+				final PayloadWrapper wrapper = codecs.readPayload(recvBuf);
+				if (partition.pid != wrapper.destination)
+					throw new RuntimeException("This is not the correct processor");
+				objectQueue.add(wrapper);
+			}
+		}
+	}
+
+	/**
+	 * Registers codec for migrating the objects of exactly cls. Must be done the
+	 * same way on all processors, before anything is migrated.
+	 * 
+	 * @param cls
+	 * @param codec
+	 */
+	public <T> void registerCodec(final Class<T> cls, final MigrationCodec<T> codec) {
+		if (codecs == null)
+			throw new IllegalStateException("Codecs are not used");
+		codecs.register(cls, codec);
+	}
+
+	/**
+	 * Sets the codecs the migrating objects are written with, null to serialize
+	 * them. Must be the same on all processors and set before anything is
+	 * migrated.
+	 * 
+	 * @param codecs
+	 */
+	public void setCodecs(final MigrationCodecs codecs) {
+		this.codecs = codecs;
+		sendBuf = null;
+		recvBuf = null;
+	}
+
+	public MigrationCodecs getCodecs() {
+		return codecs;
+	}
+
 	/**
 	 * Does not transport the Object, only migrates it
 	 *
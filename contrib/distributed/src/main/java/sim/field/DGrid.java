@@ -42,6 +42,35 @@ public interface DGrid<T extends Serializable, P extends NdPoint> {
 	 */
 	void remove(final P p);
 
+	/**
+	 * Adds Object t to location p <br>
+	 * A remote location is only written by the next synchronization, together
+	 * with the other remote accesses to the same partition
+	 *
+	 * @param p location
+	 * @param t Object
+	 */
+	void addAsync(final P p, final T t);
+
+	/**
+	 * Removes Object t from location p <br>
+	 * A remote location is only written by the next synchronization, together
+	 * with the other remote accesses to the same partition
+	 *
+	 * @param p location
+	 * @param t Object
+	 */
+	void removeAsync(final P p, final T t);
+
+	/**
+	 * Removes all Objects from location p <br>
+	 * A remote location is only written by the next synchronization, together
+	 * with the other remote accesses to the same partition
+	 *
+	 * @param p location
+	 */
+	void removeAsync(final P p);
+
 	/**
 	 * The location can be remote
 	 *
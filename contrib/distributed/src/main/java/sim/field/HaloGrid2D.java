@@ -1,6 +1,8 @@
 package sim.field;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -9,8 +11,6 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import mpi.Datatype;
-import mpi.MPI;
 import mpi.MPIException;
 import sim.engine.DSimState;
 import sim.engine.DistributedIterativeRepeat;
@@ -27,7 +27,9 @@ import sim.field.partitioning.IntPointGenerator;
 import sim.field.partitioning.NdPoint;
 import sim.field.partitioning.PartitionInterface;
 import sim.field.partitioning.QuadTreePartition;
+import sim.field.storage.ByteBufferPackable;
 import sim.field.storage.GridStorage;
+import sim.util.Communicator;
 import sim.util.GroupComm;
 import sim.util.MPIParam;
 import sim.util.MPIUtil;
@@ -61,8 +63,8 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 			Collections.sort(sendOverlaps);
 			Collections.sort(recvOverlaps, Collections.reverseOrder());
 
-			sendParam = new MPIParam(sendOverlaps, haloPart, MPIBaseType);
-			recvParam = new MPIParam(recvOverlaps, haloPart, MPIBaseType);
+			sendParam = new MPIParam(sendOverlaps, haloPart);
+			recvParam = new MPIParam(recvOverlaps, haloPart);
 		}
 
 		private ArrayList<IntHyperRect> generateOverlaps(final IntHyperRect p1, final IntHyperRect p2) {
@@ -90,11 +92,21 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 	protected List<Neighbor> neighbors; // pointer to the processors who's partitions neighbor me
 	public S localStorage;
 	public PartitionInterface<P> partition;
-	public Datatype MPIBaseType;
 
 	public final int fieldIndex;
 
 	public RMIProxy<T, P> proxy;
+
+	// Reusable direct buffers and their layout for syncHalo of primitive
+	// storages, null for other storages
+	ByteBuffer haloSendBuf, haloRecvBuf;
+	int[] haloSendCount, haloSendDispl, haloRecvCount, haloRecvDispl;
+	// The exchange started by startSyncHalo, null if none is in progress
+	Communicator.Request haloRequest;
+	// Remote accesses queued by the *Async methods until syncRemote ships them,
+	// and the communicator to all the other processors they are shipped through
+	final ArrayList<RemoteRequest> remoteRequests = new ArrayList<>();
+	Communicator remoteComm;
 	private final DSimState state;
 
 	public HaloGrid2D(final PartitionInterface ps, final int[] aoi, final S stor, final DSimState state) {
@@ -106,7 +118,6 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 		numDimensions = ps.getNumDim();
 		world = ps.createField();
 		fieldSize = ps.getFieldSize();
-		MPIBaseType = localStorage.getMPIBaseType();
 		registerCallbacks();
 		// init variables that may change with the partition scheme
 		reload();
@@ -116,7 +127,6 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 	private void registerCallbacks() {
 
 		final List<GridStorage> tempStor = new ArrayList<GridStorage>();
-		final QuadTreePartition q = (QuadTreePartition) partition;
 		partition.registerPreCommit(arg -> {
 //			final int level = (int) arg;
 //			GridStorage s = null;
@@ -131,20 +141,12 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 //			if (q.isGroupMaster(level)) tempStor.add(s);
 		});
 		partition.registerPostCommit(arg -> {
-//			final int level = (int) arg;
-//			GridStorage s = null;
-//
-			reload();
-//
-//			if (q.isGroupMaster(level))
-//				s = tempStor.remove(0);
-//
-//			try {
-//				distributeGroup(level, s);
-//			} catch (final Exception e) {
-//				e.printStackTrace();
-//				System.exit(-1);
-//			}
+			try {
+				repartition();
+			} catch (final MPIException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
 		});
 
 	}
@@ -166,6 +168,73 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 		neighbors = Arrays.stream(partition.getNeighborIds()).mapToObj(x -> new Neighbor(partition.getPartition(x)))
 				.collect(Collectors.toList());
 		numNeighbors = neighbors.size();
+		reloadHaloBuffers();
+	}
+
+	/**
+	 * Reloads after the partitions were balanced. The cells that changed owner
+	 * are handed over to their new processors first, as reload() keeps only those
+	 * in both the old and the new halo. DSimState has already taken the agents
+	 * out of them.
+	 * 
+	 * @throws MPIException
+	 */
+	void repartition() throws MPIException {
+		final Communicator handover = state.getHandover();
+		final int[] partners = handover.getNeighbors();
+
+		final Serializable[] sendObjs = new Serializable[partners.length];
+		for (int i = 0; i < partners.length; i++)
+			sendObjs[i] = localStorage
+					.pack(new MPIParam(overlap(origPart, partition.getPartition(partners[i])), haloPart));
+		final ArrayList<Serializable> recvObjs = handover.neighborAllToAll(sendObjs);
+
+		reload();
+
+		for (int i = 0; i < partners.length; i++)
+			localStorage.unpack(
+					new MPIParam(overlap(state.getPreviousPartition(partners[i]), origPart), haloPart),
+					recvObjs.get(i));
+		syncHalo();
+	}
+
+	static List<IntHyperRect> overlap(final IntHyperRect a, final IntHyperRect b) {
+		if (!a.isIntersect(b))
+			return Collections.emptyList();
+		return Collections.singletonList(a.getIntersection(b));
+	}
+
+	/**
+	 * Sets up the buffers syncHalo exchanges primitive storages through. They
+	 * are only reallocated when they grow.
+	 */
+	void reloadHaloBuffers() {
+		if (!(localStorage instanceof ByteBufferPackable))
+			return;
+		final int elementBytes = ((ByteBufferPackable) localStorage).getElementBytes();
+
+		haloSendCount = new int[numNeighbors];
+		haloSendDispl = new int[numNeighbors];
+		haloRecvCount = new int[numNeighbors];
+		haloRecvDispl = new int[numNeighbors];
+
+		int sendTotal = 0, recvTotal = 0;
+		for (int i = 0; i < numNeighbors; i++) {
+			haloSendDispl[i] = sendTotal;
+			haloSendCount[i] = neighbors.get(i).sendParam.size * elementBytes;
+			sendTotal += haloSendCount[i];
+
+			// The neighbor's send region is our receive region, so the counts need
+			// not be exchanged
+			haloRecvDispl[i] = recvTotal;
+			haloRecvCount[i] = neighbors.get(i).recvParam.size * elementBytes;
+			recvTotal += haloRecvCount[i];
+		}
+
+		if (haloSendBuf == null || haloSendBuf.capacity() < sendTotal)
+			haloSendBuf = ByteBuffer.allocateDirect(sendTotal).order(ByteOrder.nativeOrder());
+		if (haloRecvBuf == null || haloRecvBuf.capacity() < recvTotal)
+			haloRecvBuf = ByteBuffer.allocateDirect(recvTotal).order(ByteOrder.nativeOrder());
 	}
 
 	/**
@@ -210,6 +279,27 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 			localStorage.removeObjects(p);
 	}
 
+	public void addAsync(final P p, final T t) {
+		if (!inLocal(p))
+			addToRemoteAsync(p, t);
+		else
+			localStorage.setLocation(t, p);
+	}
+
+	public void removeAsync(final P p, final T t) {
+		if (!inLocal(p))
+			removeFromRemoteAsync(p, t);
+		else
+			localStorage.removeObject(t);
+	}
+
+	public void removeAsync(final P p) {
+		if (!inLocal(p))
+			removeFromRemoteAsync(p);
+		else
+			localStorage.removeObjects(p);
+	}
+
 	public void move(final P fromP, final P toP, final T t) {
 		final int fromPid = partition.toPartitionId(fromP);
 		final int toPid = partition.toPartitionId(toP);
@@ -423,7 +513,8 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 	// this cast should work
 
 	/**
-	 * Get using RMI the object (or objects) contained at a point p
+	 * Get using RMI the object (or objects) contained at a point p. Each call is
+	 * a round trip; getFromRemoteAsync batches them instead.
 	 * 
 	 * @param p point to get from
 	 */
@@ -484,6 +575,158 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 		}
 	}
 
+	/**
+	 * A remote access queued until the next syncRemote
+	 */
+	static class RemoteRequest implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		static final int GET = 0, ADD = 1, REMOVE = 2, REMOVE_ALL = 3;
+
+		final int kind;
+		final NdPoint p;
+		final Serializable t;
+		// Stays with the processor that queued the request
+		transient RemoteFuture<Serializable> future;
+
+		RemoteRequest(final int kind, final NdPoint p, final Serializable t) {
+			this.kind = kind;
+			this.p = p;
+			this.t = t;
+		}
+	}
+
+	/**
+	 * Queues a read of the object (or objects) contained at a point p. Unlike
+	 * getFromRemote, reads and writes to the same partition are shipped together
+	 * by the next syncRemote, instead of one RMI call each.
+	 * 
+	 * @param p point to get from
+	 * @return the value, filled in by the next syncRemote
+	 */
+	@SuppressWarnings("unchecked")
+	public <V extends Serializable> RemoteFuture<V> getFromRemoteAsync(final P p) {
+		final RemoteRequest request = new RemoteRequest(RemoteRequest.GET, p, null);
+		request.future = new RemoteFuture<>();
+		remoteRequests.add(request);
+		return (RemoteFuture<V>) request.future;
+	}
+
+	/**
+	 * Queues the addition of an object t at a point p until the next syncRemote
+	 * 
+	 * @param p point to add at
+	 * @param t object to add
+	 */
+	public void addToRemoteAsync(final P p, final T t) {
+		remoteRequests.add(new RemoteRequest(RemoteRequest.ADD, p, t));
+	}
+
+	/**
+	 * Queues the removal of an object t contained at a point p until the next
+	 * syncRemote
+	 * 
+	 * @param p point to remove from
+	 * @param t object to remove
+	 */
+	public void removeFromRemoteAsync(final P p, final T t) {
+		remoteRequests.add(new RemoteRequest(RemoteRequest.REMOVE, p, t));
+	}
+
+	/**
+	 * Queues the removal of all objects contained at a point p until the next
+	 * syncRemote
+	 * 
+	 * @param p point to remove from
+	 */
+	public void removeFromRemoteAsync(final P p) {
+		remoteRequests.add(new RemoteRequest(RemoteRequest.REMOVE_ALL, p, null));
+	}
+
+	public boolean hasRemoteRequests() {
+		return !remoteRequests.isEmpty();
+	}
+
+	/**
+	 * Ships the queued remote accesses, one message to each partition, and waits
+	 * for the values read. Each partition applies the accesses it receives in
+	 * the order they were queued, as the RMI calls would. DSimState calls this
+	 * on all nodes together, only when some processor queued any.
+	 * 
+	 * @throws MPIException
+	 */
+	@SuppressWarnings("unchecked")
+	public void syncRemote() throws MPIException {
+		if (remoteComm == null)
+			remoteComm = partition.getWorld().createNeighborhood(IntStream.range(0, partition.getNumProc())
+					.filter(i -> i != partition.getPid()).toArray());
+		final int[] others = remoteComm.getNeighbors();
+
+		// The owner is looked up now, in case the partitions were balanced since
+		final ArrayList<RemoteRequest>[] sendObjs = new ArrayList[others.length];
+		for (int i = 0; i < others.length; i++)
+			sendObjs[i] = new ArrayList<>();
+		for (final RemoteRequest request : remoteRequests) {
+			final int dst = partition.toPartitionId((P) request.p);
+			if (dst == partition.getPid()) {
+				final Serializable value = applyRemote(request);
+				if (request.future != null)
+					request.future.complete(value);
+			} else
+				sendObjs[Arrays.binarySearch(others, dst)].add(request);
+		}
+		remoteRequests.clear();
+
+		final ArrayList<ArrayList<RemoteRequest>> recvObjs = remoteComm.neighborAllToAll(sendObjs);
+
+		final ArrayList<Serializable>[] values = new ArrayList[others.length];
+		for (int i = 0; i < others.length; i++) {
+			values[i] = new ArrayList<>();
+			for (final RemoteRequest request : recvObjs.get(i)) {
+				final Serializable value = applyRemote(request);
+				if (request.kind == RemoteRequest.GET)
+					values[i].add(value);
+			}
+		}
+
+		final ArrayList<ArrayList<Serializable>> answers = remoteComm.neighborAllToAll(values);
+
+		for (int i = 0; i < others.length; i++) {
+			int k = 0;
+			for (final RemoteRequest request : sendObjs[i])
+				if (request.future != null)
+					request.future.complete(answers.get(i).get(k++));
+		}
+	}
+
+	/**
+	 * Applies a remote access to the local storage, through the methods RMI
+	 * calls
+	 * 
+	 * @param request
+	 * @return the value read, null for writes
+	 */
+	@SuppressWarnings("unchecked")
+	Serializable applyRemote(final RemoteRequest request) {
+		try {
+			switch (request.kind) {
+			case RemoteRequest.GET:
+				return getRMI((P) request.p);
+			case RemoteRequest.ADD:
+				addRMI((P) request.p, request.t);
+				break;
+			case RemoteRequest.REMOVE:
+				removeRMI((P) request.p, request.t);
+				break;
+			default:
+				removeRMI((P) request.p);
+			}
+		} catch (final RemoteException e) {
+			throw new RuntimeException(e);
+		}
+		return null;
+	}
+
 	/**
 	 * @return local storage (for this partition)
 	 */
@@ -551,13 +794,13 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 	 * @throws MPIException
 	 */
 	public void collect(final int dst, final GridStorage fullField) throws MPIException {
-		final Serializable sendObj = localStorage.pack(new MPIParam(origPart, haloPart, MPIBaseType));
+		final Serializable sendObj = localStorage.pack(new MPIParam(origPart, haloPart));
 
 		final ArrayList<Serializable> recvObjs = MPIUtil.<Serializable>gather(partition, sendObj, dst);
 
 		if (partition.getPid() == dst)
 			for (int i = 0; i < partition.getNumProc(); i++)
-				fullField.unpack(new MPIParam(partition.getPartition(i), world, MPIBaseType), recvObjs.get(i));
+				fullField.unpack(new MPIParam(partition.getPartition(i), world), recvObjs.get(i));
 	}
 
 	/**
@@ -577,16 +820,16 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 		final GroupComm gc = qt.getGroupComm(level);
 
 		if (gc != null) {
-			final Serializable sendObj = localStorage.pack(new MPIParam(origPart, haloPart, MPIBaseType));
+			final Serializable sendObj = localStorage.pack(new MPIParam(origPart, haloPart));
 
-			final ArrayList<Serializable> recvObjs = MPIUtil.<Serializable>gather(gc.comm, sendObj, gc.groupRoot);
+			final ArrayList<Serializable> recvObjs = gc.comm.<Serializable>gather(sendObj, gc.groupRoot);
 
 			if (qt.isGroupMaster(gc))
 				for (int i = 0; i < recvObjs.size(); i++)
-					groupField.unpack(new MPIParam(gc.leaves.get(i).getShape(), gc.master.getShape(), MPIBaseType),
+					groupField.unpack(new MPIParam(gc.leaves.get(i).getShape(), gc.master.getShape()),
 							recvObjs.get(i));
 		}
-		MPI.COMM_WORLD.barrier();
+		partition.getWorld().barrier();
 	}
 
 	/**
@@ -612,11 +855,11 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 				sendObjs = new Serializable[gc.leaves.size()];
 				for (int i = 0; i < gc.leaves.size(); i++)
 					sendObjs[i] = groupField
-							.pack(new MPIParam(gc.leaves.get(i).getShape(), gc.master.getShape(), MPIBaseType));
+							.pack(new MPIParam(gc.leaves.get(i).getShape(), gc.master.getShape()));
 			}
-			final Serializable recvObj = MPIUtil.<Serializable>scatter(gc.comm, sendObjs, gc.groupRoot);
+			final Serializable recvObj = gc.comm.<Serializable>scatter(sendObjs, gc.groupRoot);
 
-			localStorage.unpack(new MPIParam(origPart, haloPart, MPIBaseType), recvObj);
+			localStorage.unpack(new MPIParam(origPart, haloPart), recvObj);
 		}
 		syncHalo();
 	}
@@ -628,6 +871,11 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 	}
 
 	public void syncHalo() throws MPIException {
+		if (haloSendBuf != null) {
+			syncHaloBuffers();
+			return;
+		}
+
 		final Serializable[] sendObjs = new Serializable[numNeighbors];
 		for (int i = 0; i < numNeighbors; i++)
 			sendObjs[i] = localStorage.pack(neighbors.get(i).sendParam);
@@ -638,6 +886,67 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 			localStorage.unpack(neighbors.get(i).recvParam, recvObjs.get(i));
 	}
 
+	/**
+	 * syncHalo for primitive storages: the regions of all neighbors are copied
+	 * into one direct buffer and exchanged in a single neighborAllToAllv,
+	 * without serialization or per-step allocation
+	 * 
+	 * @throws MPIException
+	 */
+	void syncHaloBuffers() throws MPIException {
+		packHalo();
+		partition.getCommunicator().neighborAllToAllv(haloSendBuf, haloSendCount, haloSendDispl, haloRecvBuf,
+				haloRecvCount, haloRecvDispl);
+		unpackHalo();
+	}
+
+	void packHalo() {
+		final ByteBufferPackable packable = (ByteBufferPackable) localStorage;
+		haloSendBuf.clear();
+		for (int i = 0; i < numNeighbors; i++)
+			packable.pack(neighbors.get(i).sendParam, haloSendBuf);
+	}
+
+	void unpackHalo() {
+		final ByteBufferPackable packable = (ByteBufferPackable) localStorage;
+		haloRecvBuf.clear();
+		for (int i = 0; i < numNeighbors; i++)
+			packable.unpack(neighbors.get(i).recvParam, haloRecvBuf);
+	}
+
+	/**
+	 * For primitive storages, starts the exchange of syncHaloBuffers. Other
+	 * storages are synced completely.
+	 */
+	public boolean startSyncHalo() throws MPIException {
+		if (haloSendBuf == null) {
+			syncHalo();
+			return false;
+		}
+
+		packHalo();
+		haloRequest = partition.getCommunicator().iNeighborAllToAllv(haloSendBuf, haloSendCount, haloSendDispl,
+				haloRecvBuf, haloRecvCount, haloRecvDispl);
+		return true;
+	}
+
+	public void finishSyncHalo() throws MPIException {
+		if (haloRequest == null)
+			return;
+
+		haloRequest.waitFor();
+		haloRequest = null;
+		unpackHalo();
+	}
+
+	public NdPoint locate(final Object obj) {
+		return obj instanceof Serializable ? localStorage.getLocation((Serializable) obj) : null;
+	}
+
+	public boolean inPrivatePart(final NdPoint point) {
+		return privatePart.contains(point);
+	}
+
 	public void syncObject(PayloadWrapper payloadWrapper) {
 		if (payloadWrapper.payload instanceof DistributedIterativeRepeat) {
 			final DistributedIterativeRepeat iterativeRepeat = (DistributedIterativeRepeat) payloadWrapper.payload;
@@ -0,0 +1,47 @@
+package sim.field;
+
+/**
+ * The result of a remote read queued by HaloGrid2D.getFromRemoteAsync. It is
+ * filled in by the next synchronization, so it can be read from the next step
+ * on.
+ *
+ * @param <V> Type of the value read
+ */
+public class RemoteFuture<V> {
+	private V value;
+	private boolean done;
+
+	/**
+	 * @param value
+	 * @return a future already holding value, for reads that turned out to be
+	 *         local
+	 */
+	public static <V> RemoteFuture<V> of(final V value) {
+		final RemoteFuture<V> future = new RemoteFuture<>();
+		future.complete(value);
+		return future;
+	}
+
+	void complete(final V value) {
+		this.value = value;
+		done = true;
+	}
+
+	/**
+	 * @return true if the value has arrived
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the value read
+	 *
+	 * @throws IllegalStateException if the value has not arrived yet
+	 */
+	public V get() {
+		if (!done)
+			throw new IllegalStateException("The value arrives with the next synchronization");
+		return value;
+	}
+}
@@ -2,6 +2,7 @@ package sim.field;
 
 import mpi.MPIException;
 import sim.engine.transport.PayloadWrapper;
+import sim.field.partitioning.NdPoint;
 
 /**
  * A synchronizable object used by DSimSate.
@@ -25,6 +26,61 @@ public interface Synchronizable {
 	 */
 	public void syncHalo() throws MPIException;
 
+	/**
+	 * Starts syncHalo without waiting for the halo to arrive. Until
+	 * finishSyncHalo is called, only the private part may be read and only the
+	 * local part written. By default the whole syncHalo is done here.
+	 * 
+	 * @return true if finishSyncHalo must be called before the halo is read
+	 * @throws MPIException
+	 */
+	public default boolean startSyncHalo() throws MPIException {
+		syncHalo();
+		return false;
+	}
+
+	/**
+	 * Waits for the halo sent by startSyncHalo
+	 * 
+	 * @throws MPIException
+	 */
+	public default void finishSyncHalo() throws MPIException {
+	}
+
+	/**
+	 * @param obj
+	 * @return location of obj in this field, or null if it is not known
+	 */
+	public default NdPoint locate(final Object obj) {
+		return null;
+	}
+
+	/**
+	 * @param point
+	 * @return true if point lies in the private part, i.e. its area of interest
+	 *         does not reach into the halo
+	 */
+	public default boolean inPrivatePart(final NdPoint point) {
+		return false;
+	}
+
+	/**
+	 * @return true if remote accesses were queued during the step. By default
+	 *         there are none.
+	 */
+	public default boolean hasRemoteRequests() {
+		return false;
+	}
+
+	/**
+	 * Ships the remote accesses queued during the step to their partitions. All
+	 * nodes call this together, if any of them has remote requests.
+	 * 
+	 * @throws MPIException
+	 */
+	public default void syncRemote() throws MPIException {
+	}
+
 	/**
 	 * adds payload to Halo Grid (for when agents or objects are transported in)
 	 * 
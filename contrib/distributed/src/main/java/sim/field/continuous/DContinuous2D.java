@@ -4,8 +4,6 @@ import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import sim.engine.DSimState;
 import sim.engine.DistributedIterativeRepeat;
@@ -13,10 +11,10 @@ import sim.engine.Stopping;
 import sim.field.DAbstractGrid2D;
 import sim.field.DGrid;
 import sim.field.HaloGrid2D;
+import sim.field.RemoteFuture;
 import sim.field.partitioning.NdPoint;
 import sim.field.partitioning.PartitionInterface;
-import sim.field.storage.ContStorage;
-import sim.util.MPIParam;
+import sim.field.storage.PrimitiveContStorage;
 
 /**
  * A countinous field that contains lists of objects of type T. Analogous to
@@ -26,7 +24,7 @@ import sim.util.MPIParam;
  */
 public class DContinuous2D<T extends Serializable> extends DAbstractGrid2D implements DGrid<T, NdPoint> {
 
-	private HaloGrid2D<T, NdPoint, ContStorage<T>> halo;
+	private HaloGrid2D<T, NdPoint, PrimitiveContStorage<T>> halo;
 
 	public DContinuous2D(final PartitionInterface ps, final int[] aoi, final double[] discretizations,
 			final DSimState state) {
@@ -35,8 +33,8 @@ public class DContinuous2D<T extends Serializable> extends DAbstractGrid2D imple
 		if (ps.getNumDim() != 2)
 			throw new IllegalArgumentException("The number of dimensions is expected to be 2, got: " + ps.getNumDim());
 
-		halo = new HaloGrid2D<T, NdPoint, ContStorage<T>>(ps, aoi,
-				new ContStorage<T>(ps.getPartition(), discretizations), state);
+		halo = new HaloGrid2D<T, NdPoint, PrimitiveContStorage<T>>(ps, aoi,
+				new PrimitiveContStorage<T>(ps.getPartition(), discretizations), state);
 
 	}
 
@@ -74,19 +72,20 @@ public class DContinuous2D<T extends Serializable> extends DAbstractGrid2D imple
 		return halo.localStorage.getNeighborsWithin(obj, r);
 	}
 
-	// TODO refactor this after new pack/unpack is introduced in Storage
-	@SuppressWarnings("unchecked")
-	public final List<T> getAllObjects() {
-		Serializable data = null;
-
-		data = halo.localStorage.pack(new MPIParam(halo.origPart, halo.haloPart, halo.MPIBaseType));
-
-		final List<T> objs = ((ArrayList<ArrayList<T>>) data).get(0);
+	/**
+	 * Adds the neighbors of obj within r to result, which can be reused across
+	 * queries so that they do not allocate
+	 * 
+	 * @param obj
+	 * @param r
+	 * @param result
+	 */
+	public void getNeighborsWithin(final T obj, final double r, final List<T> result) {
+		halo.localStorage.getNeighborsWithin(obj, r, result);
+	}
 
-		return IntStream.range(0, objs.size())
-				.filter(n -> n % 2 == 0)
-				.mapToObj(objs::get)
-				.collect(Collectors.toList());
+	public final List<T> getAllObjects() {
+		return halo.localStorage.getObjects(halo.origPart);
 	}
 
 	public ArrayList<T> getLocal(final NdPoint p) {
@@ -137,6 +136,38 @@ public class DContinuous2D<T extends Serializable> extends DAbstractGrid2D imple
 		halo.remove(p);
 	}
 
+	/**
+	 * @param p
+	 * @return the value at p; filled in by the next synchronization if p is
+	 *         neither local nor in the halo
+	 */
+	public RemoteFuture<ArrayList<T>> getAsync(final NdPoint p) {
+		if (!halo.inLocalAndHalo(p))
+			return halo.getFromRemoteAsync(p);
+		return RemoteFuture.of(getLocal(p));
+	}
+
+	public void addAsync(NdPoint p, T t) {
+		if (!halo.inLocal(p))
+			halo.addToRemoteAsync(p, t);
+		else
+			add(p, t);
+	}
+
+	public void removeAsync(NdPoint p, T t) {
+		if (!halo.inLocal(p))
+			halo.removeFromRemoteAsync(p, t);
+		else
+			remove(p, t);
+	}
+
+	public void removeAsync(NdPoint p) {
+		if (!halo.inLocal(p))
+			halo.removeFromRemoteAsync(p);
+		else
+			remove(p);
+	}
+
 	public void addAgent(NdPoint p, T t, int ordering, double time) {
 		halo.addAgent(p, t, ordering, time);
 	}
@@ -9,6 +9,7 @@ import sim.engine.DistributedIterativeRepeat;
 import sim.field.DAbstractGrid2D;
 import sim.field.DGrid;
 import sim.field.HaloGrid2D;
+import sim.field.RemoteFuture;
 import sim.field.partitioning.IntPoint;
 import sim.field.partitioning.NdPoint;
 import sim.field.partitioning.PartitionInterface;
@@ -141,6 +142,38 @@ public class DDenseGrid2D<T extends Serializable> extends DAbstractGrid2D implem
 		halo.remove(p);
 	}
 
+	/**
+	 * @param p
+	 * @return the value at p; filled in by the next synchronization if p is
+	 *         neither local nor in the halo
+	 */
+	public RemoteFuture<ArrayList<T>> getAsync(final NdPoint p) {
+		if (!halo.inLocalAndHalo(p))
+			return halo.getFromRemoteAsync(p);
+		return RemoteFuture.of(getLocal((IntPoint) p));
+	}
+
+	public void addAsync(NdPoint p, T t) {
+		if (!halo.inLocal(p))
+			halo.addToRemoteAsync(p, t);
+		else
+			add(p, t);
+	}
+
+	public void removeAsync(NdPoint p, T t) {
+		if (!halo.inLocal(p))
+			halo.removeFromRemoteAsync(p, t);
+		else
+			remove(p, t);
+	}
+
+	public void removeAsync(NdPoint p) {
+		if (!halo.inLocal(p))
+			halo.removeFromRemoteAsync(p);
+		else
+			remove(p);
+	}
+
 	public void move(NdPoint fromP, NdPoint toP, T t) {
 		halo.move(fromP, toP, t);
 	}
@@ -7,6 +7,7 @@ import sim.engine.DistributedIterativeRepeat;
 import sim.field.DAbstractGrid2D;
 import sim.field.DGrid;
 import sim.field.HaloGrid2D;
+import sim.field.RemoteFuture;
 import sim.field.partitioning.IntPoint;
 import sim.field.partitioning.PartitionInterface;
 import sim.field.storage.DoubleGridStorage;
@@ -124,6 +125,38 @@ public class DDoubleGrid2D extends DAbstractGrid2D implements DGrid<Double, IntP
 		halo.remove(p);
 	}
 
+	/**
+	 * @param p
+	 * @return the value at p; filled in by the next synchronization if p is
+	 *         neither local nor in the halo
+	 */
+	public RemoteFuture<Double> getAsync(final IntPoint p) {
+		if (!halo.inLocalAndHalo(p))
+			return halo.getFromRemoteAsync(p);
+		return RemoteFuture.of(getLocal(p));
+	}
+
+	public void addAsync(IntPoint p, Double t) {
+		if (!halo.inLocal(p))
+			halo.addToRemoteAsync(p, t);
+		else
+			add(p, t);
+	}
+
+	public void removeAsync(IntPoint p, Double t) {
+		if (!halo.inLocal(p))
+			halo.removeFromRemoteAsync(p, t);
+		else
+			remove(p, t);
+	}
+
+	public void removeAsync(IntPoint p) {
+		if (!halo.inLocal(p))
+			halo.removeFromRemoteAsync(p);
+		else
+			remove(p);
+	}
+
 	public void move(IntPoint fromP, IntPoint toP, Double t) {
 		halo.move(fromP, toP, t);
 	}
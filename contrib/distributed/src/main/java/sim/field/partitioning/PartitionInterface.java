@@ -3,7 +3,9 @@ package sim.field.partitioning;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.function.Consumer;
-import mpi.*;
+
+import mpi.MPIException;
+import sim.util.Communicator;
 
 // Consumer is Raw Type because it's parameter is of type int
 /**
@@ -17,7 +19,7 @@ public abstract class PartitionInterface<P extends NdPoint> {
 	public int pid, numProcessors, numDimensions;
 	public int[] size;
 	boolean isToroidal;
-	public Comm comm;
+	public Communicator world, comm;
 	public int[] aoi;
 
 	ArrayList<Consumer> preCallbacks, postCallbacks;
@@ -28,13 +30,9 @@ public abstract class PartitionInterface<P extends NdPoint> {
 		this.isToroidal = isToroidal;
 		this.aoi = aoi;
 
-		try {
-			pid = MPI.COMM_WORLD.getRank();
-			numProcessors = MPI.COMM_WORLD.getSize();
-		} catch (final MPIException e) {
-			e.printStackTrace();
-			System.exit(-1);
-		}
+		world = Communicator.getWorld();
+		pid = world.getRank();
+		numProcessors = world.getSize();
 
 		preCallbacks = new ArrayList<Consumer>();
 		postCallbacks = new ArrayList<Consumer>();
@@ -56,10 +54,20 @@ public abstract class PartitionInterface<P extends NdPoint> {
 		return isToroidal;
 	}
 
-	public Comm getCommunicator() {
+	/**
+	 * @return communicator with the neighbor topology of this partition
+	 */
+	public Communicator getCommunicator() {
 		return comm;
 	}
 
+	/**
+	 * @return communicator of all the processors
+	 */
+	public Communicator getWorld() {
+		return world;
+	}
+
 	public int[] getFieldSize() {
 		return Arrays.copyOf(size, numDimensions);
 	}
@@ -128,6 +136,26 @@ public abstract class PartitionInterface<P extends NdPoint> {
 		postCallbacks.add(r);
 	}
 
+	/**
+	 * Moves the partition boundaries so that the processors get even shares of
+	 * the load. Collective: every processor calls it with its own load.
+	 * Callbacks registered with registerPreCommit/registerPostCommit are called
+	 * around the change, with the level.
+	 * 
+	 * @param myRuntime load of the calling processor, e.g. its step runtime
+	 * @param level     the level to balance, from 0 to getNumBalanceLevels() - 1
+	 * 
+	 * @throws MPIException
+	 */
+	public abstract void balance(double myRuntime, int level) throws MPIException;
+
+	/**
+	 * @return number of levels balance() works on
+	 */
+	public int getNumBalanceLevels() {
+		return 1;
+	}
+
 	/**
 	 * Initialize partition
 	 */
@@ -8,13 +8,11 @@ import java.util.Map;
 import java.util.Random;
 import java.util.function.Consumer;
 
-import mpi.Comm;
-import mpi.Info;
 import mpi.MPI;
 import mpi.MPIException;
+import sim.util.Communicator;
 import sim.util.GroupComm;
 import sim.util.MPITest;
-import sim.util.MPIUtil;
 
 /**
  * Quad tree partition divides the world into partitions and arranging them as a
@@ -69,14 +67,15 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 	}
 
 	/**
-	 * Creates the MPI comm world by defining the MPI topology as this quad tree.
+	 * Creates the neighbor communicator by defining the topology as this quad
+	 * tree.
 	 */
 	protected void createMPITopo() {
 		final int[] ns = getNeighborIds();
 
 		try {
 			// Create a unweighted & undirected graph for neighbor communication
-			comm = MPI.COMM_WORLD.createDistGraphAdjacent(ns, ns, new Info(), false);
+			comm = world.createNeighborhood(ns);
 
 			// Create the group comms for nodes at the same level (intercomm) and for nodes
 			// and its all leaves (intracomm)
@@ -186,17 +185,17 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 
 				// whether this pid should participate in this group
 				if (node.isAncestorOf(myLeafNode))
-					groups.put(currDepth, new GroupComm(node));
+					groups.put(currDepth, new GroupComm(world, node));
 
 				// Others will wait until the group is created
-				MPI.COMM_WORLD.barrier();
+				world.barrier();
 			}
 
 			final GroupComm gc = groups.get(currDepth);
 			if (isGroupMaster(gc))
-				gc.setInterComm(currLevel);
+				gc.setInterComm(world, currLevel);
 
-			MPI.COMM_WORLD.barrier();
+			world.barrier();
 
 			currLevel = nextLevel;
 			currDepth++;
@@ -252,15 +251,13 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 		MPITest.printOnlyIn(0, "Testing intra group comm at depth " + depth);
 
 		if (groups.containsKey(depth)) {
-			final Comm gcomm = groups.get(depth).comm;
-			final int[] buf = new int[16];
+			final Communicator gcomm = groups.get(depth).comm;
+			final ArrayList<Integer> buf = gcomm.allGather(pid);
 
-			buf[gcomm.getRank()] = pid;
-			gcomm.allGather(buf, 1, MPI.INT);
-			System.out.println(String.format("PID %2d %s", pid, Arrays.toString(buf)));
+			System.out.println(String.format("PID %2d %s", pid, buf));
 		}
 
-		MPI.COMM_WORLD.barrier();
+		world.barrier();
 	}
 
 	private void testInterGroupComm(final int depth) throws MPIException {
@@ -268,15 +265,21 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 
 		final GroupComm gc = getGroupComm(depth);
 		if (isGroupMaster(gc)) {
-			final Comm gcomm = gc.interComm;
-			final int[] buf = new int[16];
+			final Communicator gcomm = gc.interComm;
+			final ArrayList<Integer> buf = gcomm.allGather(pid);
 
-			buf[gcomm.getRank()] = pid;
-			gcomm.allGather(buf, 1, MPI.INT);
-			System.out.print(String.format("PID %2d %s\n", pid, Arrays.toString(buf)));
+			System.out.print(String.format("PID %2d %s\n", pid, buf));
 		}
 
-		MPI.COMM_WORLD.barrier();
+		world.barrier();
+	}
+
+	/**
+	 * @return depth of the quad tree; each level of nodes with children is
+	 *         balanced separately
+	 */
+	public int getNumBalanceLevels() {
+		return qt.getDepth();
 	}
 
 	/**
@@ -300,7 +303,7 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 			for (int i = 1; i < sendData.length; i++)
 				sendData[i] = ctr.c[i - 1] * myRuntime;
 
-			gc.comm.reduce(sendData, recvData, recvData.length, MPI.DOUBLE, MPI.SUM, gc.groupRoot);
+			gc.comm.reduceSum(sendData, recvData, gc.groupRoot);
 
 			if (isGroupMaster(gc))
 				sendCentroids = new Object[] { gc.master.getId(),
@@ -309,7 +312,7 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 		}
 
 		// broadcast to all nodes
-		final ArrayList<Object[]> newCentroids = MPIUtil.<Object[]>allGather(MPI.COMM_WORLD, sendCentroids);
+		final ArrayList<Object[]> newCentroids = world.<Object[]>allGather(sendCentroids);
 
 		// call precommit
 		for (final Consumer r : (ArrayList<Consumer>) preCallbacks)
@@ -0,0 +1,241 @@
+package sim.field.partitioning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import mpi.MPIException;
+
+/**
+ * Recursive coordinate bisection divides the world by cutting it in two along
+ * its longest dimension, sharing the processors between the two halves, and
+ * cutting each half again until every processor has a rectangle of its own.
+ * Unlike QuadTreePartition it works with any number of processors.
+ *
+ * Each cut is placed so that both halves carry a load in proportion to their
+ * number of processors: the area at initialization, the measured runtimes in
+ * balance(). As with QuadTreePartition, a toroidal field should be cut at least
+ * once along every dimension, i.e. run on 4 or more processors in 2D.
+ */
+public class RCBPartition extends PartitionInterface<NdPoint> {
+
+	/**
+	 * A cut of the world, or a processor's rectangle if lo and hi are null
+	 */
+	static class Node {
+		int dim, cut, pid;
+		Node lo, hi;
+	}
+
+	Node root;
+	IntHyperRect[] parts; // rectangle of each processor, indexed by pid
+	int[] neighbors;
+
+	public RCBPartition(final int[] size, final boolean isToroidal, final int[] aoi) {
+		super(size, isToroidal, aoi);
+	}
+
+	public IntHyperRect getPartition() {
+		return parts[pid];
+	}
+
+	public IntHyperRect getPartition(final int pid) {
+		if (pid < 0 || pid >= numProcessors)
+			throw new IllegalArgumentException("The partition for " + pid + " does not exist");
+		return parts[pid];
+	}
+
+	public int getNumNeighbors() {
+		return neighbors.length;
+	}
+
+	public int[] getNeighborIds() {
+		return Arrays.copyOf(neighbors, neighbors.length);
+	}
+
+	public int toPartitionId(final NdPoint p) {
+		return toPartitionId(p.getArrayInDouble());
+	}
+
+	public int toPartitionId(final int[] c) {
+		Node node = root;
+		while (node.lo != null)
+			node = c[node.dim] < node.cut ? node.lo : node.hi;
+		return node.pid;
+	}
+
+	public int toPartitionId(final double[] c) {
+		Node node = root;
+		while (node.lo != null)
+			node = c[node.dim] < node.cut ? node.lo : node.hi;
+		return node.pid;
+	}
+
+	public boolean isGlobalMaster() {
+		return pid == 0;
+	}
+
+	public void initialize() {
+		parts = new IntHyperRect[numProcessors];
+		root = bisect(createField(), 0, numProcessors, null, null);
+		createMPITopo();
+	}
+
+	/**
+	 * Creates the neighbor communicator from the processors whose rectangles
+	 * reach into the halo of ours
+	 */
+	protected void createMPITopo() {
+		final IntHyperRect halo = parts[pid].resize(aoi);
+		neighbors = IntStream.range(0, numProcessors).filter(i -> i != pid && reaches(halo, parts[i])).toArray();
+
+		try {
+			comm = world.createNeighborhood(neighbors);
+		} catch (final MPIException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	boolean reaches(final IntHyperRect halo, final IntHyperRect rect) {
+		if (!isToroidal)
+			return halo.isIntersect(rect);
+
+		for (final IntPoint p : IntPointGenerator.getLayer(numDimensions, 1))
+			if (halo.isIntersect(rect.shift(IntStream.range(0, numDimensions).map(i -> p.c[i] * size[i]).toArray())))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Cuts shape among the processors first (inclusive) to last (exclusive) and
+	 * records their rectangles in parts
+	 *
+	 * @param shape
+	 * @param first
+	 * @param last
+	 * @param rects the rectangles the loads were measured on, or null to balance
+	 *              the area
+	 * @param loads the load of each of rects, assumed to be spread evenly over it
+	 * @return the subtree
+	 */
+	Node bisect(final IntHyperRect shape, final int first, final int last, final IntHyperRect[] rects,
+			final double[] loads) {
+		final Node node = new Node();
+		if (last - first == 1) {
+			node.pid = first;
+			parts[first] = new IntHyperRect(first, shape.ul, shape.br);
+			return node;
+		}
+
+		final int mid = first + (last - first) / 2;
+		final int[] extent = shape.getSize();
+		for (int i = 1; i < numDimensions; i++)
+			if (extent[i] > extent[node.dim])
+				node.dim = i;
+
+		// Every rectangle must hold its private part, which is the rectangle less
+		// the aoi on both sides
+		final int minWidth = Math.max(1, 2 * aoi[node.dim]);
+		final int from = shape.ul.c[node.dim];
+		final int min = from + (mid - first) * minWidth, max = shape.br.c[node.dim] - (last - mid) * minWidth;
+
+		if (min > max || rects == null)
+			node.cut = Math.max(min,
+					Math.min(max, from + (int) ((long) extent[node.dim] * (mid - first) / (last - first))));
+		else {
+			// The smallest cut that leaves at least the lower processors' share of
+			// the load below it, or the one just before if that is closer
+			final double target = load(shape, rects, loads) * (mid - first) / (last - first);
+			int lo = min, hi = max;
+			while (lo < hi) {
+				final int c = (lo + hi) >>> 1;
+				if (load(cut(shape, node.dim, from, c), rects, loads) < target)
+					lo = c + 1;
+				else
+					hi = c;
+			}
+			node.cut = lo;
+			if (lo > min && target - load(cut(shape, node.dim, from, lo - 1), rects, loads) < load(
+					cut(shape, node.dim, from, lo), rects, loads) - target)
+				node.cut = lo - 1;
+		}
+
+		node.lo = bisect(cut(shape, node.dim, from, node.cut), first, mid, rects, loads);
+		node.hi = bisect(cut(shape, node.dim, node.cut, shape.br.c[node.dim]), mid, last, rects, loads);
+		return node;
+	}
+
+	/**
+	 * @return the part of shape from from (inclusive) to to (exclusive) along dim
+	 */
+	static IntHyperRect cut(final IntHyperRect shape, final int dim, final int from, final int to) {
+		final int[] ul = Arrays.copyOf(shape.ul.c, shape.nd), br = Arrays.copyOf(shape.br.c, shape.nd);
+		ul[dim] = from;
+		br[dim] = to;
+		return new IntHyperRect(-1, new IntPoint(ul), new IntPoint(br));
+	}
+
+	/**
+	 * @return the load falling into region
+	 */
+	static double load(final IntHyperRect region, final IntHyperRect[] rects, final double[] loads) {
+		double sum = 0;
+		for (int i = 0; i < rects.length; i++) {
+			double overlap = 1, area = 1;
+			for (int d = 0; d < region.nd; d++) {
+				overlap *= Math.max(0,
+						Math.min(region.br.c[d], rects[i].br.c[d]) - Math.max(region.ul.c[d], rects[i].ul.c[d]));
+				area *= rects[i].br.c[d] - rects[i].ul.c[d];
+			}
+			if (overlap > 0)
+				sum += loads[i] * overlap / area;
+		}
+		return sum;
+	}
+
+	/**
+	 * Moves all the cuts so that every processor gets the same share of the
+	 * runtimes of all the processors.
+	 *
+	 * @param myRuntime
+	 * @param level     unused, there is only one level
+	 *
+	 * @throws MPIException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void balance(final double myRuntime, final int level) throws MPIException {
+		final ArrayList<Double> runtimes = world.allGather(myRuntime);
+
+		// A small share of the total in proportion to the area keeps processors with
+		// no measured load from being given the whole world
+		double total = 0;
+		for (final double r : runtimes)
+			total += r;
+		final double fieldArea = Arrays.stream(size).asDoubleStream().reduce(1, (a, b) -> a * b);
+		final double[] loads = new double[numProcessors];
+		for (int i = 0; i < numProcessors; i++) {
+			final double area = Arrays.stream(parts[i].getSize()).asDoubleStream().reduce(1, (a, b) -> a * b);
+			loads[i] = runtimes.get(i) + (total > 0 ? total : 1) * 1e-3 * area / fieldArea;
+		}
+
+		// call precommit
+		for (final Consumer r : preCallbacks)
+			r.accept(level);
+
+		// Every processor computes the same cuts from the same runtimes
+		final IntHyperRect[] old = parts;
+		parts = new IntHyperRect[numProcessors];
+		root = bisect(createField(), 0, numProcessors, old, loads);
+		createMPITopo();
+
+		// call postcommit
+		for (final Consumer r : postCallbacks)
+			r.accept(level);
+	}
+
+	public String toString() {
+		return "RCBPartition [parts=" + Arrays.toString(parts) + ", aoi=" + Arrays.toString(aoi) + "]";
+	}
+}
@@ -0,0 +1,35 @@
+package sim.field.storage;
+
+import java.nio.ByteBuffer;
+
+import sim.util.MPIParam;
+
+/**
+ * Storages of fixed-size primitive elements, whose regions can be copied
+ * straight into ByteBuffers without any serialization. HaloGrid2D exchanges
+ * the halos of such storages through reusable direct buffers.
+ */
+public interface ByteBufferPackable {
+
+	/**
+	 * @return bytes per element
+	 */
+	int getElementBytes();
+
+	/**
+	 * Copies the elements of mp into buf at its position, advancing it
+	 * 
+	 * @param mp
+	 * @param buf
+	 */
+	void pack(MPIParam mp, ByteBuffer buf);
+
+	/**
+	 * Copies the elements of mp from buf at its position, advancing it. Reverse
+	 * of pack(MPIParam, ByteBuffer).
+	 * 
+	 * @param mp
+	 * @param buf
+	 */
+	void unpack(MPIParam mp, ByteBuffer buf);
+}
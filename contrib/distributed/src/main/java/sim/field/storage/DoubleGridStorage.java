@@ -1,17 +1,18 @@
 package sim.field.storage;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 import mpi.*;
-import static mpi.MPI.slice;
 
 import sim.field.partitioning.IntHyperRect;
 import sim.field.partitioning.NdPoint;
 import sim.util.MPIParam;
 
-public class DoubleGridStorage<T extends Serializable> extends GridStorage<T>{
+public class DoubleGridStorage<T extends Serializable> extends GridStorage<T> implements ByteBufferPackable{
 	
 	//TODO CHANGE HERE TO BE EQUAL TO THE ABSTRACT METHODS
 	@Override
@@ -46,7 +47,6 @@ public class DoubleGridStorage<T extends Serializable> extends GridStorage<T>{
 
     public DoubleGridStorage(IntHyperRect shape, double initVal) {
         super(shape);
-        baseType = MPI.DOUBLE;
         storage = allocate(shape.getArea());
         Arrays.fill((double[])storage, initVal);
     }
@@ -55,14 +55,48 @@ public class DoubleGridStorage<T extends Serializable> extends GridStorage<T>{
         return new DoubleGridStorage(shape, 0);
     }
 
-    public byte[] pack(MPIParam mp) throws MPIException {
-        byte[] buf = new byte[MPI.COMM_WORLD.packSize(mp.size, baseType)];
-        MPI.COMM_WORLD.pack(slice((double[])storage, mp.idx), 1, mp.type, buf, 0);
-        return buf;
+    public Datatype getMPIBaseType() {
+        return MPI.DOUBLE;
     }
 
-    public int unpack(MPIParam mp, Serializable buf) throws MPIException {
-        return MPI.COMM_WORLD.unpack((byte[])buf, 0, slice((double[])storage, mp.idx), 1, mp.type);
+    public int getElementBytes() {
+        return 8;
+    }
+
+    // Rows are copied in Java rather than through MPI.pack, so that storages
+    // can be packed without MPI as well
+    public byte[] pack(MPIParam mp) {
+        ByteBuffer buf = ByteBuffer.allocate(mp.size * 8);
+        pack(mp, buf);
+        return buf.array();
+    }
+
+    public int unpack(MPIParam mp, Serializable buf) {
+        ByteBuffer bytes = ByteBuffer.wrap((byte[])buf);
+        unpack(mp, bytes);
+        return bytes.position();
+    }
+
+    public void pack(MPIParam mp, ByteBuffer buf) {
+        double[] array = (double[])storage;
+        int[] offsets = mp.getRunOffsets(), lengths = mp.getRunLengths();
+        DoubleBuffer doubles = buf.asDoubleBuffer();
+
+        for (int i = 0; i < offsets.length; i++)
+            doubles.put(array, offsets[i], lengths[i]);
+
+        buf.position(buf.position() + doubles.position() * 8);
+    }
+
+    public void unpack(MPIParam mp, ByteBuffer buf) {
+        double[] array = (double[])storage;
+        int[] offsets = mp.getRunOffsets(), lengths = mp.getRunLengths();
+        DoubleBuffer doubles = buf.asDoubleBuffer();
+
+        for (int i = 0; i < offsets.length; i++)
+            doubles.get(array, offsets[i], lengths[i]);
+
+        buf.position(buf.position() + doubles.position() * 8);
     }
 
     public String toString() {
@@ -20,7 +20,7 @@ import sim.util.MPIParam;
 public abstract class GridStorage<T extends Serializable> {
 	Object storage;
 	IntHyperRect shape;
-	Datatype baseType = MPI.BYTE;
+	Datatype baseType;
 
 	int[] stride;
 
@@ -59,8 +59,12 @@ public abstract class GridStorage<T extends Serializable> {
 		return storage;
 	}
 
+	/**
+	 * @return the MPI datatype of an element, MPI.BYTE unless given. Only call
+	 *         this under MPI.
+	 */
 	public Datatype getMPIBaseType() {
-		return baseType;
+		return baseType != null ? baseType : MPI.BYTE;
 	}
 
 	public IntHyperRect getShape() {
@@ -104,16 +108,13 @@ public abstract class GridStorage<T extends Serializable> {
 
 			final IntHyperRect overlap = newShape.getIntersection(shape);
 
-			final MPIParam fromParam = new MPIParam(overlap, shape, baseType);
-			final MPIParam toParam = new MPIParam(overlap, newShape, baseType);
+			final MPIParam fromParam = new MPIParam(overlap, shape);
+			final MPIParam toParam = new MPIParam(overlap, newShape);
 
 			try {
 				final Serializable buf = pack(fromParam);
 				reload(newShape);
 				unpack(toParam, buf);
-
-				fromParam.type.free();
-				toParam.type.free();
 			} catch (final MPIException e) {
 				e.printStackTrace();
 				System.exit(-1);
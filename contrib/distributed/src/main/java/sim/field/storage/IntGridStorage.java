@@ -1,21 +1,21 @@
 package sim.field.storage;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 import mpi.*;
-import static mpi.MPI.slice;
 
 import sim.field.partitioning.IntHyperRect;
 import sim.field.partitioning.NdPoint;
 import sim.util.MPIParam;
 
-public class IntGridStorage<T extends Serializable> extends GridStorage<T> {
+public class IntGridStorage<T extends Serializable> extends GridStorage<T> implements ByteBufferPackable {
 
 	public IntGridStorage(IntHyperRect shape, int initVal) {
 		super(shape);
-		baseType = MPI.INT;
 		storage = allocate(shape.getArea());
 		Arrays.fill((int[]) storage, initVal);
 	}
@@ -24,14 +24,48 @@ public class IntGridStorage<T extends Serializable> extends GridStorage<T> {
 		return new IntGridStorage(shape, 0);
 	}
 
-	public byte[] pack(MPIParam mp) throws MPIException {
-		byte[] buf = new byte[MPI.COMM_WORLD.packSize(mp.size, baseType)];
-		MPI.COMM_WORLD.pack(slice((int[]) storage, mp.idx), 1, mp.type, buf, 0);
-		return buf;
+	public Datatype getMPIBaseType() {
+		return MPI.INT;
 	}
 
-	public int unpack(MPIParam mp, Serializable buf) throws MPIException {
-		return MPI.COMM_WORLD.unpack((byte[]) buf, 0, slice((int[]) storage, mp.idx), 1, mp.type);
+	public int getElementBytes() {
+		return 4;
+	}
+
+	// Rows are copied in Java rather than through MPI.pack, so that storages
+	// can be packed without MPI as well
+	public byte[] pack(MPIParam mp) {
+		ByteBuffer buf = ByteBuffer.allocate(mp.size * 4);
+		pack(mp, buf);
+		return buf.array();
+	}
+
+	public int unpack(MPIParam mp, Serializable buf) {
+		ByteBuffer bytes = ByteBuffer.wrap((byte[]) buf);
+		unpack(mp, bytes);
+		return bytes.position();
+	}
+
+	public void pack(MPIParam mp, ByteBuffer buf) {
+		int[] array = (int[]) storage;
+		int[] offsets = mp.getRunOffsets(), lengths = mp.getRunLengths();
+		IntBuffer ints = buf.asIntBuffer();
+
+		for (int i = 0; i < offsets.length; i++)
+			ints.put(array, offsets[i], lengths[i]);
+
+		buf.position(buf.position() + ints.position() * 4);
+	}
+
+	public void unpack(MPIParam mp, ByteBuffer buf) {
+		int[] array = (int[]) storage;
+		int[] offsets = mp.getRunOffsets(), lengths = mp.getRunLengths();
+		IntBuffer ints = buf.asIntBuffer();
+
+		for (int i = 0; i < offsets.length; i++)
+			ints.get(array, offsets[i], lengths[i]);
+
+		buf.position(buf.position() + ints.position() * 4);
 	}
 
 	public String toString() {
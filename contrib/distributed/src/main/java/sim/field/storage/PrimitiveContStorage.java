@@ -0,0 +1,494 @@
+package sim.field.storage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import sim.field.partitioning.DoublePoint;
+import sim.field.partitioning.IntHyperRect;
+import sim.field.partitioning.IntPoint;
+import sim.field.partitioning.NdPoint;
+import sim.util.MPIParam;
+
+/**
+ * Two dimensional continuous storage kept in primitive arrays, an alternative
+ * to ContStorage that neighbor queries do not allocate in.
+ *
+ * Each object is given an int slot, its coordinates are kept in the x and y
+ * arrays at that slot, and the slots of each discretized cell are chained
+ * through the next array starting from the head of the cell. Objects are
+ * mapped to their slots by an open addressing table, with the same equals and
+ * hashCode semantics as the HashMap of ContStorage.
+ *
+ * pack writes the coordinates of each region into one contiguous double array
+ * next to an array of the objects, rather than an object and an NdPoint per
+ * element.
+ *
+ * @param <T> Type of objects to store
+ */
+public class PrimitiveContStorage<T extends Serializable> extends GridStorage<T> {
+	static final int EMPTY = -1;
+
+	final double[] discretizations;
+	// Number of cells in each dimension and the upper left corner of the shape
+	int width, height;
+	double ulX, ulY;
+
+	// First slot of each cell, EMPTY if the cell has none
+	int[] head;
+	// Per slot: the object, its coordinates, its cell and the next slot of the
+	// cell, or of the free list for free slots
+	Object[] objs;
+	double[] x, y;
+	int[] cell, next;
+	int free = EMPTY, used;
+
+	// Open addressing table from objects to their slots; its length is a power
+	// of two, at most half full
+	Object[] keys;
+	int[] keySlots;
+	int numObjs;
+
+	// Scratch space of getNearestNeighbors and pack
+	int[] nearSlots = new int[16];
+	double[] nearDists = new double[16];
+	Object[] packObjs = new Object[16];
+	double[] packCoords = new double[32];
+
+	public PrimitiveContStorage(final IntHyperRect shape, final double[] discretizations) {
+		super(shape);
+
+		if (shape.getNd() != 2)
+			throw new IllegalArgumentException("The number of dimensions is expected to be 2, got: " + shape.getNd());
+		this.discretizations = discretizations;
+		storage = allocate(shape.getArea());
+	}
+
+	public GridStorage getNewStorage(final IntHyperRect shape) {
+		return new PrimitiveContStorage<>(shape, discretizations);
+	}
+
+	protected Object allocate(final int size) {
+		final int[] s = shape.getSize();
+		width = (int) Math.ceil(s[0] / discretizations[0]) + 1;
+		height = (int) Math.ceil(s[1] / discretizations[1]) + 1;
+		ulX = shape.ul().c[0];
+		ulY = shape.ul().c[1];
+
+		head = new int[width * height];
+		Arrays.fill(head, EMPTY);
+		objs = new Object[16];
+		x = new double[16];
+		y = new double[16];
+		cell = new int[16];
+		next = new int[16];
+		free = EMPTY;
+		used = 0;
+
+		keys = new Object[32];
+		keySlots = new int[32];
+		numObjs = 0;
+
+		return objs;
+	}
+
+	public void clear() {
+		storage = allocate(shape.getArea());
+	}
+
+	public String toString() {
+		final StringBuffer buf = new StringBuffer(String.format("PrimitiveContStorage-%s\n", shape));
+
+		for (int c = 0; c < head.length; c++)
+			if (head[c] != EMPTY) {
+				buf.append("Cell [" + c / height + ", " + c % height + "]:\t[");
+				for (int i = head[c]; i != EMPTY; i = next[i])
+					buf.append(objs[i] + (next[i] == EMPTY ? "" : ", "));
+				buf.append("]\n");
+			}
+
+		return buf.toString();
+	}
+
+	static double coord(final NdPoint p, final int i) {
+		if (p instanceof DoublePoint)
+			return ((DoublePoint) p).c[i];
+		if (p instanceof IntPoint)
+			return ((IntPoint) p).c[i];
+		return p.getArrayInDouble()[i];
+	}
+
+	int cellX(final double px) {
+		return Math.max(0, Math.min(width - 1, (int) ((px - ulX) / discretizations[0])));
+	}
+
+	int cellY(final double py) {
+		return Math.max(0, Math.min(height - 1, (int) ((py - ulY) / discretizations[1])));
+	}
+
+	// Slot table
+
+	static int hash(final Object obj) {
+		final int h = obj.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// Return the slot of obj, EMPTY if it is not stored
+	int slotOf(final Object obj) {
+		final int mask = keys.length - 1;
+		for (int i = hash(obj) & mask; keys[i] != null; i = (i + 1) & mask)
+			if (keys[i] == obj || keys[i].equals(obj))
+				return keySlots[i];
+		return EMPTY;
+	}
+
+	void putSlot(final Object obj, final int slot) {
+		if (2 * (numObjs + 1) > keys.length)
+			rehash(keys.length * 2);
+
+		final int mask = keys.length - 1;
+		int i = hash(obj) & mask;
+		while (keys[i] != null)
+			i = (i + 1) & mask;
+		keys[i] = obj;
+		keySlots[i] = slot;
+		numObjs++;
+	}
+
+	void removeSlot(final Object obj) {
+		final int mask = keys.length - 1;
+		int i = hash(obj) & mask;
+		while (keys[i] != obj && !keys[i].equals(obj))
+			i = (i + 1) & mask;
+
+		// Shift back the entries after i that would not be found past the hole
+		for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+			final int home = hash(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				keySlots[i] = keySlots[j];
+				i = j;
+			}
+		}
+		keys[i] = null;
+		numObjs--;
+	}
+
+	void rehash(final int capacity) {
+		final Object[] oldKeys = keys;
+		final int[] oldSlots = keySlots;
+		keys = new Object[capacity];
+		keySlots = new int[capacity];
+		numObjs = 0;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldKeys[i] != null)
+				putSlot(oldKeys[i], oldSlots[i]);
+	}
+
+	// Slots
+
+	int allocateSlot() {
+		if (free != EMPTY) {
+			final int slot = free;
+			free = next[slot];
+			return slot;
+		}
+
+		if (used == objs.length) {
+			final int capacity = used * 2;
+			objs = Arrays.copyOf(objs, capacity);
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			cell = Arrays.copyOf(cell, capacity);
+			next = Arrays.copyOf(next, capacity);
+			storage = objs;
+		}
+		return used++;
+	}
+
+	void link(final int slot, final double px, final double py) {
+		x[slot] = px;
+		y[slot] = py;
+		final int c = cellX(px) * height + cellY(py);
+		cell[slot] = c;
+		next[slot] = head[c];
+		head[c] = slot;
+	}
+
+	void unlink(final int slot) {
+		final int c = cell[slot];
+		if (head[c] == slot)
+			head[c] = next[slot];
+		else {
+			int i = head[c];
+			while (next[i] != slot)
+				i = next[i];
+			next[i] = next[slot];
+		}
+	}
+
+	void freeSlot(final int slot) {
+		objs[slot] = null;
+		next[slot] = free;
+		free = slot;
+	}
+
+	// Put the object to the given coordinates
+	void put(final T obj, final double px, final double py) {
+		int slot = slotOf(obj);
+		if (slot == EMPTY) {
+			slot = allocateSlot();
+			putSlot(obj, slot);
+		} else
+			unlink(slot);
+		objs[slot] = obj;
+		link(slot, px, py);
+	}
+
+	// Put the object to the given point
+	public void setLocation(final T obj, final NdPoint p) {
+		put(obj, coord(p, 0), coord(p, 1));
+	}
+
+	// Get the location of the given object, null if it is not stored
+	public NdPoint getLocation(final T obj) {
+		final int slot = slotOf(obj);
+		return slot == EMPTY ? null : new DoublePoint(x[slot], y[slot]);
+	}
+
+	// Get all the objects at the given point
+	@SuppressWarnings("unchecked")
+	public ArrayList<T> getObjects(final NdPoint p) {
+		final double px = coord(p, 0), py = coord(p, 1);
+		final ArrayList<T> objects = new ArrayList<>();
+		for (int i = head[cellX(px) * height + cellY(py)]; i != EMPTY; i = next[i])
+			if (x[i] == px && y[i] == py)
+				objects.add((T) objs[i]);
+		return objects;
+	}
+
+	// Get all the objects inside the given rectangle
+	@SuppressWarnings("unchecked")
+	public List<T> getObjects(final IntHyperRect r) {
+		final ArrayList<T> objects = new ArrayList<>();
+		final int x0 = r.ul().c[0], y0 = r.ul().c[1], x1 = r.br().c[0], y1 = r.br().c[1];
+
+		for (int cx = cellX(x0); cx <= cellX(x1); cx++)
+			for (int cy = cellY(y0); cy <= cellY(y1); cy++)
+				for (int i = head[cx * height + cy]; i != EMPTY; i = next[i])
+					if (x0 <= x[i] && x[i] < x1 && y0 <= y[i] && y[i] < y1)
+						objects.add((T) objs[i]);
+
+		return objects;
+	}
+
+	// Remove the object from the storage
+	public void removeObject(final T obj) {
+		final int slot = slotOf(obj);
+		if (slot == EMPTY)
+			return;
+		removeSlot(obj);
+		unlink(slot);
+		freeSlot(slot);
+	}
+
+	// Remove all the objects at the given point
+	public void removeObjects(final NdPoint p) {
+		for (final T obj : getObjects(p))
+			removeObject(obj);
+	}
+
+	// Remove all the objects inside the given rectangle
+	public void removeObjects(final IntHyperRect r) {
+		removeObjects(r.ul().c[0], r.ul().c[1], r.br().c[0], r.br().c[1]);
+	}
+
+	// Remove all the objects in [x0, x1) x [y0, y1), unlinking them while
+	// walking each cell
+	void removeObjects(final int x0, final int y0, final int x1, final int y1) {
+		for (int cx = cellX(x0); cx <= cellX(x1); cx++)
+			for (int cy = cellY(y0); cy <= cellY(y1); cy++) {
+				final int c = cx * height + cy;
+				int prev = EMPTY;
+				for (int i = head[c]; i != EMPTY;) {
+					final int after = next[i];
+					if (x0 <= x[i] && x[i] < x1 && y0 <= y[i] && y[i] < y1) {
+						if (prev == EMPTY)
+							head[c] = after;
+						else
+							next[prev] = after;
+						removeSlot(objs[i]);
+						freeSlot(i);
+					} else
+						prev = i;
+					i = after;
+				}
+			}
+	}
+
+	// Return a list of neighbors of the given object within the given radius
+	public List<T> getNeighborsWithin(final T obj, final double radius) {
+		final ArrayList<T> objects = new ArrayList<>();
+		getNeighborsWithin(obj, radius, objects);
+		return objects;
+	}
+
+	/**
+	 * Adds the neighbors of obj within radius to result, so that a caller
+	 * reusing result queries without allocating
+	 *
+	 * @param obj
+	 * @param radius
+	 * @param result
+	 */
+	@SuppressWarnings("unchecked")
+	public void getNeighborsWithin(final T obj, final double radius, final List<T> result) {
+		final int slot = slotOf(obj);
+		if (slot == EMPTY)
+			throw new IllegalArgumentException(obj + " is not stored here");
+
+		final double px = x[slot], py = y[slot], r2 = radius * radius;
+		final int x1 = cellX(px + radius), y0 = cellY(py - radius), y1 = cellY(py + radius);
+
+		for (int cx = cellX(px - radius); cx <= x1; cx++)
+			for (int cy = y0; cy <= y1; cy++)
+				for (int i = head[cx * height + cy]; i != EMPTY; i = next[i]) {
+					final double dx = x[i] - px, dy = y[i] - py;
+					if (i != slot && dx * dx + dy * dy <= r2)
+						result.add((T) objs[i]);
+				}
+	}
+
+	// Return a list of k nearest neighbors sorted by their distances
+	// to the query obj, if that many exists
+	@SuppressWarnings("unchecked")
+	public List<T> getNearestNeighbors(final T obj, final int need) {
+		final int slot = slotOf(obj);
+		if (slot == EMPTY)
+			throw new IllegalArgumentException(obj + " is not stored here");
+		if (need <= 0)
+			return new ArrayList<>();
+
+		final double px = x[slot], py = y[slot];
+		final int ocx = cellX(px), ocy = cellY(py);
+		final int maxLayer = Math.max(Math.max(ocx, width - ocx), Math.max(ocy, height - ocy));
+		final double minCell = Math.min(discretizations[0], discretizations[1]);
+		if (nearSlots.length < need) {
+			nearSlots = new int[need];
+			nearDists = new double[need];
+		}
+
+		// Keep the need nearest found so far sorted in nearSlots/nearDists. Cells
+		// of layer l are at least (l - 1) cells away, so once the need-th nearest
+		// is closer than that no later layer can improve on it.
+		int found = 0;
+		for (int layer = 0; layer <= maxLayer; layer++) {
+			if (found == need && nearDists[found - 1] <= (layer - 1) * minCell)
+				break;
+
+			for (int cx = ocx - layer; cx <= ocx + layer; cx++) {
+				if (cx < 0 || cx >= width)
+					continue;
+				final boolean edge = cx == ocx - layer || cx == ocx + layer;
+				for (int cy = ocy - layer; cy <= ocy + layer; cy += edge ? 1 : 2 * layer) {
+					if (cy < 0 || cy >= height)
+						continue;
+					for (int i = head[cx * height + cy]; i != EMPTY; i = next[i]) {
+						if (i == slot)
+							continue;
+						final double dx = x[i] - px, dy = y[i] - py, d = Math.sqrt(dx * dx + dy * dy);
+						if (found == need && d >= nearDists[found - 1])
+							continue;
+
+						// Insert into the sorted candidates, dropping the farthest if full
+						int j = found < need ? found++ : found - 1;
+						for (; j > 0 && nearDists[j - 1] > d; j--) {
+							nearDists[j] = nearDists[j - 1];
+							nearSlots[j] = nearSlots[j - 1];
+						}
+						nearDists[j] = d;
+						nearSlots[j] = i;
+					}
+				}
+			}
+		}
+
+		final ArrayList<T> objects = new ArrayList<>(found);
+		for (int j = 0; j < found; j++)
+			objects.add((T) objs[nearSlots[j]]);
+		return objects;
+	}
+
+	/**
+	 * The objects of the rectangles of a MPIParam in the order of the rectangles,
+	 * with their coordinates relative to their rectangle in one contiguous array
+	 */
+	static class Packed implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final int[] counts;
+		final Object[] objs;
+		final double[] coords;
+
+		Packed(final int[] counts, final Object[] objs, final double[] coords) {
+			this.counts = counts;
+			this.objs = objs;
+			this.coords = coords;
+		}
+	}
+
+	public Serializable pack(final MPIParam mp) {
+		final int[] counts = new int[mp.rects.size()];
+		final int offX = shape.ul().c[0], offY = shape.ul().c[1];
+		int n = 0;
+
+		for (int k = 0; k < counts.length; k++) {
+			// Rectangles of a MPIParam are local, shift them to global coordinates
+			final IntHyperRect rect = mp.rects.get(k);
+			final int x0 = rect.ul().c[0] + offX, y0 = rect.ul().c[1] + offY;
+			final int x1 = rect.br().c[0] + offX, y1 = rect.br().c[1] + offY;
+
+			for (int cx = cellX(x0); cx <= cellX(x1); cx++)
+				for (int cy = cellY(y0); cy <= cellY(y1); cy++)
+					for (int i = head[cx * height + cy]; i != EMPTY; i = next[i])
+						if (x0 <= x[i] && x[i] < x1 && y0 <= y[i] && y[i] < y1) {
+							if (n == packObjs.length) {
+								packObjs = Arrays.copyOf(packObjs, n * 2);
+								packCoords = Arrays.copyOf(packCoords, n * 4);
+							}
+							packObjs[n] = objs[i];
+							packCoords[2 * n] = x[i] - x0;
+							packCoords[2 * n + 1] = y[i] - y0;
+							n++;
+							counts[k]++;
+						}
+		}
+
+		final Packed packed = new Packed(counts, Arrays.copyOf(packObjs, n), Arrays.copyOf(packCoords, 2 * n));
+		Arrays.fill(packObjs, 0, n, null);
+		return packed;
+	}
+
+	@SuppressWarnings("unchecked")
+	public int unpack(final MPIParam mp, final Serializable buf) {
+		final Packed packed = (Packed) buf;
+		final int offX = shape.ul().c[0], offY = shape.ul().c[1];
+
+		// Remove any objects that are in the unpack area (overwrite the area)
+		// shift the rect with local coordinates back to global coordinates
+		for (final IntHyperRect rect : mp.rects)
+			removeObjects(rect.ul().c[0] + offX, rect.ul().c[1] + offY, rect.br().c[0] + offX,
+					rect.br().c[1] + offY);
+
+		int n = 0;
+		for (int k = 0; k < mp.rects.size(); k++) {
+			final IntHyperRect rect = mp.rects.get(k);
+			final int x0 = rect.ul().c[0] + offX, y0 = rect.ul().c[1] + offY;
+			for (int end = n + packed.counts[k]; n < end; n++)
+				put((T) packed.objs[n], packed.coords[2 * n] + x0, packed.coords[2 * n + 1] + y0);
+		}
+
+		return n;
+	}
+}
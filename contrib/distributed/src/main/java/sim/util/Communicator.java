@@ -0,0 +1,215 @@
+package sim.util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import mpi.MPIException;
+
+/**
+ * The collective operations distributed MASON needs from a set of ranks,
+ * independent of how the ranks talk to each other.
+ *
+ * MPICommunicator runs them over an mpi.Comm, one rank per process.
+ * LocalCommunicator runs them over shared memory, one rank per thread of a
+ * single JVM, so that partitioned models can be run and tested without an MPI
+ * installation.
+ *
+ * As with MPI, every method other than getRank/getSize/getNeighbors is
+ * collective: all the ranks of the communicator must call it, in the same
+ * order.
+ */
+public interface Communicator {
+
+	/**
+	 * @return the communicator holding all the ranks of the calling thread,
+	 *         i.e. the LocalCommunicator the thread was launched with, or
+	 *         MPI.COMM_WORLD otherwise
+	 */
+	static Communicator getWorld() {
+		final Communicator local = LocalCommunicator.getCurrent();
+		return local != null ? local : MPICommunicator.getWorld();
+	}
+
+	/**
+	 * A non-blocking operation in progress
+	 */
+	interface Request {
+		/**
+		 * Blocks until the operation is complete. Its buffers must not be touched
+		 * before.
+		 *
+		 * @throws MPIException
+		 */
+		void waitFor() throws MPIException;
+	}
+
+	/**
+	 * @return rank of the caller in this communicator
+	 */
+	int getRank();
+
+	/**
+	 * @return number of ranks in this communicator
+	 */
+	int getSize();
+
+	/**
+	 * @return ranks of the neighbors in the order given to createNeighborhood,
+	 *         or null if this communicator has no topology
+	 */
+	int[] getNeighbors();
+
+	/**
+	 * Blocks until all ranks have called barrier
+	 *
+	 * @throws MPIException
+	 */
+	void barrier() throws MPIException;
+
+	/**
+	 * Broadcasts obj from root to all ranks
+	 *
+	 * @param <T>  Type of object to broadcast
+	 * @param obj  to broadcast. Only roots object will be broadcast.
+	 * @param root
+	 *
+	 * @return The broadcasted object (from root)
+	 * @throws MPIException
+	 */
+	<T extends Serializable> T bcast(T obj, int root) throws MPIException;
+
+	/**
+	 * Sends sendObjs[i] from root to rank i. Reverse of gather.
+	 *
+	 * @param <T>      Type of object to send
+	 * @param sendObjs only used on root
+	 * @param root
+	 *
+	 * @return Object to this rank from root
+	 * @throws MPIException
+	 */
+	<T extends Serializable> T scatter(T[] sendObjs, int root) throws MPIException;
+
+	/**
+	 * Collects one object from each rank at dst
+	 *
+	 * @param <T>     Type of object to send
+	 * @param sendObj
+	 * @param dst
+	 *
+	 * @return at destination an ArrayList of the objects of all ranks in rank
+	 *         order, others an empty ArrayList
+	 * @throws MPIException
+	 */
+	<T extends Serializable> ArrayList<T> gather(T sendObj, int dst) throws MPIException;
+
+	/**
+	 * Collects one object from each rank at every rank
+	 *
+	 * @param <T>     Type of object to send
+	 * @param sendObj
+	 *
+	 * @return an ArrayList of the objects of all ranks in rank order
+	 * @throws MPIException
+	 */
+	<T extends Serializable> ArrayList<T> allGather(T sendObj) throws MPIException;
+
+	/**
+	 * Sends sendObjs[i] to the i-th neighbor and receives one object from each
+	 * neighbor, in the same order
+	 *
+	 * @param <T>      Type of object to send
+	 * @param sendObjs
+	 *
+	 * @throws MPIException
+	 */
+	<T extends Serializable> ArrayList<T> neighborAllToAll(T[] sendObjs) throws MPIException;
+
+	/**
+	 * Sends sendBuf[i] to the i-th neighbor and receives recvBuf[i] from it
+	 *
+	 * @param sendBuf
+	 * @param recvBuf
+	 *
+	 * @throws MPIException
+	 */
+	void neighborAllToAll(int[] sendBuf, int[] recvBuf) throws MPIException;
+
+	/**
+	 * Sends sendCount[i] bytes starting at sendDispl[i] of sendBuf to the i-th
+	 * neighbor and receives recvCount[i] bytes from it into recvBuf at
+	 * recvDispl[i]. Displacements are absolute, the positions of the buffers are
+	 * ignored.
+	 *
+	 * @param sendBuf   direct buffer
+	 * @param sendCount
+	 * @param sendDispl
+	 * @param recvBuf   direct buffer
+	 * @param recvCount
+	 * @param recvDispl
+	 *
+	 * @throws MPIException
+	 */
+	void neighborAllToAllv(ByteBuffer sendBuf, int[] sendCount, int[] sendDispl, ByteBuffer recvBuf,
+			int[] recvCount, int[] recvDispl) throws MPIException;
+
+	/**
+	 * Starts neighborAllToAllv and returns without waiting for the data. Other
+	 * collectives may be called before the returned Request is waited for.
+	 *
+	 * @param sendBuf   direct buffer
+	 * @param sendCount
+	 * @param sendDispl
+	 * @param recvBuf   direct buffer
+	 * @param recvCount
+	 * @param recvDispl
+	 *
+	 * @return the operation, to be waited for before the buffers are used again
+	 * @throws MPIException
+	 */
+	Request iNeighborAllToAllv(ByteBuffer sendBuf, int[] sendCount, int[] sendDispl, ByteBuffer recvBuf,
+			int[] recvCount, int[] recvDispl) throws MPIException;
+
+	/**
+	 * Element-wise sum of sendBuf over all ranks into recvBuf at root
+	 *
+	 * @param sendBuf
+	 * @param recvBuf only written on root
+	 * @param root
+	 *
+	 * @throws MPIException
+	 */
+	void reduceSum(double[] sendBuf, double[] recvBuf, int root) throws MPIException;
+
+	/**
+	 * Element-wise minimum of buf over all ranks, in place
+	 *
+	 * @param buf
+	 *
+	 * @throws MPIException
+	 */
+	void allReduceMin(double[] buf) throws MPIException;
+
+	/**
+	 * Creates a communicator over the same ranks with the given (symmetric)
+	 * neighbors, for the neighbor* operations
+	 *
+	 * @param neighbors
+	 *
+	 * @throws MPIException
+	 */
+	Communicator createNeighborhood(int[] neighbors) throws MPIException;
+
+	/**
+	 * Creates a communicator over the given ranks of this communicator, where
+	 * ranks[i] gets rank i. Only the given ranks need to call this method.
+	 *
+	 * @param ranks
+	 *
+	 * @return the new communicator, or null if the caller is not in ranks
+	 *
+	 * @throws MPIException
+	 */
+	Communicator createGroup(int[] ranks) throws MPIException;
+}
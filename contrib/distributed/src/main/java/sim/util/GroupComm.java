@@ -1,8 +1,9 @@
 package sim.util;
 
 import java.util.List;
+import java.util.stream.IntStream;
 
-import mpi.*;
+import mpi.MPIException;
 import sim.field.partitioning.QuadTreeNode;
 
 /**
@@ -13,41 +14,43 @@ public class GroupComm {
 	public QuadTreeNode master;
 	public List<QuadTreeNode> leaves;
 
-	public Comm comm, interComm;
+	public Communicator comm, interComm;
 	public int groupRoot;
 
 	/**
 	 * Creates and contains the comm world (for the communication topology)
 	 * 
+	 * @param world
 	 * @param master
 	 * @throws MPIException
 	 */
-	public GroupComm(QuadTreeNode master) throws MPIException {
+	public GroupComm(Communicator world, QuadTreeNode master) throws MPIException {
 		this.master = master;
 		this.leaves = master.getLeaves();
 
-		Group world = MPI.COMM_WORLD.getGroup();
-		Group group = world.incl(leaves.stream()
+		int[] ranks = leaves.stream()
 				.mapToInt(leaf -> leaf.getProcessor())
-				.toArray());
-
-		comm = MPI.COMM_WORLD.createGroup(group, 0);
-		groupRoot = Group.translateRanks(world, new int[] { master.getProcessor() }, group)[0];
+				.toArray();
+
+		comm = world.createGroup(ranks);
+		// ranks[i] has rank i in the group
+		groupRoot = IntStream.range(0, ranks.length)
+				.filter(i -> ranks[i] == master.getProcessor())
+				.findFirst()
+				.getAsInt();
 	}
 
 	/**
 	 * Sets up interComm between a given list of nodes (nodes on a level)
 	 * 
+	 * @param world
 	 * @param nodes
 	 * @throws MPIException
 	 */
-	public void setInterComm(List<QuadTreeNode> nodes) throws MPIException {
-		Group world = MPI.COMM_WORLD.getGroup();
-		Group group = world.incl(nodes.stream()
+	public void setInterComm(Communicator world, List<QuadTreeNode> nodes) throws MPIException {
+		interComm = world.createGroup(nodes.stream()
 				.filter(node -> !node.isLeaf())
 				.mapToInt(node -> node.getProcessor())
 				.toArray());
-
-		interComm = MPI.COMM_WORLD.createGroup(group, 0);
 	}
 }
@@ -0,0 +1,503 @@
+package sim.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpi.MPIException;
+
+/**
+ * Communicator that runs each rank as a thread of one JVM, exchanging data
+ * through shared memory instead of MPI.
+ *
+ * Use launch() to run N ranks; inside them (and in any thread they start)
+ * Communicator.getWorld() returns the rank's LocalCommunicator, so
+ * PartitionInterface, HaloGrid2D, TransporterMPI and DSimState run unchanged.
+ *
+ * Every collective posts the caller's contribution into a slot of the shared
+ * state, waits for all ranks, copies out what the caller needs and waits again
+ * before the slots are reused. Non-blocking operations get slots of their
+ * own, matched across ranks by the order in which they were started. Bytes
+ * (neighborAllToAllv) and primitive arrays are copied directly; any other
+ * object is serialized once by its sender and deserialized by each receiver,
+ * so ranks never share mutable objects, just as if they were separate
+ * processes.
+ */
+public class LocalCommunicator implements Communicator {
+	private static final InheritableThreadLocal<LocalCommunicator> current = new InheritableThreadLocal<>();
+
+	/**
+	 * State shared by all the ranks of a communicator
+	 */
+	static class Shared {
+		final int size;
+		final CyclicBarrier barrier;
+		final Object[] slots;
+
+		/**
+		 * Only used for the world: groups under construction, keyed by their ranks
+		 * and the number of times those ranks have formed a group
+		 */
+		final Map<String, Shared> pendingGroups = new ConcurrentHashMap<>();
+		final AtomicInteger joined = new AtomicInteger();
+
+		/**
+		 * Non-blocking operations in progress, keyed by their sequence number.
+		 * nextRequest[i] is the sequence number of the next one rank i starts.
+		 */
+		final Map<Integer, Exchange> requests = new ConcurrentHashMap<>();
+		final int[] nextRequest;
+
+		Shared(final int size) {
+			this.size = size;
+			barrier = new CyclicBarrier(size);
+			slots = new Object[size];
+			nextRequest = new int[size];
+		}
+	}
+
+	/**
+	 * Slots of a non-blocking operation. They cannot live in Shared.slots, since
+	 * other collectives run while the operation is in progress. The phaser
+	 * advances once every rank has posted and again once every rank has copied
+	 * out what it needs.
+	 */
+	static class Exchange {
+		final Object[] slots;
+		final Phaser phaser;
+
+		Exchange(final int size) {
+			slots = new Object[size];
+			phaser = new Phaser(size);
+		}
+	}
+
+	/**
+	 * An object serialized by its sender, to be deserialized by each receiver
+	 */
+	static class Frozen {
+		final byte[] bytes;
+
+		Frozen(final byte[] bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	final Shared shared, world;
+	final int rank;
+
+	// Neighbor topology, null if none. For the i-th neighbor, recvIndex[i] is
+	// the position of this rank among that neighbor's neighbors
+	final int[] neighbors, recvIndex;
+
+	// World ranks of this communicator's ranks, and the number of groups this
+	// rank has formed with each set of world ranks
+	final int[] worldRanks;
+	final Map<String, Integer> groupCounts;
+
+	LocalCommunicator(final Shared shared, final Shared world, final int rank, final int[] worldRanks,
+			final int[] neighbors, final int[] recvIndex, final Map<String, Integer> groupCounts) {
+		this.shared = shared;
+		this.world = world;
+		this.rank = rank;
+		this.worldRanks = worldRanks;
+		this.neighbors = neighbors;
+		this.recvIndex = recvIndex;
+		this.groupCounts = groupCounts;
+	}
+
+	/**
+	 * Runs body in numRanks threads, each with its own rank of a new world, and
+	 * waits for all of them to finish. If any rank throws, the others are
+	 * interrupted, which fails the collective they are waiting in, and the first
+	 * exception is rethrown.
+	 *
+	 * @param numRanks
+	 * @param body
+	 */
+	public static void launch(final int numRanks, final Runnable body) {
+		if (numRanks < 1)
+			throw new IllegalArgumentException("The number of ranks must be positive, got " + numRanks);
+
+		final Shared world = new Shared(numRanks);
+		final int[] worldRanks = new int[numRanks];
+		for (int i = 0; i < numRanks; i++)
+			worldRanks[i] = i;
+
+		final Throwable[] failure = new Throwable[1];
+		final Thread[] threads = new Thread[numRanks];
+		for (int i = 0; i < numRanks; i++) {
+			final LocalCommunicator comm = new LocalCommunicator(world, world, i, worldRanks, null, null,
+					new HashMap<String, Integer>());
+			threads[i] = new Thread(() -> {
+				current.set(comm);
+				try {
+					body.run();
+				} catch (final Throwable t) {
+					synchronized (failure) {
+						if (failure[0] == null)
+							failure[0] = t;
+					}
+					// Interrupting the others breaks whatever barrier they are in
+					// or reach next
+					for (final Thread other : threads)
+						if (other != null && other != Thread.currentThread())
+							other.interrupt();
+				}
+			}, "LocalCommunicator-rank-" + i);
+			threads[i].start();
+		}
+
+		try {
+			for (final Thread t : threads)
+				t.join();
+		} catch (final InterruptedException e) {
+			for (final Thread t : threads)
+				t.interrupt();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+		if (failure[0] != null)
+			throw new RuntimeException(failure[0]);
+	}
+
+	/**
+	 * @return the world of the calling thread if it was started by launch(), or
+	 *         null
+	 */
+	public static LocalCommunicator getCurrent() {
+		return current.get();
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	public int getSize() {
+		return shared.size;
+	}
+
+	public int[] getNeighbors() {
+		return neighbors == null ? null : Arrays.copyOf(neighbors, neighbors.length);
+	}
+
+	void await() throws MPIException {
+		try {
+			shared.barrier.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MPIException(e);
+		} catch (final BrokenBarrierException e) {
+			throw new MPIException(e);
+		}
+	}
+
+	/**
+	 * Posts obj into this rank's slot and waits until all ranks have posted
+	 */
+	void post(final Object obj) throws MPIException {
+		shared.slots[rank] = obj;
+		await();
+	}
+
+	/**
+	 * Waits until all ranks are done with the slots, and clears this rank's
+	 */
+	void release() throws MPIException {
+		await();
+		shared.slots[rank] = null;
+	}
+
+	void checkTopology() {
+		if (neighbors == null)
+			throw new IllegalStateException("This communicator has no neighbor topology");
+	}
+
+	/**
+	 * @return an immutable form of obj that every receiver can turn back into
+	 *         its own copy with thaw()
+	 */
+	static Object freeze(final Object obj) {
+		// The sender waits until every receiver has copied its contribution, so
+		// primitive arrays need not be copied here as well
+		if (obj == null || obj instanceof String || obj instanceof Integer || obj instanceof Long
+				|| obj instanceof Double || obj instanceof Boolean || obj instanceof byte[] || obj instanceof int[]
+				|| obj instanceof double[])
+			return obj;
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectOutputStream os = new ObjectOutputStream(out)) {
+			os.writeObject(obj);
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		return new Frozen(out.toByteArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T thaw(final Object obj) {
+		if (obj instanceof byte[])
+			return (T) ((byte[]) obj).clone();
+		if (obj instanceof int[])
+			return (T) ((int[]) obj).clone();
+		if (obj instanceof double[])
+			return (T) ((double[]) obj).clone();
+		if (!(obj instanceof Frozen))
+			return (T) obj;
+
+		try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(((Frozen) obj).bytes))) {
+			return (T) is.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void barrier() throws MPIException {
+		await();
+	}
+
+	public <T extends Serializable> T bcast(final T obj, final int root) throws MPIException {
+		post(rank == root ? freeze(obj) : null);
+		final T ret = rank == root ? obj : LocalCommunicator.<T>thaw(shared.slots[root]);
+		release();
+		return ret;
+	}
+
+	public <T extends Serializable> T scatter(final T[] sendObjs, final int root) throws MPIException {
+		Object[] frozen = null;
+		if (rank == root) {
+			frozen = new Object[shared.size];
+			for (int i = 0; i < frozen.length; i++)
+				if (i != root)
+					frozen[i] = freeze(sendObjs[i]);
+		}
+
+		post(frozen);
+		final T ret = rank == root ? sendObjs[root] : LocalCommunicator.<T>thaw(((Object[]) shared.slots[root])[rank]);
+		release();
+		return ret;
+	}
+
+	public <T extends Serializable> ArrayList<T> gather(final T sendObj, final int dst) throws MPIException {
+		final ArrayList<T> recvObjs = new ArrayList<>();
+
+		post(rank == dst ? null : freeze(sendObj));
+		if (rank == dst)
+			for (int i = 0; i < shared.size; i++)
+				recvObjs.add(i == rank ? sendObj : LocalCommunicator.<T>thaw(shared.slots[i]));
+		release();
+
+		return recvObjs;
+	}
+
+	public <T extends Serializable> ArrayList<T> allGather(final T sendObj) throws MPIException {
+		final ArrayList<T> recvObjs = new ArrayList<>();
+
+		post(freeze(sendObj));
+		for (int i = 0; i < shared.size; i++)
+			recvObjs.add(i == rank ? sendObj : LocalCommunicator.<T>thaw(shared.slots[i]));
+		release();
+
+		return recvObjs;
+	}
+
+	public <T extends Serializable> ArrayList<T> neighborAllToAll(final T[] sendObjs) throws MPIException {
+		checkTopology();
+		final Object[] frozen = new Object[sendObjs.length];
+		for (int i = 0; i < frozen.length; i++)
+			frozen[i] = freeze(sendObjs[i]);
+
+		final ArrayList<T> recvObjs = new ArrayList<>();
+
+		post(frozen);
+		for (int i = 0; i < neighbors.length; i++)
+			recvObjs.add(LocalCommunicator.<T>thaw(((Object[]) shared.slots[neighbors[i]])[recvIndex[i]]));
+		release();
+
+		return recvObjs;
+	}
+
+	public void neighborAllToAll(final int[] sendBuf, final int[] recvBuf) throws MPIException {
+		checkTopology();
+
+		post(sendBuf);
+		for (int i = 0; i < neighbors.length; i++)
+			recvBuf[i] = ((int[]) shared.slots[neighbors[i]])[recvIndex[i]];
+		release();
+	}
+
+	public void neighborAllToAllv(final ByteBuffer sendBuf, final int[] sendCount, final int[] sendDispl,
+			final ByteBuffer recvBuf, final int[] recvCount, final int[] recvDispl) throws MPIException {
+		checkTopology();
+
+		post(new Object[] { sendBuf, sendCount, sendDispl });
+		try {
+			copyFromNeighbors(shared.slots, recvBuf, recvCount, recvDispl);
+		} finally {
+			release();
+		}
+	}
+
+	public Request iNeighborAllToAllv(final ByteBuffer sendBuf, final int[] sendCount, final int[] sendDispl,
+			final ByteBuffer recvBuf, final int[] recvCount, final int[] recvDispl) throws MPIException {
+		checkTopology();
+
+		// All ranks start their non-blocking operations in the same order, so the
+		// n-th one of each rank belongs to the same exchange
+		final int seq = shared.nextRequest[rank]++;
+		final Exchange exchange = shared.requests.computeIfAbsent(seq, k -> new Exchange(shared.size));
+		exchange.slots[rank] = new Object[] { sendBuf, sendCount, sendDispl };
+		exchange.phaser.arrive();
+
+		return () -> {
+			awaitPhase(exchange.phaser, 0);
+			try {
+				copyFromNeighbors(exchange.slots, recvBuf, recvCount, recvDispl);
+			} finally {
+				// Our send buffer may only be reused once the others are done with it
+				awaitPhase(exchange.phaser, exchange.phaser.arrive());
+				if (rank == 0)
+					shared.requests.remove(seq);
+			}
+		};
+	}
+
+	static void awaitPhase(final Phaser phaser, final int phase) throws MPIException {
+		try {
+			phaser.awaitAdvanceInterruptibly(phase);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MPIException(e);
+		}
+	}
+
+	/**
+	 * Copies what each neighbor posted for this rank in slots, as {sendBuf,
+	 * sendCount, sendDispl}, into recvBuf
+	 */
+	void copyFromNeighbors(final Object[] slots, final ByteBuffer recvBuf, final int[] recvCount,
+			final int[] recvDispl) {
+		for (int i = 0; i < neighbors.length; i++) {
+			final Object[] sender = (Object[]) slots[neighbors[i]];
+			final int count = ((int[]) sender[1])[recvIndex[i]];
+			final int displ = ((int[]) sender[2])[recvIndex[i]];
+
+			if (count != recvCount[i])
+				throw new IllegalArgumentException("Rank " + neighbors[i] + " sends " + count + " bytes to rank "
+						+ rank + ", which expects " + recvCount[i]);
+
+			// Copy straight from the sender's buffer into ours. Duplicates keep
+			// the buffers' own positions untouched
+			final ByteBuffer src = ((ByteBuffer) sender[0]).duplicate();
+			src.limit(displ + count).position(displ);
+			final ByteBuffer dst = recvBuf.duplicate();
+			dst.limit(recvDispl[i] + count).position(recvDispl[i]);
+			dst.put(src);
+		}
+	}
+
+	public void reduceSum(final double[] sendBuf, final double[] recvBuf, final int root) throws MPIException {
+		post(sendBuf);
+		if (rank == root) {
+			// Sum in rank order, so that the result does not depend on timing
+			final double[] sum = new double[sendBuf.length];
+			for (int i = 0; i < shared.size; i++) {
+				final double[] buf = (double[]) shared.slots[i];
+				for (int j = 0; j < sum.length; j++)
+					sum[j] += buf[j];
+			}
+			System.arraycopy(sum, 0, recvBuf, 0, sum.length);
+		}
+		release();
+	}
+
+	public void allReduceMin(final double[] buf) throws MPIException {
+		final double[] min = buf.clone();
+
+		post(buf);
+		for (int i = 0; i < shared.size; i++) {
+			final double[] other = (double[]) shared.slots[i];
+			for (int j = 0; j < min.length; j++)
+				min[j] = Math.min(min[j], other[j]);
+		}
+		release();
+
+		// buf may only change once the others are done reading it
+		System.arraycopy(min, 0, buf, 0, min.length);
+	}
+
+	public Communicator createNeighborhood(final int[] neighbors) throws MPIException {
+		final int[] ns = Arrays.copyOf(neighbors, neighbors.length);
+		final int[] recvIndex = new int[ns.length];
+
+		// Pair the k-th occurrence of a neighbor in our list with the k-th
+		// occurrence of us in its list, as MPI does for graph topologies
+		post(ns);
+		for (int i = 0; i < ns.length; i++) {
+			int occurrence = 0;
+			for (int j = 0; j < i; j++)
+				if (ns[j] == ns[i])
+					occurrence++;
+
+			final int[] theirs = (int[]) shared.slots[ns[i]];
+			recvIndex[i] = -1;
+			for (int k = 0; k < theirs.length && recvIndex[i] < 0; k++)
+				if (theirs[k] == rank && occurrence-- == 0)
+					recvIndex[i] = k;
+		}
+		release();
+
+		for (int i = 0; i < ns.length; i++)
+			if (recvIndex[i] < 0)
+				throw new IllegalArgumentException(
+						"Rank " + rank + " has neighbor " + ns[i] + " but not the other way around");
+
+		// The neighborhood spans the same ranks, so it shares their slots and
+		// barrier; collectives on both are issued in the same order anyway
+		return new LocalCommunicator(shared, world, rank, worldRanks, ns, recvIndex, groupCounts);
+	}
+
+	public Communicator createGroup(final int[] ranks) throws MPIException {
+		final int[] members = new int[ranks.length];
+		int groupRank = -1;
+		for (int i = 0; i < ranks.length; i++) {
+			members[i] = worldRanks[ranks[i]];
+			if (ranks[i] == rank)
+				groupRank = i;
+		}
+
+		// As MPI_COMM_NULL, to a caller outside the group
+		if (groupRank < 0)
+			return null;
+
+		// Only the members meet here, so they find each other through the world,
+		// by the ranks of the group and how many such groups they have formed
+		String key = Arrays.toString(members);
+		final int count = groupCounts.merge(key, 1, Integer::sum);
+		key += "#" + count;
+
+		final Shared group = world.pendingGroups.computeIfAbsent(key, k -> new Shared(members.length));
+		if (group.joined.incrementAndGet() == members.length)
+			world.pendingGroups.remove(key);
+
+		return new LocalCommunicator(group, world, groupRank, members, null, null, groupCounts);
+	}
+}
@@ -0,0 +1,129 @@
+package sim.util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import mpi.Comm;
+import mpi.Info;
+import mpi.Intracomm;
+import mpi.MPI;
+import mpi.MPIException;
+
+/**
+ * Communicator over an mpi.Comm, one rank per MPI process. Serializable
+ * objects are exchanged through MPIUtil.
+ */
+public class MPICommunicator implements Communicator {
+	private static MPICommunicator world;
+
+	final Comm comm;
+	final int rank, size;
+	final int[] neighbors;
+
+	public MPICommunicator(final Comm comm) throws MPIException {
+		this(comm, null);
+	}
+
+	MPICommunicator(final Comm comm, final int[] neighbors) throws MPIException {
+		this.comm = comm;
+		this.neighbors = neighbors;
+		rank = comm.getRank();
+		size = comm.getSize();
+	}
+
+	/**
+	 * @return MPI.COMM_WORLD, which must have been initialized by MPI.Init
+	 */
+	static synchronized MPICommunicator getWorld() {
+		if (world == null)
+			try {
+				world = new MPICommunicator(MPI.COMM_WORLD);
+			} catch (final MPIException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+
+		return world;
+	}
+
+	/**
+	 * @return the underlying mpi.Comm
+	 */
+	public Comm getComm() {
+		return comm;
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int[] getNeighbors() {
+		return neighbors == null ? null : Arrays.copyOf(neighbors, neighbors.length);
+	}
+
+	public void barrier() throws MPIException {
+		comm.barrier();
+	}
+
+	public <T extends Serializable> T bcast(final T obj, final int root) throws MPIException {
+		return MPIUtil.<T>bcast(comm, obj, root);
+	}
+
+	public <T extends Serializable> T scatter(final T[] sendObjs, final int root) throws MPIException {
+		return MPIUtil.<T>scatter(comm, sendObjs, root);
+	}
+
+	public <T extends Serializable> ArrayList<T> gather(final T sendObj, final int dst) throws MPIException {
+		return MPIUtil.<T>gather(comm, sendObj, dst);
+	}
+
+	public <T extends Serializable> ArrayList<T> allGather(final T sendObj) throws MPIException {
+		return MPIUtil.<T>allGather(comm, sendObj);
+	}
+
+	public <T extends Serializable> ArrayList<T> neighborAllToAll(final T[] sendObjs) throws MPIException {
+		return MPIUtil.<T>neighborAllToAll(comm, sendObjs);
+	}
+
+	public void neighborAllToAll(final int[] sendBuf, final int[] recvBuf) throws MPIException {
+		comm.neighborAllToAll(sendBuf, 1, MPI.INT, recvBuf, 1, MPI.INT);
+	}
+
+	public void neighborAllToAllv(final ByteBuffer sendBuf, final int[] sendCount, final int[] sendDispl,
+			final ByteBuffer recvBuf, final int[] recvCount, final int[] recvDispl) throws MPIException {
+		comm.neighborAllToAllv(sendBuf, sendCount, sendDispl, MPI.BYTE, recvBuf, recvCount, recvDispl, MPI.BYTE);
+	}
+
+	public Request iNeighborAllToAllv(final ByteBuffer sendBuf, final int[] sendCount, final int[] sendDispl,
+			final ByteBuffer recvBuf, final int[] recvCount, final int[] recvDispl) throws MPIException {
+		final mpi.Request request = comm.iNeighborAllToAllv(sendBuf, sendCount, sendDispl, MPI.BYTE, recvBuf,
+				recvCount, recvDispl, MPI.BYTE);
+		// MPI_Wait also deallocates the request
+		return request::waitFor;
+	}
+
+	public void reduceSum(final double[] sendBuf, final double[] recvBuf, final int root) throws MPIException {
+		comm.reduce(sendBuf, recvBuf, sendBuf.length, MPI.DOUBLE, MPI.SUM, root);
+	}
+
+	public void allReduceMin(final double[] buf) throws MPIException {
+		comm.allReduce(buf, buf.length, MPI.DOUBLE, MPI.MIN);
+	}
+
+	public Communicator createNeighborhood(final int[] neighbors) throws MPIException {
+		// Create a unweighted & undirected graph for neighbor communication
+		return new MPICommunicator(((Intracomm) comm).createDistGraphAdjacent(neighbors, neighbors, new Info(), false),
+				Arrays.copyOf(neighbors, neighbors.length));
+	}
+
+	public Communicator createGroup(final int[] ranks) throws MPIException {
+		final Intracomm group = ((Intracomm) comm).createGroup(comm.getGroup().incl(ranks), 0);
+		return group.isNull() ? null : new MPICommunicator(group);
+	}
+}
@@ -15,10 +15,11 @@ import sim.field.storage.GridStorage;
  */
 public class MPIParam {
 	/**
-	 * Nd subarray MPI datatype
+	 * Nd subarray MPI datatype, built by getType() on first use so that a
+	 * MPIParam can be created and packed without MPI
 	 * 
 	 */
-	public Datatype type;
+	Datatype type;
 	public int idx, size;
 
 	/**
@@ -28,15 +29,26 @@ public class MPIParam {
 	 */
 	public List<IntHyperRect> rects;
 
+	Datatype baseType;
+	int[] bsize;
+	boolean isStruct;
+
+	// Runs of consecutive elements covered by the rects, see getRunOffsets()
+	int[] runOffsets, runLengths;
+
 	// TODO need to track all previously allocated datatypes and implement free() to
 	// free them all
 	// TODO should store rects in local coordinates?
 
+	public MPIParam(IntHyperRect rect, IntHyperRect bound) {
+		this(rect, bound, null);
+	}
+
 	public MPIParam(IntHyperRect rect, IntHyperRect bound, Datatype baseType) {
-		int[] bsize = bound.getSize();
+		this.bsize = bound.getSize();
+		this.baseType = baseType;
 
 		this.idx = GridStorage.getFlatIdx(rect.ul.rshift(bound.ul.c), bsize);
-		this.type = getNdArrayDatatype(rect.getSize(), baseType, bsize);
 		this.size = rect.getArea();
 		this.rects = new ArrayList<IntHyperRect>() {
 			{
@@ -45,16 +57,43 @@ public class MPIParam {
 		};
 	}
 
+	public MPIParam(List<IntHyperRect> rects, IntHyperRect bound) {
+		this(rects, bound, null);
+	}
+
 	public MPIParam(List<IntHyperRect> rects, IntHyperRect bound, Datatype baseType) {
+		this.bsize = bound.getSize();
+		this.baseType = baseType;
+		this.isStruct = true;
+
 		this.idx = 0;
 		this.size = 0;
 		this.rects = new ArrayList<IntHyperRect>();
 
+		for (IntHyperRect rect : rects) {
+			this.size += rect.getArea();
+			this.rects.add(rect.rshift(bound.ul.c));
+		}
+	}
+
+	/**
+	 * @return the MPI datatype of the rects, relative to idx. Only available if
+	 *         a base type was given.
+	 */
+	public Datatype getType() {
+		if (type != null)
+			return type;
+
+		if (baseType == null)
+			throw new IllegalStateException("MPIParam was created without a base type");
+
+		if (!isStruct)
+			return type = getNdArrayDatatype(rects.get(0).getSize(), baseType, bsize);
+
 		int count = rects.size();
 		int typeSize = getTypePackSize(baseType);
 
 		int[] bl = new int[count], displ = new int[count];
-		int[] bsize = bound.getSize();
 
 		Datatype[] types = new Datatype[count];
 
@@ -63,11 +102,8 @@ public class MPIParam {
 
 		for (int i = 0; i < count; i++) {
 			IntHyperRect rect = rects.get(i);
-			displ[i] = GridStorage.getFlatIdx(rect.ul.rshift(bound.ul.c), bsize) * typeSize; // displacement from the
-																								// start in bytes
+			displ[i] = GridStorage.getFlatIdx(rect.ul, bsize) * typeSize; // displacement from the start in bytes
 			types[i] = getNdArrayDatatype(rect.getSize(), baseType, bsize);
-			this.size += rect.getArea();
-			this.rects.add(rect.rshift(bound.ul.c));
 		}
 
 		try {
@@ -77,6 +113,78 @@ public class MPIParam {
 			e.printStackTrace();
 			System.exit(-1);
 		}
+
+		return type;
+	}
+
+	/**
+	 * The rects cover runs of consecutive elements of a storage shaped as the
+	 * bound, each as long as the last dimension of its rect. These runs are what
+	 * the MPI datatype describes, and let storages copy the rects without MPI.
+	 * 
+	 * @return flattened index of the first element of each run, in order
+	 */
+	public int[] getRunOffsets() {
+		if (runOffsets == null)
+			computeRuns();
+		return runOffsets;
+	}
+
+	/**
+	 * @return length of each run of getRunOffsets()
+	 */
+	public int[] getRunLengths() {
+		if (runOffsets == null)
+			computeRuns();
+		return runLengths;
+	}
+
+	void computeRuns() {
+		int nd = bsize.length;
+		int[] stride = new int[nd];
+		stride[nd - 1] = 1;
+		for (int d = nd - 2; d >= 0; d--)
+			stride[d] = stride[d + 1] * bsize[d + 1];
+
+		int count = 0;
+		for (IntHyperRect rect : rects)
+			if (rect.getArea() > 0)
+				count += rect.getArea() / rect.getSize()[nd - 1];
+
+		int[] offsets = new int[count], lengths = new int[count];
+		int i = 0;
+		for (IntHyperRect rect : rects) {
+			if (rect.getArea() == 0)
+				continue;
+
+			int[] size = rect.getSize();
+			int[] c = new int[nd - 1];
+			for (int n = rect.getArea() / size[nd - 1]; n > 0; n--, i++) {
+				int offset = rect.ul.c[nd - 1];
+				for (int d = 0; d < nd - 1; d++)
+					offset += (rect.ul.c[d] + c[d]) * stride[d];
+				offsets[i] = offset;
+				lengths[i] = size[nd - 1];
+
+				// odometer over all but the last dimension
+				for (int d = nd - 2; d >= 0 && ++c[d] == size[d]; d--)
+					c[d] = 0;
+			}
+		}
+
+		runOffsets = offsets;
+		runLengths = lengths;
+	}
+
+	/**
+	 * Frees the MPI datatype if it was built
+	 * 
+	 * @throws MPIException
+	 */
+	public void free() throws MPIException {
+		if (type != null)
+			type.free();
+		type = null;
 	}
 
 	/**
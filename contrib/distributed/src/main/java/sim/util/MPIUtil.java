@@ -231,7 +231,7 @@ public class MPIUtil {
 	 */
 	public static <T extends Serializable> T bcast(final PartitionInterface partitionInterface, final T obj,
 			final int root) throws MPIException {
-		return MPIUtil.<T>bcast(partitionInterface.getCommunicator(), obj, root);
+		return partitionInterface.getCommunicator().<T>bcast(obj, root);
 	}
 
 	/**
@@ -247,7 +247,7 @@ public class MPIUtil {
 	 */
 	public static Integer bcast(final PartitionInterface partitionInterface, final int obj, final int root)
 			throws MPIException {
-		return MPIUtil.<Integer>bcast(partitionInterface.getCommunicator(), obj, root);
+		return partitionInterface.getCommunicator().<Integer>bcast(obj, root);
 	}
 
 	/**
@@ -263,7 +263,7 @@ public class MPIUtil {
 	 */
 	public static <T extends Serializable> T bcast(final T obj, final int root) throws MPIException {
 		// Used by init() in RemoteProxy() to broadcast the host ip address
-		return MPIUtil.<T>bcast(MPI.COMM_WORLD, obj, root);
+		return Communicator.getWorld().<T>bcast(obj, root);
 	}
 
 	// Currently used by collectGroup() and distributedGroup() in HaloField
@@ -315,7 +315,7 @@ public class MPIUtil {
 	 */
 	public static <T extends Serializable> T scatter(final PartitionInterface p, final T[] sendObjs, final int root)
 			throws MPIException {
-		return MPIUtil.<T>scatter(p.getCommunicator(), sendObjs, root);
+		return p.getCommunicator().<T>scatter(sendObjs, root);
 	}
 
 	// TODO: can we use the same buffers for all operations?
@@ -411,7 +411,7 @@ public class MPIUtil {
 			final T sendObj,
 			final int dst)
 			throws MPIException {
-		return MPIUtil.<T>gather(partitionInterface.getCommunicator(), sendObj, dst);
+		return partitionInterface.getCommunicator().<T>gather(sendObj, dst);
 	}
 
 	// Each LP contributes the sendObj
@@ -466,7 +466,7 @@ public class MPIUtil {
 	 */
 	public static <T extends Serializable> ArrayList<T> allGather(final PartitionInterface partitionInterface,
 			final T sendObj) throws MPIException {
-		return MPIUtil.<T>allGather(partitionInterface.getCommunicator(), sendObj);
+		return partitionInterface.getCommunicator().<T>allGather(sendObj);
 	}
 
 	/**
@@ -558,7 +558,7 @@ public class MPIUtil {
 	 */
 	public static <T extends Serializable> ArrayList<T> neighborAllToAll(final PartitionInterface partitionInterface,
 			final T[] sendObjs) throws MPIException {
-		return MPIUtil.<T>neighborAllToAll(partitionInterface.getCommunicator(), sendObjs);
+		return partitionInterface.getCommunicator().<T>neighborAllToAll(sendObjs);
 	}
 
 	//// SEAN QUESTION: Why is this different from the others? Why do we not have
@@ -605,7 +605,9 @@ public class MPIUtil {
 			throw new UnsupportedOperationException(
 					"The given MPI Datatype " + type + " is invalid / not implemented yet");
 
-		partitionInterface.getCommunicator().neighborAllGather(sendBuf, 1, type, recvBuf, 1, type);
+		// Only reachable under MPI, as the type is an MPI Datatype
+		((MPICommunicator) partitionInterface.getCommunicator()).getComm().neighborAllGather(sendBuf, 1, type, recvBuf,
+				1, type);
 
 		return recvBuf;
 	}
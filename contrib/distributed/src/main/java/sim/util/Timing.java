@@ -14,7 +14,13 @@ public class Timing {
 	public static final String MPI_SYNC_OVERHEAD = "_MASON_MPI_SYNC_OVERHEAD";
 
 	private static int window = 100;
-	private static HashMap<String, TimingStat> m = new HashMap<String, TimingStat>();
+	// Timers are per rank, as ranks run as threads under LocalCommunicator. Threads
+	// started by a rank (such as the one doLoop runs the model in) share its timers
+	private static InheritableThreadLocal<HashMap<String, TimingStat>> m = new InheritableThreadLocal<HashMap<String, TimingStat>>() {
+		protected HashMap<String, TimingStat> initialValue() {
+			return new HashMap<String, TimingStat>();
+		}
+	};
 	private static NanoClock clock = new NanoClock() {
 		public long nanoTime() {
 			return System.nanoTime();
@@ -61,37 +67,37 @@ public class Timing {
 
 	public static void start(String... ids) {
 		for (String id : ids) {
-			m.putIfAbsent(id, new TimingStat(window));
-			m.get(id).start(clock.nanoTime());
+			m.get().putIfAbsent(id, new TimingStat(window));
+			m.get().get(id).start(clock.nanoTime());
 		}
 	}
 
 	public static void stop(String... ids) {
 		for (String id : ids) {
 			check(id);
-			m.get(id).stop(clock.nanoTime());
+			m.get().get(id).stop(clock.nanoTime());
 		}
 	}
 
 	public static void reset(String... ids) {
 		for (String id : ids) {
 			check(id);
-			m.get(id).reset();
+			m.get().get(id).reset();
 		}
 	}
 
 	public static TimingStat get(String id) {
 		check(id);
-		return m.get(id);
+		return m.get().get(id);
 	}
 
 	public static double getLast(String id) {
 		check(id);
-		return m.get(id).last();
+		return m.get().get(id).last();
 	}
 
 	private static void check(String id) {
-		if (!m.containsKey(id))
+		if (!m.get().containsKey(id))
 			throw new NoSuchElementException("Timer for " + id + " does not exist");
 	}
 
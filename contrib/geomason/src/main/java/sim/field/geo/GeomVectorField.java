@@ -14,11 +14,14 @@ import com.vividsolutions.jts.geom.*;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import com.vividsolutions.jts.geom.prep.PreparedPoint;
 import com.vividsolutions.jts.geom.prep.PreparedPolygon;
+import com.vividsolutions.jts.index.SpatialIndex;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import sim.engine.SimState;
 import sim.engine.Steppable;
@@ -38,17 +41,73 @@ import sim.util.geo.MasonGeometry;
  * determination of the area of the field.
  * <p/>
  * <p>Note that the field assumes the geometries use the same coordinate system.
+ * <p>
+ * The spatial index can be kept in one of three ways (see setIndexMode()):
+ * <ul>
+ * <li>INDEX_REBUILD, the default: a quadtree which is thrown away and rebuilt
+ * from every geometry by updateSpatialIndex() whenever anything has been
+ * moved or removed.</li>
+ * <li>INDEX_INCREMENTAL: a quadtree in which updateSpatialIndex() re-inserts
+ * just the geometries moved with setGeometryLocation() (or reported with
+ * geometryMoved()) since the last update, and from which removed geometries
+ * are deleted immediately.  Use this for layers of many mobile agents.</li>
+ * <li>INDEX_STATIC: an STRtree, bulk-loaded from all the geometries the first
+ * time the field is queried after a change.  STRtrees are more compact and
+ * faster to query than quadtrees, but cannot be updated, so use this for
+ * layers which rarely change, such as roads or buildings.</li>
+ * </ul>
+ * In every mode, removing a geometry which is in the field takes O(1) time.
  */
 public class GeomVectorField extends GeomField
 {
 
-    private static final long serialVersionUID = -754748817928825708L;
+    private static final long serialVersionUID = 3591723484719240391L;
+
+
+    /** The spatial index is a quadtree rebuilt wholesale by updateSpatialIndex() */
+    public static final int INDEX_REBUILD = 0;
+
+    /** The spatial index is a quadtree in which moved geometries are updated individually */
+    public static final int INDEX_INCREMENTAL = 1;
+
+    /** The spatial index is an STRtree bulk-loaded when the field is queried after a change */
+    public static final int INDEX_STATIC = 2;
 
 
     /**
      * A spatial index of all the geometries in the field.
      */
-    private Quadtree spatialIndex = new Quadtree();
+    private SpatialIndex spatialIndex = new Quadtree();
+
+
+    /**
+     * How the spatial index is maintained.
+     */
+    private int indexMode = INDEX_REBUILD;
+
+
+    /**
+     * Where each geometry is in the geometries Bag, and the envelope under
+     * which it is stored in the spatial index.  Keyed by identity, since
+     * a MasonGeometry's hash code changes when it moves.
+     */
+    private IdentityHashMap<MasonGeometry, Entry> entries = new IdentityHashMap<MasonGeometry, Entry>();
+
+
+    /**
+     * Geometries which have moved since the last updateSpatialIndex(), in
+     * INDEX_INCREMENTAL mode.
+     */
+    private ArrayList<MasonGeometry> movedGeometries = new ArrayList<MasonGeometry>();
+
+
+    static class Entry implements java.io.Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        int index;
+        Envelope envelope;
+        boolean moved;
+    }
 
 
     /**
@@ -111,14 +170,32 @@ public class GeomVectorField extends GeomField
 
 
     /**
-     * Adds the MasonGeometry to the field and also expands the MBR
+     * Adds the MasonGeometry to the field and also expands the MBR.  Adding
+     * a geometry which is already in the field has no effect.
      */
     public void addGeometry(final MasonGeometry g)
     {
-        Envelope e = g.getGeometry().getEnvelopeInternal();
+        if (entries.containsKey(g))
+        {
+            return;
+        }
+
+        Envelope e = new Envelope(g.getGeometry().getEnvelopeInternal());
         MBR.expandToInclude(e);
-        spatialIndex.insert(e, g);
+
+        Entry entry = new Entry();
+        entry.index = geometries.numObjs;
+        entry.envelope = e;
+        entries.put(g, entry);
         geometries.add(g);
+
+        if (indexMode == INDEX_STATIC)
+        {
+            needToRebuildIndex = true;  // STRtrees can't be added to
+        } else
+        {
+            spatialIndex.insert(e, g);
+        }
     }
 
 
@@ -126,18 +203,76 @@ public class GeomVectorField extends GeomField
     /**
      * Removes the given geometry
      * <p>
-     * <em>NOTE:</em> removing geometry can be computationally expensive as the
-     * significant chunks of the spatial index may have to be rebuilt depending
-     * on the removed geometry. Therefore the spatial index is not updated to
-     * reflect that the geometry no longer exists. You must explicitly invoke
-     * updateSpatialIndex() to get the spatial index in sync.
+     * In INDEX_INCREMENTAL mode the geometry is removed from the spatial
+     * index at once.  Otherwise, as removing geometry from a quadtree can be
+     * computationally expensive, the spatial index is not updated to
+     * reflect that the geometry no longer exists: in INDEX_REBUILD mode you must
+     * explicitly invoke updateSpatialIndex() to get the spatial index in sync,
+     * and in INDEX_STATIC mode it is rebuilt when next queried.
      */
     public void removeGeometry(final MasonGeometry g)
     {
-//        spatialIndex.remove(g.getGeometry().getEnvelopeInternal(), g);
-        geometries.remove(g); // TODO: O(n); maybe store Bag index w/ g?
+        MasonGeometry g1 = g;
+        Entry entry = entries.get(g1);
+        if (entry == null)  // perhaps an equal geometry rather than the one in the field
+        {
+            for (int i = 0; i < geometries.numObjs && entry == null; i++)
+            {
+                if (g.equals(geometries.objs[i]))
+                {
+                    g1 = (MasonGeometry) geometries.objs[i];
+                    entry = entries.get(g1);
+                }
+            }
+            if (entry == null)
+            {
+                return;
+            }
+        }
+
+        // Bag.remove(int) moves the last geometry into the hole, so update its entry
+        entries.remove(g1);
+        geometries.remove(entry.index);
+        if (entry.index < geometries.numObjs)
+        {
+            entries.get((MasonGeometry) geometries.get(entry.index)).index = entry.index;
+        }
 
+        if (indexMode == INDEX_INCREMENTAL)
+        {
+            spatialIndex.remove(entry.envelope, g1);
+        } else
+        {
+            needToRebuildIndex = true;
+        }
+    }
+
+
+
+    /**
+     * Sets how the spatial index is maintained: INDEX_REBUILD,
+     * INDEX_INCREMENTAL, or INDEX_STATIC.  The spatial index is rebuilt
+     * in the new form.
+     */
+    public synchronized void setIndexMode(int mode)
+    {
+        if (mode != INDEX_REBUILD && mode != INDEX_INCREMENTAL && mode != INDEX_STATIC)
+        {
+            throw new IllegalArgumentException("Invalid index mode " + mode);
+        }
+        indexMode = mode;
         needToRebuildIndex = true;
+        updateSpatialIndex();
+    }
+
+
+
+    /**
+     * Returns how the spatial index is maintained.
+     */
+    public int getIndexMode()
+    {
+        return indexMode;
     }
 
 
@@ -149,8 +284,10 @@ public class GeomVectorField extends GeomField
     public void clear()
     {
         super.clear();
-        spatialIndex = new Quadtree();
+        spatialIndex = (indexMode == INDEX_STATIC ? new STRtree() : new Quadtree());
         geometries.clear();
+        entries.clear();
+        movedGeometries.clear();
 
         needToRebuildIndex = false;
     }
@@ -257,7 +394,7 @@ public class GeomVectorField extends GeomField
      */
     public synchronized Bag queryField(Envelope e)
     {
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
         Bag geometries = new Bag(gList.size());
 
         // However, the JTS QuadTree query is a little sloppy, which means it
@@ -304,7 +441,7 @@ public class GeomVectorField extends GeomField
         Envelope e = g.getEnvelopeInternal();
         e.expandBy(dist);
 
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
 
         // However, the JTS QuadTree query is a little sloppy, which means it
         // may return objects that are still outside the range.  We need to do
@@ -341,7 +478,7 @@ public class GeomVectorField extends GeomField
     {
         Bag coveringObjects = new Bag();
         Envelope e = g.getEnvelopeInternal();
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
         for (int i = 0; i < gList.size(); i++)
         {
             MasonGeometry gm = (MasonGeometry) gList.get(i);
@@ -404,7 +541,7 @@ public class GeomVectorField extends GeomField
     {
         Bag containingObjects = new Bag();
         Envelope e = g.getEnvelopeInternal();
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
         for (int i = 0; i < gList.size(); i++)
         {
             MasonGeometry gm = (MasonGeometry) gList.get(i);
@@ -436,7 +573,7 @@ public class GeomVectorField extends GeomField
         Bag touchingObjects = new Bag();
         Envelope e = mg.getGeometry().getEnvelopeInternal();
         e.expandBy(java.lang.Math.max(e.getHeight(), e.getWidth()) * 0.01);
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
 
         if (mg.preparedGeometry == null)
         {
@@ -466,7 +603,7 @@ public class GeomVectorField extends GeomField
     public boolean isCovered(MasonGeometry g)
     {
         Envelope e = g.getGeometry().getEnvelopeInternal();
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
         if (g.preparedGeometry == null)
         {
             g.preparedGeometry = PreparedGeometryFactory.prepare(g.getGeometry());
@@ -495,7 +632,7 @@ public class GeomVectorField extends GeomField
     public boolean isCovered(final Coordinate point)
     {
         Envelope e = new Envelope(point);
-        List<?> gList = spatialIndex.query(e);
+        List<?> gList = index().query(e);
         PreparedPoint p = new PreparedPoint(geomFactory.createPoint(point));
         for (int i = 0; i < gList.size(); i++)
         {
@@ -533,23 +670,44 @@ public class GeomVectorField extends GeomField
      * <p>
      * <em>Note</em> that the spatial index is not notified of the geometry
      * changes. It is strongly recommended that updateSpatialIndex() be invoked
-     * after all geometry position changes.
+     * after all geometry position changes.  In INDEX_INCREMENTAL mode, that
+     * only updates the geometries which have been moved.
      * <p/>
      * @see GeomVectorField#updateSpatialIndex()
      */
     public void setGeometryLocation(MasonGeometry g, CoordinateSequenceFilter p)
     {
-        MasonGeometry g1 = findGeometry(g);
+        MasonGeometry g1 = (entries.containsKey(g) ? g : findGeometry(g));
         if (g1 != null)
         {
             // 1/8/2013, spatial index no longer updated; use updateSpatialIndex()
-//             spatialIndex.remove(g1.getGeometry().getEnvelopeInternal(), g1);
             g1.geometry.apply(p);
             g1.geometry.geometryChanged();
-//             spatialIndex.insert(g1.geometry.getEnvelopeInternal(), g1);
+            geometryMoved(g1);
         }
+    }
 
-        needToRebuildIndex = true;
+
+
+    /**
+     * Tells the field that the given geometry, which is in the field, has
+     * been moved or reshaped by some means other than setGeometryLocation().
+     * The spatial index will be updated by the next updateSpatialIndex().
+     */
+    public void geometryMoved(MasonGeometry g)
+    {
+        Entry entry = entries.get(g);
+        if (indexMode == INDEX_INCREMENTAL && entry != null)
+        {
+            if (!entry.moved)
+            {
+                entry.moved = true;
+                movedGeometries.add(g);
+            }
+        } else
+        {
+            needToRebuildIndex = true;
+        }
     }
 
 
@@ -558,22 +716,59 @@ public class GeomVectorField extends GeomField
      * Rebuild the spatial index from the current set of geometry
      * <p>
      * If the objects contained in this field have moved, then the spatial index
-     * will have to be updated. This is done by replacing the current spatial
+     * will have to be updated. Ordinarily this is done by replacing the current spatial
      * index with an entirely new one built from the same stored geometry.
+     * In INDEX_INCREMENTAL mode only the moved geometries are re-inserted.
      */
-    public void updateSpatialIndex()
+    public synchronized void updateSpatialIndex()
     {
         if (needToRebuildIndex)
         {
-            spatialIndex = new Quadtree();
+            spatialIndex = (indexMode == INDEX_STATIC ? new STRtree() : new Quadtree());
 
             for (int i = 0; i < geometries.size(); i++)
             {
-                spatialIndex.insert(((MasonGeometry) geometries.get(i)).geometry.getEnvelopeInternal(), geometries.get(i));
+                MasonGeometry g = (MasonGeometry) geometries.get(i);
+                Entry entry = entries.get(g);
+                entry.envelope = new Envelope(g.geometry.getEnvelopeInternal());
+                entry.moved = false;
+                spatialIndex.insert(entry.envelope, g);
             }
+            movedGeometries.clear();
 
             needToRebuildIndex = false;
+        } else if (!movedGeometries.isEmpty())
+        {
+            for (int i = 0; i < movedGeometries.size(); i++)
+            {
+                MasonGeometry g = movedGeometries.get(i);
+                Entry entry = entries.get(g);
+                if (entry == null || !entry.moved)  // removed since it moved
+                {
+                    continue;
+                }
+                spatialIndex.remove(entry.envelope, g);
+                entry.envelope = new Envelope(g.geometry.getEnvelopeInternal());
+                entry.moved = false;
+                spatialIndex.insert(entry.envelope, g);
+            }
+            movedGeometries.clear();
+        }
+    }
+
+
+
+    /**
+     * Returns the spatial index for querying.  In INDEX_STATIC mode, the
+     * index is first rebuilt if anything has changed.
+     */
+    private SpatialIndex index()
+    {
+        if (indexMode == INDEX_STATIC && needToRebuildIndex)
+        {
+            updateSpatialIndex();
         }
+        return spatialIndex;
     }
 
 
@@ -614,7 +809,7 @@ public class GeomVectorField extends GeomField
      */
     public synchronized MasonGeometry findGeometry(MasonGeometry g)
     {
-        List<?> gList = spatialIndex.query(g.getGeometry().getEnvelopeInternal());
+        List<?> gList = index().query(g.getGeometry().getEnvelopeInternal());
 
         for (int i = 0; i < gList.size(); i++)
         {
@@ -66,33 +66,43 @@ public class ArcInfoASCGridExporter
         outputStream.write( "\n" );
 
 
+        StringBuilder row = new StringBuilder();
+
         switch( gridField.getGridDataType() )
         {
             case INTEGER :
                 IntGrid2D intGrid = (IntGrid2D) gridField.getGrid();
 
+                // Build each row up first, as writing value by value to an
+                // unbuffered Writer is very slow
                 for (int y = 0; y < intGrid.getHeight(); y++)
                 {
+                    row.setLength(0);
                     for (int x = 0; x < intGrid.getWidth(); x++)
                     {
-                        outputStream.write( Integer.toString(intGrid.get(x, y)) );
-                        outputStream.write( " " );
+                        row.append( intGrid.get(x, y) );
+                        row.append( ' ' );
                     }
-                    outputStream.write( "\n" );
+                    row.append( '\n' );
+                    outputStream.append( row );
                 }
                 break;
 
             case DOUBLE :
                 DoubleGrid2D doubleGrid = (DoubleGrid2D) gridField.getGrid();
 
+                // Build each row up first, as writing value by value to an
+                // unbuffered Writer is very slow
                 for (int y = 0; y < doubleGrid.getHeight(); y++)
                 {
+                    row.setLength(0);
                     for (int x = 0; x < doubleGrid.getWidth(); x++)
                     {
-                        outputStream.write( Double.toString(doubleGrid.get(x, y)) );
-                        outputStream.write( " " );
+                        row.append( doubleGrid.get(x, y) );
+                        row.append( ' ' );
                     }
-                    outputStream.write( "\n" );
+                    row.append( '\n' );
+                    outputStream.append( row );
                 }
                 break;
         }
@@ -1,4 +1,4 @@
-/* 
+/*
  * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
  * George Mason University Mason University Licensed under the Academic
  * Free License version 3.0
@@ -11,10 +11,18 @@
 package sim.io.geo;
 
 import com.vividsolutions.jts.geom.Envelope;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Locale;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import sim.field.geo.GeomGridField;
@@ -26,9 +34,29 @@ import sim.field.grid.IntGrid2D;
 
 /** Importer for ESRI Arc/Info ASCII GRID formatted files
  *
+ * The data is parsed directly from bytes rather than through a Scanner, and
+ * large grids are parsed in parallel, in chunks.  Grids which are read
+ * repeatedly from the same file can also be cached in binary form; see
+ * read(File, GridDataType, GeomGridField, File) and BinaryGridCache.
  */
 public class ArcInfoASCGridImporter //extends GeomImporter
 {
+    /** Grids with fewer bytes of data than this are parsed in one thread */
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    /** Exact powers of ten for fast double parsing */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+
     /** Not intended to be instantiated as there is no local state
      */
     private ArcInfoASCGridImporter() {}
@@ -42,134 +70,533 @@ public class ArcInfoASCGridImporter //extends GeomImporter
      * @param source is the data stream for the file
      * @param type denotes the base type as either integer or double-based
      * @param field to be populated
-     * 
-     * 
+     *
+     *
      */
     public static void read(InputStream source, final GeomGridField.GridDataType type, GeomGridField field)
     {
         try
         {
-            int width = 0;
-            int height = 0;
+            byte[] data = new byte[1 << 16];
+            int length = 0;
+            int n;
+            while ((n = source.read(data, length, data.length - length)) != -1)
+            {
+                length += n;
+                if (length == data.length)
+                {
+                    byte[] newData = new byte[data.length * 2];
+                    System.arraycopy(data, 0, newData, 0, length);
+                    data = newData;
+                }
+            }
+            source.close();
 
-            Scanner scanner = new Scanner(source);
-            scanner.useLocale(Locale.US);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.limit(length);
+            read(buffer, type, field);
 
-            scanner.next(); // skip "ncols"
-            width = scanner.nextInt();
+        } catch (IOException ex)
+        {  // XXX Yes, but is this due to missing file or some other problem?
+            Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.SEVERE, null, ex);
+            throw new RuntimeException(ex);
+        }
 
-            scanner.next(); // skip "nrows"
-            height = scanner.nextInt();
+    }
 
 
-            double xllcorner = 0.0; // X lower left corner
-            double yllcorner = 0.0; // Y "     "    "
-            double cellSize = 0.0;  // dimensions of grid cell in coordinate
-                                    // system units
 
-            scanner.next(); // skip "xllcorner"
-            xllcorner = scanner.nextDouble();
+    /** Read geospatial grid data from the given file into given field
+     *
+     * The file is memory mapped rather than read through a stream.
+     *
+     * @param source is the file
+     * @param type denotes the base type as either integer or double-based
+     * @param field to be populated
+     */
+    public static void read(File source, final GeomGridField.GridDataType type, GeomGridField field) throws IOException
+    {
+        FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        try
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(source + " is too large to map: " + channel.size() + " bytes");
+            }
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), type, field);
+        } finally
+        {
+            channel.close();
+        }
+    }
 
-            scanner.next(); // skip "yllcorner"
-            yllcorner = scanner.nextDouble();
 
-            scanner.next(); // skip "cellsize"
-            cellSize = scanner.nextDouble();
 
-            // Skip the optional NODATA line if it exists
-            if ( scanner.hasNext("NODATA_value") )
-            {
-                // Have to do this twice to get past the NODATA line
-                String nextLine = scanner.nextLine();
-                nextLine = scanner.nextLine();
+    /** Read geospatial grid data from the given file into given field, by way
+     * of a binary cache.
+     *
+     * If the cache file was written from this very source file (the same
+     * length and modification time) and for the same type, the grid is loaded
+     * from the cache, skipping parsing entirely.  Otherwise the source file is
+     * parsed and the cache file is (re)written for next time.  A cache which
+     * can't be written is reported and otherwise ignored.
+     *
+     * @param source is the file
+     * @param type denotes the base type as either integer or double-based
+     * @param field to be populated
+     * @param cache is the binary cache file, for example source + ".grid"
+     */
+    public static void read(File source, final GeomGridField.GridDataType type, GeomGridField field, File cache) throws IOException
+    {
+        if (BinaryGridCache.read(cache, type, source.length(), source.lastModified(), field))
+        {
+            return;
+        }
+
+        read(source, type, field);
+
+        try
+        {
+            BinaryGridCache.write(field, source.length(), source.lastModified(), cache);
+        } catch (IOException ex)
+        {
+            Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.WARNING, "Unable to write grid cache " + cache, ex);
+        }
+    }
+
 
-//                System.out.println("nextLine: " + nextLine);
-            }
 
-            // We should now be at the first line of data.  Given how the user
-            // wants to interpret the data (i.e., as integers or floats) we'll
-            // have to obviously read the datat a little differently.
+    /** Parses the grid in the buffer, from its position to its limit */
+    static void read(ByteBuffer buffer, final GeomGridField.GridDataType type, GeomGridField field)
+    {
+        Tokenizer tokenizer = new Tokenizer(buffer, buffer.position(), buffer.limit());
+
+        int width = 0;
+        int height = 0;
 
-            AbstractGrid2D grid = null;
+        double xllcorner = 0.0; // X lower left corner
+        double yllcorner = 0.0; // Y "     "    "
+        double cellSize = 0.0;  // dimensions of grid cell in coordinate
+                                // system units
 
-            switch (type)
+        // The header is a series of keyword value pairs, of which NODATA_value
+        // is optional.  The data starts at the first token which isn't a header
+        // keyword, which may be a word such as nan.
+        while (tokenizer.next())
+        {
+            String keyword = tokenizer.toString().toLowerCase();
+            if (!isHeaderKeyword(keyword))
             {
-                case INTEGER:
-                    grid = new IntGrid2D(width, height);
-                    readIntegerBased(scanner, width, height, (IntGrid2D) grid);
-                    break;
-                case DOUBLE:
-                    grid = new DoubleGrid2D(width, height);
-                    readDoubleBased(scanner, width, height, (DoubleGrid2D) grid);
-                    break;
+                break;
+            }
+            if (!tokenizer.next())
+            {
+                throw new RuntimeException("Missing value for " + keyword + " in ASC grid header");
             }
 
-            field.setGrid(grid);
+            if (keyword.equals("ncols"))
+            {
+                width = tokenizer.nextInt();
+            } else if (keyword.equals("nrows"))
+            {
+                height = tokenizer.nextInt();
+            } else if (keyword.startsWith("xll"))
+            {
+                xllcorner = tokenizer.nextDouble();
+            } else if (keyword.startsWith("yll"))
+            {
+                yllcorner = tokenizer.nextDouble();
+            } else if (keyword.equals("cellsize"))
+            {
+                cellSize = tokenizer.nextDouble();
+            }
+            // else skip NODATA_value
+        }
 
-            // Before we go, ensure that we've got the MBR and cell dimensions
-            // all sorted.
+        // We should now be at the first datum.  Given how the user
+        // wants to interpret the data (i.e., as integers or floats) we'll
+        // have to obviously read the datat a little differently.
 
-            field.setPixelHeight(cellSize);
-            field.setPixelWidth(cellSize);
+        AbstractGrid2D grid = null;
 
-            Envelope MBR = new Envelope(xllcorner, xllcorner + cellSize * width,
-                                        yllcorner + cellSize * height, yllcorner);
+        switch (type)
+        {
+            case INTEGER:
+                grid = new IntGrid2D(width, height);
+                break;
+            case DOUBLE:
+                grid = new DoubleGrid2D(width, height);
+                break;
+        }
 
-            field.setMBR(MBR);
+        readData(buffer, tokenizer.start, buffer.limit(), width, height, grid);
 
-            scanner.close();
-            
-        } catch (IOException ex)
-        {  // XXX Yes, but is this due to missing file or some other problem?
-            Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.SEVERE, null, ex);
-            throw new RuntimeException(ex);
-        }
+        field.setGrid(grid);
 
+        // Before we go, ensure that we've got the MBR and cell dimensions
+        // all sorted.
+
+        field.setPixelHeight(cellSize);
+        field.setPixelWidth(cellSize);
+
+        Envelope MBR = new Envelope(xllcorner, xllcorner + cellSize * width,
+                                    yllcorner + cellSize * height, yllcorner);
+
+        field.setMBR(MBR);
     }
 
-    /** Reads integer-based geospatial data from ARC/INFO ASCII GRID file
-     *
-     * intGrid2D.field populated with data found in reader.
+
+
+    /** Fills the grid, row by row, from the data in buffer[start ... end).
      *
-     * @throws IOException if problem reading data
-     * 
-     * @see read()
+     * Large data is split into chunks at whitespace.  The tokens in each chunk
+     * are counted in parallel, which tells us the cell at which each chunk
+     * starts, and then the chunks are parsed in parallel.
      */
-    private static void readIntegerBased(Scanner scanner, int width, int height, IntGrid2D intGrid2D) throws IOException
+    private static void readData(final ByteBuffer buffer, int start, int end, final int width, final int height, final AbstractGrid2D grid)
     {
-        int currentInt;
+        final long cells = (long) width * height;
+        if (cells == 0)
+        {
+            return;
+        }
+        int numChunks = 1;
+        if (end - start >= PARALLEL_THRESHOLD)
+        {
+            numChunks = Math.max(1, Math.min((end - start) / (PARALLEL_THRESHOLD / 4), 4 * ForkJoinPool.getCommonPoolParallelism()));
+        }
 
-        for (int y = 0; y < height; y++)
+        final int[] bounds = new int[numChunks + 1];
+        bounds[0] = start;
+        bounds[numChunks] = end;
+        for (int i = 1; i < numChunks; i++)
         {
-            for (int x = 0; x < width; x++)
+            int b = Math.max(bounds[i - 1], start + (int) ((long) (end - start) * i / numChunks));
+            while (b < end && buffer.get(b) > ' ')
             {
-                currentInt = scanner.nextInt();
-                intGrid2D.set(x, y, currentInt);
+                b++;    // don't split a token
             }
+            bounds[i] = b;
+        }
+
+        if (numChunks == 1)
+        {
+            long count = new Tokenizer(buffer, start, end).parse(0, cells, width, grid);
+            checkCount(count, cells);
+            return;
+        }
+
+        List<Callable<Long>> counts = new ArrayList<Callable<Long>>();
+        for (int i = 0; i < numChunks; i++)
+        {
+            final Tokenizer tokenizer = new Tokenizer(buffer, bounds[i], bounds[i + 1]);
+            counts.add(new Callable<Long>()
+            {
+                public Long call()
+                {
+                    return tokenizer.count();
+                }
+            });
+        }
+        final long[] firstCell = new long[numChunks + 1];
+        List<Future<Long>> results = ForkJoinPool.commonPool().invokeAll(counts);
+        for (int i = 0; i < numChunks; i++)
+        {
+            firstCell[i + 1] = firstCell[i] + get(results.get(i));
+        }
+        checkCount(firstCell[numChunks], cells);
+
+        List<Callable<Long>> parses = new ArrayList<Callable<Long>>();
+        for (int i = 0; i < numChunks && firstCell[i] < cells; i++)
+        {
+            final Tokenizer tokenizer = new Tokenizer(buffer, bounds[i], bounds[i + 1]);
+            final long first = firstCell[i];
+            parses.add(new Callable<Long>()
+            {
+                public Long call()
+                {
+                    return tokenizer.parse(first, cells, width, grid);
+                }
+            });
+        }
+        results = ForkJoinPool.commonPool().invokeAll(parses);
+        for (int i = 0; i < results.size(); i++)
+        {
+            get(results.get(i));   // rethrow any parse error
         }
     }
-    
 
-    /** Reads real-based geospatial data from ARC/INFO ASCII GRID file
-     *
-     * doubleGrid2D.field populated with data found in reader.
-     *
-     * @throws IOException if problem reading data
-     *
-     * @see read()
+
+
+    private static long get(Future<Long> future)
+    {
+        try
+        {
+            return future.get();
+        } catch (InterruptedException ex)
+        {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+
+
+    private static void checkCount(long count, long cells)
+    {
+        if (count < cells)
+        {
+            throw new RuntimeException("ASC grid has " + count + " values but needs " + cells);
+        }
+    }
+
+
+
+    /** Returns true if keyword, in lower case, is one of the keywords of the header */
+    private static boolean isHeaderKeyword(String keyword)
+    {
+        return keyword.equals("ncols") || keyword.equals("nrows")
+            || keyword.equals("xllcorner") || keyword.equals("xllcenter")
+            || keyword.equals("yllcorner") || keyword.equals("yllcenter")
+            || keyword.equals("cellsize") || keyword.equals("nodata_value");
+    }
+
+
+
+    /** Walks the whitespace-separated tokens in buffer[position ... end).
+     * Only absolute gets are used, so Tokenizers may share a buffer.
      */
-    private static void readDoubleBased(Scanner scanner, int width, int height, DoubleGrid2D doubleGrid2D) throws IOException
+    static class Tokenizer
     {
-        double currentDouble;
+        final ByteBuffer buffer;
+        final int end;
+        int position;
+        int start;      // the current token is buffer[start ... position)
+
+        Tokenizer(ByteBuffer buffer, int position, int end)
+        {
+            this.buffer = buffer;
+            this.position = position;
+            this.end = end;
+        }
 
-        for (int y = 0; y < height; y++)
+        /** Advances to the next token, returning false if there is none */
+        boolean next()
         {
-            for (int x = 0; x < width; x++)
+            int p = position;
+            while (p < end && buffer.get(p) <= ' ')
             {
-                currentDouble = scanner.nextDouble();
-                doubleGrid2D.set(x, y, currentDouble);
+                p++;
             }
+            start = p;
+            while (p < end && buffer.get(p) > ' ')
+            {
+                p++;
+            }
+            position = p;
+            return start < p;
         }
-    }
 
+        /** Returns the number of tokens remaining */
+        long count()
+        {
+            long count = 0;
+            while (next())
+            {
+                count++;
+            }
+            return count;
+        }
+
+        /** Stores the remaining tokens in the grid, row by row, starting with
+         * the given cell; tokens past the last cell are ignored.  Returns the
+         * number of tokens read. */
+        long parse(long cell, long cells, int width, AbstractGrid2D grid)
+        {
+            long first = cell;
+            int x = (int) (cell % width);
+            int y = (int) (cell / width);
+            int[][] ints = (grid instanceof IntGrid2D ? ((IntGrid2D) grid).field : null);
+            double[][] doubles = (grid instanceof DoubleGrid2D ? ((DoubleGrid2D) grid).field : null);
+
+            while (cell < cells && next())
+            {
+                if (ints != null)
+                {
+                    ints[x][y] = nextInt();
+                } else
+                {
+                    doubles[x][y] = nextDouble();
+                }
+                cell++;
+                if (++x == width)
+                {
+                    x = 0;
+                    y++;
+                }
+            }
+            return cell - first;
+        }
+
+        /** Parses the current token as an int */
+        int nextInt()
+        {
+            int p = start;
+            boolean negative = false;
+            byte b = buffer.get(p);
+            if (b == '-' || b == '+')
+            {
+                negative = (b == '-');
+                p++;
+            }
+            if (p == position || position - p > 10)
+            {
+                return Integer.parseInt(toString());    // throws, or handles the edge cases
+            }
+            long value = 0;
+            for (; p < position; p++)
+            {
+                int digit = buffer.get(p) - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    throw new NumberFormatException("For input string: \"" + toString() + "\"");
+                }
+                value = value * 10 + digit;
+            }
+            if (negative)
+            {
+                value = -value;
+            }
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            {
+                throw new NumberFormatException("For input string: \"" + toString() + "\"");
+            }
+            return (int) value;
+        }
+
+        /** Parses the current token as a double.  Plain decimals of up to 15
+         * digits with small exponents are converted exactly by hand; anything
+         * else is given to parseDouble(), so the results are always the
+         * same as Double.parseDouble()'s, except that nan and inf are accepted
+         * in any case. */
+        double nextDouble()
+        {
+            int p = start;
+            boolean negative = false;
+            byte b = buffer.get(p);
+            if (b == '-' || b == '+')
+            {
+                negative = (b == '-');
+                p++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean point = false;
+            boolean any = false;
+            for (; p < position; p++)
+            {
+                b = buffer.get(p);
+                if (b >= '0' && b <= '9')
+                {
+                    any = true;
+                    if (mantissa != 0 || b != '0')
+                    {
+                        digits++;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point)
+                    {
+                        exponent--;
+                    }
+                } else if (b == '.' && !point)
+                {
+                    point = true;
+                } else
+                {
+                    break;
+                }
+            }
+            if (p < position && any && (b == 'e' || b == 'E'))
+            {
+                p++;
+                boolean negativeExponent = false;
+                if (p < position && (buffer.get(p) == '-' || buffer.get(p) == '+'))
+                {
+                    negativeExponent = (buffer.get(p) == '-');
+                    p++;
+                }
+                int e = 0;
+                int exponentStart = p;
+                for (; p < position && p - exponentStart < 4; p++)
+                {
+                    int digit = buffer.get(p) - '0';
+                    if (digit < 0 || digit > 9)
+                    {
+                        break;
+                    }
+                    e = e * 10 + digit;
+                }
+                if (p == exponentStart)
+                {
+                    any = false;
+                }
+                exponent += (negativeExponent ? -e : e);
+            }
+
+            // exact if the mantissa is below 2^53 and the power of ten is exact
+            if (!any || p != position || digits > 15 || exponent < -22 || exponent > 22)
+            {
+                return parseDouble(toString());
+            }
+            double value = (double) mantissa;
+            if (exponent < 0)
+            {
+                value /= POWERS_OF_TEN[-exponent];
+            } else
+            {
+                value *= POWERS_OF_TEN[exponent];
+            }
+            return (negative ? -value : value);
+        }
+
+        /** Double.parseDouble(), also accepting nan and inf in any case, as
+         * written by GDAL for instance */
+        static double parseDouble(String token)
+        {
+            String word = token.toLowerCase();
+            boolean negative = word.startsWith("-");
+            if (negative || word.startsWith("+"))
+            {
+                word = word.substring(1);
+            }
+            if (word.equals("nan"))
+            {
+                return Double.NaN;
+            }
+            if (word.equals("inf") || word.equals("infinity"))
+            {
+                return (negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+            }
+            return Double.parseDouble(token);
+        }
+
+        /** Returns the current token */
+        public String toString()
+        {
+            byte[] b = new byte[position - start];
+            for (int i = 0; i < b.length; i++)
+            {
+                b[i] = buffer.get(start + i);
+            }
+            return new String(b, java.nio.charset.StandardCharsets.US_ASCII);
+        }
+    }
 }
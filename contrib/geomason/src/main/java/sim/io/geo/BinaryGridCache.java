@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.io.geo;
+
+import com.vividsolutions.jts.geom.Envelope;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import sim.field.geo.GeomGridField;
+import sim.field.grid.DoubleGrid2D;
+import sim.field.grid.IntGrid2D;
+
+
+
+/** A binary file format for the grids of GeomGridFields, meant as a cache
+ * for grids which are slow to import, such as large ASC rasters.
+ *
+ * The file holds a fixed size header (the grid type and dimensions, the MBR
+ * and pixel dimensions, and the length and modification time of the file
+ * the grid came from) followed by the cells in little endian order, column by
+ * column, just as they are laid out in IntGrid2D.field or DoubleGrid2D.field.
+ * The file is memory mapped on reading, and each column is bulk copied into
+ * the grid.
+ *
+ * @see ArcInfoASCGridImporter#read(File, GeomGridField.GridDataType, GeomGridField, File)
+ */
+public class BinaryGridCache
+{
+    /** "MGRD" */
+    static final int MAGIC = 0x4D475244;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+
+    /** Columns are written through a buffer of this many bytes */
+    static final int BUFFER_SIZE = 1 << 20;
+
+
+    /** Not intended to be instantiated as there is no local state
+     */
+    private BinaryGridCache() {}
+
+
+
+    /** Writes the field's grid, which must be an IntGrid2D or DoubleGrid2D, to
+     * the given file.
+     *
+     * The file is written under a temporary name and renamed when complete, so
+     * an interrupted write never leaves a truncated cache behind.
+     *
+     * @param field whose grid is to be written
+     * @param sourceLength the length of the file the grid came from, or 0
+     * @param sourceModified the modification time of the file the grid came from, or 0
+     * @param file to be written
+     */
+    public static void write(GeomGridField field, long sourceLength, long sourceModified, File file) throws IOException
+    {
+        GeomGridField.GridDataType type = field.getGridDataType();
+        if (type == null)
+        {
+            throw new IllegalArgumentException("Only IntGrid2D and DoubleGrid2D grids can be cached");
+        }
+
+        int width = field.getGridWidth();
+        int height = field.getGridHeight();
+        Envelope MBR = field.getMBR();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(HEADER_SIZE, BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(type.ordinal());
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putDouble(field.getPixelWidth());
+        buffer.putDouble(field.getPixelHeight());
+        buffer.putDouble(MBR.getMinX());
+        buffer.putDouble(MBR.getMaxX());
+        buffer.putDouble(MBR.getMinY());
+        buffer.putDouble(MBR.getMaxY());
+        buffer.putLong(sourceLength);
+        buffer.putLong(sourceModified);
+        buffer.position(HEADER_SIZE);
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                                               StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (type == GeomGridField.GridDataType.INTEGER)
+                {
+                    int[] column = ((IntGrid2D) field.getGrid()).field[x];
+                    for (int y = 0; y < height; )
+                    {
+                        if (buffer.remaining() < 4)
+                        {
+                            drain(buffer, channel);
+                        }
+                        int n = Math.min(height - y, buffer.remaining() / 4);
+                        buffer.asIntBuffer().put(column, y, n);
+                        buffer.position(buffer.position() + 4 * n);
+                        y += n;
+                    }
+                } else
+                {
+                    double[] column = ((DoubleGrid2D) field.getGrid()).field[x];
+                    for (int y = 0; y < height; )
+                    {
+                        if (buffer.remaining() < 8)
+                        {
+                            drain(buffer, channel);
+                        }
+                        int n = Math.min(height - y, buffer.remaining() / 8);
+                        buffer.asDoubleBuffer().put(column, y, n);
+                        buffer.position(buffer.position() + 8 * n);
+                        y += n;
+                    }
+                }
+            }
+            drain(buffer, channel);
+        } finally
+        {
+            channel.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+
+    /** Reads the grid in the given file into the field, setting its MBR and
+     * pixel dimensions, but only if the file exists, is of the given type, and
+     * was written from a source of the given length and modification time.
+     *
+     * @return true if the field was read, false if the file was missing or
+     * didn't match
+     * @throws IOException if the file matched but couldn't be read
+     */
+    public static boolean read(File file, GeomGridField.GridDataType type, long sourceLength, long sourceModified, GeomGridField field) throws IOException
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE)
+        {
+            return false;
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != type.ordinal() ||
+                buffer.getLong(68) != sourceLength || buffer.getLong(76) != sourceModified)
+            {
+                return false;
+            }
+
+            int width = buffer.getInt(12);
+            int height = buffer.getInt(16);
+            int cellSize = (type == GeomGridField.GridDataType.INTEGER ? 4 : 8);
+            if (channel.size() != HEADER_SIZE + (long) width * height * cellSize)
+            {
+                return false;   // truncated or otherwise damaged
+            }
+
+            buffer.position(HEADER_SIZE);
+            ByteBuffer cells = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (type == GeomGridField.GridDataType.INTEGER)
+            {
+                IntGrid2D grid = new IntGrid2D(width, height);
+                IntBuffer ints = cells.asIntBuffer();
+                for (int x = 0; x < width; x++)
+                {
+                    ints.get(grid.field[x]);
+                }
+                field.setGrid(grid);
+            } else
+            {
+                DoubleGrid2D grid = new DoubleGrid2D(width, height);
+                DoubleBuffer doubles = cells.asDoubleBuffer();
+                for (int x = 0; x < width; x++)
+                {
+                    doubles.get(grid.field[x]);
+                }
+                field.setGrid(grid);
+            }
+
+            field.setMBR(new Envelope(buffer.getDouble(36), buffer.getDouble(44),
+                                      buffer.getDouble(52), buffer.getDouble(60)));
+            field.setPixelWidth(buffer.getDouble(20));
+            field.setPixelHeight(buffer.getDouble(28));
+            return true;
+        } finally
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.io.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * Reads ESRI shapefiles from local files through memory maps. Records are
+ * decoded straight out of the mapped .shp and .dbf files, with no per-value
+ * stream reads, and may be decoded by several threads at once: the records are
+ * split into chunks, the chunks are decoded in parallel, and each chunk's
+ * geometries are added to the field, in file order, as soon as it is done.
+ * <p>
+ * Records may be filtered while reading, both by envelope (records whose
+ * bounding box lies outside the envelope are skipped without decoding their
+ * coordinates or attributes) and by attribute, with a RecordFilter.
+ * <p>
+ * ShapeFileImporter.read(...) uses this class for file: URLs. When importing
+ * large layers which will not change, consider setting the field's index mode
+ * to GeomVectorField.INDEX_STATIC first, so the spatial index is bulk-loaded once
+ * rather than grown record by record.
+ */
+public class MappedShapeFileImporter {
+
+	/**
+	 * Decides whether a record should be added to the field.
+	 */
+	public interface RecordFilter {
+		/**
+		 * @param recordNumber the index of the record in the file, starting at 0
+		 * @param attributes   the record's attributes, limited to those in the
+		 *                     mask if one was given
+		 * @return true if the record should be added to the field
+		 */
+		public boolean accept(int recordNumber, Map<String, AttributeValue> attributes);
+	}
+
+	/** Records are decoded in chunks of this many. */
+	public static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * Not meant to be instantiated
+	 */
+	private MappedShapeFileImporter() {
+	}
+
+	/**
+	 * Populates the field from the given shape and dBase files, using all the
+	 * available processors.
+	 *
+	 * @param shpFile            to be read from
+	 * @param dbFile             to be read from
+	 * @param field              to contain read in data
+	 * @param masked             dictates the subset of attributes we want, or null
+	 *                           for all of them
+	 * @param masonGeometryClass allows us to over-ride the default MasonGeometry
+	 *                           wrapper
+	 * @param bounds             if non-null, only records whose bounding boxes
+	 *                           intersect it are read
+	 * @param filter             if non-null, only records it accepts are read
+	 * @return the number of geometries added to the field
+	 */
+	public static int read(final File shpFile, final File dbFile, final GeomVectorField field, final Bag masked,
+			final Class<?> masonGeometryClass, final Envelope bounds, final RecordFilter filter)
+			throws IOException, Exception {
+		return read(shpFile, dbFile, field, masked, masonGeometryClass, bounds, filter,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Populates the field from the given shape and dBase files, decoding records
+	 * in up to numThreads threads.
+	 *
+	 * @return the number of geometries added to the field
+	 */
+	public static int read(final File shpFile, final File dbFile, final GeomVectorField field, final Bag masked,
+			final Class<?> masonGeometryClass, final Envelope bounds, final RecordFilter filter, final int numThreads)
+			throws IOException, Exception {
+		if (!MasonGeometry.class.isAssignableFrom(masonGeometryClass)) // Not a subclass? No go
+		{
+			throw new IllegalArgumentException("masonGeometryClass not a MasonGeometry class or subclass");
+		}
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("numThreads must be > 0: " + numThreads);
+		}
+
+		try {
+			final ByteBuffer shp = map(shpFile);
+			final ByteBuffer dbf = map(dbFile);
+			final Layout layout = new Layout(shp, dbf, masked);
+
+			final int numChunks = (layout.numRecords + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			int count = 0;
+			if (numThreads == 1 || numChunks <= 1) {
+				for (int i = 0; i < numChunks; i++) {
+					count += add(field, new Chunk(layout, i, bounds, filter, masonGeometryClass).call());
+				}
+				return count;
+			}
+
+			final ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numChunks));
+			try {
+				final ArrayList<Future<ArrayList<MasonGeometry>>> futures = new ArrayList<Future<ArrayList<MasonGeometry>>>(
+						numChunks);
+				for (int i = 0; i < numChunks; i++) {
+					futures.add(executor.submit(new Chunk(layout, i, bounds, filter, masonGeometryClass)));
+				}
+				// the field isn't thread-safe, so geometries are added here, in order
+				for (int i = 0; i < numChunks; i++) {
+					count += add(field, futures.get(i).get());
+				}
+			} catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw e;
+			} finally {
+				executor.shutdownNow();
+			}
+			return count;
+		} catch (final IOException e) {
+			System.err.println("Error in MappedShapeFileImporter!!");
+			System.err.println("SHP filename: " + shpFile.getPath() + "; DB filename: " + dbFile.getPath());
+			throw e;
+		}
+	}
+
+	private static int add(final GeomVectorField field, final ArrayList<MasonGeometry> geometries) {
+		for (int i = 0; i < geometries.size(); i++) {
+			field.addGeometry(geometries.get(i));
+		}
+		return geometries.size();
+	}
+
+	private static ByteBuffer map(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map: " + channel.size() + " bytes");
+			}
+			// the mapping remains valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Where everything is in the two files: the offset of every shape record, and
+	 * the dBase fields.
+	 */
+	static class Layout {
+		final ByteBuffer shp;
+		final ByteBuffer dbf;
+		final int[] shapeOffsets;
+		final int numRecords;
+		final int dbHeaderSize;
+		final int dbRecordSize;
+		final String[] fieldNames;
+		final char[] fieldTypes;
+		final int[] fieldOffsets; // within the dBase record
+		final int[] fieldSizes;
+		final boolean[] fieldWanted;
+
+		Layout(final ByteBuffer shp, final ByteBuffer dbf, final Bag masked) throws IOException {
+			this.shp = shp;
+			this.dbf = dbf;
+
+			// The header size is 8 bytes in, and is little endian
+			dbHeaderSize = dbf.getShort(8) & 0xFFFF;
+			dbRecordSize = dbf.getShort(10) & 0xFFFF;
+			final int fieldCnt = (dbHeaderSize - 1) / 32 - 1;
+			final int dbRecords = dbf.getInt(4);
+
+			fieldNames = new String[fieldCnt];
+			fieldTypes = new char[fieldCnt];
+			fieldOffsets = new int[fieldCnt];
+			fieldSizes = new int[fieldCnt];
+			fieldWanted = new boolean[fieldCnt];
+			final byte c[] = new byte[11];
+			int start = 1; // past the deletion flag
+			for (int i = 0; i < fieldCnt; i++) {
+				final int entry = 32 + 32 * i;
+				for (int j = 0; j < 11; j++) {
+					c[j] = dbf.get(entry + j);
+				}
+				int j = 0;
+				for (j = 0; j < 11 && c[j] != 0; j++)
+					; // skip to first unwritten byte
+				fieldNames[i] = new String(c, 0, j);
+				fieldTypes[i] = (char) dbf.get(entry + 11);
+				fieldSizes[i] = dbf.get(entry + 16) & 0xFF;
+				fieldOffsets[i] = start;
+				fieldWanted[i] = (masked == null || masked.contains(fieldNames[i]));
+				start += fieldSizes[i];
+			}
+
+			// Find every record.  Each has a big endian header giving its
+			// content length in 16-bit words.  All shapes are the same type,
+			// so stop at the first we can't read.
+			int[] offsets = new int[1024];
+			int n = 0;
+			int position = 100;
+			final int limit = shp.limit();
+			while (position + 12 <= limit) {
+				final int recordType = shp.getInt(position + 8);
+				if (!ShapeFileImporter.isSupported(recordType)) {
+					System.err.println("Error: MappedShapeFileImporter.read(...): ShapeType "
+							+ ShapeFileImporter.typeToString(recordType) + " not supported.");
+					break;
+				}
+				if (n == offsets.length) {
+					final int[] newOffsets = new int[n * 2];
+					System.arraycopy(offsets, 0, newOffsets, 0, n);
+					offsets = newOffsets;
+				}
+				offsets[n++] = position + 8;
+				position += 8 + 2 * Integer.reverseBytes(shp.getInt(position + 4));
+			}
+			if (n > dbRecords) {
+				throw new IOException("Shape file has " + n + " records but dBase file has only " + dbRecords);
+			}
+			shapeOffsets = offsets;
+			numRecords = n;
+		}
+	}
+
+	/**
+	 * Decodes one chunk of records. Reads only by absolute position, so chunks
+	 * can share the mapped buffers.
+	 */
+	static class Chunk implements java.util.concurrent.Callable<ArrayList<MasonGeometry>> {
+		final Layout layout;
+		final int from;
+		final int to;
+		final Envelope bounds;
+		final RecordFilter filter;
+		final Class<?> masonGeometryClass;
+		final GeometryFactory geomFactory = new GeometryFactory();
+
+		Chunk(final Layout layout, final int chunk, final Envelope bounds, final RecordFilter filter,
+				final Class<?> masonGeometryClass) {
+			this.layout = layout;
+			from = chunk * CHUNK_SIZE;
+			to = Math.min(from + CHUNK_SIZE, layout.numRecords);
+			this.bounds = bounds;
+			this.filter = filter;
+			this.masonGeometryClass = masonGeometryClass;
+		}
+
+		public ArrayList<MasonGeometry> call() throws Exception {
+			final ArrayList<MasonGeometry> geometries = new ArrayList<MasonGeometry>(to - from);
+			final ByteBuffer shp = layout.shp;
+			final ByteBuffer dbf = layout.dbf.duplicate(); // for its own position
+			final byte r[] = new byte[layout.dbRecordSize];
+
+			for (int record = from; record < to; record++) {
+				final int offset = layout.shapeOffsets[record];
+				final int recordType = shp.getInt(offset);
+
+				// Check the bounds before decoding anything else
+				if (bounds != null) {
+					if (recordType == ShapeFileImporter.POINT || recordType == ShapeFileImporter.POINTZ) {
+						if (!bounds.contains(shp.getDouble(offset + 4), shp.getDouble(offset + 12))) {
+							continue;
+						}
+					} else if (!bounds.intersects(new Envelope(shp.getDouble(offset + 4), shp.getDouble(offset + 20),
+							shp.getDouble(offset + 12), shp.getDouble(offset + 28)))) {
+						continue;
+					}
+				}
+
+				// Read the attributes
+				dbf.position(layout.dbHeaderSize + record * layout.dbRecordSize);
+				dbf.get(r);
+				final Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>(
+						layout.fieldNames.length);
+				for (int k = 0; k < layout.fieldNames.length; k++) {
+					if (layout.fieldWanted[k]) {
+						final String rawAttributeValue = new String(r, layout.fieldOffsets[k], layout.fieldSizes[k]);
+						attributes.put(layout.fieldNames[k],
+								ShapeFileImporter.parseAttribute(layout.fieldTypes[k], rawAttributeValue.trim()));
+					}
+				}
+				if (filter != null && !filter.accept(record, attributes)) {
+					continue;
+				}
+
+				final Geometry geom = readShape(shp, offset, recordType);
+
+				// The user *may* have created their own MasonGeometry
+				// class, so use the given masonGeometry class; by
+				// default it's MasonGeometry.
+				final MasonGeometry masonGeometry = (MasonGeometry) masonGeometryClass.newInstance();
+				masonGeometry.geometry = geom;
+				if (!attributes.isEmpty()) {
+					masonGeometry.addAttributes(attributes);
+				}
+				geometries.add(masonGeometry);
+			}
+			return geometries;
+		}
+
+		Geometry readShape(final ByteBuffer shp, final int offset, final int recordType) {
+			switch (recordType) {
+			case ShapeFileImporter.POINT:
+				return geomFactory.createPoint(new Coordinate(shp.getDouble(offset + 4), shp.getDouble(offset + 12)));
+			case ShapeFileImporter.POINTZ:
+				return geomFactory.createPoint(new Coordinate(shp.getDouble(offset + 4), shp.getDouble(offset + 12),
+						shp.getDouble(offset + 20)));
+			default: // POLYLINE or POLYGON
+				// past the type and four doubles: minX, minY, maxX, maxY
+				final int numParts = shp.getInt(offset + 36);
+				final int numPoints = shp.getInt(offset + 40);
+				final int partIndices = offset + 44;
+				final int points = partIndices + 4 * numParts;
+
+				final Geometry[] parts = new Geometry[numParts];
+				for (int i = 0; i < numParts; i++) {
+					final int start = shp.getInt(partIndices + 4 * i);
+					final int end = (i < numParts - 1 ? shp.getInt(partIndices + 4 * (i + 1)) : numPoints);
+					final Coordinate coords[] = new Coordinate[end - start];
+					for (int j = 0; j < coords.length; j++) {
+						final int p = points + 16 * (start + j);
+						coords[j] = new Coordinate(shp.getDouble(p), shp.getDouble(p + 8));
+					}
+
+					if (recordType == ShapeFileImporter.POLYLINE)
+						parts[i] = geomFactory.createLineString(coords);
+					else
+						parts[i] = geomFactory.createLinearRing(coords);
+				}
+
+				if (recordType == ShapeFileImporter.POLYLINE) {
+					if (numParts == 1) {
+						return parts[0];
+					}
+					final LineString[] ls = new LineString[numParts];
+					for (int i = 0; i < numParts; i++) {
+						ls[i] = (LineString) parts[i];
+					}
+					return geomFactory.createMultiLineString(ls);
+				} else // polygon
+				{
+					return ShapeFileImporter.createPolygon(parts);
+				}
+			}
+		}
+	}
+}
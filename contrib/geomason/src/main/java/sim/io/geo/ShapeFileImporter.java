@@ -9,12 +9,14 @@
  */
 package sim.io.geo;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -79,7 +81,7 @@ public class ShapeFileImporter {
 		}
 	}
 
-	private static String typeToString(final int shapeType) {
+	static String typeToString(final int shapeType) {
 		switch (shapeType) {
 		case NULL_SHAPE:
 			return "NULL_SHAPE";
@@ -169,7 +171,7 @@ public class ShapeFileImporter {
 	 * Wrapper function which creates a new array of LinearRings and calls the other
 	 * function.
 	 */
-	private static Geometry createPolygon(final Geometry[] parts) {
+	static Geometry createPolygon(final Geometry[] parts) {
 		final LinearRing[] rings = new LinearRing[parts.length];
 		for (int i = 0; i < parts.length; i++) {
 			rings[i] = (LinearRing) parts[i];
@@ -297,6 +299,39 @@ public class ShapeFileImporter {
 		return ByteBuffer.wrap(b).order((littleEndian) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN).getDouble();
 	}
 
+	/**
+	 * Converts a trimmed dBase field value of the given dBase type into an
+	 * AttributeValue.
+	 */
+	static AttributeValue parseAttribute(final char type, final String rawAttributeValue) {
+		final AttributeValue attributeValue = new AttributeValue();
+
+		if (rawAttributeValue.isEmpty()) {
+			// If we've gotten no data for this, then just add the
+			// empty string.
+			attributeValue.setString(rawAttributeValue);
+		} else {
+			switch (type) { // Numeric case
+			case 'N':
+				if (rawAttributeValue.indexOf('.') != -1)
+					attributeValue.setDouble(Double.valueOf(rawAttributeValue));
+				else
+					attributeValue.setInteger(Integer.valueOf(rawAttributeValue));
+				break;
+			case 'L': // Logical
+				attributeValue.setValue(Boolean.valueOf(rawAttributeValue));
+				break;
+			case 'F': // Float
+				attributeValue.setValue(Double.valueOf(rawAttributeValue));
+				break;
+			default:
+				attributeValue.setString(rawAttributeValue);
+				break;
+			}
+		}
+		return attributeValue;
+	}
+
 //    public static InputStream open(URL url) throws IllegalArgumentException, RuntimeException, IOException
 //    {
 //        if(url == null)
@@ -314,6 +349,23 @@ public class ShapeFileImporter {
 			throw new IllegalArgumentException("masonGeometryClass not a MasonGeometry class or subclass");
 		}
 
+		// Local files are much faster to read through memory maps
+		if (shpFile != null && dbFile != null && "file".equals(shpFile.getProtocol())
+				&& "file".equals(dbFile.getProtocol())) {
+			File shp = null;
+			File db = null;
+			try {
+				shp = new File(shpFile.toURI());
+				db = new File(dbFile.toURI());
+			} catch (final URISyntaxException | IllegalArgumentException e) {
+				// not a proper file URI; fall back to reading it as a stream
+			}
+			if (shp != null && db != null) {
+				MappedShapeFileImporter.read(shp, db, field, masked, masonGeometryClass, null, null);
+				return;
+			}
+		}
+
 		try {
 			class FieldDirEntry {
 				public String name;
@@ -419,37 +471,8 @@ public class ShapeFileImporter {
 
 						continue;
 					}
-					String rawAttributeValue = new String(r, start1, fields[k].fieldSize);
-					rawAttributeValue = rawAttributeValue.trim();
-
-					final AttributeValue attributeValue = new AttributeValue();
-
-					if (rawAttributeValue.isEmpty()) {
-						// If we've gotten no data for this, then just add the
-						// empty string.
-						attributeValue.setString(rawAttributeValue);
-					} else {
-						switch (type[k]) { // Numeric case
-						case 'N':
-							if (rawAttributeValue.length() == 0)
-								attributeValue.setString("0");
-							if (rawAttributeValue.indexOf('.') != -1)
-								attributeValue.setDouble(Double.valueOf(rawAttributeValue));
-							else
-								attributeValue.setInteger(Integer.valueOf(rawAttributeValue));
-							break;
-						case 'L': // Logical
-							attributeValue.setValue(Boolean.valueOf(rawAttributeValue));
-							break;
-						case 'F': // Float
-							attributeValue.setValue(Double.valueOf(rawAttributeValue));
-							break;
-						default:
-							attributeValue.setString(rawAttributeValue);
-							break;
-						}
-					}
-					attributes.put(fields[k].name, attributeValue);
+					final String rawAttributeValue = new String(r, start1, fields[k].fieldSize);
+					attributes.put(fields[k].name, parseAttribute(type[k], rawAttributeValue.trim()));
 					start1 += fields[k].fieldSize;
 				}
 
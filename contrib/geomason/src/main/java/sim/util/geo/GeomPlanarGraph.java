@@ -158,4 +158,37 @@ public class GeomPlanarGraph extends PlanarGraph
         return network;
     }
 
+    /** Create a NetworkRouter over a MASON Network built from this planar graph
+     *
+     * The cost of each edge is the length of its line, and A* uses the straight-line
+     * distance between nodes as its heuristic, which is exact since no line is
+     * shorter than the distance between its ends.  Route nodes are the graph's
+     * Nodes and route Edges hold GeomPlanarGraphDirectedEdges as their info.
+     *
+     * @param landmarks number of ALT landmarks to precompute (0 for none), which
+     * speeds up queries on large networks
+     */
+    public NetworkRouter createRouter(int landmarks)
+    {
+        NetworkRouter router = new NetworkRouter(getNetwork(),
+            new NetworkRouter.EdgeCost()
+            {
+                public double getCost(sim.field.network.Edge edge)
+                {
+                    return ((GeomPlanarGraphEdge) ((DirectedEdge) edge.info).getEdge()).getLine().getLength();
+                }
+            },
+            new NetworkRouter.NodeLocation()
+            {
+                public double getX(Object node) { return ((Node) node).getCoordinate().x; }
+                public double getY(Object node) { return ((Node) node).getCoordinate().y; }
+            },
+            1.0, NetworkRouter.DEFAULT_CACHE_SIZE);
+        if (landmarks > 0)
+        {
+            router.precomputeLandmarks(landmarks);
+        }
+        return router;
+    }
+
 }
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.util.geo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import sim.field.network.CompressedNetwork;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+
+/** Shortest path routing over a MASON Network, shared by any number of agents.
+ *
+ * The router works on the Network's CompressedNetwork, so nodes are identified by
+ * their index in the Network's allNodes bag and searches touch only primitive arrays.
+ * Each query runs A* with a binary heap (or Dijkstra, if there is no heuristic), and
+ * its Route is kept in a bounded LRU cache keyed by (origin, destination), so agents
+ * repeating the same trip don't search again.
+ *
+ * <p>The A* heuristic comes from two optional sources, whichever is larger for a
+ * given node:
+ * <ul>
+ * <li>A NodeLocation, giving the straight-line distance to the destination times
+ * a scale factor.  This is only admissible (and A* only exact) if no path is cheaper
+ * than the scale times its straight-line length.</li>
+ * <li>Landmarks (the ALT technique: A*, Landmarks, and the Triangle inequality).
+ * precomputeLandmarks(k) runs Dijkstra from and to k well spread-out landmark nodes,
+ * after which the triangle inequality gives a lower bound on the cost between any
+ * two nodes.  This costs 2k doubles per node of memory, but typically cuts the number
+ * of nodes searched several-fold on road networks.</li>
+ * </ul>
+ *
+ * <p>If the topology of the Network changes, the router rebuilds itself (and its
+ * landmarks) on the next query.  If edge costs change without the topology changing
+ * (congestion, say), call refresh().
+ *
+ * <p>Queries may be made from several threads at once.
+ *
+ * @see GeomPlanarGraph#createRouter(int)
+ */
+public class NetworkRouter
+{
+    /** The cost of traversing an Edge.  Costs must not be negative. */
+    public interface EdgeCost
+    {
+        public double getCost(Edge edge);
+    }
+
+    /** The location of a node, for the straight-line A* heuristic. */
+    public interface NodeLocation
+    {
+        public double getX(Object node);
+        public double getY(Object node);
+    }
+
+    /** An EdgeCost which uses Edge.getWeight(). */
+    public static final EdgeCost WEIGHT = new EdgeCost()
+    {
+        public double getCost(Edge edge) { return edge.getWeight(); }
+    };
+
+    /** The default number of Routes kept in the cache. */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** A path found by the router.  Routes are shared by the cache, so don't modify their arrays. */
+    public static class Route
+    {
+        /** The indices of the nodes on the route, from the origin to the destination inclusive. */
+        public final int[] nodes;
+        /** The indices (into the CompressedNetwork's edge arrays) of the edges on the route. */
+        public final int[] edges;
+        /** The total cost of the route. */
+        public final double cost;
+        final CompressedNetwork network;
+
+        Route(int[] nodes, int[] edges, double cost, CompressedNetwork network)
+        {
+            this.nodes = nodes;
+            this.edges = edges;
+            this.cost = cost;
+            this.network = network;
+        }
+
+        /** Returns the number of edges on the route. */
+        public int size() { return edges.length; }
+
+        /** Returns the ith node on the route (0 is the origin). */
+        public Object getNode(int i) { return network.nodes[nodes[i]]; }
+
+        /** Returns the ith Edge on the route. */
+        public Edge getEdge(int i) { return network.edges[edges[i]]; }
+    }
+
+    final Network network;
+    final EdgeCost edgeCost;
+    final NodeLocation location;
+    final double heuristicScale;
+    final int cacheSize;
+
+    // everything below is rebuilt by refresh()
+    CompressedNetwork out;
+    CompressedNetwork in;
+    double[] costs;
+    double[] inCosts;
+    double[] xs;
+    double[] ys;
+    int numLandmarks = 0;
+    double[][] fromLandmark;    // [landmark][node] cost from the landmark to the node
+    double[][] toLandmark;      // [landmark][node] cost from the node to the landmark
+    LinkedHashMap<Long, Route> cache;
+    int version = 0;        // incremented by refresh(), so searches can tell their workspace is stale
+
+    ThreadLocal<Search> searches = new ThreadLocal<Search>();
+
+    /** Builds a router using Edge.getWeight() as the cost of each edge and no heuristic (that is, Dijkstra's algorithm). */
+    public NetworkRouter(Network network)
+    {
+        this(network, WEIGHT, null, 0, DEFAULT_CACHE_SIZE);
+    }
+
+    /** Builds a router.
+     *
+     * @param network the network to route over
+     * @param edgeCost the cost of each edge
+     * @param location the location of each node, or null for no straight-line heuristic
+     * @param heuristicScale the straight-line distance between nodes is multiplied by this to estimate the cost between them
+     * @param cacheSize the maximum number of Routes to cache, or 0 for no cache
+     */
+    public NetworkRouter(Network network, EdgeCost edgeCost, NodeLocation location, double heuristicScale, int cacheSize)
+    {
+        this.network = network;
+        this.edgeCost = edgeCost;
+        this.location = location;
+        this.heuristicScale = heuristicScale;
+        this.cacheSize = cacheSize;
+        refresh();
+    }
+
+    /** Rereads the network's topology and edge costs, and recomputes any landmarks, discarding all cached Routes. */
+    public synchronized void refresh()
+    {
+        out = network.getCompressedNetwork(true);
+        in = network.getCompressedNetwork(false);
+        costs = costsOf(out);
+        inCosts = (in == out ? costs : costsOf(in));
+
+        int n = out.getNumNodes();
+        if (location != null)
+        {
+            xs = new double[n];
+            ys = new double[n];
+            for (int i = 0; i < n; i++)
+            {
+                xs[i] = location.getX(out.nodes[i]);
+                ys[i] = location.getY(out.nodes[i]);
+            }
+        }
+        cache = new LinkedHashMap<Long, Route>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1;
+
+            protected boolean removeEldestEntry(Map.Entry<Long, Route> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+        version++;
+        computeLandmarks();
+    }
+
+    double[] costsOf(CompressedNetwork c)
+    {
+        double[] result = new double[c.getNumEdges()];
+        for (int k = 0; k < result.length; k++)
+        {
+            result[k] = edgeCost.getCost(c.edges[k]);
+            if (result[k] < 0)
+            {
+                throw new IllegalArgumentException("Negative cost " + result[k] + " for edge " + c.edges[k]);
+            }
+        }
+        return result;
+    }
+
+    /** Selects numLandmarks landmarks, each as far as possible from those already chosen, and precomputes
+     * the costs to and from each of them for the ALT heuristic.  Pass 0 to discard the landmarks.
+     */
+    public synchronized void precomputeLandmarks(int numLandmarks)
+    {
+        if (numLandmarks < 0)
+        {
+            throw new IllegalArgumentException("numLandmarks must be >= 0: " + numLandmarks);
+        }
+        this.numLandmarks = numLandmarks;
+        computeLandmarks();
+        cache.clear();
+        version++;
+    }
+
+    void computeLandmarks()
+    {
+        int n = out.getNumNodes();
+        int k = Math.min(numLandmarks, n);
+        fromLandmark = new double[k][];
+        toLandmark = new double[k][];
+        if (k == 0)
+        {
+            return;
+        }
+
+        // farthest-first selection, starting from node 0.  Unreachable nodes count as farthest,
+        // so each connected part of the network gets a landmark before any part gets two.
+        double[] nearest = new double[n];
+        java.util.Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        int landmark = 0;
+        for (int l = 0; l < k; l++)
+        {
+            fromLandmark[l] = out.getShortestPaths(landmark, costs, null);
+            toLandmark[l] = (in == out ? fromLandmark[l] : in.getShortestPaths(landmark, inCosts, null));
+            int farthest = 0;
+            double far = -1;
+            for (int i = 0; i < n; i++)
+            {
+                double d = Math.min(fromLandmark[l][i], toLandmark[l][i]);
+                if (d < nearest[i])
+                {
+                    nearest[i] = d;
+                }
+                if (nearest[i] > far)
+                {
+                    far = nearest[i];
+                    farthest = i;
+                }
+            }
+            landmark = farthest;
+        }
+    }
+
+    /** Returns the number of landmarks in use. */
+    public int getNumLandmarks() { return fromLandmark.length; }
+
+    /** Discards all cached Routes. */
+    public synchronized void clearCache()
+    {
+        cache.clear();
+    }
+
+    /** Returns the index of a node in the Network. */
+    public int getNodeIndex(Object node)
+    {
+        return network.getNodeIndex(node);
+    }
+
+    /** Returns the cheapest Route from one node to another, or null if there is none. */
+    public Route getRoute(Object origin, Object destination)
+    {
+        return getRoute(network.getNodeIndex(origin), network.getNodeIndex(destination));
+    }
+
+    /** Returns the cheapest Route between the nodes with the given indices, or null if there is none. */
+    public Route getRoute(int origin, int destination)
+    {
+        Long key = Long.valueOf(((long) origin << 32) | (destination & 0xFFFFFFFFL));
+        Search search;
+        synchronized (this)
+        {
+            if (!out.isValid() || (in != out && !in.isValid()))
+            {
+                refresh();
+            }
+            if (cacheSize > 0 && cache.containsKey(key))
+            {
+                return cache.get(key);      // may be null: we cache failures too
+            }
+            search = searches.get();
+            if (search == null || search.version != version)
+            {
+                search = new Search();
+                searches.set(search);
+            }
+        }
+
+        Route route = search.run(origin, destination);
+
+        if (cacheSize > 0)
+        {
+            synchronized (this)
+            {
+                if (search.version == version)      // we weren't refreshed in the meantime
+                {
+                    cache.put(key, route);
+                }
+            }
+        }
+        return route;
+    }
+
+    /** Returns the cost of the cheapest route between two nodes, or Double.POSITIVE_INFINITY if there is none. */
+    public double getCost(Object origin, Object destination)
+    {
+        Route route = getRoute(origin, destination);
+        return (route == null ? Double.POSITIVE_INFINITY : route.cost);
+    }
+
+    /** Working memory for A*, reused from query to query by each thread.  Rather than clearing
+     * its arrays for each query, it marks the nodes a query has touched with the query's number.
+     */
+    class Search
+    {
+        final int version = NetworkRouter.this.version;
+        final CompressedNetwork out = NetworkRouter.this.out;
+        final double[] costs = NetworkRouter.this.costs;
+        final double[] xs = NetworkRouter.this.xs;
+        final double[] ys = NetworkRouter.this.ys;
+        final double[][] fromLandmark = NetworkRouter.this.fromLandmark;
+        final double[][] toLandmark = NetworkRouter.this.toLandmark;
+
+        final int n = out.getNumNodes();
+        final double[] g = new double[n];       // best known cost from the origin
+        final double[] f = new double[n];       // g plus the heuristic
+        final int[] parentEdge = new int[n];
+        final int[] parent = new int[n];
+        final int[] stamp = new int[n];         // the query which last touched the node
+        final int[] position = new int[n];      // in the heap + 1, or -1 when closed
+        final int[] heap = new int[n];
+        int query = 0;
+
+        double heuristic(int node, int destination)
+        {
+            double h = 0;
+            if (xs != null)
+            {
+                double dx = xs[node] - xs[destination];
+                double dy = ys[node] - ys[destination];
+                h = Math.sqrt(dx * dx + dy * dy) * heuristicScale;
+            }
+            for (int l = 0; l < fromLandmark.length; l++)
+            {
+                // cost(L, dest) <= cost(L, node) + cost(node, dest), and cost(node, L) <= cost(node, dest) + cost(dest, L)
+                double a = fromLandmark[l][destination] - fromLandmark[l][node];
+                double b = toLandmark[l][node] - toLandmark[l][destination];
+                if (a > h && a != Double.POSITIVE_INFINITY)
+                {
+                    h = a;
+                }
+                if (b > h && b != Double.POSITIVE_INFINITY)
+                {
+                    h = b;
+                }
+            }
+            return h;
+        }
+
+        Route run(int origin, int destination)
+        {
+            if (++query == 0)     // wrapped around: start the stamps afresh
+            {
+                java.util.Arrays.fill(stamp, 0);
+                query = 1;
+            }
+            final int[] offsets = out.offsets;
+            final int[] targets = out.targets;
+
+            int size = 0;
+            touch(origin);
+            g[origin] = 0;
+            f[origin] = heuristic(origin, destination);
+            heap[size++] = origin;
+            position[origin] = 1;
+
+            while (size > 0)
+            {
+                int v = heap[0];
+                if (v == destination)
+                {
+                    return route(origin, destination);
+                }
+                position[v] = -1;
+                size--;
+                if (size > 0)
+                {
+                    heap[0] = heap[size];
+                    position[heap[0]] = 1;
+                    siftDown(size, 0);
+                }
+
+                double gv = g[v];
+                for (int k = offsets[v]; k < offsets[v + 1]; k++)
+                {
+                    int w = targets[k];
+                    double gw = gv + costs[k];
+                    if (stamp[w] != query)
+                    {
+                        touch(w);
+                    }
+                    else if (position[w] < 0 || gw >= g[w])
+                    {
+                        continue;       // closed, or no improvement
+                    }
+                    else
+                    {
+                        // improved an open node: its heuristic hasn't changed
+                        f[w] = gw + (f[w] - g[w]);
+                        g[w] = gw;
+                        parentEdge[w] = k;
+                        parent[w] = v;
+                        siftUp(position[w] - 1);
+                        continue;
+                    }
+                    g[w] = gw;
+                    f[w] = gw + heuristic(w, destination);
+                    parentEdge[w] = k;
+                    parent[w] = v;
+                    heap[size] = w;
+                    position[w] = ++size;
+                    siftUp(size - 1);
+                }
+            }
+            return null;
+        }
+
+        void touch(int node)
+        {
+            stamp[node] = query;
+            position[node] = 0;
+            parentEdge[node] = -1;
+            parent[node] = -1;
+        }
+
+        Route route(int origin, int destination)
+        {
+            int length = 0;
+            for (int v = destination; v != origin; v = parent[v])
+            {
+                length++;
+            }
+            int[] nodes = new int[length + 1];
+            int[] edges = new int[length];
+            int v = destination;
+            for (int i = length; i > 0; i--)
+            {
+                nodes[i] = v;
+                edges[i - 1] = parentEdge[v];
+                v = parent[v];
+            }
+            nodes[0] = origin;
+            return new Route(nodes, edges, g[destination], out);
+        }
+
+        void siftUp(int i)
+        {
+            int node = heap[i];
+            double key = f[node];
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                int p = heap[parent];
+                if (f[p] <= key)
+                {
+                    break;
+                }
+                heap[i] = p;
+                position[p] = i + 1;
+                i = parent;
+            }
+            heap[i] = node;
+            position[node] = i + 1;
+        }
+
+        void siftDown(int size, int i)
+        {
+            int node = heap[i];
+            double key = f[node];
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                {
+                    break;
+                }
+                if (child + 1 < size && f[heap[child + 1]] < f[heap[child]])
+                {
+                    child++;
+                }
+                int c = heap[child];
+                if (f[c] >= key)
+                {
+                    break;
+                }
+                heap[i] = c;
+                position[c] = i + 1;
+                i = child;
+            }
+            heap[i] = node;
+            position[node] = i + 1;
+        }
+    }
+}
@@ -236,6 +236,64 @@ public class GeomVectorFieldTest
     }
 
 //
+
+
+    /**
+     * Test of queryField after setGeometryLocation in INDEX_INCREMENTAL mode.
+     */
+    @Test
+    public void testMoveIncremental()
+    {
+        System.out.println("moveIncremental");
+        testMove(GeomVectorField.INDEX_INCREMENTAL);
+    }
+
+
+
+    /**
+     * Test of queryField after setGeometryLocation in INDEX_STATIC mode.
+     */
+    @Test
+    public void testMoveStatic()
+    {
+        System.out.println("moveStatic");
+        testMove(GeomVectorField.INDEX_STATIC);
+    }
+
+
+
+    /**
+     * Test of removeGeometry method with a geometry which is equal to, but
+     * not the same object as, the one in the field.
+     */
+    @Test
+    public void testRemoveEqualGeometry()
+    {
+        System.out.println("removeEqualGeometry");
+
+        Envelope e = new Envelope(40, 60, 40, 60);
+        GeomVectorField instance = new GeomVectorField();
+        instance.setIndexMode(GeomVectorField.INDEX_INCREMENTAL);
+
+        addEvenlySpacedPoints(10, 10, 10, instance);
+
+        // removing from the middle of the bag moves its last geometry into the hole
+        Bag geometries = instance.getGeometries();
+        MasonGeometry last = (MasonGeometry) geometries.objs[geometries.size() - 1];
+
+        MasonGeometry copy = new MasonGeometry(createPoint(50,50));
+        instance.removeGeometry(copy);
+
+        assertTrue( instance.getGeometries().size() == 99 );
+        assertTrue( instance.queryField(e).size() == 8 );
+        assertFalse( containsPointAt(instance.queryField(e), 50, 50) );
+
+        // the moved geometry must still be removable
+        instance.removeGeometry(last);
+        assertTrue( instance.getGeometries().size() == 98 );
+        assertFalse( instance.getGeometries().contains(last) );
+    }
+
 //
 //    /**
 //     * Test of getCoveringObjects method, of class GeomVectorField.
@@ -450,6 +508,57 @@ public class GeomVectorFieldTest
 
 
 
+    /** Moves one of a grid of points out of a query envelope and another
+     * into it, then checks that the query sees both moves */
+    private void testMove(int indexMode)
+    {
+        Envelope e = new Envelope(40, 60, 40, 60);
+        GeomVectorField instance = new GeomVectorField();
+        instance.setIndexMode(indexMode);
+
+        addEvenlySpacedPoints(10, 10, 10, instance);
+        assertTrue( instance.queryField(e).size() == 9 );
+
+        MasonGeometry in = findPointAt(instance.getGeometries(), 50, 50);
+        MasonGeometry out = findPointAt(instance.getGeometries(), 0, 0);
+        instance.setGeometryLocation(in, AffineTransformation.translationInstance(-45, -45));
+        instance.setGeometryLocation(out, AffineTransformation.translationInstance(45, 45));
+        instance.updateSpatialIndex();
+
+        Bag result = instance.queryField(e);
+        assertTrue( result.size() == 9 );
+        assertTrue( result.contains(out) );
+        assertFalse( result.contains(in) );
+        assertTrue( instance.queryField(new Envelope(0, 10, 0, 10)).contains(in) );
+    }
+
+
+
+    /** Returns the point in the bag at the given coordinates, or null */
+    private MasonGeometry findPointAt(Bag geometries, double x, double y)
+    {
+        for (int i = 0; i < geometries.size(); i++)
+        {
+            MasonGeometry g = (MasonGeometry) geometries.objs[i];
+            Coordinate c = g.getGeometry().getCoordinate();
+            if (c.x == x && c.y == y)
+            {
+                return g;
+            }
+        }
+        return null;
+    }
+
+
+
+    /** Returns true if the bag has a point at the given coordinates */
+    private boolean containsPointAt(Bag geometries, double x, double y)
+    {
+        return findPointAt(geometries, x, y) != null;
+    }
+
+
+
     /** Adds evenly spaced points to the given vector field */
     private void addEvenlySpacedPoints(int numX, int numY, int spacing, GeomVectorField field)
     {
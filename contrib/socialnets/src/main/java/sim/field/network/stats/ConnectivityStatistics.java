@@ -119,12 +119,21 @@ public class ConnectivityStatistics
     /** 
      * Computes the connected components of an undirected OR
      * the weakly connected components of an directed graph
-     * graph using DFS.
+     * graph, using the Network's CompressedNetwork.
      * @return A Bag of Bags of nodes. 
      */
     public static Bag getConnectedComponents( final Network network)
         {
-        return new ConnectedComponentFactory(network).getComponents(); 
+        CompressedNetwork compressed = network.getCompressedNetwork(true);
+        int[] labels = compressed.getComponentLabels();
+        Bag components = new Bag();
+        for( int i = 0 ; i < labels.length ; i++ )
+            {
+            if( labels[i] == components.numObjs )
+                components.add( new Bag() );
+            ((Bag)(components.objs[labels[i]])).add( compressed.nodes[i] );
+            }
+        return components;
         } 
         
     /** 
@@ -133,104 +142,13 @@ public class ConnectivityStatistics
      */
     public static boolean isConnected( final Network network)
         {
-        return new ConnectedComponentFactory(network).isConnected(); 
+        int[] labels = network.getCompressedNetwork(true).getComponentLabels();
+        for( int i = 0 ; i < labels.length ; i++ )
+            if( labels[i] != 0 )
+                return false;
+        return true;
         } 
 
-    static class ConnectedComponentFactory
-        {
-        final Network network;
-        final int n;
-        final Bag components;
-                
-        //instead of making a new hashtable, stick all nodes in it
-        //and remove them as they get visited,
-        //I rely on the hashtable inside the Network and 
-        //the nodes' indices in the allNodes bag. 
-        final boolean[] visited;
-        int countVisited;
-                
-        public ConnectedComponentFactory( final Network network)
-            {
-            this.network = network;
-            n = network.allNodes.numObjs;
-            visited = new boolean[n];
-            for(int i=0;i<n;i++)
-                visited[i]=false;
-            countVisited = 0;
-            components = new Bag(n);
-            }
-
-        public Bag getComponents()
-            {
-            boolean directed = network.isDirected();
-            for( int i = 0 ; i < n; i++ )
-                {
-                if(!visited[i])
-                    {
-                    Bag component = new Bag();  
-                    components.add(component);
-                    if(directed)
-                        exploreWD(network.allNodes.objs[i], i, component);
-                    else
-                        exploreU(network.allNodes.objs[i], i, component);
-                    }
-                }
-            return components;
-            }
-
-        public boolean isConnected()
-            {
-            if(network.isDirected())
-                exploreWD(network.allNodes.objs[0], 0, null);
-            else
-                exploreU(network.allNodes.objs[0], 0, null);
-            return (countVisited ==n);
-            }
-        /**
-         * explore for Weakly connected components in a Directed graph
-         * The Bag 'component' can be null if I'm only interested in whether the graph is connected.
-         */
-        private void exploreWD(Object nodeObj, int nodeIndex, Bag component)
-            {
-            visited[nodeIndex]=true; countVisited++;
-            if(component!=null)
-                component.add(nodeObj);
-            Bag temp;
-            temp = network.getEdgesOut( nodeObj );
-            for(int i=0;i<temp.numObjs;i++)
-                {
-                Object node2 = ((Edge)temp.objs[i]).getOtherNode(nodeObj);
-                int node2Index = network.getNodeIndex(node2); 
-                if(!visited[node2Index])
-                    exploreWD(node2, node2Index, component);
-                }
-            temp = network.getEdgesIn ( nodeObj );
-            for(int i=0;i<temp.numObjs;i++)
-                {
-                Object node2 = ((Edge)temp.objs[i]).getOtherNode(nodeObj);
-                int node2Index = network.getNodeIndex(node2); 
-                if(!visited[node2Index])
-                    exploreWD(node2, node2Index, component);
-                }       
-            }
-
-        // The Bag 'component' can be null if I'm only interested in whether the graph is connected.
-        private void exploreU(Object nodeObj, int nodeIndex, Bag component)
-            {
-            visited[nodeIndex]=true;countVisited++;
-            if(component!=null) component.add(nodeObj);
-            Bag temp = network.getEdgesOut( nodeObj );
-            for(int i=0;i<temp.numObjs;i++)
-                {
-                Object node2 = ((Edge)temp.objs[i]).getOtherNode(nodeObj);
-                int node2Index = network.getNodeIndex(node2); 
-                if(!visited[node2Index])
-                    exploreU(node2, node2Index, component);
-                }
-            }
-                
-        }
-
     static class FlowData
         {
         public FlowData(int flow, int capacity) { this.flow=flow; this.capacity=capacity; }
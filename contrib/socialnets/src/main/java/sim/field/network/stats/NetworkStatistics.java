@@ -107,52 +107,48 @@ public class NetworkStatistics
        Returns a vector with distances to the nodes in the graph.  Double.POSITIVE_INFINITY marks nodes
        that are not accessible from the startNode.
        The vector is indexed based on the indexes of the nodes in the allNodes Bag in the Network.
+       The distances are computed on the Network's CompressedNetwork.
     */
     public static double[] getShortestPaths( final Network network, final Object startNode, final EdgeMetric computer )
         {
-        double[] result = new double[network.allNodes.numObjs];
-        for( int i = 0 ; i < result.length ; i++ )
-            result[i] = Double.POSITIVE_INFINITY;
-        DoubleHeap heap = new DoubleHeap();
-//              System.out.println("***" + startNode);
-        heap.add( startNode, 0.0 );
-
-        // TODO: we need to check this thing again!
-        // extract nodes from the heap, until the heap becomes empty.  to make the code easier, we do not
-        // modify the information on the heap, but we rather make sure the information is not too old.  that is,
-        // once we pop a node from the heap, we verify that it has not already been visited with a lower cost
-        // (in which case, we just discard the current information).  this incurs some extra costs (i am not sure
-        // exactly how slower this can make things go), but i think the costs are not that significant.  once we
-        // check this, the same check/modifications will need to be performed to the getShortestPath and
-        // johnsonShortestPathsMatrix methods, where I basically just copied/pasted the code.
-        while( !heap.isEmpty() )
-            {
-            final double dist = heap.getMinKey();
-            final Object node = heap.extractMin();
-            int nodeIndex = network.getNodeIndex(node);
-            if( result[nodeIndex] <= dist ) // if node was already visited and it was closer than it is now, skip it
-                continue;
-            result[nodeIndex] = dist;
-            final Bag edgesOut = network.getEdgesOut(node);
-            for( int i = 0 ; i < edgesOut.numObjs ; i++ )
-                {
-                final Edge edge = (Edge)(edgesOut.objs[i]);
-                int toNode = network.getNodeIndex(((Edge)(edgesOut.objs[i])).getOtherNode(node));
-//System.out.println("%%%");                            
-//System.out.println("" + edge + " " + nodeIndex + " " + ((Edge)(edgesOut.objs[i])).getOtherNode(node) + " " + toNode + " " + network.allNodes.numObjs);
-//System.out.println("!!!" + java.lang.Thread.currentThread());
-                final double newDist = dist + computer.getWeight(edge);
-                if( result[toNode] > newDist )
-                    {
-//                                      System.out.println("+++" + network.allNodes.objs[toNode]);
-                    heap.add( network.allNodes.objs[toNode], newDist );
-                    }
-                }
-            }
+        CompressedNetwork compressed = network.getCompressedNetwork(true);
+        return getShortestPaths( compressed, compressed.getNodeIndex(startNode), getWeights(compressed, computer) );
+        }
 
+    /**
+       Returns a vector with distances from the node with index startIndex to the nodes in the graph, where the length of
+       edge k of the CompressedNetwork is weights[k] (see getWeights(...)).  Double.POSITIVE_INFINITY marks nodes
+       that are not accessible from the start node.  If weights is null, each edge has length 1.
+    */
+    public static double[] getShortestPaths( final CompressedNetwork network, final int startIndex, final double[] weights )
+        {
+        if( weights != null )
+            return network.getShortestPaths( startIndex, weights, null );
+        
+        // unit weights: a breadth-first search will do
+        int[] hops = network.getHopDistances( startIndex, null );
+        double[] result = new double[hops.length];
+        for( int i = 0 ; i < hops.length ; i++ )
+            result[i] = ( hops[i] < 0 ? Double.POSITIVE_INFINITY : hops[i] );
         return result;
         }
 
+    /**
+       Returns the weight of each edge of the CompressedNetwork as given by the EdgeMetric, or null if the EdgeMetric is
+       exactly a UnitEdgeMetric (so every edge has weight 1).  Weights are computed from the Edges themselves, so they are
+       current even if the edges' info objects have changed since the CompressedNetwork was built.
+    */
+    public static double[] getWeights( final CompressedNetwork network, final EdgeMetric computer )
+        {
+        if( computer.getClass() == UnitEdgeMetric.class )
+            return null;
+        final Edge[] edges = network.edges;
+        double[] weights = new double[edges.length];
+        for( int k = 0 ; k < edges.length ; k++ )
+            weights[k] = computer.getWeight( edges[k] );
+        return weights;
+        }
+
     /**
        Returns the shortest path (number of edges) between two nodes indicated by their indexes in the allNodes Bag.
        Returns Double.POSITIVE_INFINITY if no path is found.
@@ -403,25 +399,12 @@ public class NetworkStatistics
 
     /**
        Returns the average length of the shortest path between nodes in the network.  Ignores self-loops.
+       Computed in parallel with PathStatistics, which doesn't need a shortest paths matrix.  For very large networks,
+       PathStatistics can also estimate the mean from a sample of nodes.
     */
     public static double getMeanShortestPath( final Network network, final EdgeMetric computer )
         {
-        try
-            {
-            double result = 0;
-            double[][] paths = getShortestPathsMatrix(network, computer);
-            int N = paths.length;
-            for( int i = 0 ; i < N ; i++ )  
-                for( int j = 0 ; j < N ; j++ )
-                    if( i != j )
-                        result += paths[i][j];
-            return result / (double)(N*(N-1));
-            }
-        catch (OutOfMemoryError e)
-            {
-            throw new RuntimeException("You ran out of memory!  getMeanShortestPath(...) has large memory requirements and may " +
-                "not be appropriate for big networks.  You should try getLargeNetworkMeanShortestPath(...) instead.", e);
-            }
+        return new PathStatistics(network, computer, 0, null, false).getMeanShortestPath();
         }
 
 
@@ -436,14 +419,14 @@ public class NetworkStatistics
     public static double getLargeNetworkMeanShortestPath( final Network network, final EdgeMetric computer )
         {
         double result = 0;
-        Bag nodes = network.getAllNodes();
-        int N = nodes.numObjs;
+        CompressedNetwork compressed = network.getCompressedNetwork(true);
+        double[] weights = getWeights( compressed, computer );
+        int N = compressed.getNumNodes();
         if(!network.isDirected())
             {
             for( int i = 0; i < N - 1; i++ )
                 {
-                Object node = (Object) nodes.get(i);
-                double[] paths = getShortestPaths( network, node, computer );
+                double[] paths = getShortestPaths( compressed, i, weights );
                 for( int j = i + 1 ; j < N ; j++ )
                     result += paths[j];
                 }
@@ -453,8 +436,7 @@ public class NetworkStatistics
             {
             for( int i = 0; i < N; i++ )
                 {
-                Object node = (Object) nodes.get(i);
-                double[] paths = getShortestPaths( network, node, computer );
+                double[] paths = getShortestPaths( compressed, i, weights );
                 for( int j = 0 ; j < N ; j++ )
                     if( i != j )
                         result += paths[j];
@@ -0,0 +1,376 @@
+/*
+  Copyright 2010 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network.stats;
+import sim.field.network.*;
+import ec.util.*;
+import java.util.concurrent.*;
+
+/**
+   Computes betweenness centrality, closeness centrality, and the mean shortest path of a Network using Brandes' algorithm
+   (U. Brandes, "A Faster Algorithm for Betweenness Centrality", 2001).  Rather than building n x n (or n x n x n) matrices
+   as NetworkStatistics.getShortestPathsMatrix(...) and its relatives do, PathStatistics runs a single-source shortest path
+   search from each source node in turn over the Network's CompressedNetwork, then accumulates each source's contribution
+   to the betweenness of every node in a backward pass.  Each search needs only O(n) working memory beyond the
+   CompressedNetwork itself, so PathStatistics works on networks of millions of nodes.
+
+   <p>Sources are processed in parallel in the common ForkJoinPool.
+
+   <p>For very large networks you may instead ask for an estimate computed from a random sample of k sources.  Betweenness
+   is then scaled up by n/k, and the mean shortest path is averaged over the paths from the sampled sources.  Closeness is
+   only known for the sampled sources, and is NaN for the others.
+
+   <p>Edge lengths come from an EdgeMetric.  With a UnitEdgeMetric (the usual case) each search is a breadth-first search;
+   otherwise it is Dijkstra's algorithm, and edge lengths must not be negative (for betweenness they must be positive).
+   Two weighted paths are considered equally short only if their lengths are exactly equal.  Self-loops are never on a shortest path, and parallel edges count as distinct paths.
+
+   <p>If only distances are wanted (closeness, the mean shortest path), construct PathStatistics with betweenness set
+   to false: the backward pass is then skipped, and getBetweenness(...) is not available.
+
+   <p>Betweenness follows the conventions of BetweennessCentrality: in an undirected network each pair of nodes is
+   counted once, in a directed network each ordered pair is counted.
+*/
+
+public class PathStatistics
+    {
+    /** Sources are not split below this many per task. */
+    public static final int MIN_SOURCES_PER_TASK = 4;
+
+    final Network network;
+    final CompressedNetwork compressed;
+    final double[] weights;     // null for unit lengths
+    final int n;
+    final int[] sources;
+    final boolean sampled;
+    final boolean withBetweenness;
+
+    final double[] betweenness;     // null if not computed
+    final double[] distanceSums;    // NaN for nodes which were not sources
+    double totalDistance;
+    long totalReached;
+
+    /** Computes exact statistics, using each node as a source. */
+    public PathStatistics( final Network network, final EdgeMetric computer )
+        {
+        this(network, computer, 0, null, true);
+        }
+
+    /** Estimates the statistics from numSamples sources chosen at random (without replacement) using the given random
+        number generator.  If numSamples is 0 or at least the number of nodes, every node is used and the statistics are exact. */
+    public PathStatistics( final Network network, final EdgeMetric computer, final int numSamples, final MersenneTwisterFast random )
+        {
+        this(network, computer, numSamples, random, true);
+        }
+
+    /** As PathStatistics(network, computer, numSamples, random), but if betweenness is false only the shortest path
+        lengths are computed, which skips the backward pass of Brandes' algorithm. */
+    public PathStatistics( final Network network, final EdgeMetric computer, final int numSamples, final MersenneTwisterFast random, final boolean betweenness )
+        {
+        this.network = network;
+        withBetweenness = betweenness;
+        compressed = network.getCompressedNetwork(true);
+        weights = NetworkStatistics.getWeights(compressed, computer);
+        n = compressed.getNumNodes();
+
+        if (numSamples < 0)
+            throw new IllegalArgumentException("numSamples must be >= 0: " + numSamples);
+        sampled = (numSamples > 0 && numSamples < n);
+        if (sampled)
+            {
+            // partial Fisher-Yates shuffle
+            int[] all = new int[n];
+            for( int i = 0 ; i < n ; i++ ) all[i] = i;
+            for( int i = 0 ; i < numSamples ; i++ )
+                {
+                int j = i + random.nextInt(n - i);
+                int tmp = all[i]; all[i] = all[j]; all[j] = tmp;
+                }
+            sources = new int[numSamples];
+            System.arraycopy(all, 0, sources, 0, numSamples);
+            }
+        else
+            {
+            sources = new int[n];
+            for( int i = 0 ; i < n ; i++ ) sources[i] = i;
+            }
+
+        distanceSums = new double[n];
+        java.util.Arrays.fill(distanceSums, Double.NaN);
+        if (n == 0 || sources.length == 0) { this.betweenness = (betweenness ? new double[n] : null); return; }
+
+        int grain = Math.max(MIN_SOURCES_PER_TASK, sources.length / (4 * ForkJoinPool.getCommonPoolParallelism()));
+        Partial result = ForkJoinPool.commonPool().invoke(new SourceTask(0, sources.length, grain));
+        this.betweenness = result.betweenness;
+        totalDistance = result.totalDistance;
+        totalReached = result.totalReached;
+        if (!betweenness) return;
+
+        double scale = (network.isDirected() ? 1.0 : 0.5);      // undirected pairs were counted from both ends
+        if (sampled) scale *= n / (double)sources.length;
+        if (scale != 1.0)
+            for( int i = 0 ; i < n ; i++ )
+                this.betweenness[i] *= scale;
+        }
+
+    /** Returns true if the statistics were estimated from a sample of sources. */
+    public boolean isSampled() { return sampled; }
+
+    /** Returns the betweenness centrality of each node, indexed as in the Network's allNodes bag, or null if betweenness
+        was not computed. Do not modify this array. */
+    public double[] getBetweenness() { return betweenness; }
+
+    /** Returns the betweenness centrality of the given node.  Betweenness must have been computed. */
+    public double getBetweenness( final Object node )
+        {
+        if (betweenness == null) throw new IllegalStateException("Betweenness was not computed");
+        return betweenness[network.getNodeIndex(node)];
+        }
+
+    /** Returns the sum of the shortest path lengths from the node with the given index to every other node, which is
+        Double.POSITIVE_INFINITY if some node cannot be reached, or NaN if the node was not a sampled source. */
+    public double getDistanceSum( final int nodeIndex ) { return distanceSums[nodeIndex]; }
+
+    /** Returns Sabidussi's closeness centrality of the node with the given index: one over the sum of its shortest path lengths to every
+        other node, as in ClosenessCentrality.  This is 0 if some node cannot be reached, and NaN if the node was not a sampled source. */
+    public double getCloseness( final int nodeIndex ) { return 1.0 / distanceSums[nodeIndex]; }
+
+    /** Returns the closeness centrality of the given node. */
+    public double getCloseness( final Object node ) { return getCloseness(network.getNodeIndex(node)); }
+
+    /** Returns the mean shortest path length between distinct nodes, as in NetworkStatistics.getMeanShortestPath(...).  This is
+        Double.POSITIVE_INFINITY if some node cannot be reached from some (sampled) source. */
+    public double getMeanShortestPath()
+        {
+        if (totalReached < (long)sources.length * (n - 1)) return Double.POSITIVE_INFINITY;
+        return getMeanReachableShortestPath();
+        }
+
+    /** Returns the mean shortest path length over just those pairs of distinct nodes which are connected by a path. */
+    public double getMeanReachableShortestPath()
+        {
+        return totalDistance / totalReached;
+        }
+
+    //// INTERNALS
+
+    /** Betweenness and distance totals accumulated over some range of sources */
+    static class Partial
+        {
+        double[] betweenness;       // null if not computed
+        double totalDistance;
+        long totalReached;
+        }
+
+    class SourceTask extends RecursiveTask<Partial>
+        {
+        private static final long serialVersionUID = 1;
+        final int from;
+        final int to;
+        final int grain;
+
+        SourceTask(int from, int to, int grain) { this.from = from; this.to = to; this.grain = grain; }
+
+        protected Partial compute()
+            {
+            if (to - from <= grain)
+                {
+                Search search = new Search();
+                for( int i = from ; i < to ; i++ )
+                    search.run(sources[i]);
+                return search.partial;
+                }
+            int mid = (from + to) >>> 1;
+            SourceTask left = new SourceTask(from, mid, grain);
+            left.fork();
+            Partial b = new SourceTask(mid, to, grain).compute();
+            Partial a = left.join();
+            if (withBetweenness)
+                for( int i = 0 ; i < n ; i++ )
+                    a.betweenness[i] += b.betweenness[i];
+            a.totalDistance += b.totalDistance;
+            a.totalReached += b.totalReached;
+            return a;
+            }
+        }
+
+    /** The working memory for single-source searches, reused from source to source */
+    class Search
+        {
+        final Partial partial = new Partial();
+        final double[] dist = new double[n];
+        final double[] sigma = new double[n];      // number of shortest paths from the source
+        final double[] delta = new double[n];      // dependency of the source on each node
+        final int[] order = new int[n];            // nodes in order of non-decreasing distance
+        final int[] heap;                          // the BFS queue is order itself
+        final int[] position;
+
+        Search()
+            {
+            if (withBetweenness) partial.betweenness = new double[n];
+            java.util.Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            heap = (weights == null ? null : new int[n]);
+            position = (weights == null ? null : new int[n]);
+            }
+
+        void run( final int source )
+            {
+            final int[] offsets = compressed.offsets;
+            final int[] targets = compressed.targets;
+            int count = (weights == null ? breadthFirst(source) : dijkstra(source));
+
+            double sum = 0;
+            if (withBetweenness)
+                {
+                // accumulate dependencies, farthest nodes first, looking forward along the shortest-path edges
+                for( int i = count - 1 ; i >= 0 ; i-- )
+                    {
+                    int v = order[i];
+                    double dv = dist[v];
+                    double d = 0;
+                    for( int k = offsets[v] ; k < offsets[v + 1] ; k++ )
+                        {
+                        int w = targets[k];
+                        if (dist[w] == dv + (weights == null ? 1.0 : weights[k]))
+                            d += (sigma[v] / sigma[w]) * (1.0 + delta[w]);
+                        }
+                    delta[v] = d;
+                    if (v != source) partial.betweenness[v] += d;
+                    sum += dv;
+                    }
+                }
+            else
+                for( int i = 0 ; i < count ; i++ )
+                    sum += dist[order[i]];
+
+            distanceSums[source] = (count == n ? sum : Double.POSITIVE_INFINITY);
+            partial.totalDistance += sum;
+            partial.totalReached += count - 1;
+
+            // reset only what we touched
+            for( int i = 0 ; i < count ; i++ )
+                {
+                int v = order[i];
+                dist[v] = Double.POSITIVE_INFINITY;
+                sigma[v] = 0;
+                delta[v] = 0;
+                if (position != null) position[v] = 0;
+                }
+            }
+
+        // returns the number of nodes reached, which are placed in order
+        int breadthFirst( final int source )
+            {
+            final int[] offsets = compressed.offsets;
+            final int[] targets = compressed.targets;
+            int head = 0;
+            int tail = 0;
+            order[tail++] = source;
+            dist[source] = 0;
+            sigma[source] = 1;
+            while( head < tail )
+                {
+                int v = order[head++];
+                double d = dist[v] + 1;
+                for( int k = offsets[v] ; k < offsets[v + 1] ; k++ )
+                    {
+                    int w = targets[k];
+                    if (dist[w] == Double.POSITIVE_INFINITY)
+                        {
+                        dist[w] = d;
+                        order[tail++] = w;
+                        }
+                    if (dist[w] == d)
+                        sigma[w] += sigma[v];
+                    }
+                }
+            return tail;
+            }
+
+        // returns the number of nodes reached, which are placed in order as they are settled
+        int dijkstra( final int source )
+            {
+            final int[] offsets = compressed.offsets;
+            final int[] targets = compressed.targets;
+            int count = 0;
+            int size = 0;
+            dist[source] = 0;
+            sigma[source] = 1;
+            heap[size++] = source;
+            position[source] = 1;      // 0 = never queued, -1 = settled, else position in the heap + 1
+            while( size > 0 )
+                {
+                int v = heap[0];
+                position[v] = -1;
+                order[count++] = v;
+                size--;
+                if (size > 0)
+                    {
+                    heap[0] = heap[size];
+                    position[heap[0]] = 1;
+                    siftDown(size, 0);
+                    }
+                double dv = dist[v];
+                for( int k = offsets[v] ; k < offsets[v + 1] ; k++ )
+                    {
+                    int w = targets[k];
+                    if (position[w] < 0) continue;
+                    double d = dv + weights[k];
+                    if (d < dist[w])
+                        {
+                        dist[w] = d;
+                        sigma[w] = sigma[v];
+                        if (position[w] == 0)
+                            {
+                            heap[size] = w;
+                            position[w] = ++size;
+                            }
+                        siftUp(position[w] - 1);
+                        }
+                    else if (d == dist[w])
+                        sigma[w] += sigma[v];
+                    }
+                }
+            // settled nodes need their positions reset too, which run() does through order
+            return count;
+            }
+
+        void siftUp( int i )
+            {
+            int node = heap[i];
+            double key = dist[node];
+            while( i > 0 )
+                {
+                int parent = (i - 1) >>> 1;
+                int p = heap[parent];
+                if (dist[p] <= key) break;
+                heap[i] = p;
+                position[p] = i + 1;
+                i = parent;
+                }
+            heap[i] = node;
+            position[node] = i + 1;
+            }
+
+        void siftDown( final int size, int i )
+            {
+            int node = heap[i];
+            double key = dist[node];
+            while( true )
+                {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && dist[heap[child + 1]] < dist[heap[child]]) child++;
+                int c = heap[child];
+                if (dist[c] >= key) break;
+                heap[i] = c;
+                position[c] = i + 1;
+                i = child;
+                }
+            heap[i] = node;
+            position[node] = i + 1;
+            }
+        }
+    }
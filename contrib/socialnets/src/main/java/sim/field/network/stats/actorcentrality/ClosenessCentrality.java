@@ -13,25 +13,21 @@ import sim.field.network.*;
  * @author Gabriel Catalin Balan
  */
 public class ClosenessCentrality extends FreemanNodeIndex {
-    final double[][] allDistances;
+    final PathStatistics statistics;
     public ClosenessCentrality(final Network network)
         {
         super(network);
-        allDistances = NetworkStatistics.getShortestPathsMatrix(network, UnitEdgeMetric.defaultInstance);               
+        statistics = new PathStatistics(network, UnitEdgeMetric.defaultInstance, 0, null, false);
         }
 
+    //1/[Sum_{j!=i} distance(i,j)]
     public double getValue(final Object node) {
-//              double[] distances = NetworkStatistics.getShortestPaths(network, node, UnitEdgeMetric.defaultInstance);
+        return statistics.getCloseness(node);
+        }
 
-        double[] distances = allDistances[network.getNodeIndex(node)];
-                
-        double sum = 0;
-        int n= distances.length;
-        for(int i=0;i<distances.length; i++)
-            sum+=distances[i];
-        //I want to return 1/[Sum_{j!=i} disntance(i,j)] 
-        //but the hop distance(i, i) is 0, so I don't bother not adding it
-        return 1d/sum;
+    public double getValue(final int nodeIndex)
+        {
+        return statistics.getCloseness(nodeIndex);
         }
 
     //TODO double check this, I back engineered it from the standardized value on page 186
@@ -4,7 +4,7 @@ import java.util.*;
 
 /** 
  * <h3>MersenneTwister and MersenneTwisterFast</h3>
- * <p><b>Version 22</b>, based on version MT199937(99/10/29)
+ * <p><b>Version 23</b>, based on version MT199937(99/10/29)
  * of the Mersenne Twister algorithm found at 
  * <a href="http://www.math.keio.ac.jp/matumoto/emt.html">
  * The Mersenne Twister Home Page</a>, with the initialization
@@ -42,6 +42,10 @@ import java.util.*;
  *
  * <h3>About this Version</h3>
  *
+ * <p><b>Changes since V22:</b> Added the bulk methods nextInts(...), nextDoubles(...),
+ * and nextGaussians(...), which fill arrays with exactly the same values as repeated calls
+ * to the corresponding single-value methods, but faster.
+ *
  * <p><b>Changes since V21:</b> Minor documentation HTML fixes. 
  *
  * <p><b>Changes since V20:</b> Added clearGuassian().  Modified stateEquals()
@@ -173,7 +177,7 @@ import java.util.*;
  * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
  * POSSIBILITY OF SUCH DAMAGE.
  *
- @version 22
+ @version 23
 */
 
 
@@ -1259,6 +1263,213 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
         }
     
 
+    // Regenerates all N words of the state vector.  This is the same code which is
+    // hard-inlined into each of the single-value methods above.
+    private void generate()
+        {
+        int y;
+        int kk;
+        final int[] mt = this.mt; // locals are slightly faster 
+        final int[] mag01 = this.mag01; // locals are slightly faster 
+            
+        for (kk = 0; kk < N - M; kk++)
+            {
+            y = (mt[kk] & UPPER_MASK) | (mt[kk+1] & LOWER_MASK);
+            mt[kk] = mt[kk+M] ^ (y >>> 1) ^ mag01[y & 0x1];
+            }
+        for (; kk < N-1; kk++)
+            {
+            y = (mt[kk] & UPPER_MASK) | (mt[kk+1] & LOWER_MASK);
+            mt[kk] = mt[kk+(M-N)] ^ (y >>> 1) ^ mag01[y & 0x1];
+            }
+        y = (mt[N-1] & UPPER_MASK) | (mt[0] & LOWER_MASK);
+        mt[N-1] = mt[M-1] ^ (y >>> 1) ^ mag01[y & 0x1];
+
+        mti = 0;
+        }
+    
+    // Returns the next tempered word, identical to nextInt().  Used by the bulk methods.
+    private int nextWord()
+        {
+        if (mti >= N) generate();
+        int y = mt[mti++];
+        y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+        y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+        y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+        y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+        return y;
+        }
+
+    static void checkRange(int arrayLength, int start, int length)
+        {
+        if (start < 0 || length < 0 || length > arrayLength - start)
+            throw new IndexOutOfBoundsException("Range from " + start + " of length " + length + " does not fit in an array of length " + arrayLength);
+        }
+
+    /** Fills the array with random ints, exactly as if nextInt() had been called once for each element in turn. */
+    public void nextInts(int[] values)
+        {
+        nextInts(values, 0, values.length);
+        }
+
+    /** Fills values[start] through values[start + length - 1] with random ints, exactly as if nextInt()
+        had been called once for each element in turn.  Rather than checking the state vector on every 
+        value, this tempers as much of the state vector as it can in a single tight loop. */
+    public void nextInts(int[] values, int start, int length)
+        {
+        checkRange(values.length, start, length);
+        final int[] mt = this.mt; // locals are slightly faster 
+        int end = start + length;
+        int i = start;
+        while (i < end)
+            {
+            if (mti >= N) generate();
+            int j = mti;
+            int stop = i + Math.min(end - i, N - j);
+            for( ; i < stop; i++)
+                {
+                int y = mt[j++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+                values[i] = y;
+                }
+            mti = j;
+            }
+        }
+
+    /** Fills the array with integers drawn uniformly from 0 to n-1, exactly as if nextInt(n) had been
+        called once for each element in turn.  n must be &gt; 0, or an IllegalArgumentException is raised. */
+    public void nextInts(int n, int[] values)
+        {
+        nextInts(n, values, 0, values.length);
+        }
+
+    /** Fills values[start] through values[start + length - 1] with integers drawn uniformly from 0 to n-1,
+        exactly as if nextInt(n) had been called once for each element in turn.  
+        n must be &gt; 0, or an IllegalArgumentException is raised. */
+    public void nextInts(int n, int[] values, int start, int length)
+        {
+        if (n<=0)
+            throw new IllegalArgumentException("n must be positive, got: " + n);
+        checkRange(values.length, start, length);
+        int end = start + length;
+        
+        if ((n & -n) == n)  // i.e., n is a power of 2
+            {
+            for(int i = start; i < end; i++)
+                values[i] = (int)((n * (long) (nextWord() >>> 1) ) >> 31);
+            }
+        else
+            {
+            for(int i = start; i < end; i++)
+                {
+                int bits, val;
+                do 
+                    {
+                    bits = (nextWord() >>> 1);
+                    val = bits % n;
+                    } while(bits - val + (n-1) < 0);
+                values[i] = val;
+                }
+            }
+        }
+
+    /** Fills the array with random doubles in the half-open range from [0.0,1.0), exactly as if
+        nextDouble() had been called once for each element in turn. */
+    public void nextDoubles(double[] values)
+        {
+        nextDoubles(values, 0, values.length);
+        }
+
+    /** Fills values[start] through values[start + length - 1] with random doubles in the half-open range
+        from [0.0,1.0), exactly as if nextDouble() had been called once for each element in turn.  Rather
+        than checking the state vector on every value, this tempers as much of the state vector as it
+        can in a single tight loop. */
+    public void nextDoubles(double[] values, int start, int length)
+        {
+        checkRange(values.length, start, length);
+        final int[] mt = this.mt; // locals are slightly faster 
+        int end = start + length;
+        int i = start;
+        while (i < end)
+            {
+            if (N - mti < 2)  // the next double straddles a regeneration of the state vector
+                {
+                values[i++] = nextDouble();
+                continue;
+                }
+            int j = mti;
+            int stop = i + Math.min(end - i, (N - j) >>> 1);
+            for( ; i < stop; i++)
+                {
+                int y = mt[j++];
+                y ^= y >>> 11;                          // TEMPERING_SHIFT_U(y)
+                y ^= (y << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(y)
+                y ^= (y << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(y)
+                y ^= (y >>> 18);                        // TEMPERING_SHIFT_L(y)
+
+                int z = mt[j++];
+                z ^= z >>> 11;                          // TEMPERING_SHIFT_U(z)
+                z ^= (z << 7) & TEMPERING_MASK_B;       // TEMPERING_SHIFT_S(z)
+                z ^= (z << 15) & TEMPERING_MASK_C;      // TEMPERING_SHIFT_T(z)
+                z ^= (z >>> 18);                        // TEMPERING_SHIFT_L(z)
+
+                /* derived from nextDouble documentation in jdk 1.2 docs, see top */
+                values[i] = ((((long)(y >>> 6)) << 27) + (z >>> 5)) / (double)(1L << 53);
+                }
+            mti = j;
+            }
+        }
+
+    /** Fills the array with gaussian doubles, exactly as if nextGaussian() had been called once for each element in turn. */
+    public void nextGaussians(double[] values)
+        {
+        nextGaussians(values, 0, values.length);
+        }
+
+    /** Fills values[start] through values[start + length - 1] with gaussian doubles, exactly as if 
+        nextGaussian() had been called once for each element in turn.  Like nextGaussian(), if an odd
+        number of values is requested, the last value computed is saved for the next call. */
+    public void nextGaussians(double[] values, int start, int length)
+        {
+        checkRange(values.length, start, length);
+        int end = start + length;
+        int i = start;
+        if (i < end && __haveNextNextGaussian)
+            {
+            __haveNextNextGaussian = false;
+            values[i++] = __nextNextGaussian;
+            }
+        while (i < end)
+            {
+            double v1, v2, s;
+            do 
+                {
+                int y = nextWord();
+                int z = nextWord();
+                int a = nextWord();
+                int b = nextWord();
+                
+                /* derived from nextDouble documentation in jdk 1.2 docs, see top */
+                v1 = 2 * (((((long)(y >>> 6)) << 27) + (z >>> 5)) / (double)(1L << 53)) - 1;
+                v2 = 2 * (((((long)(a >>> 6)) << 27) + (b >>> 5)) / (double)(1L << 53)) - 1;
+                s = v1 * v1 + v2 * v2;
+                } while (s >= 1 || s==0);
+            double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s)/s);
+            values[i++] = v1 * multiplier;
+            if (i < end)
+                values[i++] = v2 * multiplier;
+            else
+                {
+                __nextNextGaussian = v2 * multiplier;
+                __haveNextNextGaussian = true;
+                }
+            }
+        }
+    
+
     /**
      * Tests the code.
      */
@@ -1435,5 +1646,68 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
             }
         if (!(j%3==2)) System.out.println();
         
+        // BULK TEST -- the bulk methods must produce the same values as the single-value methods.
+        // We use odd lengths and offsets so that blocks straddle regenerations of the state vector.
+
+        System.out.println("\nCompare 10007 ints, bounded ints, doubles, and gaussians in bulk against single values");
+        MersenneTwisterFast r2 = new MersenneTwisterFast(SEED);
+        r = new MersenneTwisterFast(SEED);
+        boolean same = true;
+        int[] ints = new int[10007 + 3];
+        double[] doubles = new double[10007 + 3];
+        for (int round = 0; round < 4; round++)
+            {
+            r2.nextInts(ints, 3, 10007);
+            for (j = 0; j < 10007; j++) same = same && (ints[j + 3] == r.nextInt());
+            r2.nextInts(1000, ints, 3, 10007);
+            for (j = 0; j < 10007; j++) same = same && (ints[j + 3] == r.nextInt(1000));
+            r2.nextInts(1024, ints, 3, 10007);
+            for (j = 0; j < 10007; j++) same = same && (ints[j + 3] == r.nextInt(1024));
+            r2.nextDoubles(doubles, 3, 10007);
+            for (j = 0; j < 10007; j++) same = same && (doubles[j + 3] == r.nextDouble());
+            r2.nextGaussians(doubles, 3, 10007);
+            for (j = 0; j < 10007; j++) same = same && (doubles[j + 3] == r.nextGaussian());
+            }
+        System.out.println(same ? "Same" : "BAD");
+
+        // BULK SPEED TEST
+
+        System.out.println("\nTime to test grabbing 100000000 doubles, singly and in blocks of 10000");
+        doubles = new double[10000];
+        double dd = 0;
+        r = new MersenneTwisterFast(SEED);
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000; j++)
+            dd += r.nextDouble();
+        System.out.println("nextDouble(): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + dd);
+
+        dd = 0;
+        r = new MersenneTwisterFast(SEED);
+        ms = System.currentTimeMillis();
+        for (j = 0; j < 100000000 / doubles.length; j++)
+            {
+            r.nextDoubles(doubles);
+            for (int k = 0; k < doubles.length; k++) dd += doubles[k];
+            }
+        System.out.println("nextDoubles(...): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + dd);
+        
+        System.out.println("\nTime to test grabbing 100000000 ints, singly and in blocks of 10000");
+        ints = new int[10000];
+        r = new MersenneTwisterFast(SEED);
+        ms = System.currentTimeMillis();
+        xx = 0;
+        for (j = 0; j < 100000000; j++)
+            xx += r.nextInt();
+        System.out.println("nextInt(): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
+
+        r = new MersenneTwisterFast(SEED);
+        ms = System.currentTimeMillis();
+        xx = 0;
+        for (j = 0; j < 100000000 / ints.length; j++)
+            {
+            r.nextInts(ints);
+            for (int k = 0; k < ints.length; k++) xx += ints[k];
+            }
+        System.out.println("nextInts(...): " + (System.currentTimeMillis()-ms) + "          Ignore this: " + xx);
         }
     }
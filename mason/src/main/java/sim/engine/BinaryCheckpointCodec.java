@@ -0,0 +1,746 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+   A CheckpointCodec for models holding large amounts of primitive data: DoubleGrid2D and IntGrid2D fields,
+   IntBags and DoubleBags, the primitive arrays inside a CalendarQueue, and so on.  The SimState is still
+   serialized with an ObjectOutputStream, but every primitive array at least <i>minBlockBytes</i> in size
+   is pulled out of the object stream and written as a raw block of little-endian values straight to a
+   channel (a FileChannel if you write to a FileOutputStream).  The remaining object graph is usually small,
+   and is compressed with a choice of compressor: COMPRESSION_NONE, COMPRESSION_FAST (Deflate at its fastest
+   setting, the default), or COMPRESSION_DEFAULT (Deflate at its default setting, similar to GZIP).  The raw
+   blocks are never compressed.
+
+   <p>Arrays shared by several objects are written once and remain shared when read back, exactly as in Java
+   serialization.
+
+   <p>The snapshot(...) method serializes the object graph into memory and copies each large array, which
+   takes little time compared to compressing and writing the whole thing; the Snapshot can then be written
+   out in another thread while the simulation carries on.  This requires memory for a second copy of the
+   arrays until the Snapshot has been written.  write(...) makes no copies.
+
+   <p>The format is:
+   <ul>
+   <li>int MAGIC, int VERSION, int compression
+   <li>Zero or more blocks, each a byte element type (1 through 8 for boolean, byte, char, short, int, long, float, and double),
+   an int number of elements, and the elements.
+   <li>byte 0
+   <li>The object graph: an ObjectOutputStream, compressed as specified.  References to blocks are numbered in
+   the order in which the blocks appear.
+   </ul>
+   All numbers are little-endian.
+
+   <p>BinaryCheckpointCodec can also write <b>delta</b> checkpoints on behalf of an IncrementalCheckpointer.
+   A delta checkpoint begins with DELTA_MAGIC rather than MAGIC, followed by the version, the compression, and
+   the name of its base checkpoint (an int number of bytes followed by the name in UTF-8).  Each of its blocks
+   is written as the type, the number of elements, and then either a 0 followed by the elements, a 1 followed by
+   the int index of an identical block in the base, or a 2 followed by the int index of a block in the base,
+   the int number of elements per tile, the int number of tiles which differ from the base, and for each such
+   tile its int index and its elements.  The object graph is always written in full.
+*/
+
+public class BinaryCheckpointCodec implements CheckpointCodec
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The first four bytes of a binary checkpoint, "MCKP" */
+    public static final int MAGIC = 0x4D434B50;
+    /** The first four bytes of a delta checkpoint, "MCKD" */
+    public static final int DELTA_MAGIC = 0x4D434B44;
+    public static final int VERSION = 1;
+
+    public static final int COMPRESSION_NONE = 0;
+    public static final int COMPRESSION_FAST = 1;
+    public static final int COMPRESSION_DEFAULT = 2;
+
+    /** By default, primitive arrays of at least this many bytes are written as blocks. */
+    public static final int DEFAULT_MIN_BLOCK_BYTES = 4096;
+
+    static final int BUFFER_SIZE = 1 << 16;
+    static final int END = 0;
+    static final int BOOLEAN = 1;
+    static final int BYTE = 2;
+    static final int CHAR = 3;
+    static final int SHORT = 4;
+    static final int INT = 5;
+    static final int LONG = 6;
+    static final int FLOAT = 7;
+    static final int DOUBLE = 8;
+
+    // Delta blocks
+    static final int TILE_BYTES = 4096;
+    static final int FULL_BLOCK = 0;
+    static final int SAME_BLOCK = 1;
+    static final int TILED_BLOCK = 2;
+
+    int compression;
+    int minBlockBytes;
+
+    /** Creates a codec using COMPRESSION_FAST and DEFAULT_MIN_BLOCK_BYTES. */
+    public BinaryCheckpointCodec() { this(COMPRESSION_FAST); }
+
+    /** Creates a codec using the given compression and DEFAULT_MIN_BLOCK_BYTES. */
+    public BinaryCheckpointCodec(int compression) { this(compression, DEFAULT_MIN_BLOCK_BYTES); }
+
+    /** Creates a codec using the given compression, which writes primitive arrays of at least minBlockBytes as blocks. */
+    public BinaryCheckpointCodec(int compression, int minBlockBytes)
+        {
+        if (compression < COMPRESSION_NONE || compression > COMPRESSION_DEFAULT)
+            throw new IllegalArgumentException("Invalid compression: " + compression);
+        this.compression = compression;
+        this.minBlockBytes = Math.max(1, minBlockBytes);
+        }
+
+    public int getCompression() { return compression; }
+    public int getMinBlockBytes() { return minBlockBytes; }
+
+    /** Returns true if the stream holds a binary checkpoint or a delta checkpoint, leaving the stream where it was.
+        The stream must either be a FileInputStream or support mark() and reset(). */
+    public static boolean isBinaryCheckpoint(InputStream stream) throws IOException
+        {
+        int magic = peekInt(stream);
+        return magic == MAGIC || magic == DELTA_MAGIC;
+        }
+
+    // Returns the next four bytes of the stream as a little-endian int, or 0 if there are fewer, leaving the stream where it was
+    static int peekInt(InputStream stream) throws IOException
+        {
+        byte[] b = new byte[4];
+        int n = 0;
+        if (stream instanceof FileInputStream)
+            {
+            FileChannel channel = ((FileInputStream)stream).getChannel();
+            long position = channel.position();
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            while(buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            n = buffer.position();
+            channel.position(position);
+            }
+        else
+            {
+            stream.mark(b.length);
+            while(n < b.length)
+                {
+                int r = stream.read(b, n, b.length - n);
+                if (r < 0) break;
+                n += r;
+                }
+            stream.reset();
+            }
+        if (n < b.length) return 0;
+        return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        }
+
+    public void write(SimState state, OutputStream stream) throws IOException
+        {
+        write(state, stream, null, null, null);
+        }
+
+    /** Writes a checkpoint.  If baseName is null, this is an ordinary checkpoint, else it is a delta against the base checkpoint of 
+        that name, whose blocks are described by the BlockInfos in baseInfo.  If info is non-null, a BlockInfo describing each
+        block written is added to it. */
+    void write(SimState state, OutputStream stream, String baseName, final ArrayList baseInfo, final ArrayList info) throws IOException
+        {
+        final BlockWriter writer = new BlockWriter(channelFor(stream));
+        if (baseName == null) writer.writeHeader(MAGIC, compression);
+        else
+            {
+            writer.writeHeader(DELTA_MAGIC, compression);
+            writer.writeString(baseName);
+            }
+
+        // Serialize the graph into memory, writing each block out as soon as it is found
+        ByteArrayOutputStream graph = new ByteArrayOutputStream();
+        BlockObjectOutputStream s = new BlockObjectOutputStream(compress(graph), minBlockBytes)
+            {
+            int addBlock(Object array) throws IOException
+                {
+                BlockInfo block = null;
+                if (info != null || baseInfo != null) block = new BlockInfo(array);
+                if (info != null) info.add(block);
+                if (baseInfo == null) writer.writeBlock(array);
+                else writer.writeDeltaBlock(array, block, numBlocks < baseInfo.size() ? (BlockInfo)(baseInfo.get(numBlocks)) : null, numBlocks);
+                return numBlocks++;
+                }
+            };
+        s.writeObject(state);
+        s.close();
+
+        writer.writeEnd();
+        writer.flush();
+        graph.writeTo(stream);
+        stream.flush();
+        }
+
+    public Snapshot snapshot(SimState state) throws IOException
+        {
+        // Serialize the graph into memory, uncompressed, copying each block
+        final ArrayList blocks = new ArrayList();
+        final ByteArrayOutputStream graph = new ByteArrayOutputStream();
+        BlockObjectOutputStream s = new BlockObjectOutputStream(graph, minBlockBytes)
+            {
+            int addBlock(Object array) throws IOException { blocks.add(copy(array)); return numBlocks++; }
+            };
+        s.writeObject(state);
+        s.close();
+
+        final int compression = this.compression;
+        return new Snapshot()
+            {
+            public void write(OutputStream stream) throws IOException
+                {
+                BlockWriter writer = new BlockWriter(channelFor(stream));
+                writer.writeHeader(MAGIC, compression);
+                for(int i = 0; i < blocks.size(); i++)
+                    {
+                    writer.writeBlock(blocks.get(i));
+                    blocks.set(i, null);    // let GC
+                    }
+                writer.writeEnd();
+                writer.flush();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                OutputStream out = compress(compressed, compression);
+                graph.writeTo(out);
+                out.close();
+                compressed.writeTo(stream);
+                stream.flush();
+                }
+            };
+        }
+
+    /** Reads a checkpoint.  If the checkpoint is a delta, its base is looked for relative to the current directory
+        (unless its name is absolute).  */
+    public SimState read(InputStream stream) throws IOException, ClassNotFoundException
+        {
+        return read(stream, null);
+        }
+
+    /** Reads a checkpoint.  If the checkpoint is a delta, its base is looked for in the given directory
+        (unless its name is absolute, or the directory is null). */
+    public SimState read(InputStream stream, File directory) throws IOException, ClassNotFoundException
+        {
+        ReadableByteChannel channel = (stream instanceof FileInputStream ? ((FileInputStream)stream).getChannel() : Channels.newChannel(stream));
+        BlockReader reader = new BlockReader(channel);
+        int magic = reader.readInt();
+        if (magic != MAGIC && magic != DELTA_MAGIC)
+            throw new StreamCorruptedException("Not a binary checkpoint");
+        int version = reader.readInt();
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unsupported binary checkpoint version " + version);
+        int compression = reader.readInt();
+
+        ArrayList blocks = new ArrayList();
+        if (magic == MAGIC)
+            {
+            while(true)
+                {
+                Object block = reader.readBlock();
+                if (block == null) break;
+                blocks.add(block);
+                }
+            }
+        else
+            {
+            File base = new File(reader.readString());
+            if (!base.isAbsolute() && directory != null) base = new File(directory, base.getPath());
+            ArrayList baseBlocks = readBlocks(base);
+            boolean[] used = new boolean[baseBlocks.size()];
+            while(true)
+                {
+                Object block = reader.readDeltaBlock(baseBlocks, used);
+                if (block == null) break;
+                blocks.add(block);
+                }
+            }
+
+        // the rest of the channel holds the object graph
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+        if (compression != COMPRESSION_NONE)
+            in = new InflaterInputStream(in);
+        ObjectInputStream s = new BlockObjectInputStream(in, blocks);
+        return (SimState)(s.readObject());
+        }
+
+
+
+    //// INTERNALS
+
+    // Reads just the blocks of an ordinary binary checkpoint file
+    static ArrayList readBlocks(File file) throws IOException
+        {
+        FileInputStream stream = new FileInputStream(file);
+        try
+            {
+            BlockReader reader = new BlockReader(stream.getChannel());
+            if (reader.readInt() != MAGIC)
+                throw new StreamCorruptedException("The base checkpoint " + file + " is not an ordinary binary checkpoint");
+            int version = reader.readInt();
+            if (version != VERSION)
+                throw new StreamCorruptedException("Unsupported binary checkpoint version " + version + " in " + file);
+            reader.readInt();   // compression
+            ArrayList blocks = new ArrayList();
+            while(true)
+                {
+                Object block = reader.readBlock();
+                if (block == null) break;
+                blocks.add(block);
+                }
+            return blocks;
+            }
+        finally
+            {
+            stream.close();
+            }
+        }
+
+    /** The type, length, and tile hashes of a block, from which a later delta can tell which tiles have changed. */
+    static class BlockInfo
+        {
+        int type;
+        int length;
+        long[] hashes;
+
+        BlockInfo(Object array)
+            {
+            type = elementType(array.getClass().getComponentType());
+            length = java.lang.reflect.Array.getLength(array);
+            int perTile = tileElements(type);
+            hashes = new long[(int)(((long)length + perTile - 1) / perTile)];
+            for(int t = 0; t < hashes.length; t++)
+                {
+                int start = t * perTile;
+                hashes[t] = hash(array, type, start, Math.min(perTile, length - start));
+                }
+            }
+        }
+
+    static int tileElements(int type) { return TILE_BYTES / elementSize(type); }
+
+    static final long PRIME_1 = 0x9E3779B97F4A7C15L;
+    static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    static final long PRIME_3 = 0x165667B19E3779F9L;
+
+    static long mix(long hash, long value)
+        {
+        return Long.rotateLeft(hash ^ (value * PRIME_2), 31) * PRIME_1;
+        }
+
+    // A 64-bit hash of elements start ... start+count-1 of the array
+    static long hash(Object array, int type, int start, int count)
+        {
+        long h = PRIME_3 ^ count;
+        int end = start + count;
+        switch(type)
+            {
+            case DOUBLE: { double[] a = (double[])array; for(int i = start; i < end; i++) h = mix(h, Double.doubleToRawLongBits(a[i])); break; }
+            case INT: { int[] a = (int[])array; for(int i = start; i < end; i++) h = mix(h, a[i]); break; }
+            case LONG: { long[] a = (long[])array; for(int i = start; i < end; i++) h = mix(h, a[i]); break; }
+            case FLOAT: { float[] a = (float[])array; for(int i = start; i < end; i++) h = mix(h, Float.floatToRawIntBits(a[i])); break; }
+            case SHORT: { short[] a = (short[])array; for(int i = start; i < end; i++) h = mix(h, a[i]); break; }
+            case CHAR: { char[] a = (char[])array; for(int i = start; i < end; i++) h = mix(h, a[i]); break; }
+            case BYTE: { byte[] a = (byte[])array; for(int i = start; i < end; i++) h = mix(h, a[i]); break; }
+            default: { boolean[] a = (boolean[])array; for(int i = start; i < end; i++) h = mix(h, a[i] ? 1 : 0); break; }
+            }
+        h ^= h >>> 33;
+        h *= PRIME_2;
+        h ^= h >>> 29;
+        return h;
+        }
+
+    static WritableByteChannel channelFor(OutputStream stream)
+        {
+        if (stream instanceof FileOutputStream) return ((FileOutputStream)stream).getChannel();
+        return Channels.newChannel(stream);
+        }
+
+    OutputStream compress(OutputStream stream) { return compress(stream, compression); }
+
+    static OutputStream compress(OutputStream stream, int compression)
+        {
+        if (compression == COMPRESSION_NONE) return new BufferedOutputStream(stream, BUFFER_SIZE);
+        Deflater deflater = new Deflater(compression == COMPRESSION_FAST ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION);
+        return new DeflaterOutputStream(stream, deflater, BUFFER_SIZE)
+            {
+            public void close() throws IOException
+                {
+                super.close();
+                def.end();  // we made our own Deflater, so we must release it
+                }
+            };
+        }
+
+    static Object copy(Object array)
+        {
+        if (array instanceof double[]) return ((double[])array).clone();
+        if (array instanceof int[]) return ((int[])array).clone();
+        if (array instanceof long[]) return ((long[])array).clone();
+        if (array instanceof float[]) return ((float[])array).clone();
+        if (array instanceof byte[]) return ((byte[])array).clone();
+        if (array instanceof boolean[]) return ((boolean[])array).clone();
+        if (array instanceof short[]) return ((short[])array).clone();
+        return ((char[])array).clone();
+        }
+
+    static int elementType(Class c)
+        {
+        if (c == double.class) return DOUBLE;
+        if (c == int.class) return INT;
+        if (c == long.class) return LONG;
+        if (c == float.class) return FLOAT;
+        if (c == byte.class) return BYTE;
+        if (c == boolean.class) return BOOLEAN;
+        if (c == short.class) return SHORT;
+        if (c == char.class) return CHAR;
+        return END;
+        }
+
+    static int elementSize(int type)
+        {
+        switch(type)
+            {
+            case DOUBLE: case LONG: return 8;
+            case INT: case FLOAT: return 4;
+            case SHORT: case CHAR: return 2;
+            default: return 1;
+            }
+        }
+
+    /** Stands in for a block in the object graph. */
+    static class BlockReference implements Serializable
+        {
+        private static final long serialVersionUID = 1;
+        int index;
+        BlockReference(int index) { this.index = index; }
+        }
+
+    /** Replaces each large primitive array with a BlockReference, calling addBlock(...) the first time each array is found. */
+    static abstract class BlockObjectOutputStream extends ObjectOutputStream
+        {
+        int minBlockBytes;
+        int numBlocks = 0;
+
+        BlockObjectOutputStream(OutputStream out, int minBlockBytes) throws IOException
+            {
+            super(out);
+            this.minBlockBytes = minBlockBytes;
+            enableReplaceObject(true);
+            }
+
+        /** Stores the array as the next block and returns its index. */
+        abstract int addBlock(Object array) throws IOException;
+
+        // ObjectOutputStream only calls this the first time it sees any given object: later references to
+        // the same array are written as references to the same BlockReference.
+        protected Object replaceObject(Object obj) throws IOException
+            {
+            if (obj == null) return null;
+            Class c = obj.getClass();
+            if (!c.isArray()) return obj;
+            int type = elementType(c.getComponentType());
+            if (type == END) return obj;
+            if ((long)java.lang.reflect.Array.getLength(obj) * elementSize(type) < minBlockBytes) return obj;
+            return new BlockReference(addBlock(obj));
+            }
+        }
+
+    /** Replaces each BlockReference with its block. */
+    static class BlockObjectInputStream extends ObjectInputStream
+        {
+        ArrayList blocks;
+
+        BlockObjectInputStream(InputStream in, ArrayList blocks) throws IOException
+            {
+            super(in);
+            this.blocks = blocks;
+            enableResolveObject(true);
+            }
+
+        protected Object resolveObject(Object obj) throws IOException
+            {
+            if (obj instanceof BlockReference)
+                {
+                int index = ((BlockReference)obj).index;
+                if (index < 0 || index >= blocks.size())
+                    throw new StreamCorruptedException("Invalid block reference " + index);
+                return blocks.get(index);
+                }
+            return obj;
+            }
+        }
+
+    /** Writes raw blocks to a channel through a single buffer. */
+    static class BlockWriter
+        {
+        WritableByteChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        BlockWriter(WritableByteChannel channel) { this.channel = channel; }
+
+        void drain() throws IOException
+            {
+            buffer.flip();
+            while(buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+            }
+
+        void room(int bytes) throws IOException
+            {
+            if (buffer.remaining() < bytes) drain();
+            }
+
+        void flush() throws IOException { drain(); }
+
+        void writeHeader(int magic, int compression) throws IOException
+            {
+            room(12);
+            buffer.putInt(magic).putInt(VERSION).putInt(compression);
+            }
+
+        void writeInt(int value) throws IOException
+            {
+            room(4);
+            buffer.putInt(value);
+            }
+
+        void writeString(String string) throws IOException
+            {
+            byte[] b = string.getBytes("UTF-8");
+            writeInt(b.length);
+            writeElements(b, BYTE, 0, b.length);
+            }
+
+        void writeEnd() throws IOException
+            {
+            room(1);
+            buffer.put((byte)END);
+            }
+
+        void writeBlock(Object array) throws IOException
+            {
+            int type = elementType(array.getClass().getComponentType());
+            int length = java.lang.reflect.Array.getLength(array);
+            room(5);
+            buffer.put((byte)type).putInt(length);
+            writeElements(array, type, 0, length);
+            }
+
+        // Writes the block in full, or as identical to the base block, or as the tiles which differ from the base block
+        void writeDeltaBlock(Object array, BlockInfo block, BlockInfo base, int index) throws IOException
+            {
+            room(6);
+            buffer.put((byte)block.type).putInt(block.length);
+
+            int changed = 0;
+            if (base != null && base.type == block.type && base.length == block.length)
+                for(int t = 0; t < block.hashes.length; t++)
+                    if (block.hashes[t] != base.hashes[t]) changed++;
+
+            if (base == null || base.type != block.type || base.length != block.length || changed * 2 > block.hashes.length)
+                {
+                buffer.put((byte)FULL_BLOCK);
+                writeElements(array, block.type, 0, block.length);
+                }
+            else if (changed == 0)
+                {
+                buffer.put((byte)SAME_BLOCK);
+                writeInt(index);
+                }
+            else
+                {
+                buffer.put((byte)TILED_BLOCK);
+                int perTile = tileElements(block.type);
+                room(12);
+                buffer.putInt(index).putInt(perTile).putInt(changed);
+                for(int t = 0; t < block.hashes.length; t++)
+                    if (block.hashes[t] != base.hashes[t])
+                        {
+                        writeInt(t);
+                        int start = t * perTile;
+                        writeElements(array, block.type, start, Math.min(perTile, block.length - start));
+                        }
+                }
+            }
+
+        void writeElements(Object array, int type, int from, int length) throws IOException
+            {
+            int size = elementSize(type);
+            int perChunk = BUFFER_SIZE / size;
+            for(int start = from; start < from + length; start += perChunk)
+                {
+                int count = Math.min(perChunk, from + length - start);
+                room(count * size);
+                int position = buffer.position();
+                switch(type)
+                    {
+                    case DOUBLE: buffer.asDoubleBuffer().put((double[])array, start, count); break;
+                    case INT: buffer.asIntBuffer().put((int[])array, start, count); break;
+                    case LONG: buffer.asLongBuffer().put((long[])array, start, count); break;
+                    case FLOAT: buffer.asFloatBuffer().put((float[])array, start, count); break;
+                    case SHORT: buffer.asShortBuffer().put((short[])array, start, count); break;
+                    case CHAR: buffer.asCharBuffer().put((char[])array, start, count); break;
+                    case BYTE: buffer.put((byte[])array, start, count); break;
+                    default:
+                        {
+                        boolean[] b = (boolean[])array;
+                        for(int i = start; i < start + count; i++) buffer.put(b[i] ? (byte)1 : (byte)0);
+                        }
+                    }
+                if (type != BYTE && type != BOOLEAN)    // views don't move the buffer's position
+                    buffer.position(position + count * size);
+                }
+            }
+        }
+
+    /** Reads raw blocks from a channel, never reading past the end of the last block. */
+    static class BlockReader
+        {
+        ReadableByteChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        BlockReader(ReadableByteChannel channel) { this.channel = channel; }
+
+        // fills the buffer with exactly the given number of bytes
+        void fill(int bytes) throws IOException
+            {
+            buffer.clear();
+            buffer.limit(bytes);
+            while(buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    throw new EOFException("Binary checkpoint ended prematurely");
+            buffer.flip();
+            }
+
+        int readInt() throws IOException
+            {
+            fill(4);
+            return buffer.getInt();
+            }
+
+        String readString() throws IOException
+            {
+            int length = readInt();
+            if (length < 0)
+                throw new StreamCorruptedException("Invalid string length " + length);
+            byte[] b = new byte[length];
+            readElements(b, BYTE, 0, length);
+            return new String(b, "UTF-8");
+            }
+
+        /** Returns the next block of a delta checkpoint, built from the given base blocks, or null at the end of the blocks.
+            Base blocks are reused rather than copied unless they have already been used. */
+        Object readDeltaBlock(ArrayList baseBlocks, boolean[] used) throws IOException
+            {
+            fill(1);
+            int type = buffer.get();
+            if (type == END) return null;
+            if (type < BOOLEAN || type > DOUBLE)
+                throw new StreamCorruptedException("Invalid block type " + type);
+            int length = readInt();
+            if (length < 0)
+                throw new StreamCorruptedException("Invalid block length " + length);
+            fill(1);
+            int mode = buffer.get();
+            if (mode == FULL_BLOCK)
+                {
+                Object array = newArray(type, length);
+                readElements(array, type, 0, length);
+                return array;
+                }
+            if (mode != SAME_BLOCK && mode != TILED_BLOCK)
+                throw new StreamCorruptedException("Invalid delta block mode " + mode);
+
+            int index = readInt();
+            if (index < 0 || index >= baseBlocks.size())
+                throw new StreamCorruptedException("Invalid base block " + index);
+            Object array = baseBlocks.get(index);
+            if (elementType(array.getClass().getComponentType()) != type || java.lang.reflect.Array.getLength(array) != length)
+                throw new StreamCorruptedException("Base block " + index + " does not match the delta");
+            if (used[index]) array = copy(array);
+            used[index] = true;
+
+            if (mode == TILED_BLOCK)
+                {
+                int perTile = readInt();
+                int changed = readInt();
+                if (perTile <= 0 || changed < 0)
+                    throw new StreamCorruptedException("Invalid tiles");
+                for(int i = 0; i < changed; i++)
+                    {
+                    int t = readInt();
+                    long start = (long)t * perTile;
+                    if (t < 0 || start >= length)
+                        throw new StreamCorruptedException("Invalid tile " + t);
+                    readElements(array, type, (int)start, (int)Math.min(perTile, length - start));
+                    }
+                }
+            return array;
+            }
+
+        /** Returns the next block, or null at the end of the blocks. */
+        Object readBlock() throws IOException
+            {
+            fill(1);
+            int type = buffer.get();
+            if (type == END) return null;
+            if (type < BOOLEAN || type > DOUBLE)
+                throw new StreamCorruptedException("Invalid block type " + type);
+            int length = readInt();
+            if (length < 0)
+                throw new StreamCorruptedException("Invalid block length " + length);
+            Object array = newArray(type, length);
+            readElements(array, type, 0, length);
+            return array;
+            }
+
+        Object newArray(int type, int length)
+            {
+            switch(type)
+                {
+                case DOUBLE: return new double[length];
+                case INT: return new int[length];
+                case LONG: return new long[length];
+                case FLOAT: return new float[length];
+                case SHORT: return new short[length];
+                case CHAR: return new char[length];
+                case BYTE: return new byte[length];
+                default: return new boolean[length];
+                }
+            }
+
+        void readElements(Object array, int type, int from, int length) throws IOException
+            {
+            int size = elementSize(type);
+            int perChunk = BUFFER_SIZE / size;
+            for(int start = from; start < from + length; start += perChunk)
+                {
+                int count = Math.min(perChunk, from + length - start);
+                fill(count * size);
+                switch(type)
+                    {
+                    case DOUBLE: buffer.asDoubleBuffer().get((double[])array, start, count); break;
+                    case INT: buffer.asIntBuffer().get((int[])array, start, count); break;
+                    case LONG: buffer.asLongBuffer().get((long[])array, start, count); break;
+                    case FLOAT: buffer.asFloatBuffer().get((float[])array, start, count); break;
+                    case SHORT: buffer.asShortBuffer().get((short[])array, start, count); break;
+                    case CHAR: buffer.asCharBuffer().get((char[])array, start, count); break;
+                    case BYTE: buffer.get((byte[])array, start, count); break;
+                    default:
+                        {
+                        boolean[] b = (boolean[])array;
+                        for(int i = start; i < start + count; i++) b[i] = (buffer.get() != 0);
+                        }
+                    }
+                }
+            }
+        }
+    }
@@ -0,0 +1,561 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import sim.util.*;
+import java.util.*;
+
+/**
+   CalendarQueue is a ScheduleQueue specialized for MASON's (time, ordering) keys.  It is a variant
+   of the Calendar Queue described in R. Brown, "Calendar Queues: A Fast O(1) Priority Queue Implementation
+   for the Simulation Event Set Problem", <i>Communications of the ACM</i> 31(10), 1988.
+
+   <p>Time is divided into <i>slots</i> of a fixed <i>width</i>, and each slot maps onto one of a power-of-two
+   number of <i>buckets</i> (slot modulo the number of buckets, so a bucket holds several "years" of slots).
+   Each bucket stores its events' times, orderings, and Steppables in three parallel arrays, kept sorted
+   so that the bucket's minimum is at the front.  No Schedule.Key is ever allocated, and no compareTo(...)
+   calls are made.
+
+   <p>CalendarQueue is tuned for the common MASON pattern in which a great many agents are scheduled at
+   a small number of distinct times (typically integer timesteps, which is why the default width is 1.0),
+   and most new events are scheduled later than everything already in their bucket.  Adding such an event
+   is a simple array append, and extracting all the events of the minimum (time, ordering) is a single
+   System.arraycopy.  Events which arrive out of order are appended to an unsorted tail which is sorted
+   and merged in the next time the bucket is inspected.
+
+   <p>The queue resizes itself as the number of occupied slots changes, and re-estimates the slot width from
+   the spacing of the earliest distinct event times whenever it resizes or notices that it is spending too
+   much time keeping its buckets sorted.  You can also provide an initial number of buckets and width if you
+   know your scheduling pattern in advance.
+
+   <p>Like Heap, CalendarQueue does not break ties in any particular order.  Schedule shuffles events
+   with identical times and orderings, so this has no effect on the semantics of the Schedule.
+*/
+
+public class CalendarQueue implements ScheduleQueue
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The default (and minimum) number of buckets. */
+    public static final int MIN_BUCKETS = 16;
+    /** The maximum number of buckets. */
+    public static final int MAX_BUCKETS = 1 << 20;
+    /** The default slot width, suitable for simulations which schedule on integer timesteps. */
+    public static final double DEFAULT_WIDTH = 1.0;
+    // The number of distinct times sampled when estimating the slot width
+    static final int SAMPLE_SIZE = 64;
+    // Buckets larger than this are not dropped when they empty, but kept as a spare
+    static final int SPARE_THRESHOLD = 64;
+
+    Bucket[] buckets;
+    int mask;
+    double width;
+    int numElem;
+    // the number of non-null buckets
+    int occupied;
+    // every event in the queue lies in a slot >= currentSlot
+    long currentSlot = Long.MAX_VALUE;
+    // index of the bucket whose first element is the minimum event, or -1 if not known
+    int minBucket = -1;
+    // work spent sorting and merging buckets since the last rebuild
+    long sortWork;
+
+    // a recently emptied bucket, kept around so its arrays can be reused
+    transient Bucket spare;
+    // scratch arrays used to merge buckets
+    transient double[] scratchTimes;
+    transient int[] scratchOrderings;
+    transient Object[] scratchObjs;
+
+    /** Creates a CalendarQueue with MIN_BUCKETS buckets and a slot width of DEFAULT_WIDTH. */
+    public CalendarQueue()
+        {
+        this(MIN_BUCKETS, DEFAULT_WIDTH);
+        }
+
+    /** Creates a CalendarQueue with at least the given number of buckets (rounded up to a power of two)
+        and the given slot width, which must be positive and finite. */
+    public CalendarQueue(int numBuckets, double width)
+        {
+        if (!(width > 0) || width == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("CalendarQueue width must be positive and finite, not " + width);
+        int n = MIN_BUCKETS;
+        while(n < numBuckets && n < MAX_BUCKETS) n <<= 1;
+        buckets = new Bucket[n];
+        mask = n - 1;
+        this.width = width;
+        }
+
+    /** Returns the present slot width. */
+    public double getWidth() { return width; }
+
+    /** Returns the present number of buckets. */
+    public int getNumBuckets() { return buckets.length; }
+
+    long slot(double time)
+        {
+        return (long)Math.floor(time / width);  // saturates at Long.MAX_VALUE, which is fine: it's still monotonic
+        }
+
+    static boolean less(double time1, int ordering1, double time2, int ordering2)
+        {
+        return (time1 < time2 || (time1 == time2 && ordering1 < ordering2));
+        }
+
+    public void add(Steppable event, double time, int ordering)
+        {
+        long s = slot(time);
+        int index = (int)(s & mask);
+        Bucket b = buckets[index];
+        if (b == null)
+            {
+            b = newBucket();
+            buckets[index] = b;
+            occupied++;
+            }
+        b.add(event, time, ordering);
+        numElem++;
+        if (s < currentSlot) currentSlot = s;
+        if (minBucket >= 0)
+            {
+            Bucket m = buckets[minBucket];
+            if (less(time, ordering, m.times[m.start], m.orderings[m.start]))
+                minBucket = -1;
+            }
+        if (occupied > (buckets.length >>> 1) && buckets.length < MAX_BUCKETS)
+            rebuild(buckets.length << 1);
+        }
+
+    public int size() { return numElem; }
+
+    public boolean isEmpty() { return numElem == 0; }
+
+    public double getMinTime()
+        {
+        Bucket b = buckets[findMin()];
+        return b.times[b.start];
+        }
+
+    public int getMinOrdering()
+        {
+        Bucket b = buckets[findMin()];
+        return b.orderings[b.start];
+        }
+
+    public Bag extractMin(Bag putInHere)
+        {
+        if (putInHere == null) putInHere = new Bag();
+        if (numElem == 0) return putInHere;
+
+        int index = findMin();
+        Bucket b = buckets[index];
+        sortWork += b.ensureSorted(this);
+        numElem -= b.extractMin(putInHere);
+
+        if (b.start == b.end)  // all done with this bucket
+            {
+            buckets[index] = null;
+            occupied--;
+            recycle(b);
+            minBucket = -1;
+            if (occupied < (buckets.length >>> 3) && buckets.length > MIN_BUCKETS)
+                rebuild(buckets.length >>> 1);
+            }
+        // Any event in currentSlot must live in this bucket, so if the bucket's next event is still
+        // in currentSlot, it's the new minimum.
+        else if (slot(b.times[b.start]) == currentSlot) minBucket = index;
+        else minBucket = -1;
+
+        // Too much sorting means our width is too coarse: many distinct times are landing in the same slots
+        if (sortWork > 4L * numElem + 1024)
+            rebuild(buckets.length);
+
+        return putInHere;
+        }
+
+    public void clear()
+        {
+        buckets = new Bucket[buckets.length];
+        numElem = 0;
+        occupied = 0;
+        currentSlot = Long.MAX_VALUE;
+        minBucket = -1;
+        sortWork = 0;
+        }
+
+    public Steppable[] getSteppables()
+        {
+        Steppable[] s = new Steppable[numElem];
+        int count = 0;
+        for(int i = 0; i < buckets.length; i++)
+            {
+            Bucket b = buckets[i];
+            if (b == null) continue;
+            for(int j = b.start; j < b.end; j++)
+                s[count++] = (Steppable)(b.objs[j]);
+            }
+        return s;
+        }
+
+    public double[] getTimes()
+        {
+        double[] t = new double[numElem];
+        int count = 0;
+        for(int i = 0; i < buckets.length; i++)
+            {
+            Bucket b = buckets[i];
+            if (b == null) continue;
+            System.arraycopy(b.times, b.start, t, count, b.end - b.start);
+            count += b.end - b.start;
+            }
+        return t;
+        }
+
+    public int[] getOrderings()
+        {
+        int[] o = new int[numElem];
+        int count = 0;
+        for(int i = 0; i < buckets.length; i++)
+            {
+            Bucket b = buckets[i];
+            if (b == null) continue;
+            System.arraycopy(b.orderings, b.start, o, count, b.end - b.start);
+            count += b.end - b.start;
+            }
+        return o;
+        }
+
+    // Returns the index of the bucket holding the minimum event.  The queue must not be empty.
+    int findMin()
+        {
+        if (minBucket >= 0) return minBucket;
+        Bucket[] buckets = this.buckets;
+        int n = buckets.length;
+
+        // First try scanning one year's worth of slots starting at currentSlot.  The first bucket
+        // whose minimum lies in the slot being scanned holds the minimum event.
+        long s = currentSlot;
+        if (s <= Long.MAX_VALUE - n)  // else we're at the far end of time, so just do a direct search
+            for(int i = 0; i < n; i++, s++)
+                {
+                int index = (int)(s & mask);
+                Bucket b = buckets[index];
+                if (b != null)
+                    {
+                    sortWork += b.ensureSorted(this);
+                    if (slot(b.times[b.start]) == s)
+                        {
+                        currentSlot = s;
+                        minBucket = index;
+                        return index;
+                        }
+                    }
+                }
+
+        // Nothing in the next year: the events are sparse, so do a direct search of the bucket minima
+        int best = -1;
+        for(int i = 0; i < n; i++)
+            {
+            Bucket b = buckets[i];
+            if (b == null) continue;
+            sortWork += b.ensureSorted(this);
+            if (best == -1 || less(b.times[b.start], b.orderings[b.start], buckets[best].times[buckets[best].start], buckets[best].orderings[buckets[best].start]))
+                best = i;
+            }
+        currentSlot = slot(buckets[best].times[buckets[best].start]);
+        minBucket = best;
+        return best;
+        }
+
+    Bucket newBucket()
+        {
+        Bucket b = spare;
+        if (b == null) return new Bucket();
+        spare = null;
+        return b;
+        }
+
+    void recycle(Bucket b)
+        {
+        b.start = b.end = b.sortedTo = 0;
+        if (b.objs.length > SPARE_THRESHOLD && (spare == null || spare.objs.length < b.objs.length))
+            spare = b;
+        }
+
+    // Estimates a good slot width from the spacing of the earliest SAMPLE_SIZE distinct times,
+    // discarding separations more than twice the average as Brown does.
+    double estimateWidth()
+        {
+        double[] sample = new double[SAMPLE_SIZE];
+        int count = 0;
+        int n = buckets.length;
+
+        // gather the earliest distinct times from the next year of slots
+        long s = currentSlot;
+        if (s <= Long.MAX_VALUE - n)
+            for(int i = 0; i < n && count < SAMPLE_SIZE; i++, s++)
+                {
+                Bucket b = buckets[(int)(s & mask)];
+                if (b == null) continue;
+                sortWork += b.ensureSorted(this);
+                for(int j = b.start; j < b.end && count < SAMPLE_SIZE; j++)
+                    {
+                    double t = b.times[j];
+                    if (slot(t) != s) break;  // the rest of the bucket is in later years
+                    if (count == 0 || sample[count - 1] != t) sample[count++] = t;
+                    }
+                }
+
+        // the events are too sparse for that, so sample the bucket minima instead
+        if (count < 2)
+            {
+            double[] minima = new double[occupied];
+            int m = 0;
+            for(int i = 0; i < n; i++)
+                {
+                Bucket b = buckets[i];
+                if (b == null) continue;
+                sortWork += b.ensureSorted(this);
+                minima[m++] = b.times[b.start];
+                }
+            Arrays.sort(minima, 0, m);
+            count = 0;
+            for(int j = 0; j < m && count < SAMPLE_SIZE; j++)
+                if (count == 0 || sample[count - 1] != minima[j]) sample[count++] = minima[j];
+            }
+
+        if (count < 2) return width;  // all the same time: we have no idea, so leave it alone
+
+        double average = (sample[count - 1] - sample[0]) / (count - 1);
+        double sum = 0;
+        int num = 0;
+        for(int j = 1; j < count; j++)
+            {
+            double separation = sample[j] - sample[j - 1];
+            if (separation <= 2 * average) { sum += separation; num++; }
+            }
+        double w = (num > 0 ? sum / num : average);
+        if (!(w > 0) || w == Double.POSITIVE_INFINITY) return width;
+        return w;
+        }
+
+    // Re-estimates the width and redistributes all the events into the given number of buckets
+    void rebuild(int numBuckets)
+        {
+        double newWidth = (numElem > 0 ? estimateWidth() : width);
+        Bucket[] old = buckets;
+
+        buckets = new Bucket[numBuckets];
+        mask = numBuckets - 1;
+        width = newWidth;
+        numElem = 0;
+        occupied = 0;
+        currentSlot = Long.MAX_VALUE;
+        minBucket = -1;
+        sortWork = 0;
+        spare = null;
+
+        // re-add directly so as to not trigger another rebuild
+        for(int i = 0; i < old.length; i++)
+            {
+            Bucket b = old[i];
+            if (b == null) continue;
+            for(int j = b.start; j < b.end; j++)
+                {
+                double time = b.times[j];
+                long s = slot(time);
+                int index = (int)(s & mask);
+                Bucket c = buckets[index];
+                if (c == null) { c = new Bucket(); buckets[index] = c; occupied++; }
+                c.add((Steppable)(b.objs[j]), time, b.orderings[j]);
+                if (s < currentSlot) currentSlot = s;
+                }
+            numElem += b.end - b.start;
+            }
+        }
+
+    /** A bucket's events are stored in parallel arrays from start (inclusive) to end (exclusive).
+        Events from start to sortedTo are sorted in increasing (time, ordering) order; events from
+        sortedTo to end were added out of order and have yet to be sorted. */
+    static class Bucket implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        double[] times = new double[4];
+        int[] orderings = new int[4];
+        Object[] objs = new Object[4];
+        int start;
+        int end;
+        int sortedTo;
+
+        void add(Steppable event, double time, int ordering)
+            {
+            if (end == objs.length) grow();
+            int e = end;
+            // still sorted if the new event is no smaller than the last one
+            if (sortedTo == e && (e == start || !less(time, ordering, times[e - 1], orderings[e - 1])))
+                sortedTo++;
+            times[e] = time;
+            orderings[e] = ordering;
+            objs[e] = event;
+            end = e + 1;
+            }
+
+        void grow()
+            {
+            int len = end - start;
+            int capacity = objs.length;
+            if (len * 2 > capacity) capacity *= 2;   // else there's enough room if we just slide everything down
+            double[] t = new double[capacity];
+            int[] o = new int[capacity];
+            Object[] b = new Object[capacity];
+            System.arraycopy(times, start, t, 0, len);
+            System.arraycopy(orderings, start, o, 0, len);
+            System.arraycopy(objs, start, b, 0, len);
+            times = t;
+            orderings = o;
+            objs = b;
+            sortedTo -= start;
+            end = len;
+            start = 0;
+            }
+
+        // Removes the events with the minimum (time, ordering) and adds them to the Bag.
+        // The bucket must be sorted.  Returns the number of events removed.
+        int extractMin(Bag bag)
+            {
+            double[] times = this.times;
+            int[] orderings = this.orderings;
+            int s = start;
+            int e = end;
+            double time = times[s];
+            int ordering = orderings[s];
+            int r = s + 1;
+            while(r < e && times[r] == time && orderings[r] == ordering) r++;
+            int len = r - s;
+
+            if (bag.numObjs + len > bag.objs.length) bag.resize(bag.numObjs + len);
+            System.arraycopy(objs, s, bag.objs, bag.numObjs, len);
+            bag.numObjs += len;
+            Arrays.fill(objs, s, r, null);  // let GC
+
+            start = r;
+            return len;
+            }
+
+        // Sorts the unsorted tail and merges it into the sorted region.  Returns the amount of work done.
+        int ensureSorted(CalendarQueue queue)
+            {
+            int e = end;
+            int m = sortedTo;
+            if (m >= e) return 0;
+
+            double[] times = this.times;
+            int[] orderings = this.orderings;
+            Object[] objs = this.objs;
+            int tail = e - m;
+            int work = tail;
+            sort(times, orderings, objs, m, e - 1);
+
+            if (m > start && less(times[m], orderings[m], times[m - 1], orderings[m - 1]))
+                {
+                // copy the tail out and merge backwards from the end
+                if (queue.scratchObjs == null || queue.scratchObjs.length < tail)
+                    {
+                    queue.scratchTimes = new double[tail];
+                    queue.scratchOrderings = new int[tail];
+                    queue.scratchObjs = new Object[tail];
+                    }
+                double[] st = queue.scratchTimes;
+                int[] so = queue.scratchOrderings;
+                Object[] sb = queue.scratchObjs;
+                System.arraycopy(times, m, st, 0, tail);
+                System.arraycopy(orderings, m, so, 0, tail);
+                System.arraycopy(objs, m, sb, 0, tail);
+
+                int i = m - 1;
+                int j = tail - 1;
+                int k = e - 1;
+                while(j >= 0)
+                    {
+                    if (i >= start && less(st[j], so[j], times[i], orderings[i]))
+                        { times[k] = times[i]; orderings[k] = orderings[i]; objs[k] = objs[i]; i--; }
+                    else
+                        { times[k] = st[j]; orderings[k] = so[j]; objs[k] = sb[j]; j--; }
+                    k--;
+                    work++;
+                    }
+                Arrays.fill(sb, 0, tail, null);  // let GC
+                }
+            sortedTo = e;
+            return work;
+            }
+        }
+
+    // Sorts the parallel arrays from lo to hi inclusive in increasing (time, ordering) order.
+    // Quicksort with a median-of-three pivot, switching to insertion sort on small ranges.
+    static void sort(double[] times, int[] orderings, Object[] objs, int lo, int hi)
+        {
+        // it's very common for the tail to already be in order -- all of it at one time, say
+        boolean inOrder = true;
+        for(int i = lo; i < hi; i++)
+            if (less(times[i + 1], orderings[i + 1], times[i], orderings[i]))
+                { inOrder = false; break; }
+        if (inOrder) return;
+        quicksort(times, orderings, objs, lo, hi);
+        }
+
+    static void quicksort(double[] times, int[] orderings, Object[] objs, int lo, int hi)
+        {
+        while(hi - lo > 16)
+            {
+            int mid = (lo + hi) >>> 1;
+            if (less(times[mid], orderings[mid], times[lo], orderings[lo])) swap(times, orderings, objs, lo, mid);
+            if (less(times[hi], orderings[hi], times[lo], orderings[lo])) swap(times, orderings, objs, lo, hi);
+            if (less(times[hi], orderings[hi], times[mid], orderings[mid])) swap(times, orderings, objs, mid, hi);
+            double pt = times[mid];
+            int po = orderings[mid];
+
+            int i = lo;
+            int j = hi;
+            while(i <= j)
+                {
+                while(less(times[i], orderings[i], pt, po)) i++;
+                while(less(pt, po, times[j], orderings[j])) j--;
+                if (i <= j) { swap(times, orderings, objs, i, j); i++; j--; }
+                }
+
+            // recurse on the smaller side, loop on the larger
+            if (j - lo < hi - i) { quicksort(times, orderings, objs, lo, j); lo = i; }
+            else { quicksort(times, orderings, objs, i, hi); hi = j; }
+            }
+
+        for(int i = lo + 1; i <= hi; i++)
+            {
+            double t = times[i];
+            int o = orderings[i];
+            Object b = objs[i];
+            int j = i - 1;
+            while(j >= lo && less(t, o, times[j], orderings[j]))
+                {
+                times[j + 1] = times[j];
+                orderings[j + 1] = orderings[j];
+                objs[j + 1] = objs[j];
+                j--;
+                }
+            times[j + 1] = t;
+            orderings[j + 1] = o;
+            objs[j + 1] = b;
+            }
+        }
+
+    static void swap(double[] times, int[] orderings, Object[] objs, int i, int j)
+        {
+        double t = times[i]; times[i] = times[j]; times[j] = t;
+        int o = orderings[i]; orderings[i] = orderings[j]; orderings[j] = o;
+        Object b = objs[i]; objs[i] = objs[j]; objs[j] = b;
+        }
+    }
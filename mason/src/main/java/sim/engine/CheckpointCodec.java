@@ -0,0 +1,41 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+
+/**
+   A CheckpointCodec writes a SimState to a checkpoint and reads it back.  SimState.writeToCheckpoint(...)
+   uses the SimState's codec (see SimState.setCheckpointCodec(...)), and SimState.readFromCheckpoint(...)
+   recognizes the format of the checkpoint it is given.  Two codecs are provided: <b>JavaCheckpointCodec</b>,
+   the default, which writes the entire SimState through a gzipped ObjectOutputStream as MASON always has, and
+   <b>BinaryCheckpointCodec</b>, which writes large primitive arrays as raw blocks and is much faster for models
+   holding big grids.
+
+   <p>Codecs do not call preCheckpoint(), postCheckpoint(), or awakeFromCheckpoint(): SimState does that.
+   Codecs do not close the streams they are given.
+*/
+
+public interface CheckpointCodec extends java.io.Serializable
+    {
+    /** Writes the SimState to the stream. */
+    public void write(SimState state, OutputStream stream) throws IOException;
+
+    /** Captures the SimState as it is right now, doing as little work as possible, and returns a Snapshot
+        which can write it out later, perhaps in another thread, even if the SimState has changed meanwhile. */
+    public Snapshot snapshot(SimState state) throws IOException;
+
+    /** Reads a SimState from the stream. */
+    public SimState read(InputStream stream) throws IOException, ClassNotFoundException;
+
+    /** A captured SimState, ready to be written out. */
+    public interface Snapshot
+        {
+        /** Writes the captured SimState to the stream, in the same format as CheckpointCodec.write(...).
+            Snapshots may be written only once. */
+        public void write(OutputStream stream) throws IOException;
+        }
+    }
@@ -0,0 +1,84 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import sim.util.*;
+
+/**
+   HeapQueue is the default ScheduleQueue.  It stores events in a sim.util.Heap whose keys are
+   Schedule.Key objects, which is exactly what Schedule has always done.  HeapQueue makes no assumptions
+   about the scheduling pattern of your simulation and so is a reasonable general-purpose choice,
+   but it allocates a Key for each event scheduled and pays for a compareTo(...) call at every level of
+   the heap.  If your simulation schedules very large numbers of agents at a small number of distinct
+   times, consider CalendarQueue instead.
+*/
+
+public class HeapQueue implements ScheduleQueue
+    {
+    private static final long serialVersionUID = 1;
+
+    Heap heap;
+
+    /** Creates a HeapQueue using a plain binary Heap. */
+    public HeapQueue() { this(new Heap()); }
+
+    /** Creates a HeapQueue using the provided Heap, which should be empty.  This lets Schedule
+        subclasses continue to customize their Heap via Schedule.createHeap(). */
+    public HeapQueue(Heap heap) { this.heap = heap; }
+
+    /** Returns the underlying Heap. */
+    public Heap getHeap() { return heap; }
+
+    public void add(Steppable event, double time, int ordering)
+        {
+        heap.add(event, new Schedule.Key(time, ordering));
+        }
+
+    /** Adds an event using an existing Key.  The Key is stored directly in the heap rather than
+        copied, so IterativeRepeat and Repeat can continue to reuse their Keys from step to step. */
+    public void add(Steppable event, Schedule.Key key)
+        {
+        heap.add(event, key);
+        }
+
+    public int size() { return heap.size(); }
+
+    public boolean isEmpty() { return heap.isEmpty(); }
+
+    public double getMinTime() { return ((Schedule.Key)(heap.getMinKey())).time; }
+
+    public int getMinOrdering() { return ((Schedule.Key)(heap.getMinKey())).ordering; }
+
+    public Bag extractMin(Bag putInHere) { return heap.extractMin(putInHere); }
+
+    public void clear() { heap.clear(); }
+
+    public Steppable[] getSteppables()
+        {
+        Object[] objs = heap.getObjects();
+        Steppable[] s = new Steppable[objs.length];
+        System.arraycopy(objs, 0, s, 0, objs.length);
+        return s;
+        }
+
+    public double[] getTimes()
+        {
+        Comparable[] keys = heap.getKeys();
+        double[] t = new double[keys.length];
+        for(int i = 0; i < keys.length; i++)
+            t[i] = ((Schedule.Key)(keys[i])).time;
+        return t;
+        }
+
+    public int[] getOrderings()
+        {
+        Comparable[] keys = heap.getKeys();
+        int[] o = new int[keys.length];
+        for(int i = 0; i < keys.length; i++)
+            o[i] = ((Schedule.Key)(keys[i])).ordering;
+        return o;
+        }
+    }
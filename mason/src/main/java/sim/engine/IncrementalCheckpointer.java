@@ -0,0 +1,100 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+   IncrementalCheckpointer writes a series of checkpoints of a SimState, most of which are small <b>deltas</b>
+   rather than full checkpoints.  Every baseInterval'th checkpoint (starting with the first) is a full
+   binary checkpoint, called the <i>base</i>.  The checkpoints in between are deltas against the most recent base:
+   each primitive array in the model (grid storage and the like) is split into tiles of 4K bytes, and only the tiles
+   which differ from the base are written.  The rest of the model (the schedule, agents, sparse fields, etc.) is
+   written in full, compressed, just as in an ordinary binary checkpoint.
+
+   <p>Because every delta is relative to its base rather than to the previous delta, any checkpoint can be loaded
+   with SimState.readFromCheckpoint(...) as long as its base is still present in the same directory: there is no
+   chain of deltas to replay.  Changed tiles are found by comparing 64-bit hashes of the tiles to those recorded
+   when the base was written, so the IncrementalCheckpointer does not need to hold a copy of the base in memory.
+
+   <p>If the base file goes missing, the next checkpoint is written as a new base.
+*/
+
+public class IncrementalCheckpointer
+    {
+    BinaryCheckpointCodec codec;
+    int baseInterval;
+    long count = 0;
+    File baseFile;
+    ArrayList baseBlocks;
+
+    /** Writes a full checkpoint every baseInterval checkpoints, and deltas otherwise, using a BinaryCheckpointCodec with fast compression. */
+    public IncrementalCheckpointer(int baseInterval)
+        {
+        this(new BinaryCheckpointCodec(), baseInterval);
+        }
+
+    /** Writes a full checkpoint every baseInterval checkpoints, and deltas otherwise, using the given codec. */
+    public IncrementalCheckpointer(BinaryCheckpointCodec codec, int baseInterval)
+        {
+        if (baseInterval < 1)
+            throw new IllegalArgumentException("The base interval must be > 0: " + baseInterval);
+        this.codec = codec;
+        this.baseInterval = baseInterval;
+        }
+
+    /** Returns the most recent full checkpoint, or null if none has been written. */
+    public File getBaseFile() { return baseFile; }
+
+    /** Writes the next checkpoint of the state to the given file, returning true if it is a full checkpoint,
+        and false if it is a delta.  The file is written under a temporary name and renamed when complete. */
+    public boolean write(SimState state, File file) throws IOException
+        {
+        boolean full = (baseFile == null || count % baseInterval == 0 || !baseFile.exists() ||
+            baseFile.getAbsoluteFile().equals(file.getAbsoluteFile()));
+        count++;
+
+        File temp = new File(file.getPath() + ".tmp");
+        ArrayList blocks = (full ? new ArrayList() : null);
+        state.preCheckpoint();
+        try
+            {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try
+                {
+                if (full) codec.write(state, stream, null, null, blocks);
+                else codec.write(state, stream, baseName(file), baseBlocks, null);
+                }
+            finally
+                {
+                stream.close();
+                }
+            }
+        finally
+            {
+            state.postCheckpoint();
+            }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (full)
+            {
+            baseFile = file;
+            baseBlocks = blocks;
+            }
+        return full;
+        }
+
+    // The name of the base as seen from the delta: relative if they share a directory, else absolute
+    String baseName(File delta)
+        {
+        File base = baseFile.getAbsoluteFile();
+        if (base.getParentFile().equals(delta.getAbsoluteFile().getParentFile()))
+            return base.getName();
+        else return base.getPath();
+        }
+    }
@@ -0,0 +1,62 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import java.io.*;
+import java.util.zip.*;
+
+/**
+   The default CheckpointCodec.  Serializes the entire SimState through an ObjectOutputStream
+   and compresses the result with GZIP.  This is the checkpoint format MASON has always used.
+*/
+
+public class JavaCheckpointCodec implements CheckpointCodec
+    {
+    private static final long serialVersionUID = 1;
+
+    public void write(SimState state, OutputStream stream) throws IOException
+        {
+        GZIPOutputStream g = 
+            new GZIPOutputStream(
+                new BufferedOutputStream(stream));
+
+        ObjectOutputStream s = 
+            new ObjectOutputStream(g);
+            
+        s.writeObject(state);
+        s.flush();
+        g.finish();  // need to force out the gzip stream AND manually flush it.  Java's annoying.  Took a while to find this bug...
+        g.flush();
+        }
+
+    /** Serializes the SimState into memory, uncompressed.  Compression is left to Snapshot.write(...). */
+    public Snapshot snapshot(SimState state) throws IOException
+        {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream s = new ObjectOutputStream(bytes);
+        s.writeObject(state);
+        s.close();
+        return new Snapshot()
+            {
+            public void write(OutputStream stream) throws IOException
+                {
+                GZIPOutputStream g = new GZIPOutputStream(new BufferedOutputStream(stream));
+                bytes.writeTo(g);
+                g.finish();
+                g.flush();
+                }
+            };
+        }
+
+    public SimState read(InputStream stream) throws IOException, ClassNotFoundException
+        {
+        ObjectInputStream s = 
+            new ObjectInputStream(
+                new GZIPInputStream (
+                    new BufferedInputStream(stream)));
+        return (SimState) (s.readObject());
+        }
+    }
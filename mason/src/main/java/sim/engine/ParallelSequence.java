@@ -8,6 +8,7 @@ package sim.engine;
 import java.util.concurrent.*;
 import java.util.*;
 import sim.util.*;
+import ec.util.*;
 
 /** Spawns all the sequence elements in parallel on separate threads.
     This should ONLY be used if you know that all of the elements in
@@ -24,6 +25,15 @@ import sim.util.*;
     to let the RandomSequence know this so that it will lock on the random number generator
     properly.  This is done by setting the <b>shouldSynchronize</b> flag in the RandomSequence.
     
+    <p>Locking on the generator is slow if your agents use it heavily, and the order in which threads
+    happen to get the lock makes runs irreproducible.  Instead you can call <b>setUsesRandomStreams(true)</b>.
+    The ParallelSequence then gives each partition of its Steppables (each thread's chunk, or when using
+    a ForkJoinPool, each of a fixed number of partitions) its own MersenneTwisterFast, and while a
+    partition is being stepped, state.threadRandom() returns that partition's generator.  Your agents
+    should call state.threadRandom() rather than use state.random, and need not lock on it.  RandomSequences
+    do this automatically.  The streams are created with state.createRandomStreams(...) the first time they are
+    needed, so for a given seed and number of threads, runs are reproducible.
+    
     <p>ParallelSequences are lightweight: they reuse the same threads
     if stepped repeatedly.  This means that you must never attach a ParallelSequence
     inside itself -- that'd be an infinite loop, but it also would create weird thread
@@ -50,6 +60,16 @@ import sim.util.*;
     at the end of the run to call cleanup() on it.  It's not a bad idea for a ParallelSequence which
     is one-shot rather than repeating.
     
+    <p><b>Work Stealing</b>
+    By default a ParallelSequence divides its Steppables into one fixed contiguous chunk per thread.  If some
+    Steppables take much longer than others, the threads with the cheap chunks finish early and sit idle.  If you
+    call <b>setUsesForkJoin(true)</b>, the ParallelSequence instead steps its Steppables in a ForkJoinPool shared
+    by all ParallelSequences with the same number of threads, recursively splitting the Steppables in half as
+    long as idle threads are available to steal the halves, down to a minimum chunk size (the <i>grain size</i>, which
+    you can set with <b>setGrainSize(...)</b>).  This balances the load automatically.  The pool's threads are daemon
+    threads which belong to no particular ParallelSequence, so a ParallelSequence using a ForkJoinPool needs no
+    cleanup() at all.  When using a ForkJoinPool, the number of threads STEPPABLES is treated as CPUS.
+    
     <p>Be sure to read the class documentation on sim.engine.Sequence</b>
 */
 
@@ -61,14 +81,102 @@ public class ParallelSequence extends Sequence
     boolean operating = false;  // checking for circularity
     boolean destroysThreads = false;
     int numThreads = 0;
+    boolean usesForkJoin = false;
+    int grainSize = AUTOMATIC_GRAIN_SIZE;
+    boolean usesRandomStreams = false;
+    MersenneTwisterFast[] randomStreams = null;  // created lazily, and only ever grown
     
     /** Indicates that MASON should determine how many threads to use based on the number of CPUs. */ 
     public static final int CPUS = -1;
     public static final int STEPPABLES = -2;
+    /** Indicates that the grain size should be determined automatically from the number of Steppables and threads. */
+    public static final int AUTOMATIC_GRAIN_SIZE = 0;
     static int availableProcessors = Runtime.getRuntime().availableProcessors();
+    // number of partitions per thread when using random streams with a ForkJoinPool
+    static final int PARTITIONS_PER_THREAD = 8;
+    // ForkJoinPools shared among all ParallelSequences, keyed by parallelism
+    static HashMap forkJoinPools = new HashMap();
         
     public boolean getDestroysThreads() { return destroysThreads; }
     public void setDestroysThreads(boolean val) { destroysThreads = val; }
+    
+    /** Returns whether the ParallelSequence steps its Steppables in a shared, work-stealing ForkJoinPool. */
+    public boolean getUsesForkJoin() { return usesForkJoin; }
+    /** Sets whether the ParallelSequence steps its Steppables in a shared, work-stealing ForkJoinPool
+        rather than in its own threads.  If you switch to a ForkJoinPool, the ParallelSequence's own threads, if any, are cleaned up. */
+    public void setUsesForkJoin(boolean val) 
+        {
+        synchronized(operatingLock)
+            {
+            if (operating)
+                throw new RuntimeException("ParallelSequence.setUsesForkJoin(...) may not be called while the ParallelSequence is being stepped.");
+            usesForkJoin = val; 
+            if (val) cleanup();
+            }
+        }
+        
+    /** Returns the grain size: the smallest number of Steppables which the ForkJoinPool will not split further. */
+    public int getGrainSize() { return grainSize; }
+    /** Sets the grain size: the smallest number of Steppables which the ForkJoinPool will not split further.  If you
+        set this to AUTOMATIC_GRAIN_SIZE (the default), then the grain size is chosen so that there are about eight
+        chunks per thread.  The grain size is ignored unless you are using a ForkJoinPool. */
+    public void setGrainSize(int val)
+        {
+        if (val < 0)
+            throw new IllegalArgumentException("Grain size must be positive or AUTOMATIC_GRAIN_SIZE, not " + val);
+        grainSize = val;
+        }
+        
+    /** Returns whether each partition of the Steppables is given its own random number generator, available via state.threadRandom(). */
+    public boolean getUsesRandomStreams() { return usesRandomStreams; }
+    /** Sets whether each partition of the Steppables is given its own random number generator, available via state.threadRandom().
+        Turning this off discards the existing streams. */
+    public void setUsesRandomStreams(boolean val)
+        {
+        synchronized(operatingLock)
+            {
+            if (operating)
+                throw new RuntimeException("ParallelSequence.setUsesRandomStreams(...) may not be called while the ParallelSequence is being stepped.");
+            usesRandomStreams = val;
+            if (!val) randomStreams = null;
+            }
+        }
+        
+    // Returns at least n random streams, creating new ones as necessary.  Existing streams are kept
+    // so that partition i always uses the same stream.  Called in the stepping thread before any
+    // workers are started.
+    MersenneTwisterFast[] getRandomStreams(SimState state, int n)
+        {
+        MersenneTwisterFast[] streams = randomStreams;
+        if (streams == null)
+            streams = new MersenneTwisterFast[0];
+        if (streams.length < n)
+            {
+            MersenneTwisterFast[] more = state.createRandomStreams(n - streams.length);
+            MersenneTwisterFast[] newStreams = new MersenneTwisterFast[n];
+            System.arraycopy(streams, 0, newStreams, 0, streams.length);
+            System.arraycopy(more, 0, newStreams, streams.length, more.length);
+            streams = newStreams;
+            }
+        randomStreams = streams;
+        return streams;
+        }
+        
+    /** Returns the ForkJoinPool shared by all ParallelSequences with the given parallelism, creating it if necessary. */
+    static ForkJoinPool getForkJoinPool(int parallelism)
+        {
+        synchronized(forkJoinPools)
+            {
+            Integer key = Integer.valueOf(parallelism);
+            ForkJoinPool pool = (ForkJoinPool)(forkJoinPools.get(key));
+            if (pool == null)
+                {
+                pool = new ForkJoinPool(parallelism);   // its threads are daemon threads
+                forkJoinPools.put(key, pool);
+                }
+            return pool;
+            }
+        }
         
     /// Threads are not serializable, so we must manually rebuild here
     private void writeObject(java.io.ObjectOutputStream p)
@@ -77,6 +185,10 @@ public class ParallelSequence extends Sequence
         p.writeBoolean(pleaseDie);
         p.writeBoolean(destroysThreads);
         p.writeInt(numThreads);
+        p.writeBoolean(usesForkJoin);
+        p.writeInt(grainSize);
+        p.writeBoolean(usesRandomStreams);
+        p.writeObject(randomStreams);
         // don't write operating
         // dont' write threads
         }
@@ -88,6 +200,10 @@ public class ParallelSequence extends Sequence
         pleaseDie = p.readBoolean();
         destroysThreads = p.readBoolean();
         numThreads = p.readInt();
+        usesForkJoin = p.readBoolean();
+        grainSize = p.readInt();
+        usesRandomStreams = p.readBoolean();
+        randomStreams = (MersenneTwisterFast[])(p.readObject());
         // don't write operating
         // dont' write threads
         // rebuild locks
@@ -171,6 +287,20 @@ public class ParallelSequence extends Sequence
             loadSteps();
             }
 
+        if (usesForkJoin)
+            {
+            try
+                {
+                stepForkJoin(state);
+                }
+            finally
+                {
+                // don't need to synchronize to turn operating off
+                operating = false;
+                }
+            return;
+            }
+
         if (threads == null)  // rebuild threads
             threads = new ThreadPool();
 
@@ -222,18 +352,20 @@ public class ParallelSequence extends Sequence
         // thread 1 : 6 to 11 (extra = 0)
         // thread 2 : 11 to 16 (extra = 0)
         
+        MersenneTwisterFast[] streams = (usesRandomStreams ? getRandomStreams(state, n) : null);
+
         Runnable[] workers = new Runnable[n];
         for(int i = 0; i < n; i++)
             {
             if (extra > 0)
                 {
-                workers[i] = new Worker(state, current, current + jump + 1, 1);
+                workers[i] = new Worker(state, current, current + jump + 1, 1, streams == null ? null : streams[i]);
                 current += (jump + 1);
                 extra--;
                 }
             else
                 {
-                workers[i] = new Worker(state, current, current + jump, 1);
+                workers[i] = new Worker(state, current, current + jump, 1, streams == null ? null : streams[i]);
                 current += jump;
                 }
             }
@@ -250,6 +382,33 @@ public class ParallelSequence extends Sequence
         }
 
 
+    // steps the Steppables in a shared ForkJoinPool
+    void stepForkJoin(final SimState state)
+        {
+        int size = this.size;
+        if (size == 0) return;
+        
+        int n = numThreads;
+        if (n == CPUS || n == STEPPABLES)
+            n = availableProcessors;
+        
+        if (usesRandomStreams)
+            {
+            // The chunks stepped by each thread depend on who steals what, so instead we divide the
+            // Steppables into a fixed number of partitions, each with its own stream, and split
+            // only along partition boundaries.
+            int partitions = Math.min(size, n * PARTITIONS_PER_THREAD);
+            getForkJoinPool(n).invoke(new StepTask(state, 0, partitions, 1, null, getRandomStreams(state, partitions), partitions));
+            return;
+            }
+        
+        int grain = grainSize;
+        if (grain == AUTOMATIC_GRAIN_SIZE)
+            grain = Math.max(1, size / (n * 8));  // about eight chunks per thread
+        
+        getForkJoinPool(n).invoke(new StepTask(state, 0, size, grain, null, null, 0));
+        }
+
     public void replaceSteppables(Collection collection)
         {
         synchronized(operatingLock)
@@ -353,31 +512,132 @@ public class ParallelSequence extends Sequence
         int start;
         int end;
         int modulo;
-        public Worker(SimState state, int start, int end, int modulo)
+        MersenneTwisterFast random;  // or null if we're not using random streams
+        public Worker(SimState state, int start, int end, int modulo, MersenneTwisterFast random)
             {
             this.state = state;
             this.start = start;
             this.end = end;
             this.modulo = modulo;
+            this.random = random;
             }
         
         public void run()
+            {
+            MersenneTwisterFast old = (random == null ? null : state.setThreadRandom(random));
+            try
+                {
+                Steppable[] steps = ParallelSequence.this.steps;
+                int modulo = this.modulo;
+                for(int s = start; s < end; s += modulo)
+                    {
+                    if (pleaseDie) break;
+                    Steppable step = steps[s];
+                    assert sim.util.LocationLog.set(step);
+                    steps[s].step(state);
+                    assert sim.util.LocationLog.clear();
+                    }
+                }
+            finally
+                {
+                if (random != null) state.setThreadRandom(old);
+                }
+            }
+
+        // explicitly state a UID in order to be 'cross-platform' serializable 
+        // because we ARE an inner class and compilers come up with all sorts
+        // of different UIDs for inner classes and their parents.
+        private static final long serialVersionUID = 1;
+        }
+        
+    // Steps the Steppables from start to end.  Forks off right halves of the range as long as there
+    // are few enough tasks queued that idle threads would otherwise be starved (see the "adaptive"
+    // splitting example in the ForkJoinTask documentation), then steps what's left, then
+    // steps or joins the forked halves.  If streams is non-null, then start and end are not Steppable
+    // indices but partition numbers: partition p covers the pth of the equal slices of the Steppables
+    // and is stepped using streams[p].
+    class StepTask extends RecursiveAction
+        {
+        SimState state;
+        int start;
+        int end;
+        int grain;
+        StepTask next;  // the next task forked off by the same parent
+        MersenneTwisterFast[] streams;  // or null if we're not using random streams
+        int partitions;  // the total number of partitions, if we're using random streams
+        
+        public StepTask(SimState state, int start, int end, int grain, StepTask next, MersenneTwisterFast[] streams, int partitions)
+            {
+            this.state = state;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.next = next;
+            this.streams = streams;
+            this.partitions = partitions;
+            }
+            
+        protected void compute()
+            {
+            int lo = start;
+            int hi = end;
+            StepTask right = null;
+            while(hi - lo > grain && getSurplusQueuedTaskCount() <= 3)
+                {
+                int mid = (lo + hi) >>> 1;
+                right = new StepTask(state, mid, hi, grain, right, streams, partitions);
+                right.fork();
+                hi = mid;
+                }
+            
+            step(lo, hi);
+            
+            while(right != null)
+                {
+                if (right.tryUnfork())  // nobody stole it, so just do it here
+                    step(right.start, right.end);
+                else right.join();
+                right = right.next;
+                }
+            }
+            
+        void step(int lo, int hi)
+            {
+            if (streams == null)
+                {
+                stepRange(lo, hi);
+                return;
+                }
+            
+            long size = ParallelSequence.this.size;
+            for(int p = lo; p < hi; p++)
+                {
+                MersenneTwisterFast old = state.setThreadRandom(streams[p]);
+                try
+                    {
+                    stepRange((int)(p * size / partitions), (int)((p + 1) * size / partitions));
+                    }
+                finally
+                    {
+                    state.setThreadRandom(old);
+                    }
+                }
+            }
+            
+        void stepRange(int lo, int hi)
             {
             Steppable[] steps = ParallelSequence.this.steps;
-            int modulo = this.modulo;
-            for(int s = start; s < end; s += modulo)
+            for(int s = lo; s < hi; s++)
                 {
                 if (pleaseDie) break;
                 Steppable step = steps[s];
                 assert sim.util.LocationLog.set(step);
-                steps[s].step(state);
+                step.step(state);
                 assert sim.util.LocationLog.clear();
                 }
             }
 
-        // explicitly state a UID in order to be 'cross-platform' serializable 
-        // because we ARE an inner class and compilers come up with all sorts
-        // of different UIDs for inner classes and their parents.
+        // see Worker
         private static final long serialVersionUID = 1;
         }
         
@@ -6,6 +6,7 @@
 
 package sim.engine;
 import java.util.*;
+import ec.util.*;
 
 /**
    RandomSequence is a Sequence which executes its Steppable objects in random order each time.
@@ -17,6 +18,12 @@ import java.util.*;
    properly.  This is done by setting the <b>shouldSynchronize</b> flag in the RandomSequence.
    Likewise, whenever in other threads you access the generator in a multithreaded context, you
    should have them synchronize on the generator first.
+
+   <p>RandomSequence shuffles using state.threadRandom(), not state.random directly.  If the
+   RandomSequence is being stepped inside a partition which has its own random stream (such
+   as a ParallelSequence with random streams turned on), it uses that stream and does not
+   lock at all, even if shouldSynchronize is set.  Otherwise threadRandom() is just state.random
+   and shouldSynchronize is obeyed as usual.
    
    <p>Be sure to read the class documentation on sim.engine.Sequence</b>
 */
@@ -66,7 +73,9 @@ public class RandomSequence extends Sequence
         // first load the steps
         loadSteps();
 
-        final boolean shouldSynchronize = this.shouldSynchronize;
+        final MersenneTwisterFast random = state.threadRandom();
+        // a partition's own stream belongs to this thread alone, so needs no lock
+        final boolean shouldSynchronize = this.shouldSynchronize && random == state.random;
         int size = this.size;
         Steppable[] steps = this.steps;
 
@@ -75,7 +84,7 @@ public class RandomSequence extends Sequence
         Steppable temp;
         for(int x=size-1; x>=1 ; x--)
             {
-            int i = (shouldSynchronize ? nextInt(state,x+1) : state.random.nextInt(x+1));
+            int i = (shouldSynchronize ? nextInt(state,x+1) : random.nextInt(x+1));
             temp = steps[i];
             steps[i] = steps[x];
             steps[x] = temp;
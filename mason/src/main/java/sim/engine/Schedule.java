@@ -80,14 +80,29 @@ import ec.util.*;
    (like AsynchronousSteppable or ParallelSequence), they can turn around and submit step-requests to the Schedule even while it's still
    in its step() method.
    
+   <p>Because getTime(), getSteps(), and isSealed() are read very often, the time, steps, and sealed variables are volatile and those
+   methods do not synchronize at all.
+   
+   <p><b>Staged Scheduling</b>.  If many threads reschedule agents during a step (for example, the agents in a ParallelSequence),
+   they will all contend for the internal lock.  If you call <tt>setStagedScheduling(true)</tt>, then while the Schedule is stepping its
+   Steppables, all scheduleOnce...(...) and scheduleRepeating(...) requests instead go into a small staging buffer private to the calling thread,
+   and are merged into the queue, all at once, when the Steppables for the timestep have finished.  Because the time cannot change during a step,
+   this has no effect on when events occur (an event cannot be scheduled for the current timestep anyway), and scheduling during a step then
+   requires no shared lock at all.  The only visible differences are that scheduleComplete() does not see staged events until the step is over,
+   and that events are not checked against seal() until they are staged.  Events staged before a clear() or reset() are discarded as usual.
+   
    <p>One downside to this flexibility is that it's very inefficient to check, at each step of a Steppable, whether the Schedule
    has been reset or not.  Thus now if you call reset() or [better] SimState.kill(), the Schedule will continue to step Steppables
    until it has exhausted ones scheduled for the current timestep.  Only at that point will it cease.
    
-   <p><b>Heaps and Calendar Queues</b>.  Schedule uses a plain-old binary heap for its queueing mechanism.  This is reasonably efficient,
-   but it could be made more efficient with a Calendar Queue designed for the purposes of your simulation.  We settled on a Heap because
-   we do not know what the expected scheduling pattern will be for any given simulation, and so had to go for the most general case.  If you'd
-   care to customize your queue, you can do so by overriding the createHeap() method in a custom Schedule.  We imagine this would be rare.
+   <p><b>Heaps and Calendar Queues</b>.  By default Schedule uses a plain-old binary heap for its queueing mechanism (a HeapQueue).  This is
+   reasonably efficient, but it could be made more efficient with a Calendar Queue designed for the purposes of your simulation.  We settled on a Heap
+   as the default because we do not know what the expected scheduling pattern will be for any given simulation, and so had to go for the most general case.
+   However if your simulation schedules very many agents at a modest number of distinct times (the usual case), you can call
+   <tt>setQueueType(QUEUE_CALENDAR)</tt>, typically in your SimState's constructor, to switch to a CalendarQueue, which stores its keys in primitive arrays
+   and does not allocate a Key per event.  The two queues produce identical ordering and shuffling semantics.  From the command line you can also
+   select the queue with the <tt>-queue</tt> option to SimState.doLoop(...).  If you'd care to customize your queue further, you can do so by overriding
+   the createQueue() method (or, for a custom Heap, the createHeap() method) in a custom Schedule.  We imagine this would be rare.
 */
     
 
@@ -109,25 +124,88 @@ public class Schedule implements java.io.Serializable
     // should we shuffle individuals with the same timestep and ordering?
     boolean shuffling = true;  // by default, we WANT to shuffle
 
+    /** Queue type indicating a HeapQueue, the default. */
+    public static final int QUEUE_HEAP = 0;
+    /** Queue type indicating a CalendarQueue. */
+    public static final int QUEUE_CALENDAR = 1;
+
+    // the kind of queue built by createQueue()
+    int queueType = QUEUE_HEAP;
+
     /** The Schedule's queue. */
-    protected Heap queue = createHeap();
+    protected ScheduleQueue queue = createQueue();
     
-    /** Returns a Heap to be used by the Schedule.  By default, returns a
+    /** Returns a Heap to be used by the Schedule's HeapQueue.  By default, returns a
         binary heap.  Override this to provide your own
         subclass of Heap tuned for your particular problem. */
     protected Heap createHeap() { return new Heap(); }
+
+    /** Returns a ScheduleQueue to be used by the Schedule.  By default, returns a HeapQueue built
+        from createHeap() or a CalendarQueue, depending on the queue type.  Override this to provide
+        your own ScheduleQueue tuned for your particular problem. */
+    protected ScheduleQueue createQueue()
+        {
+        if (queueType == QUEUE_CALENDAR) return new CalendarQueue();
+        else return new HeapQueue(createHeap());
+        }
+
+    /** Sets the kind of queue the Schedule uses, either QUEUE_HEAP (the default) or QUEUE_CALENDAR.
+        Any events already in the queue are moved to the new queue.  */
+    public void setQueueType(int val)
+        {
+        if (val != QUEUE_HEAP && val != QUEUE_CALENDAR)
+            throw new IllegalArgumentException("Unknown queue type " + val);
+        synchronized(lock)
+            {
+            if (val == queueType) return;
+            queueType = val;
+            ScheduleQueue old = queue;
+            queue = createQueue();
+            addAll(old);
+            }
+        }
+
+    /** Returns the kind of queue the Schedule uses, either QUEUE_HEAP (the default) or QUEUE_CALENDAR. */
+    public int getQueueType()
+        {
+        synchronized(lock)
+            {
+            return queueType;
+            }
+        }
+
+    // adds all the events in the other queue to our queue.  You must synchronize on lock first.
+    void addAll(ScheduleQueue other)
+        {
+        Steppable[] steppables = other.getSteppables();
+        double[] times = other.getTimes();
+        int[] orderings = other.getOrderings();
+        for(int i = 0; i < steppables.length; i++)
+            queue.add(steppables[i], times[i], orderings[i]);
+        }
     
     /** The current time, as returned by getTime().  
         If you modify this in a subclass, be sure to synchronize on Schedule.lock first. */
-    protected double time;
+    protected volatile double time;
     
     /** The current steps, as returned by getSteps().  
         If you modify this in a subclass, be sure to synchronize on Schedule.lock first. */
-    protected long steps;
+    protected volatile long steps;
         
     /** Whether the schedule is sealed, as returned by isSealed().  
         If you modify this in a subclass, be sure to synchronize on Schedule.lock first. */
-    protected boolean sealed = false;
+    protected volatile boolean sealed = false;
+
+    // should scheduling requests made during step() be staged?
+    boolean stagedScheduling = false;
+    // are we presently staging scheduling requests?  Only true while step() is stepping Steppables.
+    volatile boolean staging = false;
+    // incremented whenever the queue is thrown away, so that stale staged events can be discarded
+    volatile int generation = 0;
+    // each thread's StagingBuffer
+    transient ThreadLocal stagingLocal;
+    // all the StagingBuffers, so step() can merge them
+    transient Bag stagingBuffers;
                 
     /** The schedule lock.  Many methods synchronize on this lock before modifying internal variables. */
     protected Object lock = new boolean[1];  // an array is a unique, serializable object
@@ -170,12 +248,12 @@ public class Schedule implements java.io.Serializable
     public double time() { return getTime(); }
 
     /** Returns the current timestep */
-    public double getTime() { synchronized(lock) { return time; } }
+    public double getTime() { return time; }
     
     /** Returns whether or not the schedule is sealed (nothing more can be scheduled, even 
         if the schedule isn't at AFTER_SIMULATION yet).   Calling reset() will unseal
         a Schedule, and calling seal() will seal it.  */
-    public boolean isSealed() { synchronized(lock) { return sealed; } }
+    public boolean isSealed() { return sealed; }
         
     /** Returns the current time in string format. If the time is BEFORE_SIMULATION, then beforeSimulationString is
         returned.  If the time is AFTER_SIMULATION, then afterSimulationString is returned.  Otherwise a numerical
@@ -198,7 +276,28 @@ public class Schedule implements java.io.Serializable
         }
 
     /** Returns the number of steps the Schedule has pulsed so far. */
-    public long getSteps() { synchronized(lock) { return steps; } }
+    public long getSteps() { return steps; }
+
+    /** Sets whether scheduling requests made while the Schedule is stepping its Steppables are staged in
+        per-thread buffers and merged into the queue at the end of the timestep, rather than being inserted
+        into the queue immediately under the Schedule's lock.  This is false by default.  Turn it on
+        if many threads schedule agents during a step, as in a ParallelSequence.  Takes effect on the next step(). */
+    public void setStagedScheduling(boolean val)
+        {
+        synchronized(lock)
+            {
+            stagedScheduling = val;
+            }
+        }
+
+    /** Returns whether scheduling requests made during step() are staged in per-thread buffers. */
+    public boolean isStagedScheduling()
+        {
+        synchronized(lock)
+            {
+            return stagedScheduling;
+            }
+        }
 
     // pushes the time to AFTER_SIMULATION and attempts to kill all
     // remaining scheduled items
@@ -208,7 +307,8 @@ public class Schedule implements java.io.Serializable
         synchronized(lock)
             {
             time = AFTER_SIMULATION;
-            queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            queue = createQueue();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            generation++;
             }
         }
 
@@ -220,7 +320,8 @@ public class Schedule implements java.io.Serializable
         {
         synchronized(lock)
             {
-            queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            queue = createQueue();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            generation++;
             }
         }
 
@@ -243,7 +344,8 @@ public class Schedule implements java.io.Serializable
             {
             time = BEFORE_SIMULATION;
             steps = 0;
-            queue = createHeap();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            queue = createQueue();  // let 'em GC  -- must be inside the lock so scheduleOnce doesn't try to add more
+            generation++;
             sealed = false;
             }
         }
@@ -270,12 +372,12 @@ public class Schedule implements java.io.Serializable
             throw new RuntimeException("May not merge with a sealed schedule.");
         if (!other.queue.isEmpty())
             {
-            double minKey = ((Key)(other.queue.getMinKey())).getTime();
+            double minKey = other.queue.getMinTime();
             if (minKey <= getTime())  // uh oh
                 throw new RuntimeException("May not merge with a schedule which has Steppables scheduled for an earlier time than my current time value."); 
             }
         
-        queue = queue.merge(other.queue);
+        addAll(other.queue);
         }
         
     /** Called in SimState.finish() to clear the beforeSteps and afterSteps Bags.  
@@ -333,7 +435,7 @@ public class Schedule implements java.io.Serializable
                 { time = AFTER_SIMULATION; inStep = false; return false; }  // bump the time for the queue.isEmpty() bit
             
             // now change the time
-            time = ((Key)(queue.getMinKey())).time;  // key shouldn't be able to be null; time should always be one bigger
+            time = queue.getMinTime();  // queue isn't empty; time should always be one bigger
 
             final boolean shuffling = this.shuffling; // locals are faster.  This one needs to be synchronized inside lock
 
@@ -361,8 +463,7 @@ public class Schedule implements java.io.Serializable
                 substeps.numObjs = 0;  // temporarily clear
                 
                 // check next key and break if we don't need to go on
-                Key currentKey = (Key)(queue.getMinKey());
-                if (currentKey == null || currentKey.time != time) break;  // looks like no more substeps at this timestamp
+                if (queue.isEmpty() || queue.getMinTime() != time) break;  // looks like no more substeps at this timestamp
                 }
             }
             
@@ -380,6 +481,16 @@ public class Schedule implements java.io.Serializable
             ((Steppable)(beforeSteps.get(x))).step(state);
             }
                 
+        if (stagedScheduling)
+            {
+            if (stagingLocal == null)  // first time, or we've been deserialized
+                {
+                stagingLocal = new ThreadLocal();
+                stagingBuffers = new Bag();
+                }
+            staging = true;  // publishes the above as well
+            }
+
         try
             {
             for(int x=0;x<len;x++)  // if we're not being killed...
@@ -395,6 +506,8 @@ public class Schedule implements java.io.Serializable
             {
             // reuse currentSteps -- all objects should have been released to gc already, no need to call clear()
             currentSteps.numObjs = 0;
+            
+            if (staging) mergeStaged();
                 
             synchronized(lock) { steps++; }
             inStep = false;
@@ -409,6 +522,126 @@ public class Schedule implements java.io.Serializable
         return true;
         }
         
+    /** A per-thread buffer of events scheduled while staging.  Only its owning thread adds to it,
+        and only while holding its lock and while staging is true, which guarantees that the time
+        cannot change until the lock is released. */
+    static class StagingBuffer
+        {
+        Thread thread = Thread.currentThread();
+        double[] times = new double[16];
+        int[] orderings = new int[16];
+        Steppable[] events = new Steppable[16];
+        int numEvents = 0;
+        int generation;
+        
+        void add(Steppable event, double time, int ordering, int generation)
+            {
+            if (this.generation != generation)  // the queue was thrown away since we last staged anything
+                {
+                clear();
+                this.generation = generation;
+                }
+            if (numEvents == events.length)
+                {
+                int len = numEvents * 2;
+                double[] t = new double[len];
+                int[] o = new int[len];
+                Steppable[] e = new Steppable[len];
+                System.arraycopy(times, 0, t, 0, numEvents);
+                System.arraycopy(orderings, 0, o, 0, numEvents);
+                System.arraycopy(events, 0, e, 0, numEvents);
+                times = t;
+                orderings = o;
+                events = e;
+                }
+            times[numEvents] = time;
+            orderings[numEvents] = ordering;
+            events[numEvents] = event;
+            numEvents++;
+            }
+            
+        void clear()
+            {
+            for(int i = 0; i < numEvents; i++) events[i] = null;  // let GC
+            numEvents = 0;
+            }
+        }
+    
+    // Returns the calling thread's StagingBuffer, creating it if necessary.  Only call this while staging.
+    StagingBuffer getStagingBuffer()
+        {
+        StagingBuffer buffer = (StagingBuffer)(stagingLocal.get());
+        if (buffer == null)
+            {
+            buffer = new StagingBuffer();
+            stagingLocal.set(buffer);
+            synchronized(stagingBuffers) { stagingBuffers.add(buffer); }
+            }
+        return buffer;
+        }
+    
+    // Stops staging and merges all the staged events into the queue.  Called at the end of step().
+    // Note the lock ordering: a StagingBuffer's lock is always acquired before Schedule.lock, never after.
+    void mergeStaged()
+        {
+        staging = false;
+        Object[] buffers;
+        synchronized(stagingBuffers)
+            {
+            buffers = stagingBuffers.toArray();
+            }
+        for(int i = 0; i < buffers.length; i++)
+            {
+            StagingBuffer buffer = (StagingBuffer)(buffers[i]);
+            synchronized(buffer)
+                {
+                if (buffer.numEvents > 0)
+                    {
+                    synchronized(lock)
+                        {
+                        if (buffer.generation == generation)
+                            {
+                            Steppable[] events = buffer.events;
+                            double[] times = buffer.times;
+                            int[] orderings = buffer.orderings;
+                            for(int x = 0; x < buffer.numEvents; x++)
+                                queue.add(events[x], times[x], orderings[x]);
+                            }
+                        }
+                    buffer.clear();
+                    }
+                else if (!buffer.thread.isAlive())  // let go of buffers belonging to dead threads
+                    {
+                    synchronized(stagingBuffers) { stagingBuffers.remove(buffer); }
+                    }
+                }
+            }
+        }
+
+    // Schedules the event at the given time (or getTime() + the given time, if relative), staging it if we're staging.
+    boolean scheduleOnceAt(double when, boolean relative, int ordering, Steppable event)
+        {
+        if (staging)
+            {
+            StagingBuffer buffer = getStagingBuffer();
+            synchronized(buffer)
+                {
+                if (staging)  // time can't change until we release the buffer
+                    {
+                    double t = (relative ? time + when : when);
+                    if (t == time && t != AFTER_SIMULATION) t = Math.nextUp(t);
+                    if (!canSchedule(t, event)) return false;
+                    buffer.add(event, t, ordering, generation);
+                    return true;
+                    }
+                }
+            }
+        synchronized(lock)
+            {
+            return _scheduleOnce(/*must lock for:*/ relative ? time + when : when, ordering, event);
+            }
+        }
+        
     /** Schedules the event to occur at getTime() + 1.0, 0 ordering. If this is a valid time
         and event, schedules the event and returns TRUE.
         This method at present returns FALSE if the schedule cannot
@@ -416,13 +649,10 @@ public class Schedule implements java.io.Serializable
         event is being scheduled for AFTER_SIMULATION.  The method 
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleOnce function call
+    // getting the time is atomic with the subsidiary scheduleOnce function call (see scheduleOnceAt)
     public boolean scheduleOnce(final Steppable event)
         {
-        synchronized(lock)
-            {
-            return _scheduleOnce(new Key(/*must lock for:*/time +1.0,0),event);
-            }
+        return scheduleOnceAt(1.0, true, 0, event);
         }
     
     /** Schedules the event to occur at getTime() + delta, 0 ordering. If this is a valid time
@@ -434,13 +664,10 @@ public class Schedule implements java.io.Serializable
         event is being scheduled for AFTER_SIMULATION.  The method 
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleOnce function call
+    // getting the time is atomic with the subsidiary scheduleOnce function call (see scheduleOnceAt)
     public boolean scheduleOnceIn(final double delta, final Steppable event)
         {
-        synchronized(lock)
-            {
-            return _scheduleOnce(new Key(/*must lock for:*/ time + delta, 0), event);
-            }
+        return scheduleOnceAt(delta, true, 0, event);
         }
         
     /** Schedules the event to occur at getTime() + 1.0, and in the ordering provided. If this is a valid time
@@ -450,13 +677,10 @@ public class Schedule implements java.io.Serializable
         event is being scheduled for AFTER_SIMULATION.  The method 
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleOnce function call
+    // getting the time is atomic with the subsidiary scheduleOnce function call (see scheduleOnceAt)
     public boolean scheduleOnce(final Steppable event, final int ordering)
         {
-        synchronized(lock)
-            {
-            return _scheduleOnce(new Key(/*must lock for:*/time +1.0,ordering),event);
-            }
+        return scheduleOnceAt(1.0, true, ordering, event);
         }
 
     /** Schedules the event to occur at getTime() + delta, and in the ordering provided. If this is a valid time
@@ -467,13 +691,10 @@ public class Schedule implements java.io.Serializable
         event is being scheduled for AFTER_SIMULATION.  The method 
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleOnce function call
+    // getting the time is atomic with the subsidiary scheduleOnce function call (see scheduleOnceAt)
     public boolean scheduleOnceIn(final double delta, final Steppable event, final int ordering)
         {
-        synchronized(lock)
-            {
-            return _scheduleOnce(new Key(/*must lock for:*/ time + delta, ordering), event);
-            }
+        return scheduleOnceAt(delta, true, ordering, event);
         }
 
     /** Schedules the event to occur at the provided time, 0 ordering.  If the getTime() == the provided
@@ -487,10 +708,7 @@ public class Schedule implements java.io.Serializable
     
     public boolean scheduleOnce(double time, final Steppable event)
         {
-        synchronized(lock)
-            {
-            return _scheduleOnce(new Key(time,0),event);
-            }
+        return scheduleOnceAt(time, false, 0, event);
         }
         
     /** Schedules the event to occur at the provided time, and in the ordering provided.  If the getTime() == the provided
@@ -504,10 +722,7 @@ public class Schedule implements java.io.Serializable
     */
     public boolean scheduleOnce(double time, final int ordering, final Steppable event)
         {
-        synchronized(lock)
-            {
-            return _scheduleOnce(new Key(time,ordering),event);
-            }
+        return scheduleOnceAt(time, false, ordering, event);
         }
     
     /** Schedules an item. 
@@ -517,6 +732,20 @@ public class Schedule implements java.io.Serializable
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     boolean scheduleOnce(Key key, final Steppable event)
         {
+        if (staging)
+            {
+            StagingBuffer buffer = getStagingBuffer();
+            synchronized(buffer)
+                {
+                if (staging)  // time can't change until we release the buffer
+                    {
+                    if (key.time == time && key.time != AFTER_SIMULATION) key.time = Math.nextUp(key.time);
+                    if (!canSchedule(key.time, event)) return false;
+                    buffer.add(event, key.time, key.ordering, generation);
+                    return true;
+                    }
+                }
+            }
         synchronized(lock)
             {
             return _scheduleOnce(key, event);
@@ -531,17 +760,44 @@ public class Schedule implements java.io.Serializable
         throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
     protected boolean _scheduleOnce(Key key, Steppable event)
         {
-        // locals are a teeny bit faster
-        double time = this.time;
-        double t = key.time;
+        // check to see if we're scheduling for the same exact time -- even if of different orderings, that doesn't matter
+        if (key.time == time && key.time != AFTER_SIMULATION)
+            // bump up time to the next possible item, unless we're at infinity already (AFTER_SIMULATION)
+            key.time = Math.nextUp(key.time);  //Double.longBitsToDouble(Double.doubleToRawLongBits(t)+1L);
+
+        if (!canSchedule(key.time, event)) return false;
+
+        // HeapQueue stores the Key itself, so IterativeRepeat and Repeat can keep reusing theirs
+        if (queue instanceof HeapQueue) ((HeapQueue)queue).add(event, key);
+        else queue.add(event, key.time, key.ordering);
+        return true;
+        }
 
+    /** Schedules an item at the given time and ordering without allocating a Key (unless the queue is a HeapQueue,
+        which needs one).  You must synchronize on this.lock before calling this method.  This method at present returns FALSE if the schedule cannot
+        schedule any more events (it's sealed or the time is AFTER_SIMULATION), or if the
+        event is being scheduled for AFTER_SIMULATION.  The method 
+        throws an IllegalArgumentException if the event is being scheduled for an invalid time, or is null. */
+    protected boolean _scheduleOnce(double t, int ordering, Steppable event)
+        {
         // check to see if we're scheduling for the same exact time -- even if of different orderings, that doesn't matter
         if (t == time && t != AFTER_SIMULATION)
             // bump up time to the next possible item, unless we're at infinity already (AFTER_SIMULATION)
-            {
-            key.time = Math.nextUp(key.time);  //Double.longBitsToDouble(Double.doubleToRawLongBits(t)+1L);
-            t = key.time; 
-            }
+            t = Math.nextUp(t);
+
+        if (!canSchedule(t, event)) return false;
+        
+        queue.add(event, t, ordering);
+        return true;
+        }
+
+    // Returns FALSE if the schedule cannot take events at time t (it's sealed or t is AFTER_SIMULATION),
+    // throws an IllegalArgumentException if t or the event is invalid, and otherwise returns TRUE.
+    // You must synchronize on this.lock before calling this method.
+    boolean canSchedule(double t, Steppable event)
+        {
+        // locals are a teeny bit faster
+        double time = this.time;
 
         if (sealed || t >= AFTER_SIMULATION)             // situations where no further events can be added
             {
@@ -559,8 +815,6 @@ public class Schedule implements java.io.Serializable
         else if (event == null)
             throw new IllegalArgumentException("The provided Steppable is null");
         
-        queue.add(event, key);
-        
         return true;
         }
 
@@ -579,13 +833,10 @@ public class Schedule implements java.io.Serializable
         forget (lose the pointer to) the Steppable scheduled here.  This is particularly useful
         if you need to make the Schedule NOT serialize certain Steppable objects. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleRepeating function call
+    // getting the time is atomic with the subsidiary scheduleRepeating function call (see scheduleRepeatingIn)
     public IterativeRepeat scheduleRepeating(final Steppable event)
         {
-        synchronized(lock)
-            {
-            return scheduleRepeating(/*must lock for:*/time +1.0,0,event,1.0);
-            }
+        return scheduleRepeatingIn(1.0,0,event,1.0);
         }
 
     /** Schedules the event to recur at the specified interval starting at getTime() + interval, and at 0 ordering.
@@ -608,13 +859,10 @@ public class Schedule implements java.io.Serializable
         forget (lose the pointer to) the Steppable scheduled here.  This is particularly useful
         if you need to make the Schedule NOT serialize certain Steppable objects. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleRepeating function call
+    // getting the time is atomic with the subsidiary scheduleRepeating function call (see scheduleRepeatingIn)
     public IterativeRepeat scheduleRepeating(final Steppable event, final double interval)
         {
-        synchronized(lock)
-            {
-            return scheduleRepeating(/*must lock for:*/time +interval,0,event,interval);
-            }
+        return scheduleRepeatingIn(interval,0,event,interval);
         }
 
     /** Schedules the event to recur at the specified interval starting at getTime() + interval, and at the provided ordering.
@@ -637,13 +885,10 @@ public class Schedule implements java.io.Serializable
         forget (lose the pointer to) the Steppable scheduled here.  This is particularly useful
         if you need to make the Schedule NOT serialize certain Steppable objects. */
     
-    // synchronized so getting the time can be atomic with the subsidiary scheduleRepeating function call
+    // getting the time is atomic with the subsidiary scheduleRepeating function call (see scheduleRepeatingIn)
     public IterativeRepeat scheduleRepeating(final Steppable event, final int ordering, final double interval)
         {
-        synchronized(lock)
-            {
-            return scheduleRepeating(/*must lock for:*/time +interval,ordering,event,interval);
-            }
+        return scheduleRepeatingIn(interval,ordering,event,interval);
         }
 
     /** Schedules the event to recur at the specified interval starting at the provided time, and at 0 ordering.
@@ -737,10 +982,26 @@ public class Schedule implements java.io.Serializable
         if (interval <= 0) throw new IllegalArgumentException("The steppable " +  event + " was scheduled repeating with an impossible interval ("+interval+")");
         IterativeRepeat r = new IterativeRepeat(event, time, interval, ordering);
 
+        // scheduleOnce(Key, ...) takes care of staging or locking as appropriate
+        if (scheduleOnce(r.getKey(),r)) return r;
+        else return null;
+        }
+
+    // Schedules the event to recur starting at getTime() + delta, while holding a lock which keeps the time from changing
+    IterativeRepeat scheduleRepeatingIn(final double delta, final int ordering, final Steppable event, final double interval)
+        {
+        if (staging)
+            {
+            StagingBuffer buffer = getStagingBuffer();
+            synchronized(buffer)
+                {
+                if (staging)  // time can't change until we release the buffer
+                    return scheduleRepeating(time + delta, ordering, event, interval);
+                }
+            }
         synchronized(lock)
             {
-            if (_scheduleOnce(r.getKey(),r)) return r;
-            else return null;
+            return scheduleRepeating(/*must lock for:*/time + delta, ordering, event, interval);
             }
         }
 
@@ -0,0 +1,60 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+import sim.util.*;
+
+/**
+   ScheduleQueue is the priority queue used by a Schedule to hold its pending events.  Each
+   event is a Steppable keyed by a (time, ordering) pair: events are ordered by time first and
+   by ordering second.  Two implementations are provided: <b>HeapQueue</b>, the traditional binary
+   heap of Schedule.Key objects, and <b>CalendarQueue</b>, a bucketed queue which stores its keys
+   in primitive arrays and never allocates a Key.  You select between them with
+   Schedule.setQueueType(...).
+
+   <p>ScheduleQueues are not synchronized: the Schedule locks on Schedule.lock before calling
+   any of these methods.
+*/
+
+public interface ScheduleQueue extends java.io.Serializable
+    {
+    /** Adds an event to the queue at the given time and ordering.  The Schedule has
+        already verified that the time is valid. */
+    public void add(Steppable event, double time, int ordering);
+
+    /** Returns the number of events in the queue. */
+    public int size();
+
+    /** Returns true if there are no events in the queue. */
+    public boolean isEmpty();
+
+    /** Returns the time of the minimum event.  The result is undefined if the queue is empty. */
+    public double getMinTime();
+
+    /** Returns the ordering of the minimum event.  The result is undefined if the queue is empty. */
+    public int getMinOrdering();
+
+    /** Removes all events whose time and ordering are equal to those of the minimum event,
+        and adds them to the Bag putInHere, in no particular order.  If putInHere is null, a
+        new Bag is created.  The Bag is returned. */
+    public Bag extractMin(Bag putInHere);
+
+    /** Removes all events from the queue. */
+    public void clear();
+
+    /** Returns all the events in the queue, in no particular order.  The ith event corresponds to
+        the ith element of getTimes() and of getOrderings() provided the queue has not been
+        modified in-between.  The returned array is not used internally -- you are free to modify it. */
+    public Steppable[] getSteppables();
+
+    /** Returns the times of all events in the queue, in the same order as getSteppables().
+        The returned array is not used internally -- you are free to modify it. */
+    public double[] getTimes();
+
+    /** Returns the orderings of all events in the queue, in the same order as getSteppables().
+        The returned array is not used internally -- you are free to modify it. */
+    public int[] getOrderings();
+    }
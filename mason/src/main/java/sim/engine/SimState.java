@@ -7,7 +7,6 @@ package sim.engine;
 import ec.util.*;
 import java.util.*;
 import java.io.*;
-import java.util.zip.*;
 import java.text.*;
 import java.lang.reflect.*;
 
@@ -41,6 +40,10 @@ public class SimState implements java.io.Serializable
     Object asynchronousLock = new boolean[1];  // an array is a unique, serializable object
     // Are we cleaning house and replacing the HashSet?
     boolean cleaningAsynchronous = false;
+    // How we write checkpoints; null means a JavaCheckpointCodec
+    CheckpointCodec checkpointCodec = null;
+    // The thread writing a checkpoint in the background, if any
+    transient Thread checkpointWriter = null;
         
     SimState(long seed, MersenneTwisterFast random, Schedule schedule)
         {
@@ -103,6 +106,63 @@ public class SimState implements java.io.Serializable
         return generator;
         }
 
+    // the generator used by each thread stepping a partition which has its own random stream,
+    // created lazily.  See threadRandom() and setThreadRandom(...)
+    transient volatile ThreadLocal threadRandom;
+
+    /** Returns the random number generator which the current thread should use.  Ordinarily this is
+        simply <tt>random</tt>.  But if the current thread is stepping a partition of a ParallelSequence
+        (or some other parallel construct) which has given that partition its own random stream
+        via setThreadRandom(...), then that stream is returned instead.  Agents which may be stepped
+        in parallel can call this method rather than lock on <tt>random</tt>: each partition's stream
+        belongs to exactly one thread at a time, so no synchronization is needed. */
+    public MersenneTwisterFast threadRandom()
+        {
+        ThreadLocal local = threadRandom;
+        if (local != null)
+            {
+            MersenneTwisterFast r = (MersenneTwisterFast)(local.get());
+            if (r != null) return r;
+            }
+        return random;
+        }
+
+    /** Sets the random number generator returned by threadRandom() in the current thread,
+        returning the previous one (or null if there was none).  Pass in null to restore the
+        default, <tt>random</tt>.  Parallel constructs call this before stepping a partition and
+        restore the previous generator afterwards. */
+    public MersenneTwisterFast setThreadRandom(MersenneTwisterFast generator)
+        {
+        ThreadLocal local = threadRandom;
+        if (local == null)
+            {
+            synchronized(asynchronousLock)
+                {
+                if (threadRandom == null) threadRandom = new ThreadLocal();
+                local = threadRandom;
+                }
+            }
+        MersenneTwisterFast old = (MersenneTwisterFast)(local.get());
+        local.set(generator);
+        return old;
+        }
+
+    /** Creates n new random number generators suitable for use as independent per-partition streams.
+        Each generator is seeded with an array of four ints drawn from threadRandom(), then primed.
+        Since that generator is itself derived from the simulation's seed, the streams are reproducible:
+        a run with the same seed which creates its streams at the same point will get the same streams.
+        The current thread must be permitted to use threadRandom() without locking (for example,
+        the main thread in between or during steps of the schedule). */
+    public MersenneTwisterFast[] createRandomStreams(int n)
+        {
+        MersenneTwisterFast source = threadRandom();
+        MersenneTwisterFast[] streams = new MersenneTwisterFast[n];
+        for(int i = 0; i < n; i++)
+            streams[i] = primeGenerator(new MersenneTwisterFast(new int[] 
+                    { source.nextInt(), source.nextInt(), source.nextInt(), source.nextInt() }));
+        return streams;
+        }
+
     /** Called immediately prior to starting the simulation, or in-between
         simulation runs.  This gives you a chance to set up initially,
         or reset from the last simulation run. The default version simply
@@ -241,26 +301,103 @@ public class SimState implements java.io.Serializable
         for(int x=0;x<len;x++) b[x].resume(true);
         }
 
+    /** Returns the CheckpointCodec used to write checkpoints.  By default this is a JavaCheckpointCodec. */
+    public CheckpointCodec getCheckpointCodec()
+        {
+        if (checkpointCodec == null) checkpointCodec = new JavaCheckpointCodec();
+        return checkpointCodec;
+        }
+
+    /** Sets the CheckpointCodec used to write checkpoints.  Passing in null restores the default, a JavaCheckpointCodec.
+        Checkpoints are read using whichever codec wrote them, regardless of this setting. */
+    public void setCheckpointCodec(CheckpointCodec codec)
+        {
+        checkpointCodec = codec;
+        }
+
     /** Serializes out the SimState, and the entire simulation state (not including the graphical interfaces)
-        to the provided stream. Calls preCheckpoint() before and postCheckpoint() afterwards.
+        to the provided stream, using the SimState's CheckpointCodec. Calls preCheckpoint() before and postCheckpoint() afterwards.
         Throws an IOException if the stream becomes invalid (prematurely closes, etc.).  Does not close or flush
         the stream. */
     public void writeToCheckpoint(OutputStream stream) throws IOException
         {
         preCheckpoint();
+        try
+            {
+            getCheckpointCodec().write(this, stream);
+            }
+        finally
+            {
+            postCheckpoint();
+            }
+        }
+
+    /** Writes the state to a checkpoint file in a background thread and returns the thread, which has already been started, 
+        or returns null if the checkpoint could not be begun (the error is printed).  The SimState is captured with 
+        CheckpointCodec.snapshot(...) between calls to preCheckpoint() and postCheckpoint(), in the calling thread, and 
+        is then written out by the background thread: so you may go on stepping the simulation immediately.  If a previous 
+        background checkpoint is still being written, this method first waits for it to finish.  Errors while writing 
+        are printed.  The file is written under a temporary name and renamed when complete, so it never holds a partial checkpoint. */
+    public Thread writeToCheckpointInBackground(final File file)
+        {
+        waitForCheckpoint();
+        final CheckpointCodec.Snapshot snapshot;
+        preCheckpoint();
+        try
+            {
+            snapshot = getCheckpointCodec().snapshot(this);
+            }
+        catch (Exception e)
+            {
+            e.printStackTrace();
+            return null;
+            }
+        finally
+            {
+            postCheckpoint();
+            }
 
-        GZIPOutputStream g = 
-            new GZIPOutputStream(
-                new BufferedOutputStream(stream));
+        Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                File temp = new File(file.getPath() + ".tmp");
+                FileOutputStream f = null;
+                try
+                    {
+                    f = new FileOutputStream(temp);
+                    snapshot.write(f);
+                    f.close();
+                    f = null;
+                    java.nio.file.Files.move(temp.toPath(), file.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                    }
+                catch (Exception e)
+                    {
+                    try { if (f != null) f.close(); } catch (Exception e2) { }
+                    temp.delete();
+                    e.printStackTrace();
+                    }
+                }
+            });
+        thread.setName("Checkpoint writer for " + file);
+        thread.start();
+        checkpointWriter = thread;
+        return thread;
+        }
 
-        ObjectOutputStream s = 
-            new ObjectOutputStream(g);
-            
-        s.writeObject(this);
-        s.flush();
-        g.finish();  // need to force out the gzip stream AND manually flush it.  Java's annoying.  Took a while to find this bug...
-        g.flush();
-        postCheckpoint();
+    /** Waits until the last checkpoint begun by writeToCheckpointInBackground(...), if any, has been written. */
+    public void waitForCheckpoint()
+        {
+        Thread thread = checkpointWriter;
+        if (thread == null) return;
+        boolean interrupted = false;
+        while(true)
+            {
+            try { thread.join(); break; }
+            catch (InterruptedException e) { interrupted = true; }
+            }
+        if (interrupted) Thread.currentThread().interrupt();
+        checkpointWriter = null;
         }
     
     /** Writes the state to a checkpoint and returns the state.
@@ -287,26 +424,36 @@ public class SimState implements java.io.Serializable
         {
         try {
             FileInputStream f = new FileInputStream(file);
-            SimState state = readFromCheckpoint(f);
+            SimState state = readFromCheckpoint(f, file.getAbsoluteFile().getParentFile());
             f.close();
             return state;
             }
         catch(Exception e) { e.printStackTrace(); return null; }
         }
 
-    /** Creates and returns a new SimState object read in from the provided stream.  Calls awakeFromCheckpoint().
+    /** Creates and returns a new SimState object read in from the provided stream, which may have been written by
+        either a JavaCheckpointCodec or a BinaryCheckpointCodec.  Calls awakeFromCheckpoint().
         Throws an IOException if the stream becomes invalid (prematurely closes etc.).  Throws a ClassNotFoundException
         if a serialized object is not found in the CLASSPATH and thus cannot be created.  Throws an OptionalDataException
         if the stream is corrupted.  Throws a ClassCastException if the top-level object is not actually a SimState.
-        Does not close or flush the stream. */
+        Does not close or flush the stream.  If the stream holds a delta checkpoint, its base checkpoint is looked
+        for relative to the current directory. */
     public static SimState readFromCheckpoint(InputStream stream)
         throws IOException, ClassNotFoundException, OptionalDataException, ClassCastException
         {
-        ObjectInputStream s = 
-            new ObjectInputStream(
-                new GZIPInputStream (
-                    new BufferedInputStream(stream)));
-        SimState state = (SimState) (s.readObject());
+        return readFromCheckpoint(stream, null);
+        }
+
+    // Reads from the stream, looking for the base of a delta checkpoint in the given directory
+    static SimState readFromCheckpoint(InputStream stream, File directory)
+        throws IOException, ClassNotFoundException, OptionalDataException, ClassCastException
+        {
+        if (!(stream instanceof FileInputStream) && !stream.markSupported())
+            stream = new BufferedInputStream(stream);
+        SimState state;
+        if (BinaryCheckpointCodec.isBinaryCheckpoint(stream))
+            state = new BinaryCheckpointCodec().read(stream, directory);
+        else state = new JavaCheckpointCodec().read(stream);
         state.awakeFromCheckpoint();
         return state;
         }
@@ -390,7 +537,10 @@ public class SimState implements java.io.Serializable
                 "Format:           java " + generator.simulationClass().getName() + " \\\n" +
                 "                       [-help] [-repeat R] [-parallel P] [-seed S] \\\n" +
                 "                       [-until U] [-for F] [-time T] [-docheckpoint D] \\\n" +
-                "                       [-checkpointname N] [-checkpoint C] [-quiet] \n\n" +
+                "                       [-checkpointname N] [-checkpoint C] \\\n" +
+                "                       [-checkpointformat F] [-checkpointbackground] \\\n" +
+                "                       [-checkpointdelta K] [-queue Q] \\\n" +
+                "                       [-quiet] \n\n" +
                 "-help             Shows this message and exits.\n\n" +
                 "-repeat R         Long value > 0: Runs R jobs.  Unless overridden by a\n" +
                 "                  checkpoint recovery (see -checkpoint), the random seed for\n" +
@@ -426,6 +576,26 @@ public class SimState implements java.io.Serializable
                 "                  Default: never.\n" +
                 "                  Checkpoint files named       <steps>.<job#>.NAME.checkpoint\n" +
                 "                  where NAME is specified in -checkpointname\n\n" +
+                "-checkpointformat F String: the format of checkpoints written by -docheckpoint:\n" +
+                "                  'java' (gzipped Java serialization), 'binary' (primitive\n" +
+                "                  arrays written raw, the rest compressed quickly), 'binary-raw'\n" +
+                "                  (nothing compressed), or 'binary-small' (the non-array data\n" +
+                "                  compressed more tightly).  All are read by -checkpoint.\n" +
+                "                  Default: whatever the model sets up, normally 'java'.\n\n" +
+                "-checkpointbackground\n" +
+                "                  Captures each checkpoint written by -docheckpoint and\n" +
+                "                  then writes it out in a background thread while the\n" +
+                "                  simulation continues.  This needs extra memory for a copy\n" +
+                "                  of the simulation's data.\n" +
+                "                  Default: checkpoints are written before continuing.\n\n" +
+                "-checkpointdelta K Int value > 0: every Kth checkpoint written by\n" +
+                "                  -docheckpoint (starting with the first) is a full binary\n" +
+                "                  checkpoint, and the others are small delta checkpoints which\n" +
+                "                  hold only what has changed since the last full one.  A delta\n" +
+                "                  is loaded by -checkpoint like any other checkpoint, but the\n" +
+                "                  full checkpoint it refers to must still be in its directory.\n" +
+                "                  May not be combined with -checkpointbackground.\n" +
+                "                  Default: every checkpoint is full.\n\n" +
                 "-checkpointname N String: id for the checkpoint filename (see -docheckpoint)\n" +
                 "                  Default: " + 
                 generator.simulationClass().getName().substring(generator.simulationClass().getName().lastIndexOf(".") + 1) + 
@@ -441,6 +611,10 @@ public class SimState implements java.io.Serializable
                 "                  from the recovered job and seed.\n" +
                 "                  Default: starts a new simulation rather than loading one, at\n" +
                 "                  job 0 and with the seed given in -seed.\n\n" + 
+                "-queue Q          String: the kind of queue the Schedule uses, either 'heap'\n" +
+                "                  or 'calendar'.  A calendar queue is usually faster for\n" +
+                "                  models which schedule many agents at a few distinct times.\n" +
+                "                  Default: whatever the model sets up, normally 'heap'.\n\n" +
                 "-quiet            Does not print messages except for errors and warnings.\n" + 
                 "                  This option implies -time 0.\n" +
                 "                  Default: prints all messages.\n"
@@ -526,6 +700,38 @@ public class SimState implements java.io.Serializable
                 throw new RuntimeException("Invalid checkpoint modulo: " + cmod_s + ", must be a positive integer");
                 }
         final long cmod = _cmod;
+
+        CheckpointCodec _codec = null;
+        String codec_s = argumentForKey("-checkpointformat", args);
+        if (codec_s != null)
+            {
+            if (codec_s.equalsIgnoreCase("java")) _codec = new JavaCheckpointCodec();
+            else if (codec_s.equalsIgnoreCase("binary")) _codec = new BinaryCheckpointCodec(BinaryCheckpointCodec.COMPRESSION_FAST);
+            else if (codec_s.equalsIgnoreCase("binary-raw")) _codec = new BinaryCheckpointCodec(BinaryCheckpointCodec.COMPRESSION_NONE);
+            else if (codec_s.equalsIgnoreCase("binary-small")) _codec = new BinaryCheckpointCodec(BinaryCheckpointCodec.COMPRESSION_DEFAULT);
+            else throw new RuntimeException("Invalid checkpoint format: " + codec_s + ", must be 'java', 'binary', 'binary-raw', or 'binary-small'");
+            }
+        final CheckpointCodec codec = _codec;
+        final boolean checkpointInBackground = keyExists("-checkpointbackground", args);
+
+        int _cdelta = 0;
+        String cdelta_s = argumentForKey("-checkpointdelta", args);
+        if (cdelta_s != null)
+            try
+                {
+                _cdelta = Integer.parseInt(cdelta_s);
+                if (_cdelta <= 0) throw new Exception();
+                }
+            catch (Exception e)
+                {
+                throw new RuntimeException("Invalid checkpoint delta: " + cdelta_s + ", must be a positive integer");
+                }
+        final int cdelta = _cdelta;
+        if (cdelta > 0 && checkpointInBackground)
+            {
+            System.err.println("Cannot write delta checkpoints in the background.  Sorry.");
+            System.exit(1);
+            }
         
         long _repeat = 1;
         String repeat_s = argumentForKey("-repeat", args);
@@ -554,6 +760,16 @@ public class SimState implements java.io.Serializable
                 throw new RuntimeException("Invalid parallel value: " + parallel_s + ", must be a positive integer");
                 }
         final int parallel = _parallel;
+
+        int _queue = -1;
+        String queue_s = argumentForKey("-queue", args);
+        if (queue_s != null)
+            {
+            if (queue_s.equalsIgnoreCase("heap")) _queue = Schedule.QUEUE_HEAP;
+            else if (queue_s.equalsIgnoreCase("calendar")) _queue = Schedule.QUEUE_CALENDAR;
+            else throw new RuntimeException("Invalid queue value: " + queue_s + ", must be 'heap' or 'calendar'");
+            }
+        final int queueType = _queue;
                 
         // check for parallelism with checkpoints
         final String checkpointFile = argumentForKey("-checkpoint", args);
@@ -616,8 +832,14 @@ public class SimState implements java.io.Serializable
                             state.job = job;
                             state.seed = seed;
                             if (!quiet) printlnSynchronized("Job: " + state.job() + " Seed: " + state.seed());
+                            if (queueType != -1) state.schedule.setQueueType(queueType);
                             state.start();
                             }
+                        if (codec != null) state.setCheckpointCodec(codec);
+                        IncrementalCheckpointer checkpointer = null;
+                        if (cdelta > 0)
+                            checkpointer = new IncrementalCheckpointer(state.getCheckpointCodec() instanceof BinaryCheckpointCodec ?
+                                (BinaryCheckpointCodec)(state.getCheckpointCodec()) : new BinaryCheckpointCodec(), cdelta);
                         
                         NumberFormat rateFormat = NumberFormat.getInstance();
                         rateFormat.setMaximumFractionDigits(5);
@@ -662,10 +884,17 @@ public class SimState implements java.io.Serializable
                                     id = state.getClass().getName().substring(state.getClass().getName().lastIndexOf(".") + 1);
                                 String s = "" + steps + "." + state.job() +  "." + id  + ".checkpoint";
                                 if (!quiet) printlnSynchronized("Job " + job + ": " + "Checkpointing to file: " + s);
-                                state.writeToCheckpoint(new File(s));
+                                if (checkpointInBackground) state.writeToCheckpointInBackground(new File(s));
+                                else if (checkpointer != null)
+                                    {
+                                    try { checkpointer.write(state, new File(s)); }
+                                    catch (IOException e) { e.printStackTrace(); }
+                                    }
+                                else state.writeToCheckpoint(new File(s));
                                 }
                             }
                                 
+                        state.waitForCheckpoint();
                         state.finish();
                         
                         if (retval) 
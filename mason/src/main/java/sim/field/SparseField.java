@@ -57,6 +57,18 @@ import java.util.*;
     iterator and iterate through it.  Removing all objects at a given location is O(O), where O
     is the number of objects at that location.  Clearing the hash table is O(1) discounting GC.
 
+    <p><b>Moving Everything at Once.</b>  If most of your objects move every step, the cost of
+    removing each one from its old location's Bag and adding it to its new one adds up.  Instead you can
+    call <tt>beginMoves()</tt> before the objects move and <tt>commitMoves()</tt> afterwards.  In-between,
+    setObjectLocation() and remove() only update the object's own location and do not touch the
+    per-location Bags.  commitMoves() then rebuilds all of the Bags in a single pass, sorting the objects
+    by location with a counting sort when the subclass can number its locations (see
+    <tt>getLocationIndex(...)</tt>), and optionally using several threads.  This makes moving all N objects
+    O(N) overall.  Between beginMoves() and commitMoves(), getObjectLocation() and friends are accurate, but
+    methods which look up objects <i>by location</i> (getObjectsAtLocation(), numObjectsAtLocation(),
+    the neighborhood lookups in subclasses, and so on) still see the locations as they were when
+    beginMoves() was called, and removeObjectsAtLocation() may not be called at all.
+
     <p><b>Example Usage.</b>  
     Here is an example of a simple subclass which allows locations to be positive, non-zero integers:
     
@@ -108,6 +120,15 @@ public abstract class SparseField implements java.io.Serializable
     /** A bag to be replaced will be shrunk to this ratio if <tt>replaceLargeBags</tt> is true*/
     public static final int REPLACEMENT_BAG_RATIO = 2;
 
+    /** Counting sort is used in commitMoves() if the number of location indices is no more than this many times the number of objects */
+    public static final int COUNTING_SORT_RATIO = 4;
+
+    /** commitMoves(threads) uses no more threads than one per this many objects */
+    public static final int MIN_OBJECTS_PER_THREAD = 4096;
+
+    // true between beginMoves() and commitMoves()
+    boolean batchingMoves = false;
+
     /** LocationAndIndex objects (locations and indexes into the allObjects array) hashed by Object.  Ideally you would
         store only immutable or hash-by-pointer objects, el se they'll get lost in the HashMap. */
     public Map locationAndIndexHash = buildMap(ANY_SIZE);
@@ -240,6 +261,8 @@ public abstract class SparseField implements java.io.Serializable
         The Bag may be empty, or null, if there were no objects at that location.  You can freely modify this bag. */
     public Bag removeObjectsAtLocation(final Object location)
         {
+        if (batchingMoves)
+            throw new IllegalStateException("removeObjectsAtLocation(...) may not be called between beginMoves() and commitMoves()");
         Bag objs = (Bag)objectHash.remove(location);
         if (objs!=null)
             for(int j=0;j<objs.numObjs;j++)
@@ -274,6 +297,15 @@ public abstract class SparseField implements java.io.Serializable
         LocationAndIndex lai = (LocationAndIndex)(locationAndIndexHash.remove(obj));
         if (lai!=null)
             {
+            if (batchingMoves)
+                {
+                // the Bags will be rebuilt by commitMoves(), so just remove from allObjects
+                allObjects.remove(lai.index);
+                if (allObjects.numObjs > lai.index)    // update the index of the guy who just got moved
+                    ((LocationAndIndex)(locationAndIndexHash.get(allObjects.objs[lai.index]))).index = lai.index;
+                return lai.location;
+                }
+
             // remove from objectHash
             Bag objs = (Bag)(objectHash.get(lai.location));
             objs.remove(obj);
@@ -317,6 +349,12 @@ public abstract class SparseField implements java.io.Serializable
             // first check to see if we need to bother putting it back in
             if (lai.location.equals(location)) return true;  // it's already there!
             
+            if (batchingMoves)  // commitMoves() will fix up the Bags
+                {
+                lai.location = location;
+                return true;
+                }
+
             // remove from old objectHash
             Bag objs = lai.otherObjectsAtLocation;
             objs.remove(obj);                                                   // O(N) SCAN
@@ -345,6 +383,7 @@ public abstract class SparseField implements java.io.Serializable
             
             // put object into locationAndIndexHash, with bag index and location
             locationAndIndexHash.put(obj, lai = new LocationAndIndex(location, allObjects.numObjs - 1));    // HASH
+            if (batchingMoves) return true;  // commitMoves() will put it in a Bag
             }
 
         // put into objectHash
@@ -364,6 +403,187 @@ public abstract class SparseField implements java.io.Serializable
         return true; // yay, done
         }
         
+    /** Begins a batch of moves.  Until commitMoves() is called, setObjectLocation() and remove() will not
+        update the Bags of objects at each location.  See the class documentation.  Calling beginMoves() when
+        a batch has already begun does nothing. */
+    public void beginMoves()
+        {
+        batchingMoves = true;
+        }
+
+    /** Returns true if beginMoves() has been called and commitMoves() has not yet been called. */
+    public boolean isBatchingMoves()
+        {
+        return batchingMoves;
+        }
+
+    /** Ends a batch of moves, rebuilding the Bags of objects at each location in a single thread. */
+    public void commitMoves()
+        {
+        commitMoves(1);
+        }
+
+    /** Ends a batch of moves, rebuilding the Bags of objects at each location using up to the given number of threads.
+        Calling commitMoves() when no batch has begun does nothing.  The objects in each Bag are in the same order as in
+        allObjects. */
+    public void commitMoves(int threads)
+        {
+        if (!batchingMoves) return;
+        batchingMoves = false;
+
+        final int n = allObjects.numObjs;
+        final Object[] objects = allObjects.objs;
+        if (threads > n / MIN_OBJECTS_PER_THREAD) threads = Math.max(1, n / MIN_OBJECTS_PER_THREAD);
+
+        // gather the LocationAndIndex of each object by iterating rather than hashing
+        final LocationAndIndex[] lais = new LocationAndIndex[n];
+        for(Iterator i = locationAndIndexHash.values().iterator(); i.hasNext(); )
+            {
+            LocationAndIndex lai = (LocationAndIndex)(i.next());
+            lais[lai.index] = lai;
+            }
+
+        // number the locations
+        final int range = numLocationIndices();
+        final int[] keys = new int[n];
+        runChunks(n, threads, new Chunk()
+            {
+            public void run(int from, int to)
+                {
+                for(int i = from; i < to; i++)
+                    keys[i] = (range > 0 ? getLocationIndex(lais[i].location) : -1);
+                }
+            });
+
+        // sort the numbered objects by location index, stably, into order[0...numIndexed]
+        int numIndexed = 0;
+        for(int i = 0; i < n; i++)
+            if (keys[i] >= 0) numIndexed++;
+        final int[] order = new int[numIndexed];
+        if (numIndexed > 0 && range <= (long)COUNTING_SORT_RATIO * n)
+            {
+            int[] starts = new int[range + 1];
+            for(int i = 0; i < n; i++)
+                if (keys[i] >= 0) starts[keys[i] + 1]++;
+            for(int i = 1; i <= range; i++)
+                starts[i] += starts[i - 1];
+            for(int i = 0; i < n; i++)
+                if (keys[i] >= 0) order[starts[keys[i]]++] = i;
+            }
+        else if (numIndexed > 0)
+            {
+            long[] packed = new long[numIndexed];
+            for(int i = 0, j = 0; i < n; i++)
+                if (keys[i] >= 0) packed[j++] = (((long)keys[i]) << 32) | i;
+            if (threads > 1) Arrays.parallelSort(packed);
+            else Arrays.sort(packed);
+            for(int j = 0; j < numIndexed; j++)
+                order[j] = (int)packed[j];
+            }
+
+        // find the runs of objects at the same location
+        int numGroups = 0;
+        for(int j = 0; j < numIndexed; j++)
+            if (j == 0 || keys[order[j]] != keys[order[j - 1]]) numGroups++;
+        final int[] groupStarts = new int[numGroups + 1];
+        for(int j = 0, g = 0; j < numIndexed; j++)
+            if (j == 0 || keys[order[j]] != keys[order[j - 1]]) groupStarts[g++] = j;
+        groupStarts[numGroups] = numIndexed;
+
+        // build a Bag for each run
+        final Bag[] bags = new Bag[numGroups];
+        runChunks(numGroups, threads, new Chunk()
+            {
+            public void run(int from, int to)
+                {
+                for(int g = from; g < to; g++)
+                    {
+                    int start = groupStarts[g];
+                    int size = groupStarts[g + 1] - start;
+                    Bag bag = new Bag(Math.max(size, INITIAL_BAG_SIZE));
+                    for(int j = 0; j < size; j++)
+                        {
+                        int i = order[start + j];
+                        bag.objs[j] = objects[i];
+                        lais[i].otherObjectsAtLocation = bag;
+                        }
+                    bag.numObjs = size;
+                    bags[g] = bag;
+                    }
+                }
+            });
+
+        Map newObjectHash = buildMap(numGroups + (n - numIndexed));
+        for(int g = 0; g < numGroups; g++)
+            newObjectHash.put(lais[order[groupStarts[g]]].location, bags[g]);
+
+        // objects at locations without indices are grouped by hashing
+        if (numIndexed < n)
+            for(int i = 0; i < n; i++)
+                if (keys[i] < 0)
+                    {
+                    Object location = lais[i].location;
+                    Bag bag = (Bag)(newObjectHash.get(location));
+                    if (bag == null)
+                        newObjectHash.put(location, bag = new Bag(INITIAL_BAG_SIZE));
+                    bag.add(objects[i]);
+                    lais[i].otherObjectsAtLocation = bag;
+                    }
+
+        objectHash = newObjectHash;
+        }
+
+    /** Returns the number of location indices which getLocationIndex(...) may return, or 0 if
+        getLocationIndex(...) always returns -1.  Used by commitMoves().  By default returns 0:
+        override this along with getLocationIndex(...) if your locations can be numbered. */
+    protected int numLocationIndices() { return 0; }
+
+    /** Returns a unique index between 0 and numLocationIndices() - 1 for the given location, such that two
+        locations have the same index if and only if they are equal, or returns -1 if the location
+        has no index.  Used by commitMoves() to sort objects by location without hashing.  By default returns -1. */
+    protected int getLocationIndex(Object location) { return -1; }
+
+    // a range of work for runChunks
+    interface Chunk { public void run(int from, int to); }
+
+    // Splits 0 ... n-1 into the given number of chunks and runs each in its own thread, the last in this one
+    static void runChunks(final int n, int threads, final Chunk chunk)
+        {
+        if (threads <= 1 || n < threads)
+            {
+            chunk.run(0, n);
+            return;
+            }
+        Thread[] workers = new Thread[threads - 1];
+        final Throwable[] failure = new Throwable[1];
+        for(int t = 0; t < threads - 1; t++)
+            {
+            final int from = (int)(((long)n * t) / threads);
+            final int to = (int)(((long)n * (t + 1)) / threads);
+            workers[t] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    try { chunk.run(from, to); }
+                    catch (Throwable e) { synchronized(failure) { failure[0] = e; } }
+                    }
+                });
+            workers[t].setDaemon(true);
+            workers[t].start();
+            }
+        chunk.run((int)(((long)n * (threads - 1)) / threads), n);
+        for(int t = 0; t < threads - 1; t++)
+            {
+            try { workers[t].join(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+        synchronized(failure)
+            {
+            if (failure[0] instanceof RuntimeException) throw (RuntimeException)failure[0];
+            if (failure[0] instanceof Error) throw (Error)failure[0];
+            }
+        }
+
     /** Returns all the objects in the Sparse Field.  Do NOT modify the bag that you receive from this method -- it
         is used internally.  If you wish to modify the Bag you receive, make a copy of the Bag first, 
         using something like <b>new Bag(<i>foo</i>.getAllObjects())</b>. */
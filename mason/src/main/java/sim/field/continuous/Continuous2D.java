@@ -146,6 +146,23 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
         if (result) doubleLocationHash.put(obj,location);
         return result;
         }
+
+    /** Returns the number of discretized cells within the bounds of the field, or 0 if that's too large to be an int. */
+    protected int numLocationIndices()
+        {
+        double n = Math.ceil(width / discretization) * Math.ceil(height / discretization);
+        return (n > Integer.MAX_VALUE || !(n > 0) ? 0 : (int)n);
+        }
+
+    /** Numbers the discretized cells within the bounds of the field, returning -1 for cells outside them. */
+    protected int getLocationIndex(Object location)
+        {
+        Int2D cell = (Int2D)location;
+        int cellsX = (int)Math.ceil(width / discretization);
+        int cellsY = (int)Math.ceil(height / discretization);
+        if (cell.x < 0 || cell.x >= cellsX || cell.y < 0 || cell.y >= cellsY) return -1;
+        return cell.x * cellsY + cell.y;
+        }
     
     public void reshape(double width, double height)
         {
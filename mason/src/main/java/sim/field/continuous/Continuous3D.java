@@ -132,6 +132,24 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
         if (result) doubleLocationHash.put(obj,location);
         return result;
         }
+
+    /** Returns the number of discretized cells within the bounds of the field, or 0 if that's too large to be an int. */
+    protected int numLocationIndices()
+        {
+        double n = Math.ceil(width / discretization) * Math.ceil(height / discretization) * Math.ceil(length / discretization);
+        return (n > Integer.MAX_VALUE || !(n > 0) ? 0 : (int)n);
+        }
+
+    /** Numbers the discretized cells within the bounds of the field, returning -1 for cells outside them. */
+    protected int getLocationIndex(Object location)
+        {
+        Int3D cell = (Int3D)location;
+        int cellsX = (int)Math.ceil(width / discretization);
+        int cellsY = (int)Math.ceil(height / discretization);
+        int cellsZ = (int)Math.ceil(length / discretization);
+        if (cell.x < 0 || cell.x >= cellsX || cell.y < 0 || cell.y >= cellsY || cell.z < 0 || cell.z >= cellsZ) return -1;
+        return (cell.x * cellsY + cell.y) * cellsZ + cell.z;
+        }
         
     public final Bag clear()
         {
@@ -0,0 +1,733 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.continuous;
+import sim.field.*;
+import sim.util.*;
+
+/**
+   An alternative to Continuous2D for fields holding very large numbers of moving objects.  Like Continuous2D,
+   DenseContinuous2D relates objects with 2D double locations, discretizes space into buckets of size
+   <i>discretization</i> to speed up neighborhood lookups, and offers the same neighborhood queries
+   (getNeighborsWithinDistance(...) and getNeighborsExactlyWithinDistance(...)) and toroidal utility functions.
+   But rather than hash tables keyed by Double2D and Int2D, it stores its data in primitive arrays:
+
+   <ul>
+   <li>Each object is given an int <b>ID</b> when it is first added, which it keeps until it is removed.  IDs
+   of removed objects are reused.  The x and y coordinates of object <i>id</i> are stored in double arrays
+   at position <i>id</i>.
+   <li>The buckets are a dense array of ceil(width / discretization) x ceil(height / discretization) cells.
+   Each cell holds the IDs of its objects in an int array.  Moving an object to another cell swaps its ID out
+   of the old cell's array and appends it to the new one.
+   </ul>
+
+   <p>Thus moving an object with setLocation(id, x, y) allocates nothing and does no hashing, and neither does
+   visiting its neighbors with forEachNeighborWithinDistance(...), which calls a NeighborVisitor on each
+   neighbor in turn rather than filling a Bag.  The object-based methods (setObjectLocation(obj, ...),
+   getObjectLocation(obj), and so on) are also provided: they do a single lookup in an open-addressing
+   table from objects to IDs, which does not box.  Like Continuous2D's hash tables, this table compares
+   objects with equals() and hashCode().
+
+   <p>Because the cells are a dense array, the field must be bounded.  Locations outside the bounds are
+   permitted and still returned correctly by the queries, but they are all stored in the cells along the
+   border, so a field whose objects are mostly out of bounds will be slow.  In toroidal queries, stored
+   locations should lie within the bounds (see tx(...) and ty(...)).  Choose the discretization as you
+   would for Continuous2D, keeping in mind that memory is used for every cell, empty or not.
+
+   <p>DenseContinuous2D is not a SparseField, and so cannot be drawn by ContinuousPortrayal2D.
+   It is not synchronized: as with other fields, you may query it from many threads at once, but not
+   while it is being modified.
+*/
+
+public class DenseContinuous2D implements SparseField2D, java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** Called by forEachNeighborWithinDistance(...) for each neighbor found. */
+    public interface NeighborVisitor
+        {
+        /** Visits the neighbor with the given object and ID.  dx and dy are the neighbor's location minus the
+            query position (the minimum toroidal difference if the query is toroidal), and distanceSq is
+            dx * dx + dy * dy.  Return false to stop the search early, else true. */
+        public boolean visit(Object object, int id, double dx, double dy, double distanceSq);
+        }
+
+    public double width;
+    public double height;
+    /** Do not change this: it determines the cells. */
+    public double discretization;
+
+    // cells
+    int cellsX;
+    int cellsY;
+    int[][] cellIDs;                    // the IDs in each cell, or null if the cell has never been used
+    int[] cellCounts;                   // the number of IDs in each cell
+
+    // per-ID data
+    Object[] objects = new Object[0];
+    double[] xs = new double[0];
+    double[] ys = new double[0];
+    int[] cellOf = new int[0];          // the cell holding each ID
+    int[] slotOf = new int[0];          // where in its cell's array each ID is
+    int[] freeIDs = new int[0];         // IDs of removed objects, available for reuse
+    int numFree = 0;
+    int nextID = 0;                     // the first ID which has never been used
+    int numObjects = 0;
+
+    // the object -> ID table
+    IDTable table = new IDTable();
+
+    /** Provide expected bounds on the DenseContinuous2D */
+    public DenseContinuous2D(double discretization, double width, double height)
+        {
+        if (discretization <= 0)
+            throw new IllegalArgumentException("Discretization must be positive: " + discretization);
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Width and height must be positive: " + width + ", " + height);
+        this.discretization = discretization;
+        this.width = width;
+        this.height = height;
+        long cx = (long)Math.ceil(width / discretization);
+        long cy = (long)Math.ceil(height / discretization);
+        if (cx * cy > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many cells: " + cx + " x " + cy + ".  Use a larger discretization.");
+        cellsX = (int)cx;
+        cellsY = (int)cy;
+        cellIDs = new int[cellsX * cellsY][];
+        cellCounts = new int[cellsX * cellsY];
+        }
+
+    /** Get the width */
+    public double getWidth() { return width; }
+
+    /** Get the height */
+    public double getHeight() { return height; }
+
+    public final Double2D getDimensions() { return new Double2D(width, height); }
+
+    /** Returns the number of objects in the field. */
+    public int size() { return numObjects; }
+
+    /** Returns true if the object is in the field. */
+    public boolean exists(Object obj) { return table.get(obj) >= 0; }
+
+
+
+    //// ID-BASED METHODS
+
+    /** Returns the ID of the given object, or -1 if it is not in the field. */
+    public int getID(Object obj) { return table.get(obj); }
+
+    /** Returns the object with the given ID, or null if there is none. */
+    public Object getObject(int id) { return (id >= 0 && id < nextID) ? objects[id] : null; }
+
+    /** Returns the x coordinate of the object with the given ID. */
+    public double getX(int id) { return xs[id]; }
+
+    /** Returns the y coordinate of the object with the given ID. */
+    public double getY(int id) { return ys[id]; }
+
+    /** Returns one more than the largest ID in use, so that all IDs in use lie between 0 inclusive and
+        this number exclusive.  Some IDs in that range may be unused, in which case getObject(id) returns null. */
+    public int getIDLimit() { return nextID; }
+
+    /** Moves the object with the given ID.  This allocates nothing. */
+    public void setLocation(int id, double x, double y)
+        {
+        if (id < 0 || id >= nextID || objects[id] == null)
+            throw new IllegalArgumentException("No object with ID " + id);
+        xs[id] = x;
+        ys[id] = y;
+        int cell = cellX(x) * cellsY + cellY(y);
+        if (cell != cellOf[id])
+            {
+            removeFromCell(id);
+            addToCell(id, cell);
+            }
+        }
+
+
+
+    //// OBJECT-BASED METHODS
+
+    /** Places the object at the given location, adding it to the field if necessary, and returns its ID.  */
+    public int add(Object obj, double x, double y)
+        {
+        if (obj == null)
+            throw new IllegalArgumentException("Null objects may not be added to a DenseContinuous2D.");
+        int id = table.get(obj);
+        if (id >= 0)
+            {
+            setLocation(id, x, y);
+            return id;
+            }
+
+        if (numFree > 0) id = freeIDs[--numFree];
+        else
+            {
+            if (nextID == objects.length) growIDs();
+            id = nextID++;
+            }
+        objects[id] = obj;
+        xs[id] = x;
+        ys[id] = y;
+        addToCell(id, cellX(x) * cellsY + cellY(y));
+        table.put(obj, id);
+        numObjects++;
+        return id;
+        }
+
+    /** Places the object at the given location, adding it to the field if necessary.  Returns false if the object or location is null.  */
+    public boolean setObjectLocation(Object obj, Double2D location)
+        {
+        if (obj == null || location == null) return false;
+        add(obj, location.x, location.y);
+        return true;
+        }
+
+    /** Places the object at the given location, adding it to the field if necessary.  Returns false if the object is null.  */
+    public boolean setObjectLocation(Object obj, double x, double y)
+        {
+        if (obj == null) return false;
+        add(obj, x, y);
+        return true;
+        }
+
+    /** Returns the location of the object, or null if it is not in the field. */
+    public Double2D getObjectLocation(Object obj)
+        {
+        int id = table.get(obj);
+        if (id < 0) return null;
+        return new Double2D(xs[id], ys[id]);
+        }
+
+    /** Synonymous with getObjectLocation, which you should generally use instead. */
+    public Double2D getObjectLocationAsDouble2D(Object obj)
+        {
+        return getObjectLocation(obj);
+        }
+
+    /** Removes the object from the field and returns it, or returns null if it was not in the field. */
+    public Object remove(Object obj)
+        {
+        int id = table.remove(obj);
+        if (id < 0) return null;
+        Object result = objects[id];
+        removeFromCell(id);
+        objects[id] = null;
+        if (numFree == freeIDs.length)
+            {
+            int[] newFree = new int[Math.max(16, freeIDs.length * 2)];
+            System.arraycopy(freeIDs, 0, newFree, 0, numFree);
+            freeIDs = newFree;
+            }
+        freeIDs[numFree++] = id;
+        numObjects--;
+        return result;
+        }
+
+    /** Removes all objects from the field, returning them in a Bag. */
+    public Bag clear()
+        {
+        Bag result = getAllObjects();
+        objects = new Object[0];
+        xs = new double[0];
+        ys = new double[0];
+        cellOf = new int[0];
+        slotOf = new int[0];
+        freeIDs = new int[0];
+        numFree = 0;
+        nextID = 0;
+        numObjects = 0;
+        table = new IDTable();
+        cellIDs = new int[cellsX * cellsY][];
+        cellCounts = new int[cellsX * cellsY];
+        return result;
+        }
+
+    /** Returns a new Bag holding all the objects in the field, in order of ID. */
+    public Bag getAllObjects()
+        {
+        Bag result = new Bag(numObjects);
+        for(int i = 0; i < nextID; i++)
+            if (objects[i] != null) result.add(objects[i]);
+        return result;
+        }
+
+    /** Returns a Bag of the objects at exactly the given location, or null if there are none. */
+    public Bag getObjectsAtLocation(Double2D location)
+        {
+        if (location == null) return null;
+        int cell = cellX(location.x) * cellsY + cellY(location.y);
+        int[] ids = cellIDs[cell];
+        int count = cellCounts[cell];
+        Bag result = null;
+        for(int i = 0; i < count; i++)
+            {
+            int id = ids[i];
+            if (xs[id] == location.x && ys[id] == location.y)
+                {
+                if (result == null) result = new Bag();
+                result.add(objects[id]);
+                }
+            }
+        return result;
+        }
+
+    /** Returns the number of objects at exactly the given location. */
+    public int numObjectsAtLocation(Double2D location)
+        {
+        if (location == null) return 0;
+        int cell = cellX(location.x) * cellsY + cellY(location.y);
+        int[] ids = cellIDs[cell];
+        int count = cellCounts[cell];
+        int result = 0;
+        for(int i = 0; i < count; i++)
+            {
+            int id = ids[i];
+            if (xs[id] == location.x && ys[id] == location.y)
+                result++;
+            }
+        return result;
+        }
+
+
+
+    //// CELLS
+
+    /** Returns the x index of the cell holding the given x coordinate.  Coordinates out of bounds are placed
+        in the cells along the border. */
+    public final int cellX(double x)
+        {
+        int cx = (int)(x / discretization);     // negative values become <= 0, which is clamped to 0 anyway
+        if (cx < 0) return 0;
+        if (cx >= cellsX) return cellsX - 1;
+        return cx;
+        }
+
+    /** Returns the y index of the cell holding the given y coordinate.  Coordinates out of bounds are placed
+        in the cells along the border. */
+    public final int cellY(double y)
+        {
+        int cy = (int)(y / discretization);
+        if (cy < 0) return 0;
+        if (cy >= cellsY) return cellsY - 1;
+        return cy;
+        }
+
+    void removeFromCell(int id)
+        {
+        int cell = cellOf[id];
+        int slot = slotOf[id];
+        int[] ids = cellIDs[cell];
+        int last = --cellCounts[cell];
+        int moved = ids[last];
+        ids[slot] = moved;
+        slotOf[moved] = slot;
+        }
+
+    void addToCell(int id, int cell)
+        {
+        int[] ids = cellIDs[cell];
+        int count = cellCounts[cell];
+        if (ids == null)
+            ids = cellIDs[cell] = new int[4];
+        else if (count == ids.length)
+            {
+            int[] newIDs = new int[count * 2];
+            System.arraycopy(ids, 0, newIDs, 0, count);
+            ids = cellIDs[cell] = newIDs;
+            }
+        ids[count] = id;
+        slotOf[id] = count;
+        cellOf[id] = cell;
+        cellCounts[cell] = count + 1;
+        }
+
+    void growIDs()
+        {
+        int size = Math.max(16, objects.length * 2);
+        Object[] newObjects = new Object[size];
+        System.arraycopy(objects, 0, newObjects, 0, nextID);
+        objects = newObjects;
+        double[] newXs = new double[size];
+        System.arraycopy(xs, 0, newXs, 0, nextID);
+        xs = newXs;
+        double[] newYs = new double[size];
+        System.arraycopy(ys, 0, newYs, 0, nextID);
+        ys = newYs;
+        int[] newCellOf = new int[size];
+        System.arraycopy(cellOf, 0, newCellOf, 0, nextID);
+        cellOf = newCellOf;
+        int[] newSlotOf = new int[size];
+        System.arraycopy(slotOf, 0, newSlotOf, 0, nextID);
+        slotOf = newSlotOf;
+        }
+
+
+
+    //// NEIGHBORHOOD QUERIES
+
+    /** Calls the visitor on EXACTLY those objects within the given distance of the position (x, y), or equal to
+        that distance, measuring using a circle of radius 'distance' around the position.  If 'toroidal' is true,
+        then the distance is measured assuming the environment is toroidal.  Assumes point objects.  Stops
+        early if the visitor returns false.  Returns the number of objects visited.  This method allocates nothing.
+    */
+    public int forEachNeighborWithinDistance(double x, double y, double distance, boolean toroidal, NeighborVisitor visitor)
+        {
+        return scan(x, y, distance, toroidal, true, true, true, visitor, null);
+        }
+
+    /** Puts into the result Bag (and returns it) AT LEAST those objects within the bounding box surrounding the
+        specified distance of the specified position, exactly as Continuous2D.getNeighborsWithinDistance(...) does.
+        If the result Bag is null, then a Bag is created.
+    */
+    public Bag getNeighborsWithinDistance(Double2D position, double distance, boolean toroidal, boolean nonPointObjects, Bag result)
+        {
+        if (result != null) result.clear();
+        else result = new Bag();
+        scan(position.x, position.y, nonPointObjects ? distance + discretization : distance, toroidal, false, false, true, null, result);
+        return result;
+        }
+
+    /** Returns a bag containing AT LEAST those objects within the bounding box surrounding the
+        specified distance of the specified position.  [assumes non-toroidal, point objects] */
+    public Bag getNeighborsWithinDistance(Double2D position, double distance)
+        { return getNeighborsWithinDistance(position, distance, false, false, null); }
+
+    /** Returns a bag containing AT LEAST those objects within the bounding box surrounding the
+        specified distance of the specified position.  [assumes point objects] */
+    public Bag getNeighborsWithinDistance(Double2D position, double distance, boolean toroidal)
+        { return getNeighborsWithinDistance(position, distance, toroidal, false, null); }
+
+    /** Returns a bag containing AT LEAST those objects within the bounding box surrounding the
+        specified distance of the specified position. */
+    public Bag getNeighborsWithinDistance(Double2D position, double distance, boolean toroidal, boolean nonPointObjects)
+        { return getNeighborsWithinDistance(position, distance, toroidal, nonPointObjects, null); }
+
+    /** Returns a Bag containing EXACTLY those objects within a certain distance of a given position, exactly as
+        Continuous2D.getNeighborsExactlyWithinDistance(...) does.  If 'radial' is true, then the distance is measured
+        using a circle around the position, else the distance is measured using a square around the position.
+        If 'inclusive' is true, then objects that are exactly the given distance away are included as well.
+        If the Bag 'result' is provided, it will be cleared and objects placed in it and it will be returned,
+        else if it is null, then this method will create a new Bag and use that instead.  Assumes point objects.
+    */
+    public Bag getNeighborsExactlyWithinDistance(Double2D position, double distance, boolean toroidal,
+        boolean radial, boolean inclusive, Bag result)
+        {
+        if (result != null) result.clear();
+        else result = new Bag();
+        scan(position.x, position.y, distance, toroidal, true, radial, inclusive, null, result);
+        return result;
+        }
+
+    /** Returns a Bag containing EXACTLY those objects within a certain distance of a given position, or equal to that distance, measuring
+        using a circle of radius 'distance' around the given position.  Assumes non-toroidal point objects. */
+    public Bag getNeighborsExactlyWithinDistance(Double2D position, double distance)
+        { return getNeighborsExactlyWithinDistance(position, distance, false, true, true, null); }
+
+    /** Returns a Bag containing EXACTLY those objects within a certain distance of a given position, or equal to that distance, measuring
+        using a circle of radius 'distance' around the given position.  Assumes point objects. */
+    public Bag getNeighborsExactlyWithinDistance(Double2D position, double distance, boolean toroidal)
+        { return getNeighborsExactlyWithinDistance(position, distance, toroidal, true, true, null); }
+
+    // Scans the cells which could hold objects within the distance of (x, y).  If exact, objects are
+    // filtered by their actual distance.  Each object found is handed to the visitor, or else added to the result.
+    int scan(double x, double y, double distance, boolean toroidal, boolean exact, boolean radial, boolean inclusive,
+        NeighborVisitor visitor, Bag result)
+        {
+        if (toroidal)
+            {
+            x = tx(x);
+            y = ty(y);
+            }
+
+        // Compute the ranges of cells to search in each dimension.  A toroidal search may wrap around,
+        // in which case there are two ranges: a (from the left edge) and b (up to the right edge).
+        int xa0, xa1, xb0 = 0, xb1 = -1;
+        int ya0, ya1, yb0 = 0, yb1 = -1;
+        if (!toroidal)
+            {
+            xa0 = cellX(x - distance);
+            xa1 = cellX(x + distance);
+            ya0 = cellY(y - distance);
+            ya1 = cellY(y + distance);
+            }
+        else
+            {
+            if (distance * 2 >= width) { xa0 = 0; xa1 = cellsX - 1; }
+            else if (x - distance < 0) { xa0 = 0; xa1 = cellX(x + distance); xb0 = cellX(x - distance + width); xb1 = cellsX - 1; }
+            else if (x + distance >= width) { xa0 = 0; xa1 = cellX(x + distance - width); xb0 = cellX(x - distance); xb1 = cellsX - 1; }
+            else { xa0 = cellX(x - distance); xa1 = cellX(x + distance); }
+            if (xb0 <= xa1 && xb1 >= xb0) { xa0 = 0; xa1 = cellsX - 1; xb1 = -1; }         // the two ranges share a cell
+
+            if (distance * 2 >= height) { ya0 = 0; ya1 = cellsY - 1; }
+            else if (y - distance < 0) { ya0 = 0; ya1 = cellY(y + distance); yb0 = cellY(y - distance + height); yb1 = cellsY - 1; }
+            else if (y + distance >= height) { ya0 = 0; ya1 = cellY(y + distance - height); yb0 = cellY(y - distance); yb1 = cellsY - 1; }
+            else { ya0 = cellY(y - distance); ya1 = cellY(y + distance); }
+            if (yb0 <= ya1 && yb1 >= yb0) { ya0 = 0; ya1 = cellsY - 1; yb1 = -1; }
+            }
+
+        final double distanceSq = distance * distance;
+        final int[][] cellIDs = this.cellIDs;
+        final int[] cellCounts = this.cellCounts;
+        final double[] xs = this.xs;
+        final double[] ys = this.ys;
+        final Object[] objects = this.objects;
+        int found = 0;
+
+        for(int xr = 0; xr < 2; xr++)
+            {
+            int x0 = (xr == 0 ? xa0 : xb0);
+            int x1 = (xr == 0 ? xa1 : xb1);
+            for(int cx = x0; cx <= x1; cx++)
+                for(int yr = 0; yr < 2; yr++)
+                    {
+                    int y0 = (yr == 0 ? ya0 : yb0);
+                    int y1 = (yr == 0 ? ya1 : yb1);
+                    for(int cell = cx * cellsY + y0, end = cx * cellsY + y1; cell <= end; cell++)
+                        {
+                        int count = cellCounts[cell];
+                        if (count == 0) continue;
+                        int[] ids = cellIDs[cell];
+                        for(int i = 0; i < count; i++)
+                            {
+                            int id = ids[i];
+                            double dx = 0;
+                            double dy = 0;
+                            double d = 0;
+                            if (exact || visitor != null)
+                                {
+                                dx = (toroidal ? tdx(xs[id], x) : xs[id] - x);
+                                dy = (toroidal ? tdy(ys[id], y) : ys[id] - y);
+                                d = dx * dx + dy * dy;
+                                }
+                            if (exact)
+                                {
+                                if (radial)
+                                    {
+                                    if (d > distanceSq || (!inclusive && d >= distanceSq)) continue;
+                                    }
+                                else
+                                    {
+                                    double ax = (dx < 0 ? -dx : dx);
+                                    double ay = (dy < 0 ? -dy : dy);
+                                    if (ax > distance || ay > distance || (!inclusive && (ax >= distance || ay >= distance))) continue;
+                                    }
+                                }
+                            found++;
+                            if (visitor != null)
+                                {
+                                if (!visitor.visit(objects[id], id, dx, dy, d)) return found;
+                                }
+                            else result.add(objects[id]);
+                            }
+                        }
+                    }
+            }
+        return found;
+        }
+
+
+
+    //// TOROIDAL UTILITIES, as in Continuous2D
+
+    /** Toroidal x */
+    public final double tx(double x)
+        {
+        final double width = this.width;
+        if (x >= 0 && x < width) return x;  // do clearest case first
+        x = x % width;
+        if (x < 0) x = x + width;
+        return x;
+        }
+
+    /** Toroidal y */
+    public final double ty(double y)
+        {
+        final double height = this.height;
+        if (y >= 0 && y < height) return y;  // do clearest case first
+        y = y % height;
+        if (y < 0) y = y + height;
+        return y;
+        }
+
+    /** Minimum toroidal difference between two values in the X dimension. */
+    public double tdx(final double x1, final double x2)
+        {
+        double width = this.width;
+        if (Math.abs(x1-x2) <= width / 2)
+            return x1 - x2;  // no wraparounds  -- quick and dirty check
+
+        double dx = tx(x1) - tx(x2);
+        if (dx * 2 > width) return dx - width;
+        if (dx * 2 < -width) return dx + width;
+        return dx;
+        }
+
+    /** Minimum toroidal difference between two values in the Y dimension. */
+    public double tdy(final double y1, final double y2)
+        {
+        double height = this.height;
+        if (Math.abs(y1-y2) <= height / 2)
+            return y1 - y2;  // no wraparounds  -- quick and dirty check
+
+        double dy = ty(y1) - ty(y2);
+        if (dy * 2 > height) return dy - height;
+        if (dy * 2 < -height) return dy + height;
+        return dy;
+        }
+
+    /** Minimum Toroidal Distance Squared between two points. */
+    public double tds(final Double2D d1, final Double2D d2)
+        {
+        double dx = tdx(d1.x,d2.x);
+        double dy = tdy(d1.y,d2.y);
+        return (dx * dx + dy * dy);
+        }
+
+    /** Minimum Toroidal difference vector between two points. */
+    public Double2D tv(final Double2D d1, final Double2D d2)
+        {
+        return new Double2D(tdx(d1.x,d2.x),tdy(d1.y,d2.y));
+        }
+
+
+
+    // An open-addressing hash table from objects (compared with equals()) to non-negative int IDs.
+    // Uses linear probing, and backward-shift deletion so there are no tombstones.
+    // Slots depend on hashCode(), which for many objects is their identity hash and
+    // changes when they are deserialized, so only the entries are serialized and the
+    // table is rebuilt from them when it is next used.  It is not rebuilt in readObject
+    // because the keys may not be fully deserialized yet at that point.
+    static class IDTable implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        transient Object[] keys = new Object[16];
+        transient int[] values = new int[16];
+        int size = 0;
+        // Entries read by readObject, not yet inserted
+        transient Object[] pendingKeys;
+        transient int[] pendingValues;
+
+        static int hash(Object key)
+            {
+            int h = key.hashCode() * 0x9E3779B9;    // spread the bits
+            return h ^ (h >>> 16);
+            }
+
+        int get(Object key)
+            {
+            if (key == null) return -1;
+            if (pendingKeys != null) rebuild();
+            Object[] keys = this.keys;
+            int mask = keys.length - 1;
+            for(int i = hash(key) & mask; ; i = (i + 1) & mask)
+                {
+                Object k = keys[i];
+                if (k == null) return -1;
+                if (k == key || k.equals(key)) return values[i];
+                }
+            }
+
+        // assumes the key is not already present
+        void put(Object key, int value)
+            {
+            if (pendingKeys != null) rebuild();
+            if ((size + 1) * 2 > keys.length) rehash(keys.length * 2);
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while(keys[i] != null) i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            }
+
+        int remove(Object key)
+            {
+            if (key == null) return -1;
+            if (pendingKeys != null) rebuild();
+            Object[] keys = this.keys;
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while(true)
+                {
+                Object k = keys[i];
+                if (k == null) return -1;
+                if (k == key || k.equals(key)) break;
+                i = (i + 1) & mask;
+                }
+            int result = values[i];
+
+            // shift later entries of the cluster back into the hole if they belong at or before it
+            int hole = i;
+            for(int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask)
+                {
+                int home = hash(keys[j]) & mask;
+                // does home lie cyclically outside (hole, j] ?  If so, the entry may move to the hole.
+                if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j))
+                    {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                    }
+                }
+            keys[hole] = null;
+            size--;
+            return result;
+            }
+
+        void rehash(int capacity)
+            {
+            Object[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new Object[capacity];
+            values = new int[capacity];
+            size = 0;
+            for(int i = 0; i < oldKeys.length; i++)
+                if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+            }
+
+        void rebuild()
+            {
+            Object[] k = pendingKeys;
+            int[] v = pendingValues;
+            pendingKeys = null;
+            pendingValues = null;
+            int capacity = 16;
+            while(k.length * 2 > capacity) capacity *= 2;
+            keys = new Object[capacity];
+            values = new int[capacity];
+            size = 0;
+            for(int i = 0; i < k.length; i++) put(k[i], v[i]);
+            }
+
+        private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException
+            {
+            if (pendingKeys != null) rebuild();
+            out.defaultWriteObject();
+            for(int i = 0; i < keys.length; i++)
+                if (keys[i] != null)
+                    {
+                    out.writeObject(keys[i]);
+                    out.writeInt(values[i]);
+                    }
+            }
+
+        private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+            {
+            in.defaultReadObject();
+            pendingKeys = new Object[size];
+            pendingValues = new int[size];
+            for(int i = 0; i < size; i++)
+                {
+                pendingKeys[i] = in.readObject();
+                pendingValues[i] = in.readInt();
+                }
+            }
+        }
+    }
@@ -694,6 +694,457 @@ public /*strictfp*/ class DoubleGrid2D extends AbstractGrid2D
         }
 
 
+    //// PARALLEL BULK OPERATIONS
+    ////
+    //// These do the same thing as their sequential counterparts above, but split the grid into tiles of
+    //// columns which are processed in the common ForkJoinPool (see GridParallel).  They are worthwhile
+    //// only for large grids: small grids are processed in the calling thread.  Distributed grids fall
+    //// back to the sequential versions.
+
+    /** Sets all the locations in the grid the provided element, in parallel. */
+    public final DoubleGrid2D parallelSetTo(final double thisMuch)
+        {
+        if (isDistributed()) return setTo(thisMuch);
+        final double[][] field = this.field;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    java.util.Arrays.fill(field[x], thisMuch);
+                }
+            });
+        return this;
+        }
+
+    /** Sets all the locations in the grid to the elements at the equivalent locations in the provided grid, in parallel.
+        If the grids differ in size, this simply calls setTo(values). */
+    public final DoubleGrid2D parallelSetTo(final DoubleGrid2D values)
+        {
+        if (isDistributed() || width != values.width || height != values.height) return setTo(values);
+        final double[][] field = this.field;
+        final double[][] otherField = values.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    System.arraycopy(otherField[x], 0, field[x], 0, height);
+                }
+            });
+        return this;
+        }
+
+    /** Returns the maximum value stored in the grid, computed in parallel. */
+    public final double parallelMax()
+        {
+        if (isDistributed() || width == 0) return max();
+        final double[][] field = this.field;
+        final int height = this.height;
+        return GridParallel.reduce(width, height, new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (max < fieldx[y]) max = fieldx[y];
+                    }
+                return max;
+                }
+            }, GridParallel.MAX);
+        }
+
+    /** Returns the minimum value stored in the grid, computed in parallel. */
+    public final double parallelMin()
+        {
+        if (isDistributed() || width == 0) return min();
+        final double[][] field = this.field;
+        final int height = this.height;
+        return GridParallel.reduce(width, height, new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                double min = Double.POSITIVE_INFINITY;
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (min > fieldx[y]) min = fieldx[y];
+                    }
+                return min;
+                }
+            }, GridParallel.MIN);
+        }
+
+    /** Returns the mean value stored in the grid, computed in parallel.  Because the values are summed in
+        a different order, the result may differ from mean() in the last few bits. */
+    public final double parallelMean()
+        {
+        if (isDistributed() || width == 0 || height == 0) return mean();
+        final double[][] field = this.field;
+        final int height = this.height;
+        double sum = GridParallel.reduce(width, height, new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                double total = 0;
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        total += fieldx[y];
+                    }
+                return total;
+                }
+            }, GridParallel.SUM);
+        return sum / ((long)width * height);
+        }
+
+    /** Thresholds the grid in parallel so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid. */
+    public final DoubleGrid2D parallelUpperBound(final double toNoMoreThanThisMuch)
+        {
+        if (isDistributed()) return upperBound(toNoMoreThanThisMuch);
+        final double[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (fieldx[y] > toNoMoreThanThisMuch)
+                            fieldx[y] = toNoMoreThanThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Thresholds the grid in parallel so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>.
+        Returns the modified grid. */
+    public final DoubleGrid2D parallelLowerBound(final double toNoLowerThanThisMuch)
+        {
+        if (isDistributed()) return lowerBound(toNoLowerThanThisMuch);
+        final double[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (fieldx[y] < toNoLowerThanThisMuch)
+                            fieldx[y] = toNoLowerThanThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>, in parallel.
+        Returns the modified grid. */
+    public final DoubleGrid2D parallelAdd(final double withThisMuch)
+        {
+        if (isDistributed()) return add(withThisMuch);
+        if (withThisMuch == 0.0) return this;
+        final double[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] += withThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid2D parallelAdd(final IntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return add(withThis);
+        final double[][] field = this.field;
+        final int[][] otherField = withThis.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    final int[] ofieldx = otherField[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] += ofieldx[y];
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid2D parallelAdd(final DoubleGrid2D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return add(withThis);
+        final double[][] field = this.field;
+        final double[][] otherField = withThis.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    final double[] ofieldx = otherField[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] += ofieldx[y];
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied by <i>byThisMuch</i>, in parallel.
+        Returns the modified grid. */
+    public final DoubleGrid2D parallelMultiply(final double byThisMuch)
+        {
+        if (isDistributed()) return multiply(byThisMuch);
+        if (byThisMuch == 1.0) return this;
+        final double[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] *= byThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid2D parallelMultiply(final IntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return multiply(withThis);
+        final double[][] field = this.field;
+        final int[][] otherField = withThis.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    final int[] ofieldx = otherField[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] *= ofieldx[y];
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid2D parallelMultiply(final DoubleGrid2D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return multiply(withThis);
+        final double[][] field = this.field;
+        final double[][] otherField = withThis.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final double[] fieldx = field[x];
+                    final double[] ofieldx = otherField[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] *= ofieldx[y];
+                    }
+                }
+            });
+        return this;
+        }
+
+
+
+    //// STENCILS
+
+    /** Returns a (2 * dist + 1) x (2 * dist + 1) kernel for convolve(...) which averages over the Moore neighborhood
+        of distance <i>dist</i>: each cell in the neighborhood (including the origin if <i>includeOrigin</i>) has the same weight,
+        and the weights sum to 1. */
+    public static double[][] mooreKernel(int dist, boolean includeOrigin)
+        {
+        if (dist < 0) throw new IllegalArgumentException("Distance must be >= 0: " + dist);
+        int size = 2 * dist + 1;
+        int count = size * size - (includeOrigin ? 0 : 1);
+        double[][] kernel = new double[size][size];
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                if (includeOrigin || i != dist || j != dist)
+                    kernel[i][j] = 1.0 / count;
+        return kernel;
+        }
+
+    /** Returns a (2 * dist + 1) x (2 * dist + 1) kernel for convolve(...) which averages over the von Neumann neighborhood
+        of distance <i>dist</i>: each cell in the neighborhood (including the origin if <i>includeOrigin</i>) has the same weight,
+        and the weights sum to 1. */
+    public static double[][] vonNeumannKernel(int dist, boolean includeOrigin)
+        {
+        if (dist < 0) throw new IllegalArgumentException("Distance must be >= 0: " + dist);
+        int size = 2 * dist + 1;
+        int count = 2 * dist * (dist + 1) + (includeOrigin ? 1 : 0);
+        double[][] kernel = new double[size][size];
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                if (Math.abs(i - dist) + Math.abs(j - dist) <= dist && (includeOrigin || i != dist || j != dist))
+                    kernel[i][j] = 1.0 / count;
+        return kernel;
+        }
+
+    /** Sets each location (x,y) in the grid to the weighted sum of the neighborhood of (x,y) in <i>from</i>,
+        where the weights are given by <i>kernel</i>.  The kernel must be rectangular and have odd dimensions,
+        and is centered on (x,y): that is, kernel[i][j] is the weight of location (x + i - kernel.length / 2,
+        y + j - kernel[0].length / 2).  If <i>toroidal</i> is true, then neighborhoods wrap around the edges of the
+        grid, else locations outside the grid are treated as 0.  <i>from</i> must be the same size as this grid,
+        and may be this grid itself.  Returns the modified grid.
+
+        <p>For example, a HeatBugs-style diffusion step which moves a fraction <i>rate</i> of each location's value
+        to its eight neighbors can be written as:
+
+        <pre><tt>
+        double[][] kernel = DoubleGrid2D.mooreKernel(1, false);
+        for(int i = 0; i &lt; 3; i++) for(int j = 0; j &lt; 3; j++) kernel[i][j] *= rate;
+        kernel[1][1] = 1.0 - rate;
+        newGrid.parallelConvolve(oldGrid, kernel, true);
+        </tt></pre>
+    */
+    public final DoubleGrid2D convolve(DoubleGrid2D from, double[][] kernel, boolean toroidal)
+        {
+        return convolve(from, kernel, toroidal, false);
+        }
+
+    /** Does the same thing as convolve(...), but in parallel. */
+    public final DoubleGrid2D parallelConvolve(DoubleGrid2D from, double[][] kernel, boolean toroidal)
+        {
+        return convolve(from, kernel, toroidal, true);
+        }
+
+    DoubleGrid2D convolve(DoubleGrid2D from, final double[][] kernel, final boolean toroidal, boolean parallel)
+        {
+        checkBounds(from);
+        final int kw = kernel.length;
+        final int kh = (kw == 0 ? 0 : kernel[0].length);
+        if (kw % 2 == 0 || kh % 2 == 0)
+            throw new IllegalArgumentException("Kernel dimensions must be odd: " + kw + " x " + kh);
+        for(int i = 0; i < kw; i++)
+            if (kernel[i].length != kh)
+                throw new IllegalArgumentException("Kernel must be rectangular");
+
+        final int width = getWidth();
+        final int height = getHeight();
+        final double[][] src;
+        final double[][] dst;
+        if (isDistributed())
+            {
+            // work on copies, then write the result back through set(...)
+            src = new double[width][height];
+            dst = new double[width][height];
+            for(int x = 0; x < width; x++)
+                for(int y = 0; y < height; y++)
+                    src[x][y] = from.get(x, y);
+            }
+        else
+            {
+            src = (from == this ? new DoubleGrid2D(this).field : from.field);
+            dst = this.field;
+            }
+        final int rx = kw / 2;
+        final int ry = kh / 2;
+
+        GridParallel.Tile tile = new GridParallel.Tile()
+            {
+            public void apply(int lo, int hi)
+                {
+                for (int x = lo; x < hi; x++)
+                    {
+                    final double[] out = dst[x];
+                    java.util.Arrays.fill(out, 0.0);
+                    for (int i = 0; i < kw; i++)
+                        {
+                        int sx = x + i - rx;
+                        if (sx < 0 || sx >= width)
+                            {
+                            if (!toroidal) continue;
+                            sx = ((sx % width) + width) % width;
+                            }
+                        final double[] in = src[sx];
+                        final double[] k = kernel[i];
+                        for (int j = 0; j < kh; j++)
+                            {
+                            final double weight = k[j];
+                            if (weight == 0) continue;
+                            final int off = j - ry;
+                            // the interior, where y + off lies within the grid
+                            final int start = Math.max(0, -off);
+                            final int end = Math.min(height, height - off);
+                            for (int y = start; y < end; y++)
+                                out[y] += weight * in[y + off];
+                            // the edges
+                            if (toroidal)
+                                {
+                                for (int y = 0; y < start && y < height; y++)
+                                    out[y] += weight * in[(((y + off) % height) + height) % height];
+                                for (int y = Math.max(end, start); y < height; y++)
+                                    out[y] += weight * in[(((y + off) % height) + height) % height];
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+
+        if (parallel) GridParallel.run(width, GridParallel.sliceSize(height, kw * kh), tile);
+        else tile.apply(0, width);
+
+        if (isDistributed())
+            for(int x = 0; x < width; x++)
+                for(int y = 0; y < height; y++)
+                    set(x, y, dst[x][y]);
+        return this;
+        }
+
+
 /*
 
   final DoubleBag getImmediateNeighbors(int x, int y, boolean toroidal, DoubleBag result)
@@ -899,6 +899,502 @@ public /*strictfp*/ class DoubleGrid3D extends AbstractGrid3D
             }
 
         }
+
+
+    //// PARALLEL BULK OPERATIONS
+    ////
+    //// These do the same thing as their sequential counterparts above, but split the grid into tiles of
+    //// x planes which are processed in the common ForkJoinPool (see GridParallel).  They are worthwhile
+    //// only for large grids: small grids are processed in the calling thread.  Distributed grids fall
+    //// back to the sequential versions.
+
+    /** Sets all the locations in the grid the provided element, in parallel. */
+    public final DoubleGrid3D parallelSetTo(final double thisMuch)
+        {
+        if (isDistributed()) return setTo(thisMuch);
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] = thisMuch;
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets all the locations in the grid to the elements at the equivalent locations in the provided grid, in parallel.
+        If the grids differ in size, this simply calls setTo(values). */
+    public final DoubleGrid3D parallelSetTo(final DoubleGrid3D values)
+        {
+        if (isDistributed() || width != values.width || height != values.height || length != values.length) return setTo(values);
+        final double[][][] field = this.field;
+        final double[][][] otherField = values.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        System.arraycopy(otherField[x][y], 0, field[x][y], 0, length);
+                }
+            });
+        return this;
+        }
+
+    /** Returns the maximum value stored in the grid, computed in parallel. */
+    public final double parallelMax()
+        {
+        if (isDistributed() || width == 0 || height == 0 || length == 0) return max();
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        return GridParallel.reduce(width, GridParallel.sliceSize(height, length), new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                double result = Double.NEGATIVE_INFINITY;
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            if (result < fieldxy[z]) result = fieldxy[z];
+                        }
+                return result;
+                }
+            }, GridParallel.MAX);
+        }
+
+    /** Returns the minimum value stored in the grid, computed in parallel. */
+    public final double parallelMin()
+        {
+        if (isDistributed() || width == 0 || height == 0 || length == 0) return min();
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        return GridParallel.reduce(width, GridParallel.sliceSize(height, length), new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                double result = Double.POSITIVE_INFINITY;
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            if (result > fieldxy[z]) result = fieldxy[z];
+                        }
+                return result;
+                }
+            }, GridParallel.MIN);
+        }
+
+    /** Returns the mean value stored in the grid, computed in parallel.  Because the values are summed in
+        a different order, the result may differ from mean() in the last few bits. */
+    public final double parallelMean()
+        {
+        if (isDistributed() || width == 0 || height == 0 || length == 0) return mean();
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        double sum = GridParallel.reduce(width, GridParallel.sliceSize(height, length), new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                double result = 0;
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            result += fieldxy[z];
+                        }
+                return result;
+                }
+            }, GridParallel.SUM);
+        return sum / ((double)width * height * length);
+        }
+
+    /** Thresholds the grid in parallel so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid. */
+    public final DoubleGrid3D parallelUpperBound(final double toNoMoreThanThisMuch)
+        {
+        if (isDistributed()) return upperBound(toNoMoreThanThisMuch);
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            if (fieldxy[z] > toNoMoreThanThisMuch) fieldxy[z] = toNoMoreThanThisMuch;
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Thresholds the grid in parallel so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>.
+        Returns the modified grid. */
+    public final DoubleGrid3D parallelLowerBound(final double toNoLowerThanThisMuch)
+        {
+        if (isDistributed()) return lowerBound(toNoLowerThanThisMuch);
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            if (fieldxy[z] < toNoLowerThanThisMuch) fieldxy[z] = toNoLowerThanThisMuch;
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>, in parallel.
+        Returns the modified grid. */
+    public final DoubleGrid3D parallelAdd(final double withThisMuch)
+        {
+        if (isDistributed()) return add(withThisMuch);
+        if (withThisMuch == 0.0) return this;
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] += withThisMuch;
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid3D parallelAdd(final IntGrid3D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return add(withThis);
+        final double[][][] field = this.field;
+        final int[][][] otherField = withThis.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        final int[] ofieldxy = otherField[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] += ofieldxy[z];
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid3D parallelAdd(final DoubleGrid3D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return add(withThis);
+        final double[][][] field = this.field;
+        final double[][][] otherField = withThis.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        final double[] ofieldxy = otherField[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] += ofieldxy[z];
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied by <i>byThisMuch</i>, in parallel.
+        Returns the modified grid. */
+    public final DoubleGrid3D parallelMultiply(final double byThisMuch)
+        {
+        if (isDistributed()) return multiply(byThisMuch);
+        if (byThisMuch == 1.0) return this;
+        final double[][][] field = this.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] *= byThisMuch;
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid3D parallelMultiply(final IntGrid3D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return multiply(withThis);
+        final double[][][] field = this.field;
+        final int[][][] otherField = withThis.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        final int[] ofieldxy = otherField[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] *= ofieldxy[z];
+                        }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final DoubleGrid3D parallelMultiply(final DoubleGrid3D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return multiply(withThis);
+        final double[][][] field = this.field;
+        final double[][][] otherField = withThis.field;
+        final int height = this.height;
+        final int length = this.length;
+        GridParallel.run(width, GridParallel.sliceSize(height, length), new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] fieldxy = field[x][y];
+                        final double[] ofieldxy = otherField[x][y];
+                        for (int z = 0; z < length; z++)
+                            fieldxy[z] *= ofieldxy[z];
+                        }
+                }
+            });
+        return this;
+        }
+
+
+
+    //// STENCILS
+
+    /** Returns a (2 * dist + 1) x (2 * dist + 1) x (2 * dist + 1) kernel for convolve(...) which averages over the Moore neighborhood
+        of distance <i>dist</i>: each cell in the neighborhood (including the origin if <i>includeOrigin</i>) has the same weight,
+        and the weights sum to 1. */
+    public static double[][][] mooreKernel(int dist, boolean includeOrigin)
+        {
+        if (dist < 0) throw new IllegalArgumentException("Distance must be >= 0: " + dist);
+        int size = 2 * dist + 1;
+        int count = size * size * size - (includeOrigin ? 0 : 1);
+        double[][][] kernel = new double[size][size][size];
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                for(int k = 0; k < size; k++)
+                    if (includeOrigin || i != dist || j != dist || k != dist)
+                        kernel[i][j][k] = 1.0 / count;
+        return kernel;
+        }
+
+    /** Returns a (2 * dist + 1) x (2 * dist + 1) x (2 * dist + 1) kernel for convolve(...) which averages over the von Neumann neighborhood
+        of distance <i>dist</i>: each cell in the neighborhood (including the origin if <i>includeOrigin</i>) has the same weight,
+        and the weights sum to 1. */
+    public static double[][][] vonNeumannKernel(int dist, boolean includeOrigin)
+        {
+        if (dist < 0) throw new IllegalArgumentException("Distance must be >= 0: " + dist);
+        int size = 2 * dist + 1;
+        int count = 0;
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                for(int k = 0; k < size; k++)
+                    if (Math.abs(i - dist) + Math.abs(j - dist) + Math.abs(k - dist) <= dist && (includeOrigin || i != dist || j != dist || k != dist))
+                        count++;
+        double[][][] kernel = new double[size][size][size];
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                for(int k = 0; k < size; k++)
+                    if (Math.abs(i - dist) + Math.abs(j - dist) + Math.abs(k - dist) <= dist && (includeOrigin || i != dist || j != dist || k != dist))
+                        kernel[i][j][k] = 1.0 / count;
+        return kernel;
+        }
+
+    /** Sets each location (x,y,z) in the grid to the weighted sum of the neighborhood of (x,y,z) in <i>from</i>,
+        where the weights are given by <i>kernel</i>.  The kernel must be rectangular and have odd dimensions,
+        and is centered on (x,y,z): that is, kernel[i][j][k] is the weight of location (x + i - kernel.length / 2,
+        y + j - kernel[0].length / 2, z + k - kernel[0][0].length / 2).  If <i>toroidal</i> is true, then neighborhoods
+        wrap around the edges of the grid, else locations outside the grid are treated as 0.  <i>from</i> must be the
+        same size as this grid, and may be this grid itself.  Returns the modified grid. */
+    public final DoubleGrid3D convolve(DoubleGrid3D from, double[][][] kernel, boolean toroidal)
+        {
+        return convolve(from, kernel, toroidal, false);
+        }
+
+    /** Does the same thing as convolve(...), but in parallel. */
+    public final DoubleGrid3D parallelConvolve(DoubleGrid3D from, double[][][] kernel, boolean toroidal)
+        {
+        return convolve(from, kernel, toroidal, true);
+        }
+
+    DoubleGrid3D convolve(DoubleGrid3D from, final double[][][] kernel, final boolean toroidal, boolean parallel)
+        {
+        checkBounds(from);
+        final int kw = kernel.length;
+        final int kh = (kw == 0 ? 0 : kernel[0].length);
+        final int kl = (kh == 0 ? 0 : kernel[0][0].length);
+        if (kw % 2 == 0 || kh % 2 == 0 || kl % 2 == 0)
+            throw new IllegalArgumentException("Kernel dimensions must be odd: " + kw + " x " + kh + " x " + kl);
+        for(int i = 0; i < kw; i++)
+            {
+            if (kernel[i].length != kh)
+                throw new IllegalArgumentException("Kernel must be rectangular");
+            for(int j = 0; j < kh; j++)
+                if (kernel[i][j].length != kl)
+                    throw new IllegalArgumentException("Kernel must be rectangular");
+            }
+
+        final int width = getWidth();
+        final int height = getHeight();
+        final int length = getLength();
+        final double[][][] src;
+        final double[][][] dst;
+        if (isDistributed())
+            {
+            // work on copies, then write the result back through set(...)
+            src = new double[width][height][length];
+            dst = new double[width][height][length];
+            for(int x = 0; x < width; x++)
+                for(int y = 0; y < height; y++)
+                    for(int z = 0; z < length; z++)
+                        src[x][y][z] = from.get(x, y, z);
+            }
+        else
+            {
+            src = (from == this ? new DoubleGrid3D(this).field : from.field);
+            dst = this.field;
+            }
+        final int rx = kw / 2;
+        final int ry = kh / 2;
+        final int rz = kl / 2;
+
+        GridParallel.Tile tile = new GridParallel.Tile()
+            {
+            public void apply(int lo, int hi)
+                {
+                for (int x = lo; x < hi; x++)
+                    for (int y = 0; y < height; y++)
+                        {
+                        final double[] out = dst[x][y];
+                        java.util.Arrays.fill(out, 0.0);
+                        for (int i = 0; i < kw; i++)
+                            {
+                            int sx = x + i - rx;
+                            if (sx < 0 || sx >= width)
+                                {
+                                if (!toroidal) continue;
+                                sx = ((sx % width) + width) % width;
+                                }
+                            for (int j = 0; j < kh; j++)
+                                {
+                                int sy = y + j - ry;
+                                if (sy < 0 || sy >= height)
+                                    {
+                                    if (!toroidal) continue;
+                                    sy = ((sy % height) + height) % height;
+                                    }
+                                final double[] in = src[sx][sy];
+                                final double[] k = kernel[i][j];
+                                for (int m = 0; m < kl; m++)
+                                    {
+                                    final double weight = k[m];
+                                    if (weight == 0) continue;
+                                    final int off = m - rz;
+                                    // the interior, where z + off lies within the grid
+                                    final int start = Math.max(0, -off);
+                                    final int end = Math.min(length, length - off);
+                                    for (int z = start; z < end; z++)
+                                        out[z] += weight * in[z + off];
+                                    // the edges
+                                    if (toroidal)
+                                        {
+                                        for (int z = 0; z < start && z < length; z++)
+                                            out[z] += weight * in[(((z + off) % length) + length) % length];
+                                        for (int z = Math.max(end, start); z < length; z++)
+                                            out[z] += weight * in[(((z + off) % length) + length) % length];
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                }
+            };
+
+        if (parallel) GridParallel.run(width, GridParallel.sliceSize(height * length, kw * kh * kl), tile);
+        else tile.apply(0, width);
+
+        if (isDistributed())
+            for(int x = 0; x < width; x++)
+                for(int y = 0; y < height; y++)
+                    for(int z = 0; z < length; z++)
+                        set(x, y, z, dst[x][y][z]);
+        return this;
+        }
     
     
     /**
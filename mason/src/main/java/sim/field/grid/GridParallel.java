@@ -0,0 +1,126 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.grid;
+import java.util.concurrent.*;
+
+/**
+   Runs the parallel bulk operations of the grids (parallelAdd(...), parallelMax(), parallelConvolve(...), etc.)
+   in the common ForkJoinPool.  A grid is split into tiles of consecutive x slices (columns in a 2D grid,
+   planes in a 3D grid), which are recursively halved until each holds about MIN_CELLS_PER_TILE cells.
+   Each tile is handled by a single task, which works through its slices exactly as the sequential
+   version of the operation would, so each cell is only ever touched by one thread.
+*/
+
+final class GridParallel
+    {
+    /** Tiles are not split below this many cells, so small grids are processed in a single task. */
+    static final int MIN_CELLS_PER_TILE = 32768;
+
+    /** An operation on slices from ... to-1 */
+    interface Tile
+        {
+        public void apply(int from, int to);
+        }
+
+    /** A reduction over slices from ... to-1 */
+    interface Reduction
+        {
+        public double apply(int from, int to);
+        }
+
+    /** Ways of combining the results of Reductions */
+    static final int SUM = 0;
+    static final int MIN = 1;
+    static final int MAX = 2;
+
+    static double combine(int how, double a, double b)
+        {
+        if (how == MIN) return Math.min(a, b);
+        else if (how == MAX) return Math.max(a, b);
+        else return a + b;
+        }
+
+    private GridParallel() { }
+
+    static int sliceSize(int a, int b)
+        {
+        long size = (long)a * b;
+        return (int)Math.min(size, Integer.MAX_VALUE);
+        }
+
+    static int grain(int cellsPerSlice)
+        {
+        return Math.max(1, MIN_CELLS_PER_TILE / Math.max(1, cellsPerSlice));
+        }
+
+    /** Applies the tile operation to slices 0 ... slices-1, each slice holding cellsPerSlice cells, and waits for it to finish. */
+    static void run(int slices, int cellsPerSlice, Tile tile)
+        {
+        if (slices <= 0) return;
+        int grain = grain(cellsPerSlice);
+        if (slices <= grain) tile.apply(0, slices);
+        else ForkJoinPool.commonPool().invoke(new TileTask(tile, 0, slices, grain));
+        }
+
+    /** Reduces slices 0 ... slices-1, each slice holding cellsPerSlice cells, combining the results of tiles as SUM, MIN, or MAX,
+        and returns the result.  slices must be > 0. */
+    static double reduce(int slices, int cellsPerSlice, Reduction reduction, int how)
+        {
+        int grain = grain(cellsPerSlice);
+        if (slices <= grain) return reduction.apply(0, slices);
+        else return ForkJoinPool.commonPool().invoke(new ReductionTask(reduction, how, 0, slices, grain)).doubleValue();
+        }
+
+    static class TileTask extends RecursiveAction
+        {
+        private static final long serialVersionUID = 1;
+        final Tile tile;
+        final int from;
+        final int to;
+        final int grain;
+
+        TileTask(Tile tile, int from, int to, int grain)
+            {
+            this.tile = tile; this.from = from; this.to = to; this.grain = grain;
+            }
+
+        protected void compute()
+            {
+            if (to - from <= grain) tile.apply(from, to);
+            else
+                {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(tile, from, mid, grain), new TileTask(tile, mid, to, grain));
+                }
+            }
+        }
+
+    static class ReductionTask extends RecursiveTask<Double>
+        {
+        private static final long serialVersionUID = 1;
+        final Reduction reduction;
+        final int how;
+        final int from;
+        final int to;
+        final int grain;
+
+        ReductionTask(Reduction reduction, int how, int from, int to, int grain)
+            {
+            this.reduction = reduction; this.how = how; this.from = from; this.to = to; this.grain = grain;
+            }
+
+        protected Double compute()
+            {
+            if (to - from <= grain) return Double.valueOf(reduction.apply(from, to));
+            int mid = (from + to) >>> 1;
+            ReductionTask left = new ReductionTask(reduction, how, from, mid, grain);
+            left.fork();
+            double right = new ReductionTask(reduction, how, mid, to, grain).compute().doubleValue();
+            return Double.valueOf(combine(how, left.join().doubleValue(), right));
+            }
+        }
+    }
@@ -584,6 +584,398 @@ public /*strictfp*/ class IntGrid2D extends AbstractGrid2D
         }
 
 
+    //// PARALLEL BULK OPERATIONS
+    ////
+    //// These do the same thing as their sequential counterparts above, but split the grid into tiles of
+    //// columns which are processed in the common ForkJoinPool (see GridParallel).  They are worthwhile
+    //// only for large grids: small grids are processed in the calling thread.  Distributed grids fall
+    //// back to the sequential versions.
+
+    /** Sets all the locations in the grid the provided element, in parallel. */
+    public final IntGrid2D parallelSetTo(final int thisMuch)
+        {
+        if (isDistributed()) return setTo(thisMuch);
+        final int[][] field = this.field;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    java.util.Arrays.fill(field[x], thisMuch);
+                }
+            });
+        return this;
+        }
+
+    /** Sets all the locations in the grid to the elements at the equivalent locations in the provided grid, in parallel.
+        If the grids differ in size, this simply calls setTo(values). */
+    public final IntGrid2D parallelSetTo(final IntGrid2D values)
+        {
+        if (isDistributed() || width != values.width || height != values.height) return setTo(values);
+        final int[][] field = this.field;
+        final int[][] otherField = values.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    System.arraycopy(otherField[x], 0, field[x], 0, height);
+                }
+            });
+        return this;
+        }
+
+    /** Returns the maximum value stored in the grid, computed in parallel. */
+    public final int parallelMax()
+        {
+        if (isDistributed() || width == 0) return max();
+        final int[][] field = this.field;
+        final int height = this.height;
+        return (int) GridParallel.reduce(width, height, new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                int max = Integer.MIN_VALUE;
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (max < fieldx[y]) max = fieldx[y];
+                    }
+                return max;
+                }
+            }, GridParallel.MAX);
+        }
+
+    /** Returns the minimum value stored in the grid, computed in parallel. */
+    public final int parallelMin()
+        {
+        if (isDistributed() || width == 0) return min();
+        final int[][] field = this.field;
+        final int height = this.height;
+        return (int) GridParallel.reduce(width, height, new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                int min = Integer.MAX_VALUE;
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (min > fieldx[y]) min = fieldx[y];
+                    }
+                return min;
+                }
+            }, GridParallel.MIN);
+        }
+
+    /** Returns the mean value stored in the grid, computed in parallel. */
+    public final double parallelMean()
+        {
+        if (isDistributed() || width == 0 || height == 0) return mean();
+        final int[][] field = this.field;
+        final int height = this.height;
+        double sum = GridParallel.reduce(width, height, new GridParallel.Reduction()
+            {
+            public double apply(int from, int to)
+                {
+                long total = 0;
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        total += fieldx[y];
+                    }
+                return total;
+                }
+            }, GridParallel.SUM);
+        return sum / ((long)width * height);
+        }
+
+    /** Thresholds the grid in parallel so that values greater to <i>toNoMoreThanThisMuch</i> are changed to <i>toNoMoreThanThisMuch</i>.
+        Returns the modified grid. */
+    public final IntGrid2D parallelUpperBound(final int toNoMoreThanThisMuch)
+        {
+        if (isDistributed()) return upperBound(toNoMoreThanThisMuch);
+        final int[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (fieldx[y] > toNoMoreThanThisMuch)
+                            fieldx[y] = toNoMoreThanThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Thresholds the grid in parallel so that values smaller than <i>toNoLowerThanThisMuch</i> are changed to <i>toNoLowerThanThisMuch</i>.
+        Returns the modified grid. */
+    public final IntGrid2D parallelLowerBound(final int toNoLowerThanThisMuch)
+        {
+        if (isDistributed()) return lowerBound(toNoLowerThanThisMuch);
+        final int[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        if (fieldx[y] < toNoLowerThanThisMuch)
+                            fieldx[y] = toNoLowerThanThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets each value in the grid to that value added to <i>withThisMuch</i>, in parallel.
+        Returns the modified grid. */
+    public final IntGrid2D parallelAdd(final int withThisMuch)
+        {
+        if (isDistributed()) return add(withThisMuch);
+        if (withThisMuch == 0) return this;
+        final int[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] += withThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value added to the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final IntGrid2D parallelAdd(final IntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return add(withThis);
+        final int[][] field = this.field;
+        final int[][] otherField = withThis.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    final int[] ofieldx = otherField[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] += ofieldx[y];
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets each value in the grid to that value multiplied by <i>byThisMuch</i>, in parallel.
+        Returns the modified grid. */
+    public final IntGrid2D parallelMultiply(final int byThisMuch)
+        {
+        if (isDistributed()) return multiply(byThisMuch);
+        if (byThisMuch == 1) return this;
+        final int[][] field = this.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] *= byThisMuch;
+                    }
+                }
+            });
+        return this;
+        }
+
+    /** Sets the value at each location in the grid to that value multiplied by the value at the equivalent location in the provided grid,
+        in parallel.  Returns the modified grid. */
+    public final IntGrid2D parallelMultiply(final IntGrid2D withThis)
+        {
+        checkBounds(withThis);
+        if (isDistributed()) return multiply(withThis);
+        final int[][] field = this.field;
+        final int[][] otherField = withThis.field;
+        final int height = this.height;
+        GridParallel.run(width, height, new GridParallel.Tile()
+            {
+            public void apply(int from, int to)
+                {
+                for (int x = from; x < to; x++)
+                    {
+                    final int[] fieldx = field[x];
+                    final int[] ofieldx = otherField[x];
+                    for (int y = 0; y < height; y++)
+                        fieldx[y] *= ofieldx[y];
+                    }
+                }
+            });
+        return this;
+        }
+
+
+
+    //// STENCILS
+
+    /** Returns a (2 * dist + 1) x (2 * dist + 1) kernel for convolve(...) which sums over the Moore neighborhood
+        of distance <i>dist</i>: each cell in the neighborhood (including the origin if <i>includeOrigin</i>) has weight 1. */
+    public static int[][] mooreKernel(int dist, boolean includeOrigin)
+        {
+        if (dist < 0) throw new IllegalArgumentException("Distance must be >= 0: " + dist);
+        int size = 2 * dist + 1;
+        int[][] kernel = new int[size][size];
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                if (includeOrigin || i != dist || j != dist)
+                    kernel[i][j] = 1;
+        return kernel;
+        }
+
+    /** Returns a (2 * dist + 1) x (2 * dist + 1) kernel for convolve(...) which sums over the von Neumann neighborhood
+        of distance <i>dist</i>: each cell in the neighborhood (including the origin if <i>includeOrigin</i>) has weight 1. */
+    public static int[][] vonNeumannKernel(int dist, boolean includeOrigin)
+        {
+        if (dist < 0) throw new IllegalArgumentException("Distance must be >= 0: " + dist);
+        int size = 2 * dist + 1;
+        int[][] kernel = new int[size][size];
+        for(int i = 0; i < size; i++)
+            for(int j = 0; j < size; j++)
+                if (Math.abs(i - dist) + Math.abs(j - dist) <= dist && (includeOrigin || i != dist || j != dist))
+                    kernel[i][j] = 1;
+        return kernel;
+        }
+
+    /** Sets each location (x,y) in the grid to the weighted sum of the neighborhood of (x,y) in <i>from</i>,
+        where the weights are given by <i>kernel</i>.  The kernel must be rectangular and have odd dimensions,
+        and is centered on (x,y): that is, kernel[i][j] is the weight of location (x + i - kernel.length / 2,
+        y + j - kernel[0].length / 2).  If <i>toroidal</i> is true, then neighborhoods wrap around the edges of the
+        grid, else locations outside the grid are treated as 0.  <i>from</i> must be the same size as this grid,
+        and may be this grid itself.  Returns the modified grid.
+
+        <p>For example, the number of live neighbors of each cell in the Game of Life is:
+
+        <pre><tt>
+        neighbors.convolve(cells, IntGrid2D.mooreKernel(1, false), true);
+        </tt></pre>
+    */
+    public final IntGrid2D convolve(IntGrid2D from, int[][] kernel, boolean toroidal)
+        {
+        return convolve(from, kernel, toroidal, false);
+        }
+
+    /** Does the same thing as convolve(...), but in parallel. */
+    public final IntGrid2D parallelConvolve(IntGrid2D from, int[][] kernel, boolean toroidal)
+        {
+        return convolve(from, kernel, toroidal, true);
+        }
+
+    IntGrid2D convolve(IntGrid2D from, final int[][] kernel, final boolean toroidal, boolean parallel)
+        {
+        checkBounds(from);
+        final int kw = kernel.length;
+        final int kh = (kw == 0 ? 0 : kernel[0].length);
+        if (kw % 2 == 0 || kh % 2 == 0)
+            throw new IllegalArgumentException("Kernel dimensions must be odd: " + kw + " x " + kh);
+        for(int i = 0; i < kw; i++)
+            if (kernel[i].length != kh)
+                throw new IllegalArgumentException("Kernel must be rectangular");
+
+        final int width = getWidth();
+        final int height = getHeight();
+        final int[][] src;
+        final int[][] dst;
+        if (isDistributed())
+            {
+            // work on copies, then write the result back through set(...)
+            src = new int[width][height];
+            dst = new int[width][height];
+            for(int x = 0; x < width; x++)
+                for(int y = 0; y < height; y++)
+                    src[x][y] = from.get(x, y);
+            }
+        else
+            {
+            src = (from == this ? new IntGrid2D(this).field : from.field);
+            dst = this.field;
+            }
+        final int rx = kw / 2;
+        final int ry = kh / 2;
+
+        GridParallel.Tile tile = new GridParallel.Tile()
+            {
+            public void apply(int lo, int hi)
+                {
+                for (int x = lo; x < hi; x++)
+                    {
+                    final int[] out = dst[x];
+                    java.util.Arrays.fill(out, 0);
+                    for (int i = 0; i < kw; i++)
+                        {
+                        int sx = x + i - rx;
+                        if (sx < 0 || sx >= width)
+                            {
+                            if (!toroidal) continue;
+                            sx = ((sx % width) + width) % width;
+                            }
+                        final int[] in = src[sx];
+                        final int[] k = kernel[i];
+                        for (int j = 0; j < kh; j++)
+                            {
+                            final int weight = k[j];
+                            if (weight == 0) continue;
+                            final int off = j - ry;
+                            // the interior, where y + off lies within the grid
+                            final int start = Math.max(0, -off);
+                            final int end = Math.min(height, height - off);
+                            for (int y = start; y < end; y++)
+                                out[y] += weight * in[y + off];
+                            // the edges
+                            if (toroidal)
+                                {
+                                for (int y = 0; y < start && y < height; y++)
+                                    out[y] += weight * in[(((y + off) % height) + height) % height];
+                                for (int y = Math.max(end, start); y < height; y++)
+                                    out[y] += weight * in[(((y + off) % height) + height) % height];
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+
+        if (parallel) GridParallel.run(width, GridParallel.sliceSize(height, kw * kh), tile);
+        else tile.apply(0, width);
+
+        if (isDistributed())
+            for(int x = 0; x < width; x++)
+                for(int y = 0; y < height; y++)
+                    set(x, y, dst[x][y]);
+        return this;
+        }
+
+
 
     /**
      * Gets all neighbors of a location that satisfy max( abs(x-X) , abs(y-Y) ) <= dist, This region forms a
@@ -267,6 +267,21 @@ public class SparseGrid2D extends SparseField implements Grid2D, SparseField2D
         {
         return super.setObjectLocation(obj, location);
         }
+
+    /** Returns width * height, or 0 if that's too large to be an int. */
+    protected int numLocationIndices()
+        {
+        long n = (long)width * height;
+        return (n > Integer.MAX_VALUE ? 0 : (int)n);
+        }
+
+    /** Returns x * height + y for locations within the bounds of the grid, else -1. */
+    protected int getLocationIndex(Object location)
+        {
+        Int2D loc = (Int2D)location;
+        if (loc.x < 0 || loc.x >= width || loc.y < 0 || loc.y >= height) return -1;
+        return loc.x * height + loc.y;
+        }
         
 
 
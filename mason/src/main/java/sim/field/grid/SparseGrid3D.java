@@ -216,6 +216,21 @@ public class SparseGrid3D extends SparseField implements Grid3D, SparseField3D
         return super.setObjectLocation(obj, location);
         }
 
+    /** Returns width * height * length, or 0 if that's too large to be an int. */
+    protected int numLocationIndices()
+        {
+        long n = (long)width * height * length;
+        return (n > Integer.MAX_VALUE ? 0 : (int)n);
+        }
+
+    /** Returns (x * height + y) * length + z for locations within the bounds of the grid, else -1. */
+    protected int getLocationIndex(Object location)
+        {
+        Int3D loc = (Int3D)location;
+        if (loc.x < 0 || loc.x >= width || loc.y < 0 || loc.y >= height || loc.z < 0 || loc.z >= length) return -1;
+        return (loc.x * height + loc.y) * length + loc.z;
+        }
+
     // this internal version of tx is arranged to be 34 bytes.  It first tries stx, then tx.
     int tx(int x, int width, int widthtimestwo, int xpluswidth, int xminuswidth) 
         {
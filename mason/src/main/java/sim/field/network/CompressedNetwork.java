@@ -0,0 +1,266 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.field.network;
+import sim.util.*;
+
+/**
+   A CompressedNetwork is an immutable snapshot of the topology of a Network in <i>compressed sparse row</i> (CSR) form.
+   Nodes are numbered as in the Network's allNodes bag.  The edges leaving node <i>i</i> (or entering it, if the
+   CompressedNetwork was built from in-edges) are numbered offsets[i] ... offsets[i+1]-1, and for each such edge <i>k</i>,
+   targets[k] is the index of the node on the other end of the edge, weights[k] is the edge's weight (Edge.getWeight())
+   at the time the CompressedNetwork was built, and edges[k] is the Edge itself.  Edges appear in the same order as in
+   the Network's getEdgesOut(...) or getEdgesIn(...) bags.  In an undirected Network, every edge appears under both of its
+   nodes.
+
+   <p>Traversing these arrays involves no hashing and no Edge objects, so algorithms over very large networks
+   run much faster on a CompressedNetwork than on the Network itself.  CompressedNetwork provides a few such algorithms:
+   breadth-first search, shortest paths, and connected components.
+
+   <p>Ordinarily you'd get a CompressedNetwork with Network.getCompressedNetwork(...), which caches it.  A CompressedNetwork
+   is valid (see isValid()) until the topology of its Network changes; after that it no longer reflects the Network and you
+   should get a new one.  Do not modify the arrays.
+*/
+
+public class CompressedNetwork implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The Network from which this CompressedNetwork was built. */
+    public final Network network;
+    /** The Network's version (see Network.getVersion()) when this CompressedNetwork was built. */
+    public final long version;
+    /** True if this CompressedNetwork holds out-edges, false if it holds in-edges. */
+    public final boolean outEdges;
+    /** The nodes, in the same order as the Network's allNodes bag. */
+    public final Object[] nodes;
+    /** The edges of node i are numbered offsets[i] ... offsets[i+1]-1.  This array is one longer than the number of nodes. */
+    public final int[] offsets;
+    /** The index of the node on the other end of each edge. */
+    public final int[] targets;
+    /** The weight of each edge. */
+    public final double[] weights;
+    /** Each Edge. */
+    public final Edge[] edges;
+
+    /** Builds a CompressedNetwork from the out-edges of the given Network (if outEdges is true) or from its in-edges.
+        This takes O(#nodes + #edges) time. */
+    public CompressedNetwork(Network network, boolean outEdges)
+        {
+        this.network = network;
+        this.version = network.getVersion();
+        this.outEdges = outEdges;
+
+        final int n = network.allNodes.numObjs;
+        nodes = new Object[n];
+        System.arraycopy(network.allNodes.objs, 0, nodes, 0, n);
+
+        // gather each node's edge bag, which also gives us the offsets
+        Bag[] bags = new Bag[n];
+        java.util.Iterator i = network.indexOutInHash.values().iterator();
+        while(i.hasNext())
+            {
+            Network.IndexOutIn ioi = (Network.IndexOutIn)(i.next());
+            bags[ioi.index] = (outEdges ? ioi.out : ioi.in);
+            }
+        offsets = new int[n + 1];
+        for(int x = 0; x < n; x++)
+            offsets[x + 1] = offsets[x] + (bags[x] == null ? 0 : bags[x].numObjs);
+
+        final int m = offsets[n];
+        targets = new int[m];
+        weights = new double[m];
+        edges = new Edge[m];
+        for(int x = 0; x < n; x++)
+            {
+            Bag bag = bags[x];
+            if (bag == null) continue;
+            final Object node = nodes[x];
+            int k = offsets[x];
+            for(int y = 0; y < bag.numObjs; y++)
+                {
+                Edge e = (Edge)(bag.objs[y]);
+                edges[k] = e;
+                weights[k] = e.getWeight();
+                // this is getNodeIndex without the function call
+                targets[k] = ((Network.IndexOutIn)(network.indexOutInHash.get(e.getOtherNode(node)))).index;
+                k++;
+                }
+            }
+        }
+
+    /** Returns true if the Network's topology has not changed since this CompressedNetwork was built. */
+    public boolean isValid() { return network.getVersion() == version; }
+
+    /** Returns the number of nodes. */
+    public int getNumNodes() { return nodes.length; }
+
+    /** Returns the number of edges.  In an undirected Network each edge is counted twice, once under each of its nodes. */
+    public int getNumEdges() { return targets.length; }
+
+    /** Returns the number of edges of node i. */
+    public int getDegree(int i) { return offsets[i + 1] - offsets[i]; }
+
+    /** Returns the index of the given node, or throws a RuntimeException if it is not in the Network. */
+    public int getNodeIndex(Object node) { return network.getNodeIndex(node); }
+
+    /** Performs a breadth-first search from the given node and returns the number of edges on the shortest path to each node,
+        or -1 for nodes which cannot be reached.  If result is non-null and long enough, it is filled and returned. */
+    public int[] getHopDistances(int source, int[] result)
+        {
+        final int n = nodes.length;
+        if (result == null || result.length < n) result = new int[n];
+        java.util.Arrays.fill(result, 0, n, -1);
+        final int[] queue = new int[n];
+        final int[] offsets = this.offsets;
+        final int[] targets = this.targets;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        result[source] = 0;
+        while(head < tail)
+            {
+            int node = queue[head++];
+            int d = result[node] + 1;
+            for(int k = offsets[node]; k < offsets[node + 1]; k++)
+                {
+                int t = targets[k];
+                if (result[t] < 0)
+                    {
+                    result[t] = d;
+                    queue[tail++] = t;
+                    }
+                }
+            }
+        return result;
+        }
+
+    /** Computes the lengths of the shortest paths from the given node to each node using Dijkstra's algorithm, where
+        the length of edge k is weights[k].  Nodes which cannot be reached are given Double.POSITIVE_INFINITY.
+        Weights must not be negative.  If weights is null, this.weights is used.  If result is non-null and long enough,
+        it is filled and returned. */
+    public double[] getShortestPaths(int source, double[] weights, double[] result)
+        {
+        final int n = nodes.length;
+        if (weights == null) weights = this.weights;
+        if (result == null || result.length < n) result = new double[n];
+        java.util.Arrays.fill(result, 0, n, Double.POSITIVE_INFINITY);
+        final int[] offsets = this.offsets;
+        final int[] targets = this.targets;
+
+        // an indexed binary min-heap of nodes keyed by result[node], supporting decrease-key
+        final int[] heap = new int[n];
+        final int[] position = new int[n];   // 0 = never queued, -1 = done, else position in the heap + 1
+        int size = 0;
+        result[source] = 0;
+        heap[size++] = source;
+        position[source] = 1;
+        while(size > 0)
+            {
+            int node = heap[0];
+            position[node] = -1;
+            size--;
+            if (size > 0)
+                {
+                heap[0] = heap[size];
+                position[heap[0]] = 1;
+                siftDown(heap, position, result, size, 0);
+                }
+            double d = result[node];
+            for(int k = offsets[node]; k < offsets[node + 1]; k++)
+                {
+                int t = targets[k];
+                if (position[t] < 0) continue;
+                double nd = d + weights[k];
+                if (nd < result[t])
+                    {
+                    result[t] = nd;
+                    if (position[t] == 0)
+                        {
+                        heap[size] = t;
+                        position[t] = ++size;
+                        }
+                    siftUp(heap, position, result, position[t] - 1);
+                    }
+                }
+            }
+        return result;
+        }
+
+    static void siftUp(int[] heap, int[] position, double[] key, int i)
+        {
+        int node = heap[i];
+        double k = key[node];
+        while(i > 0)
+            {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (key[p] <= k) break;
+            heap[i] = p;
+            position[p] = i + 1;
+            i = parent;
+            }
+        heap[i] = node;
+        position[node] = i + 1;
+        }
+
+    static void siftDown(int[] heap, int[] position, double[] key, int size, int i)
+        {
+        int node = heap[i];
+        double k = key[node];
+        while(true)
+            {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) child++;
+            int c = heap[child];
+            if (key[c] >= k) break;
+            heap[i] = c;
+            position[c] = i + 1;
+            i = child;
+            }
+        heap[i] = node;
+        position[node] = i + 1;
+        }
+
+    /** Labels each node with the number of its connected component, treating edges as undirected (so for a directed Network
+        these are the weakly connected components).  Components are numbered 0, 1, 2, ... in order of their lowest-indexed node.
+        Returns the labels; the number of components is one more than the largest label. */
+    public int[] getComponentLabels()
+        {
+        final int n = nodes.length;
+        final int[] parent = new int[n];
+        for(int x = 0; x < n; x++) parent[x] = x;
+        for(int x = 0; x < n; x++)
+            for(int k = offsets[x]; k < offsets[x + 1]; k++)
+                {
+                int a = find(parent, x);
+                int b = find(parent, targets[k]);
+                if (a < b) parent[b] = a;
+                else if (b < a) parent[a] = b;
+                }
+
+        // each root is the lowest-indexed node of its component, so labels come out in order
+        final int[] labels = new int[n];
+        int count = 0;
+        for(int x = 0; x < n; x++)
+            {
+            int root = find(parent, x);
+            labels[x] = (root == x ? count++ : labels[root]);
+            }
+        return labels;
+        }
+
+    static int find(int[] parent, int x)
+        {
+        while(parent[x] != x)
+            {
+            parent[x] = parent[parent[x]];      // path halving
+            x = parent[x];
+            }
+        return x;
+        }
+    }
@@ -43,6 +43,11 @@ import java.util.*;
     or getMultigraphAdjacencyMatrix(...).  But remember that as soon as the topology changes (adding/deleting a node or edge),
     the adjacency list is invalid, and you need to request another one.
     
+    <p>For algorithms over very large Networks, getCompressedNetwork(...) returns the topology as a CompressedNetwork:
+    flat int arrays in compressed sparse row form, which can be traversed without any hashing or chasing of Edge objects.
+    The Network caches its CompressedNetworks and rebuilds them only when its topology has changed, which it tracks
+    with a version number (see getVersion()).
+    
     <p><b>Computational Complexity.</b>  Adding a node or an edge is O(1).  Removing an edge is O(1).  Removing a node is O(m), where
     m is the total number of edges in and out of the node.  Removing all nodes is O(1) and fast.  Getting the in-edges or out-edges for a node
     is O(1).  Getting the to or from node for an edge is O(1) and fast.
@@ -124,6 +129,34 @@ public class Network implements java.io.Serializable
         
     // returned instead of null for those methods which require a guarantee that the returned Bag should never be touched.
     final Bag emptyBag = new Bag();
+    
+    // incremented whenever the topology changes
+    long version = 0;
+    
+    // cached CompressedNetworks of out-edges and in-edges
+    transient CompressedNetwork compressedOut;
+    transient CompressedNetwork compressedIn;
+
+    /** Returns the version of the Network's topology.  The version changes whenever a node or edge is
+        added or removed, or the edges are reversed, through the Network's methods.  It does not change if you modify
+        allNodes or indexOutInHash directly, nor if you change the info objects of Edges. */
+    public long getVersion() { return version; }
+
+    /** Returns the Network's topology as a CompressedNetwork of its out-edges (if outEdges is true) or its in-edges.
+        The CompressedNetwork is built in O(#nodes + #edges) time and cached: as long as the topology has not changed 
+        (see getVersion()), the same CompressedNetwork is returned again.  Edge weights in the CompressedNetwork are those 
+        of the Edges when it was built.  */
+    public CompressedNetwork getCompressedNetwork(boolean outEdges)
+        {
+        CompressedNetwork c = (outEdges || !directed ? compressedOut : compressedIn);
+        if (c == null || !c.isValid())
+            {
+            c = new CompressedNetwork(this, outEdges || !directed);
+            if (outEdges || !directed) compressedOut = c;
+            else compressedIn = c;
+            }
+        return c;
+        }
 
     /** Creates and returns an adjacency list.  If you're doing lots of operations (especially network traversals)
         which won't effect the topology of the network, an adjacency list structure might be more efficient for you to access rather than lots of
@@ -371,6 +404,7 @@ public class Network implements java.io.Serializable
         allNodes.add( node );
         IndexOutIn ioih = new IndexOutIn( allNodes.numObjs-1, null, null );
         indexOutInHash.put( node, ioih );
+        version++;
         }
 
     /** Add an edge, storing info as the edge's associated information object. 
@@ -394,6 +428,7 @@ public class Network implements java.io.Serializable
         if (edge.owner!=null)
             throw new RuntimeException("Attempted to add an Edge already added elsewhere");
         edge.owner = this;
+        version++;
     
         edge.indexFrom = 0;
         edge.indexTo = 0;
@@ -469,6 +504,7 @@ public class Network implements java.io.Serializable
         if (edge.owner != this)
             return null;
         edge.owner = null;
+        version++;
         // we'll do an extraneous hash if this is being called from removeNode...
         
         // remove the edge from the "out" node's "out" bag
@@ -530,6 +566,7 @@ public class Network implements java.io.Serializable
      * Remove all the edges in the network.
      */
     public void removeAllEdges() {
+        version++;
         int n = allNodes.numObjs;
         Iterator i = indexOutInHash.values().iterator();
         for(int k=0;k<n;k++)
@@ -572,6 +609,7 @@ public class Network implements java.io.Serializable
                 
         // finally, delete the ioi
         indexOutInHash.remove(node);
+        version++;
 
         // return the node
         return node;
@@ -584,6 +622,7 @@ public class Network implements java.io.Serializable
         indexOutInHash = buildMap(ANY_SIZE);
         Bag retval = allNodes;
         allNodes = new Bag();
+        version++;
         return retval;
         }
     
@@ -673,6 +712,7 @@ public class Network implements java.io.Serializable
     public void reverseAllEdges()
         {
         if(!directed) return;//that was quick
+        version++;
         int n = allNodes.numObjs;
         Iterator i = indexOutInHash.values().iterator();
         for(int k=0;k<n;k++)
@@ -768,6 +768,16 @@ public class SimpleProperties extends Properties implements java.io.Serializable
             }
         }
     
+    /** Returns the get method which getValue(index) invokes on getObject(), so that code which reads
+        the same property over and over can resolve it once.  Returns null if the index is out of the range
+        [0 ... numProperties() - 1 ], or if the properties come from a Propertied object. */
+    public Method getGetMethod(int index)
+        {
+        if (auxillary!=null) return null;
+        if (index < 0 || index >= numProperties()) return null;
+        return (Method)(getMethods.get(index));
+        }
+
     protected Object _setValue(int index, Object value)
         {
         if (auxillary!=null) return auxillary.setValue(index,value);  // I think this is right
@@ -0,0 +1,110 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+
+/**
+   A SweepSink which writes its rows in a compact binary columnar format.  Rows are buffered
+   into blocks of at most <i>blockSize</i> rows, and each block is written column by column, 
+   so that a reader can pull out a single column without parsing text.  At most one block is
+   held in memory at a time.
+   
+   <p>The format, written with a DataOutputStream (and so big-endian), is:
+   
+   <ul>
+   <li>The int MAGIC, then the int VERSION.
+   <li>The number of value columns <i>v</i> (an int), followed by the names of all <i>v</i> + 3
+   columns ("job", "trial", "rng", and the value columns), each written with writeUTF(...).
+   <li>Zero or more blocks.  Each block begins with the number of rows <i>n</i> (an int &gt; 0),
+   followed by <i>n</i> job numbers (ints), <i>n</i> trial numbers (ints), <i>n</i> seeds (longs),
+   then for each of the <i>v</i> value columns, <i>n</i> doubles.
+   <li>The int 0, marking the end of the file.
+   </ul>
+*/
+
+public class BinarySweepSink implements SweepSink
+    {
+    /** The first int of the file */
+    public static final int MAGIC = 0x4D535750;      // "MSWP"
+    /** The second int of the file */
+    public static final int VERSION = 1;
+    /** The default number of rows per block */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    
+    DataOutputStream out;
+    int blockSize;
+    int rows = 0;
+    int[] jobs;
+    int[] trials;
+    long[] seeds;
+    double[][] columns;      // columns[column][row]
+        
+    /** Writes to the given OutputStream, which is closed when the sweep is done, using DEFAULT_BLOCK_SIZE rows per block. */
+    public BinarySweepSink(OutputStream out)
+        {
+        this(out, DEFAULT_BLOCK_SIZE);
+        }
+
+    /** Writes to the given OutputStream, which is closed when the sweep is done, using the given number of rows per block. */
+    public BinarySweepSink(OutputStream out, int blockSize)
+        {
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be at least 1, not " + blockSize);
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.blockSize = blockSize;
+        }
+        
+    public void open(String[] columnNames) throws IOException
+        {
+        int numValues = columnNames.length - 3;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numValues);
+        for(int i = 0; i < columnNames.length; i++)
+            out.writeUTF(columnNames[i]);
+                
+        jobs = new int[blockSize];
+        trials = new int[blockSize];
+        seeds = new long[blockSize];
+        columns = new double[numValues][blockSize];
+        }
+        
+    public void write(int job, int trial, long seed, double[] values) throws IOException
+        {
+        jobs[rows] = job;
+        trials[rows] = trial;
+        seeds[rows] = seed;
+        for(int i = 0; i < values.length; i++)
+            columns[i][rows] = values[i];
+        if (++rows == blockSize) flushBlock();
+        }
+        
+    void flushBlock() throws IOException
+        {
+        if (rows == 0) return;
+        out.writeInt(rows);
+        for(int i = 0; i < rows; i++) out.writeInt(jobs[i]);
+        for(int i = 0; i < rows; i++) out.writeInt(trials[i]);
+        for(int i = 0; i < rows; i++) out.writeLong(seeds[i]);
+        for(int c = 0; c < columns.length; c++)
+            {
+            double[] column = columns[c];
+            for(int i = 0; i < rows; i++) out.writeDouble(column[i]);
+            }
+        rows = 0;
+        }
+        
+    public void close() throws IOException
+        {
+        if (columns != null)  // we were opened
+            {
+            flushBlock();
+            out.writeInt(0);
+            }
+        out.close();
+        }
+    }
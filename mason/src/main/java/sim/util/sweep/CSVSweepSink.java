@@ -0,0 +1,60 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+
+/**
+   A SweepSink which writes its rows as comma-separated text, one line per row, beginning with a
+   header line of column names.  Rows are built in a single reused StringBuilder and written 
+   through a buffered Writer.
+*/
+
+public class CSVSweepSink implements SweepSink
+    {
+    Writer writer;
+    StringBuilder builder = new StringBuilder();
+        
+    /** Writes to the given OutputStream, which is closed when the sweep is done. */
+    public CSVSweepSink(OutputStream out)
+        {
+        this(new OutputStreamWriter(out));
+        }
+
+    /** Writes to the given Writer, which is closed when the sweep is done. */
+    public CSVSweepSink(Writer writer)
+        {
+        this.writer = new BufferedWriter(writer);
+        }
+        
+    public void open(String[] columns) throws IOException
+        {
+        builder.setLength(0);
+        for(int i = 0; i < columns.length; i++)
+            {
+            if (i > 0) builder.append(", ");
+            builder.append(columns[i]);
+            }
+        builder.append('\n');
+        writer.write(builder.toString());
+        }
+        
+    public void write(int job, int trial, long seed, double[] values) throws IOException
+        {
+        builder.setLength(0);
+        builder.append(job).append(", ").append(trial).append(", ").append(seed);
+        for(int i = 0; i < values.length; i++)
+            builder.append(", ").append(values[i]);
+        builder.append('\n');
+        writer.write(builder.toString());
+        }
+        
+    public void close() throws IOException
+        {
+        writer.close();
+        }
+    }
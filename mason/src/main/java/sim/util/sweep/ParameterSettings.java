@@ -31,6 +31,10 @@ public class ParameterSettings
     public static final String THREADS_P = "threads";
     public static final String SEED_P = "seed";
     public static final String OUT_P = "out";
+    public static final String FORMAT_P = "format";
+    public static final String BUFFER_P = "buffer";
+    public static final String LEDGER_P = "ledger";
+    public static final String CHECKPOINT_P = "checkpoint";
     
     public Properties p;
     public int index;
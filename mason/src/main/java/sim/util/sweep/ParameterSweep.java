@@ -10,16 +10,46 @@ import sim.engine.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import sim.util.*;
 import ec.util.*;
 import java.util.zip.GZIPOutputStream;
 
+/**
+   ParameterSweep runs a model many times, once per trial for each combination of values of its
+   independent variables, and records statistics about its dependent variables.  The sweep is
+   described by a ParameterDatabase: see ParameterSettings for the parameter names.
+   
+   <p>Combinations are not generated up front: combination <i>c</i> is decoded from <i>c</i> itself
+   when its jobs are handed out (see getCombination(...)), so sweeps over large grids take no more memory
+   than small ones.  Jobs are run by a fixed pool of <i>threads</i> workers, each of which reuses a single
+   model instance.  The properties of the model are resolved once per worker into PropertyAccessors,
+   which read the dependent variables at every step without reflective lookups or boxing.
+   
+   <p>Finished rows are handed to a SweepSink by a single writer thread through a queue holding at most
+   <i>buffer</i> rows: if the sink falls behind, the workers wait for it.  The default sinks are a
+   CSVSweepSink and (if the <i>format</i> parameter is "binary") a BinarySweepSink writing to the <i>out</i>
+   file, but you can provide your own sink to the constructor.
+   
+   <p>Unless the <i>ledger</i> parameter is false, finished rows are also recorded in a SweepLedger next to
+   the <i>out</i> file.  If the sweep dies or is stopped, running it again with the same parameters
+   rewrites the rows in the ledger to the output and skips their jobs.  If the <i>checkpoint</i> parameter
+   is greater than 0, each job also checkpoints itself every <i>checkpoint</i> steps, and an unfinished
+   job is resumed from its last checkpoint.
+*/
+
 public class ParameterSweep 
     {
     public static final String GZIP_POSTFIX = ".gz";
+    /** The value of the format parameter for comma-separated text output (the default) */
+    public static final String FORMAT_CSV = "csv";
+    /** The value of the format parameter for binary columnar output */
+    public static final String FORMAT_BINARY = "binary";
+    /** The default maximum number of finished rows waiting to be written */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
     
-    // Output stream to dump resuts 
-    PrintWriter printWriter;
+    // Where the results go
+    SweepSink sink;
     
     // Independent Variables
     String indNames[];
@@ -39,11 +69,23 @@ public class ParameterSweep
     int numSteps;
     int mod;
     long baseSeed = 100;
+    int bufferSize = DEFAULT_BUFFER_SIZE;
+    int numCombinations;
+    String outFile;
+    boolean usesLedger = true;
+    int checkpointInterval = 0;
+    SweepLedger ledger;
     
-    // This is an arraylist of arraylists of doubles, recursively generated, for each combination of values of our independent variables
-    ArrayList<ArrayList<Double>> allIndependentVariableValueCombinations = new ArrayList<ArrayList<Double>>();
-    
+    /** Builds a ParameterSweep which writes its results to the file given by the <i>out</i> parameter,
+        in the format given by the <i>format</i> parameter. */
     public ParameterSweep(ParameterDatabase db) throws ClassNotFoundException
+        {
+        this(db, null);
+        }
+        
+    /** Builds a ParameterSweep which writes its results to the given sink.  If the sink is null, then the results
+        are written to the file given by the <i>out</i> parameter, in the format given by the <i>format</i> parameter. */
+    public ParameterSweep(ParameterDatabase db, SweepSink sink) throws ClassNotFoundException
         {
         // Load class
         String modelPath = ((String)(db.getStringWithDefault(new Parameter(ParameterSettings.MODEL_P), null, ""))).replace("/",".");
@@ -61,11 +103,15 @@ public class ParameterSweep
         if (indMaxValues == null) throw new RuntimeException("max is invalid or not the same length as independent");
         if (d == null) throw new RuntimeException("divisions is invalid, less than 1, or not the same length as independent");
         indDivisions = new int[d.length];
+        long combinations = 1;
         for(int i = 0; i < d.length; i++)
             {
             indDivisions[i] = (int)d[i];
             if (indDivisions[i] != d[i]) throw new RuntimeException("division #" + (i + 1) + " is not an integer.");
+            combinations *= indDivisions[i];
+            if (combinations > Integer.MAX_VALUE) throw new RuntimeException("Too many combinations of independent variables.");
             }
+        numCombinations = (int)combinations;
         
         // Load dependent vars
         depNames = ((String)(db.getStringWithDefault(new Parameter(ParameterSettings.DEPENDENT_P), null, ""))).split("\\s");
@@ -78,27 +124,45 @@ public class ParameterSweep
         if (numSteps < 0) throw new RuntimeException("Invalid steps value.  You have: " + numSteps);
         numTrials = db.getInt(new Parameter(ParameterSettings.TRIALS_P), null, 1);
         if (numTrials < 1) throw new RuntimeException("Trials must be at least 1.  You have: " + numTrials);
+        if (numCombinations * (long)numTrials > Integer.MAX_VALUE) throw new RuntimeException("Too many jobs: " + (numCombinations * (long)numTrials));
         numThreads = db.getInt(new Parameter(ParameterSettings.THREADS_P), null, 1);
         if (numThreads < 1) throw new RuntimeException("Threads must be at least 1.  You have: " + numThreads);
         baseSeed = db.getLong(new Parameter(ParameterSettings.SEED_P), null, 1);
         if (baseSeed < 1) throw new RuntimeException("Seed must be at least 1.  You have: " + baseSeed);
+        bufferSize = db.getIntWithDefault(new Parameter(ParameterSettings.BUFFER_P), null, DEFAULT_BUFFER_SIZE);
+        if (bufferSize < 1) throw new RuntimeException("Buffer must be at least 1.  You have: " + bufferSize);
+        usesLedger = db.getBoolean(new Parameter(ParameterSettings.LEDGER_P), null, true);
+        checkpointInterval = db.getIntWithDefault(new Parameter(ParameterSettings.CHECKPOINT_P), null, 0);
+        if (checkpointInterval < 0) throw new RuntimeException("Checkpoint must be at least 0.  You have: " + checkpointInterval);
 
-        try
+        outFile = db.getStringWithDefault(new Parameter(ParameterSettings.OUT_P), null, "");
+        if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
+            outFile = outFile + GZIP_POSTFIX;
+
+        if (sink == null)
             {
-            String filename = db.getStringWithDefault(new Parameter(ParameterSettings.OUT_P), null, "");
-            if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
+            String format = db.getStringWithDefault(new Parameter(ParameterSettings.FORMAT_P), null, FORMAT_CSV);
+            if (!format.equals(FORMAT_CSV) && !format.equals(FORMAT_BINARY))
+                throw new RuntimeException("Format must be " + FORMAT_CSV + " or " + FORMAT_BINARY + ".  You have: " + format);
+            try
                 {
-                printWriter = new PrintWriter(new GZIPOutputStream(new FileOutputStream(filename + GZIP_POSTFIX)), true);
+                OutputStream out;
+                if (db.getBoolean(new Parameter(ParameterSettings.COMPRESS_P), null, false))
+                    {
+                    out = new GZIPOutputStream(new FileOutputStream(outFile));
+                    }
+                else 
+                    {   
+                    out = new FileOutputStream(outFile);
+                    }
+                sink = (format.equals(FORMAT_BINARY) ? (SweepSink)(new BinarySweepSink(out)) : (SweepSink)(new CSVSweepSink(out)));
                 }
-            else 
-                {   
-                printWriter = new PrintWriter(new FileOutputStream(filename), true);
+            catch (IOException e)
+                {
+                throw new RuntimeException("Could not open file.", e);
                 }
             }
-        catch (IOException e)
-            {
-            throw new RuntimeException("Could not open file.", e);
-            }
+        this.sink = sink;
                 
         SimState simState = newInstance(baseSeed, modelClass);
         sim.util.Properties properties = sim.util.Properties.getProperties(simState);
@@ -119,10 +183,6 @@ public class ParameterSweep
             }
         }  
   
-    Object[] printWriterLock = new Object[0];
-    // the only way we print results: one line at a time 
-    void println(String val) { synchronized(printWriterLock) { printWriter.println(val); } }
-
     Object[] lock = new Object[0];
     public void printSynchronized(String str)
         {
@@ -134,7 +194,7 @@ public class ParameterSweep
     
         
     boolean running;
-    boolean stop;
+    volatile boolean stop;
     Object runningLock = new Object[0];
     Thread outer;
     public void stop()
@@ -152,6 +212,39 @@ public class ParameterSweep
         try { outer.join();     }               // wait for thread manager to die.  Must be outside runnningLock
         catch (InterruptedException ex) { } // does not happen
         }
+    
+    // A finished job's results, waiting to be written to the sink
+    static class Row
+        {
+        int job;
+        int trial;
+        long seed;
+        double[] values;
+        }
+    
+    // Posted by each worker when it has no more jobs to do
+    static final Row DONE = new Row();
+    
+    // Finished rows waiting to be written
+    ArrayBlockingQueue<Row> results;
+    
+    void putResult(Row row)
+        {
+        while(true)
+            {
+            try { results.put(row); return; }
+            catch (InterruptedException e) { } // try again
+            }
+        }
+        
+    Row takeResult()
+        {
+        while(true)
+            {
+            try { return results.take(); }
+            catch (InterruptedException e) { } // try again
+            }
+        }
                 
     // returns true if we're already running
     public void run() 
@@ -160,92 +253,180 @@ public class ParameterSweep
             {
             if (running) return;    // already running
         
-            generateAllIndependentVariableValueCombinations(new ArrayList<Double>());
-                        
-            writeFileHeader(); 
             running = true;
             stop = false;
+            results = new ArrayBlockingQueue<Row>(bufferSize);
             outer = new Thread(new Runnable()
                 {
                 public void run()
                     {
-                    Thread[] threads = new Thread[numThreads];
-                    for(int i = 0; i < threads.length; i++) 
+                    runSweep();
+                    }
+                });
+            outer.start();
+            }
+        }
+    
+    // Starts the workers, then writes their results to the sink until they're all done
+    void runSweep()
+        {
+        IOException error = null;
+        try 
+            { 
+            String[] columns = getColumnNames();
+            sink.open(columns); 
+            if (usesLedger && !outFile.equals(""))
+                {
+                ledger = new SweepLedger(outFile, getSignature(columns), columns.length - 3);
+                ParameterSweep.Row[] rows = ledger.getCompletedRows();
+                if (rows.length > 0)
+                    printSynchronized("Resuming sweep: " + rows.length + " jobs already done");
+                for(int i = 0; i < rows.length; i++)
+                    sink.write(rows[i].job, rows[i].trial, rows[i].seed, rows[i].values);
+                }
+            }
+        catch (IOException e) 
+            { 
+            error = e; 
+            }
+        
+        if (error == null)
+            {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            for(int i = 0; i < numThreads; i++)
+                {
+                executor.execute(new Runnable()
+                    {
+                    public void run()
                         {
-                        threads[i] = new Thread(new Runnable()
-                            {
-                            public void run()
-                                {
-                                SimState simState = null;
-                                sim.util.Properties properties = null;
-                                ParameterSweepSimulationJob job = null;
-                                while ((job = (ParameterSweepSimulationJob)getNextJob()) != null) 
-                                    {
-                                    if (stop) 
-                                        {
-                                        break;
-                                        }
-
-                                    // initialize simstate and properties
-                                    if (simState == null)
-                                        {
-                                        simState = newInstance(job.jobNumber + baseSeed, modelClass);
-                                        properties = sim.util.Properties.getProperties(simState);
-                                        }
-                                    else
-                                        {
-                                        simState.setSeed(job.jobNumber + baseSeed);
-                                        } 
-
-                                    int combination = job.jobNumber / numTrials;  // which variable combination are we doing this time?
-                                    job.run(simState, properties, allIndependentVariableValueCombinations.get(combination));
-                                    }
-                                }
-                            });
-                        threads[i].start();
+                        runJobs();
                         }
+                    });
+                }
+            executor.shutdown();        // the workers exit when they run out of jobs
                         
-                    for(int i = 0; i<threads.length; i++) 
+            int finished = 0;
+            while(finished < numThreads)
+                {
+                Row row = takeResult();
+                if (row == DONE) 
+                    {
+                    finished++;
+                    }
+                else if (error == null)
+                    {
+                    try
+                        {
+                        sink.write(row.job, row.trial, row.seed, row.values);
+                        if (ledger != null) ledger.record(row);
+                        }
+                    catch (IOException e)
                         {
-                        try 
-                            {
-                            threads[i].join();
-                            }
-                        catch(InterruptedException e)
-                            {
-                            // doesn't happen
-                            }
+                        // stop the sweep, but keep draining the queue so the workers don't block
+                        error = e;
+                        stop = true;
                         }
-                    synchronized(printWriterLock) { printWriter.close(); }
-                    synchronized(runningLock) { running = false; }
                     }
-                });
-            outer.start();
+                }
+            }
+                
+        try 
+            { 
+            sink.close(); 
+            }
+        catch (IOException e) 
+            { 
+            if (error == null) error = e; 
+            }
+        if (ledger != null)
+            {
+            try 
+                { 
+                ledger.close(error == null && !stop && getJobCount() == getTotalJobs()); 
+                }
+            catch (IOException e) 
+                { 
+                if (error == null) error = e; 
+                }
+            ledger = null;
             }
+        if (error != null) 
+            printSynchronized("Could not write the results of the parameter sweep.\n\nMESSAGE: " + error);
+        synchronized(runningLock) { running = false; }
         }
     
-    
-    // Populate all permutations of settings. Recursive.
-    public void generateAllIndependentVariableValueCombinations(ArrayList<Double> current)
+    // Run by each worker: does jobs until there are none left or we're stopped
+    void runJobs()
         {
-        if (current.size() == indIndexes.length)
+        try
             {
-            allIndependentVariableValueCombinations.add((ArrayList<Double>)current.clone());
-            return;
-            }
-
-        int index = current.size();
-        double increment = 0;
-        if (indDivisions[index] != 1)
-            increment  = (indMaxValues[index]-indMinValues[index]) / (indDivisions[index]-1);
+            SimState simState = null;
+            PropertyAccessor[] independent = null;
+            PropertyAccessor[] dependent = null;
+            ParameterSweepSimulationJob job = null;
+            while (!stop && (job = getNextJob()) != null) 
+                {
+                SweepLedger.Checkpoint checkpoint = null;
+                if (ledger != null && checkpointInterval > 0)
+                    checkpoint = ledger.readCheckpoint(job.jobNumber);
                 
-        for(int i = 0; i < indDivisions[index]; i++)
+                // initialize simstate and properties
+                if (checkpoint != null || simState == null)
+                    {
+                    simState = (checkpoint != null ? checkpoint.state : newInstance(job.jobNumber + baseSeed, modelClass));
+                    sim.util.Properties properties = sim.util.Properties.getProperties(simState);
+                    independent = new PropertyAccessor[indIndexes.length];
+                    for(int i = 0; i < independent.length; i++)
+                        independent[i] = new PropertyAccessor(properties, indIndexes[i]);
+                    dependent = new PropertyAccessor[depIndexes.length];
+                    for(int i = 0; i < dependent.length; i++)
+                        dependent[i] = new PropertyAccessor(properties, depIndexes[i]);
+                    }
+                else
+                    {
+                    simState.setSeed(job.jobNumber + baseSeed);
+                    } 
+
+                Row row = (checkpoint != null ? 
+                    job.run(simState, independent, dependent, checkpoint.step, checkpoint.values) :
+                    job.run(simState, independent, dependent, 0, null));
+                if (row != null) putResult(row);
+                }
+            }
+        catch (RuntimeException e)
+            {
+            printSynchronized("Parameter sweep job failed.\n\nMESSAGE: " + e);
+            stop = true;
+            }
+        finally
             {
-            current.add(indMinValues[index] + i * increment);
-            generateAllIndependentVariableValueCombinations(current);
-            current.remove(current.size()-1);
+            putResult(DONE);
             }
         }
+    
+    /** Returns the number of combinations of values of the independent variables. */
+    public int getNumCombinations()
+        {
+        return numCombinations;
+        }
+        
+    /** Places into putInHere the values of the independent variables for the given combination, 
+        and returns it.  If putInHere is null, a new array is created.  Combinations are numbered
+        like the digits of a number: the last independent variable changes fastest. */
+    public double[] getCombination(int combination, double[] putInHere)
+        {
+        if (putInHere == null) putInHere = new double[indDivisions.length];
+        for(int i = indDivisions.length - 1; i >= 0; i--)
+            {
+            int division = combination % indDivisions[i];
+            combination /= indDivisions[i];
+            double increment = 0;
+            if (indDivisions[i] != 1)
+                increment  = (indMaxValues[i]-indMinValues[i]) / (indDivisions[i]-1);
+            putInHere[i] = indMinValues[i] + division * increment;
+            }
+        return putInHere;
+        }
 
     // Takes the property names, and gets the property indexes
     // FIXME: What does this do precisely?
@@ -317,11 +498,15 @@ public class ParameterSweep
         {
         synchronized(nextJobLock)
             {
-            if (jobCount < allIndependentVariableValueCombinations.size() * numTrials)              // I think this means we're done?
+            if (ledger != null)     // skip jobs we finished in an earlier run
+                while(jobCount < numCombinations * numTrials && ledger.isCompleted(jobCount))
+                    jobCount++;
+                    
+            if (jobCount < numCombinations * numTrials)              // I think this means we're done?
                 {
                 int combination = jobCount / numTrials;  // which variable combination are we doing this time?
                 int trial = jobCount % numTrials;  // which trial are we doing this time?
-                ParameterSweepSimulationJob job = new ParameterSweepSimulationJob(allIndependentVariableValueCombinations.get(combination), this, jobCount, trial);
+                ParameterSweepSimulationJob job = new ParameterSweepSimulationJob(getCombination(combination, null), this, jobCount, trial);
                 printSynchronized("Job " + jobCount);
                 jobCount++;
                 return job;
@@ -335,7 +520,7 @@ public class ParameterSweep
         {
         synchronized(nextJobLock)
             {
-            return allIndependentVariableValueCombinations.size() * numTrials;
+            return numCombinations * numTrials;
             }
         }
         
@@ -346,22 +531,31 @@ public class ParameterSweep
             return jobCount;
             }
         }
+    
+    /** Returns the number of times each dependent variable is recorded, once every <i>mod</i> steps. */
+    int getNumSamples()
+        {
+        return (mod == 0 ? 0 : numSteps / mod);
+        }
         
-    void writeFileHeader() 
+    /** Returns the names of the columns of each row of results. */
+    public String[] getColumnNames()
         {
-        StringBuilder header = new StringBuilder(); 
-        header.append("job, trial, rng");
+        ArrayList<String> columns = new ArrayList<String>();
+        columns.add("job");
+        columns.add("trial");
+        columns.add("rng");
         for(int i = 0; i < indNames.length; i++) 
             {
-            header.append(", " + indNames[i]);
+            columns.add(indNames[i]);
             }
             
         for (int i = 0; i < depNames.length; i++) 
             {
-            header.append(", " + depNames[i] + "-final");
-            header.append(", " + depNames[i] + "-min");
-            header.append(", " + depNames[i] + "-max");
-            header.append(", " + depNames[i] + "-avg");
+            columns.add(depNames[i] + "-final");
+            columns.add(depNames[i] + "-min");
+            columns.add(depNames[i] + "-max");
+            columns.add(depNames[i] + "-avg");
             }
                 
         if (mod != 0)
@@ -370,13 +564,26 @@ public class ParameterSweep
                 {
                 for(int i = 0; i < depIndexes.length; i++)
                     {
-                    header.append(", " + depNames[i] + "-" + j); 
+                    columns.add(depNames[i] + "-" + j); 
                     }
                 }
             }
 
-        println(header.toString());
-        header = null;
+        return columns.toArray(new String[columns.size()]);
+        }
+    
+    // Describes everything which determines the results of the sweep, so that a ledger
+    // from a different sweep isn't mistaken for ours
+    String getSignature(String[] columns)
+        {
+        StringBuilder b = new StringBuilder();
+        b.append(modelClass.getName()).append(" trials=").append(numTrials).append(" steps=").append(numSteps)
+            .append(" mod=").append(mod).append(" seed=").append(baseSeed);
+        for(int i = 0; i < indNames.length; i++)
+            b.append(" ").append(indMinValues[i]).append(":").append(indMaxValues[i]).append(":").append(indDivisions[i]);
+        for(int i = 0; i < columns.length; i++)
+            b.append(" ").append(columns[i]);
+        return b.toString();
         }
     }
 
@@ -384,146 +591,92 @@ public class ParameterSweep
 //
 class ParameterSweepSimulationJob
     {
-    ArrayList<Double> settings;
+    double[] settings;
     ParameterSweep sweep;
-    sim.util.Properties properties;
-    StringBuilder builder = new StringBuilder();
     int jobNumber;
     int trial;
-
-    double[] curs;
-    double[] mins;
-    double[] maxes;
-    double[] avgs;
     
-    boolean started = false;
-        
-    public ParameterSweepSimulationJob( ArrayList<Double> settings, ParameterSweep sweep, int jobNumber, int trial)
+    public ParameterSweepSimulationJob(double[] settings, ParameterSweep sweep, int jobNumber, int trial)
         {
         this.jobNumber = jobNumber;
         this.trial = trial;
         this.sweep = sweep;
         this.settings = settings;
-        avgs = new double[sweep.depIndexes.length];
-        mins = new double[sweep.depIndexes.length];
-        maxes = new double[sweep.depIndexes.length];
-        curs = new double[sweep.depIndexes.length];
         }
     
-
-    public void record(int step, sim.util.Properties properties)
-        {
-        for(int i = 0; i < sweep.depIndexes.length; i++)
-            {
-            double value = getPropertyValueAsDouble(properties, sweep.depIndexes[i]);
-            curs[i] = value;
-            avgs[i] += value;
-            if (mins[i] > value || !started)
-                mins[i] = value;
-            if (maxes[i] < value || !started)
-                maxes[i] = value;
-                        
-            started = true;
-
-            if (sweep.mod != 0 && (step + 1) % sweep.mod == 0)
-                {
-                builder.append(value + ", ");
-                }
-            }
-        }
-
-    public void recordFinal(sim.util.Properties properties, long seed, ArrayList<Double> combos)
+    /** Runs the job and returns its row of results, or null if the sweep was stopped first.
+        The row holds the settings, then for each dependent variable its final, min, max, and
+        average values, then the values recorded every mod steps.  If values is non-null, the job
+        is resumed from a checkpoint: simState has already done firstStep steps, and values holds
+        the partial row as of then. */
+    public ParameterSweep.Row run(SimState simState, PropertyAccessor[] independent, PropertyAccessor[] dependent, int firstStep, double[] values) 
         {
-        String str = jobNumber + ", " + (trial + 1) + ", " + seed + ", ";
+        int numDependent = dependent.length;
+        int mod = sweep.mod;
+        int numSteps = sweep.numSteps;
+        int stats = settings.length;                        // final, min, max, sum for each dependent variable
+        int samples = stats + numDependent * 4;             // the values recorded every mod steps
         
-        for(int i = 0; i < combos.size(); i++)
+        if (values == null)
             {
-            str += (combos.get(i) + ", ");
+            values = new double[settings.length + numDependent * 4 + sweep.getNumSamples() * numDependent];
+            System.arraycopy(settings, 0, values, 0, settings.length);
+            simState.start();
+            for(int i = 0; i < independent.length; i++)
+                independent[i].set(settings[i]);
             }
-
-        for(int i = 0; i < sweep.depIndexes.length; i++)
+        else if (mod != 0)
             {
-            str += (curs[i] + ", " + 
-                (avgs[i] / sweep.numSteps) + ", " + 
-                mins[i] + ", " +
-                maxes[i] + ", ");
+            samples += (firstStep / mod) * numDependent;    // skip the samples we've already recorded
             }
-        str = str + builder.toString();
-                        
-        sweep.println(str);
-        }
-    
-    public void run(SimState simState, sim.util.Properties properties, ArrayList<Double> combos) 
-        {
-        simState.start();
-        properties = initSweepValuesFromProperties(properties);
-        for(int i = 0; i< sweep.numSteps; i++)
+                
+        for(int step = firstStep; step < numSteps; step++)
             {
             if (sweep.stop)
                 {
                 simState.finish();  
-                return;
+                return null;
                 }
                         
             simState.schedule.step(simState);
-            record(i, properties);
-            }
-      
-        recordFinal(properties, simState.seed(), combos);
-        simState.finish();
-        }
-        
-    sim.util.Properties initSweepValuesFromProperties(sim.util.Properties properties) 
-        {
-
-        for(int index = 0; index < sweep.indIndexes.length; index++)
-            {
-            String type = properties.getType(sweep.indIndexes[index]).toString();
-
-            if (type.equals("double")) 
+            boolean record = (mod != 0 && (step + 1) % mod == 0);
+            for(int i = 0; i < numDependent; i++)
                 {
-                properties.setValue(sweep.indIndexes[index], settings.get(index));
+                double value = dependent[i].get();
+                int s = stats + i * 4;
+                values[s] = value;
+                if (step == 0 || values[s + 1] > value)
+                    values[s + 1] = value;
+                if (step == 0 || values[s + 2] < value)
+                    values[s + 2] = value;
+                values[s + 3] += value;
+                if (record)
+                    values[samples++] = value;
                 }
-            else if (type.equals("int")) 
-                {
-                properties.setValue(sweep.indIndexes[index], Integer.valueOf((int)(settings.get(index).doubleValue())));
-                }
-            else if (type.equals("boolean")) 
-                {
-                properties.setValue(sweep.indIndexes[index], Boolean.valueOf(settings.get(index).doubleValue() != 0));
-                }
-            else
+            
+            if (sweep.checkpointInterval > 0 && sweep.ledger != null && 
+                (step + 1) % sweep.checkpointInterval == 0 && step + 1 < numSteps)
                 {
-                //System.err.println("Independent: unsupported type " + properties.getType(src.main.java.sim.util.sweep.indIndexes[index]).toString() +  " on index " + index + " which should be..." + properties.getName(src.main.java.sim.util.sweep.indIndexes[index]));
-                throw new RuntimeException("Unsupported type");
+                try
+                    {
+                    sweep.ledger.writeCheckpoint(jobNumber, step + 1, values, simState);
+                    }
+                catch (IOException e)
+                    {
+                    sweep.printSynchronized("Job " + jobNumber + ": could not write checkpoint.\n\nMESSAGE: " + e);
+                    }
                 }
             }
-        return properties;
-        }
-
-    public double getPropertyValueAsDouble(sim.util.Properties properties, int dependentIndex) 
-        {
-        double dValue = 0.0;
-        int propertyIndex = dependentIndex;
-        String type = properties.getType(propertyIndex).toString();
-
-        if (type.equals("double")) 
-            {
-            dValue = (Double)properties.getValue(propertyIndex);
-            }
-        else if (type.equals("int")) 
-            {
-            dValue = ((Integer)properties.getValue(propertyIndex)).doubleValue();
-            }
-        else if (type.equals("boolean")) 
-            {
-            dValue = ((Boolean)properties.getValue(propertyIndex)) ? 1  : 0;
-            }
-        else
-            {
-            //System.err.println("Independent: unsupported type " + properties.getType(propertyIndex).toString());
-            System.exit(1);
-            }
-        return dValue;
+        
+        for(int i = 0; i < numDependent; i++)
+            values[stats + i * 4 + 3] /= numSteps;          // sum -> average
+                
+        ParameterSweep.Row row = new ParameterSweep.Row();
+        row.job = jobNumber;
+        row.trial = trial + 1;
+        row.seed = simState.seed();
+        row.values = values;
+        simState.finish();
+        return row;
         }
     }
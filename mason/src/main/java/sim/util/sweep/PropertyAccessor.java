@@ -0,0 +1,108 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import sim.util.*;
+
+/**
+   A PropertyAccessor reads and writes a single numerical or boolean property of a model as a double.
+   The property's type, and where possible a MethodHandle for its get method, are resolved once
+   when the PropertyAccessor is built, so that reading the property at every step of a sweep
+   involves no string comparisons, no reflective lookups, and no boxing.  Properties which cannot be
+   resolved to a public get method are read through Properties.getValue(...) instead.
+*/
+
+class PropertyAccessor
+    {
+    static final MethodHandle BOOLEAN_TO_DOUBLE;
+    static
+        {
+        try
+            {
+            BOOLEAN_TO_DOUBLE = MethodHandles.lookup().findStatic(PropertyAccessor.class, "booleanToDouble", 
+                MethodType.methodType(Double.TYPE, Boolean.TYPE));
+            }
+        catch (Exception e)
+            {
+            throw new RuntimeException(e);  // never happens
+            }
+        }
+    static double booleanToDouble(boolean val) { return val ? 1 : 0; }
+    
+    Properties properties;
+    int index;
+    Class type;
+    MethodHandle getter;        // (Object)double, or null if we must go through properties.getValue(...)
+    Object target;              // the object on which getter is invoked
+        
+    public PropertyAccessor(Properties properties, int index)
+        {
+        this.properties = properties;
+        this.index = index;
+        type = properties.getType(index);
+        if (!(type == Boolean.TYPE || type == Double.TYPE || type == Float.TYPE || type == Long.TYPE || 
+                type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE))
+            throw new RuntimeException("Unsupported type " + type + " for property " + properties.getName(index));
+            
+        if (properties instanceof SimpleProperties)
+            {
+            Method method = ((SimpleProperties)properties).getGetMethod(index);
+            if (method != null)
+                {
+                try
+                    {
+                    MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+                    if (type == Boolean.TYPE)
+                        handle = MethodHandles.filterReturnValue(
+                            handle.asType(MethodType.methodType(Boolean.TYPE, Object.class)), BOOLEAN_TO_DOUBLE);
+                    else 
+                        handle = handle.asType(MethodType.methodType(Double.TYPE, Object.class));
+                    getter = handle;
+                    target = properties.getObject();
+                    }
+                catch (IllegalAccessException e) { }            // not public: use properties.getValue(...)
+                catch (WrongMethodTypeException e) { }          // likewise
+                }
+            }
+        }
+    
+    /** Returns the current value of the property. */
+    public double get()
+        {
+        if (getter != null)
+            {
+            try
+                {
+                return (double)(getter.invokeExact(target));
+                }
+            catch (Throwable e)
+                {
+                throw new RuntimeException("Could not read property " + properties.getName(index), e);
+                }
+            }
+            
+        Object val = properties.getValue(index);
+        if (val instanceof Boolean) return ((Boolean)val).booleanValue() ? 1 : 0;
+        else return ((Number)val).doubleValue();
+        }
+        
+    /** Sets the property to the given value, cast to the property's type.  Booleans are set to true if the value is nonzero. */
+    public void set(double value)
+        {
+        Object val;
+        if (type == Boolean.TYPE) val = Boolean.valueOf(value != 0);
+        else if (type == Double.TYPE) val = Double.valueOf(value);
+        else if (type == Float.TYPE) val = Float.valueOf((float)value);
+        else if (type == Long.TYPE) val = Long.valueOf((long)value);
+        else if (type == Integer.TYPE) val = Integer.valueOf((int)value);
+        else if (type == Short.TYPE) val = Short.valueOf((short)value);
+        else val = Byte.valueOf((byte)value);
+        properties.setValue(index, val);
+        }
+    }
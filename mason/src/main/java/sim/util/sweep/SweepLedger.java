@@ -0,0 +1,240 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import sim.engine.*;
+
+/**
+   A SweepLedger is a durable record of the jobs which a ParameterSweep has finished, kept in a
+   text file next to the sweep's output (the output file name plus LEDGER_POSTFIX).  The first line of the
+   ledger is a signature describing the sweep; each following line holds one finished job's row of results:
+   the job number, trial, seed, and values, separated by spaces.  Each line is flushed as soon as
+   it is written.  When a ParameterSweep with the same signature is run again, it reads the ledger,
+   writes the rows it holds to the new output, and skips their jobs.  Lines which were cut short by a
+   crash are discarded.
+   
+   <p>The SweepLedger also manages per-job checkpoints.  If the sweep has a checkpoint interval,
+   each job periodically writes its SimState, together with the number of steps it has done and its
+   partial statistics, to its own checkpoint file.  A rerun resumes an unfinished job from its checkpoint
+   rather than from the beginning.  A job's checkpoint is deleted once its row is in the ledger.
+   
+   <p>When a sweep finishes all of its jobs, the ledger is deleted.
+*/
+
+class SweepLedger
+    {
+    public static final String LEDGER_POSTFIX = ".ledger";
+    public static final String CHECKPOINT_POSTFIX = ".checkpoint";
+    static final String HEADER = "MASON-SWEEP-LEDGER ";
+        
+    String outFile;
+    File file;
+    String signature;
+    int numValues;
+    BitSet completed = new BitSet();
+    ArrayList<ParameterSweep.Row> rows = new ArrayList<ParameterSweep.Row>();
+    Writer writer;
+    StringBuilder builder = new StringBuilder();
+        
+    /** A job's checkpoint: the SimState, the next step to do, and the partial row of values. */
+    static class Checkpoint
+        {
+        SimState state;
+        int step;
+        double[] values;
+        }
+        
+    /** Opens the ledger for the given output file, loading it if it exists and has the given signature.
+        Otherwise a new, empty ledger is started, and any checkpoints are ignored. */
+    public SweepLedger(String outFile, String signature, int numValues) throws IOException
+        {
+        this.outFile = outFile;
+        this.file = new File(outFile + LEDGER_POSTFIX);
+        this.signature = signature;
+        this.numValues = numValues;
+        
+        boolean matches = false;
+        if (file.exists())
+            {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try
+                {
+                String line = reader.readLine();
+                matches = (line != null && line.equals(HEADER + signature));
+                if (matches)
+                    while((line = reader.readLine()) != null)
+                        {
+                        ParameterSweep.Row row = parse(line);
+                        if (row != null && !completed.get(row.job))
+                            {
+                            completed.set(row.job);
+                            rows.add(row);
+                            }
+                        }
+                }
+            finally
+                {
+                reader.close();
+                }
+            }
+        
+        // Rewrite the ledger with just the valid rows, so that a torn last line isn't glued onto the next one
+        File temp = new File(outFile + LEDGER_POSTFIX + ".tmp");
+        writer = new BufferedWriter(new FileWriter(temp));
+        writer.write(HEADER + signature + "\n");
+        for(int i = 0; i < rows.size(); i++)
+            writer.write(format((ParameterSweep.Row)(rows.get(i))));
+        writer.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        writer = new BufferedWriter(new FileWriter(file, true));
+        
+        if (!matches)
+            deleteAllCheckpoints();
+        }
+    
+    ParameterSweep.Row parse(String line)
+        {
+        String[] tokens = line.trim().split(" ");
+        if (tokens.length != numValues + 3) return null;
+        try
+            {
+            ParameterSweep.Row row = new ParameterSweep.Row();
+            row.job = Integer.parseInt(tokens[0]);
+            row.trial = Integer.parseInt(tokens[1]);
+            row.seed = Long.parseLong(tokens[2]);
+            row.values = new double[numValues];
+            for(int i = 0; i < numValues; i++)
+                row.values[i] = Double.parseDouble(tokens[i + 3]);
+            return (row.job >= 0 ? row : null);
+            }
+        catch (NumberFormatException e)
+            {
+            return null;
+            }
+        }
+    
+    String format(ParameterSweep.Row row)
+        {
+        builder.setLength(0);
+        builder.append(row.job).append(' ').append(row.trial).append(' ').append(row.seed);
+        for(int i = 0; i < row.values.length; i++)
+            builder.append(' ').append(row.values[i]);     // Double.toString(...) round-trips exactly
+        builder.append('\n');
+        return builder.toString();
+        }
+    
+    /** Returns true if the ledger holds a row for the given job. */
+    public boolean isCompleted(int job) { return completed.get(job); }
+    
+    /** Returns the number of jobs in the ledger. */
+    public int getNumCompleted() { return rows.size(); }
+        
+    /** Returns the rows loaded from the ledger when it was opened, sorted by job number. */
+    public ParameterSweep.Row[] getCompletedRows() 
+        {
+        ParameterSweep.Row[] r = (ParameterSweep.Row[])(rows.toArray(new ParameterSweep.Row[rows.size()]));
+        Arrays.sort(r, new Comparator<ParameterSweep.Row>()
+            {
+            public int compare(ParameterSweep.Row a, ParameterSweep.Row b) { return Integer.compare(a.job, b.job); }
+            });
+        return r;
+        }
+    
+    /** Durably records a finished row, then deletes its job's checkpoint, if any.  Only one thread should call this method. */
+    public void record(ParameterSweep.Row row) throws IOException
+        {
+        writer.write(format(row));
+        writer.flush();
+        getCheckpointFile(row.job).delete();
+        }
+        
+    /** Closes the ledger.  If the sweep is finished, the ledger is deleted. */
+    public void close(boolean finished) throws IOException
+        {
+        writer.close();
+        if (finished)
+            {
+            file.delete();
+            deleteAllCheckpoints();
+            }
+        }
+    
+    File getCheckpointFile(int job)
+        {
+        return new File(outFile + ".job" + job + CHECKPOINT_POSTFIX);
+        }
+    
+    void deleteAllCheckpoints()
+        {
+        File f = new File(outFile).getAbsoluteFile();
+        final String prefix = f.getName() + ".job";
+        File[] files = f.getParentFile().listFiles(new FilenameFilter()
+            {
+            public boolean accept(File dir, String name) { return name.startsWith(prefix) && name.endsWith(CHECKPOINT_POSTFIX); }
+            });
+        if (files != null)
+            for(int i = 0; i < files.length; i++)
+                files[i].delete();
+        }
+    
+    /** Writes a checkpoint for the given job.  The checkpoint is written to a temporary file and then
+        moved into place, so a crash while writing leaves the previous checkpoint intact. */
+    public void writeCheckpoint(int job, int step, double[] values, SimState state) throws IOException
+        {
+        File f = getCheckpointFile(job);
+        File temp = new File(f.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try
+            {
+            DataOutputStream data = new DataOutputStream(out);       // unbuffered so it can be followed by the SimState
+            data.writeInt(step);
+            data.writeInt(values.length);
+            for(int i = 0; i < values.length; i++)
+                data.writeDouble(values[i]);
+            data.flush();
+            state.writeToCheckpoint(out);
+            }
+        finally
+            {
+            out.close();
+            }
+        Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    
+    /** Reads the checkpoint for the given job, or returns null if there is none or it cannot be read. */
+    public Checkpoint readCheckpoint(int job)
+        {
+        File f = getCheckpointFile(job);
+        if (!f.exists()) return null;
+        try
+            {
+            FileInputStream in = new FileInputStream(f);
+            try
+                {
+                DataInputStream data = new DataInputStream(in);     // unbuffered so it doesn't read into the SimState
+                Checkpoint checkpoint = new Checkpoint();
+                checkpoint.step = data.readInt();
+                checkpoint.values = new double[data.readInt()];
+                for(int i = 0; i < checkpoint.values.length; i++)
+                    checkpoint.values[i] = data.readDouble();
+                checkpoint.state = SimState.readFromCheckpoint(in);
+                return checkpoint;
+                }
+            finally
+                {
+                in.close();
+                }
+            }
+        catch (Exception e)
+            {
+            return null;       // a damaged checkpoint just means we start the job over
+            }
+        }
+    }
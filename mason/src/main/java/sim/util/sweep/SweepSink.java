@@ -0,0 +1,35 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.sweep;
+
+import java.io.*;
+
+/**
+   A SweepSink receives the results of a ParameterSweep, one row per completed job.  Each row consists
+   of the job number, the trial number (starting at 1), the random number seed, and a double[] of values:
+   first the values of the independent variables, then for each dependent variable its final, minimum,
+   maximum, and average values, then (if the sweep records every <i>mod</i> steps) the values of each
+   dependent variable at each recorded step.
+   
+   <p>A ParameterSweep calls all of these methods from a single thread, so a SweepSink need not be
+   synchronized.  The values array passed to write(...) is a fresh one for each row and is not reused by
+   the sweep, so you may keep it; but the same array is then recorded in the sweep's SweepLedger, so don't
+   modify it.
+*/
+
+public interface SweepSink
+    {
+    /** Called once before any rows are written.  columns holds the names of all the columns, beginning
+        with "job", "trial", and "rng", and followed by one name for each of the values in a row. */
+    public void open(String[] columns) throws IOException;
+        
+    /** Writes one row. */
+    public void write(int job, int trial, long seed, double[] values) throws IOException;
+        
+    /** Called once after all rows have been written, or after the sweep was stopped. */
+    public void close() throws IOException;
+    }